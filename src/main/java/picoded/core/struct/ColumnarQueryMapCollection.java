@@ -0,0 +1,787 @@
+package picoded.core.struct;
+
+import java.math.BigDecimal;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+import picoded.core.struct.query.Aggregation;
+import picoded.core.struct.query.OrderBy;
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.QueryUtils;
+import picoded.core.struct.query.internal.AggregationUtils;
+import picoded.core.struct.query.internal.BoundedTopK;
+import picoded.core.struct.query.internal.ColumnVector;
+import picoded.core.struct.query.internal.FieldPath;
+import picoded.core.struct.query.mapreduce.MapReduceBase;
+
+/**
+ * In memory columnar table of maps, for large collections of rows with the same fields,
+ * for example
+ *
+ * ```
+ * ColumnarQueryMapCollection orders = new ColumnarQueryMapCollection(orderList);
+ * List<GenericConvertMap<String, Object>> res = orders.query("status = ?",
+ * 	new Object[] { "open" }, "amount DESC", 0, 10);
+ * BigDecimal[] total = orders.aggregate(new String[] { "sum(amount)" }, "status = ?",
+ * 	new Object[] { "open" });
+ * ```
+ *
+ * Each field is stored as a single column (see ColumnVector), of primitive long / double
+ * values, dictionary encoded strings, or any other objects, with a bitmap of the rows which
+ * has a value. Added maps are copied into the columns, and rows are read back as lightweight
+ * GenericConvertMap views of the columns.
+ *
+ * Queries are evaluated column by column, into a selection bitmap of the matching rows,
+ * where AND / OR / NOT combinations are done with bitwise operations. Conditions which
+ * cannot be done on a column (such as nested field paths), are tested on each row view.
+ * Aggregations read the column values of the selected rows directly.
+ *
+ * Note that integral numbers are read back as Long, and floating point numbers as Double.
+ * Removed rows are only reclaimed on compact(), which invalidates all existing row views.
+ * This collection is not thread safe.
+ **/
+public class ColumnarQueryMapCollection extends
+	AbstractCollection<GenericConvertMap<String, Object>> implements
+	QueryMapCollection<GenericConvertMap<String, Object>> {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The columns of each field, in the order they were added
+	 **/
+	protected Map<String, ColumnVector> columns = new LinkedHashMap<String, ColumnVector>();
+	
+	/**
+	 * Number of rows stored, including removed rows
+	 **/
+	protected int rowCount = 0;
+	
+	/**
+	 * Bitmap of rows, which are not removed
+	 **/
+	protected long[] live = new long[1];
+	
+	/**
+	 * Number of rows, which are not removed
+	 **/
+	protected int liveCount = 0;
+	
+	/**
+	 * Incremented on every compact (and clear), which invalidates existing row views
+	 **/
+	protected int generation = 0;
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Blank collection constructor
+	 **/
+	public ColumnarQueryMapCollection() {
+		super();
+	}
+	
+	/**
+	 * Constructor, with the initial maps to add
+	 *
+	 * @param  maps to add
+	 **/
+	public ColumnarQueryMapCollection(Iterable<? extends Map<String, ?>> values) {
+		super();
+		for (Map<String, ?> val : values) {
+			addRow(val);
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Column storage
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  the field names of every column
+	 **/
+	public Set<String> columnNames() {
+		return Collections.unmodifiableSet(columns.keySet());
+	}
+	
+	/**
+	 * @param  field name of the column
+	 *
+	 * @return  the column, null if no row has the field
+	 **/
+	public ColumnVector column(String fieldName) {
+		return columns.get(fieldName);
+	}
+	
+	/**
+	 * @param  row id to get from
+	 * @param  field name to get
+	 *
+	 * @return  the field value of the row, null if it does not exist
+	 **/
+	protected Object getValue(int rowId, String fieldName) {
+		ColumnVector column = columns.get(fieldName);
+		return (column == null) ? null : column.get(rowId);
+	}
+	
+	/**
+	 * Sets the field value of the row, converting the column if needed
+	 *
+	 * @param  row id to set
+	 * @param  field name to set
+	 * @param  value to set, null to remove the field
+	 **/
+	protected void setValue(int rowId, String fieldName, Object value) {
+		if (fieldName == null) {
+			throw new IllegalArgumentException("Unable to store null field name");
+		}
+		
+		ColumnVector column = columns.get(fieldName);
+		if (value == null) {
+			if (column != null) {
+				column.set(rowId, null);
+			}
+			return;
+		}
+		
+		if (column == null) {
+			column = ColumnVector.forValue(fieldName, value, rowCount);
+			columns.put(fieldName, column);
+		} else if (!column.accepts(value)) {
+			column = column.toObjectColumn(rowCount);
+			columns.put(fieldName, column);
+		}
+		column.set(rowId, value);
+	}
+	
+	/**
+	 * @param  row id to check
+	 *
+	 * @return  true if the row is not removed
+	 **/
+	protected boolean isLive(int rowId) {
+		return ColumnVector.getBit(live, rowId);
+	}
+	
+	//--------------------------------------------------------------------
+	// Row views
+	//--------------------------------------------------------------------
+	
+	/**
+	 * GenericConvertMap view of a single row, which reads (and writes) the columns directly
+	 **/
+	protected class RowView implements GenericConvertMap<String, Object> {
+		
+		protected final int rowId;
+		protected final int viewGeneration;
+		
+		protected RowView(int rowId) {
+			this.rowId = rowId;
+			this.viewGeneration = generation;
+		}
+		
+		/**
+		 * @return  the row id, after validating the view is still usable
+		 **/
+		protected int rowId() {
+			if (viewGeneration != generation) {
+				throw new IllegalStateException("Row view is no longer valid, after compaction");
+			}
+			return rowId;
+		}
+		
+		/**
+		 * @return  the collection of the row
+		 **/
+		protected ColumnarQueryMapCollection collection() {
+			return ColumnarQueryMapCollection.this;
+		}
+		
+		@Override
+		public Object get(Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			return getValue(rowId(), (String) key);
+		}
+		
+		@Override
+		public Object put(String key, Object value) {
+			int row = rowId();
+			if (!isLive(row)) {
+				throw new IllegalStateException("Unable to modify a removed row");
+			}
+			Object old = getValue(row, key);
+			setValue(row, key, value);
+			return old;
+		}
+		
+		@Override
+		public Object remove(Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			return put((String) key, null);
+		}
+		
+		@Override
+		public Set<String> keySet() {
+			int row = rowId();
+			Set<String> ret = new LinkedHashSet<String>();
+			for (ColumnVector column : columns.values()) {
+				if (column.has(row)) {
+					ret.add(column.name());
+				}
+			}
+			return ret;
+		}
+		
+		/**
+		 * Map equality, of the row values (as per the Map contract). Rows are identified
+		 * by their view instead (see viewRowId), for the collection remove / contains.
+		 **/
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof Map)) {
+				return false;
+			}
+			Map<?, ?> other = (Map<?, ?>) obj;
+			Set<String> keys = keySet();
+			if (other.size() != keys.size()) {
+				return false;
+			}
+			// Every key in the key set has a non null value
+			for (String key : keys) {
+				if (!get(key).equals(other.get(key))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		@Override
+		public int hashCode() {
+			int ret = 0;
+			for (String key : keySet()) {
+				ret += key.hashCode() ^ get(key).hashCode();
+			}
+			return ret;
+		}
+		
+		@Override
+		public String toString() {
+			Map<String, Object> ret = new LinkedHashMap<String, Object>();
+			for (String key : keySet()) {
+				ret.put(key, get(key));
+			}
+			return ret.toString();
+		}
+	}
+	
+	/**
+	 * @param  view to get the row id from
+	 *
+	 * @return  the row id of the view, -1 if its not a valid row of this collection
+	 **/
+	protected int viewRowId(Object view) {
+		if (!(view instanceof ColumnarQueryMapCollection.RowView)) {
+			return -1;
+		}
+		RowView row = (RowView) view;
+		if (row.collection() != this || row.viewGeneration != generation || !isLive(row.rowId)) {
+			return -1;
+		}
+		return row.rowId;
+	}
+	
+	//--------------------------------------------------------------------
+	// Collection operations
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Copies the map values into a new row
+	 *
+	 * @param  map to add
+	 *
+	 * @return  the view of the added row
+	 **/
+	public GenericConvertMap<String, Object> addRow(Map<String, ?> value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Unable to add null value");
+		}
+		
+		int rowId = rowCount++;
+		if (ColumnVector.wordCount(rowCount) > live.length) {
+			live = Arrays.copyOf(live, live.length * 2);
+		}
+		ColumnVector.setBit(live, rowId);
+		++liveCount;
+		
+		for (Map.Entry<String, ?> entry : value.entrySet()) {
+			if (entry.getValue() != null) {
+				setValue(rowId, entry.getKey(), entry.getValue());
+			}
+		}
+		return new RowView(rowId);
+	}
+	
+	/**
+	 * Copies the map values into a new row
+	 *
+	 * @param  map to add
+	 *
+	 * @return  true, as the row is always added
+	 **/
+	@Override
+	public boolean add(GenericConvertMap<String, Object> value) {
+		addRow(value);
+		return true;
+	}
+	
+	/**
+	 * Removes the row, of the given row view
+	 *
+	 * @param  row view to remove
+	 *
+	 * @return  true if it was removed
+	 **/
+	@Override
+	public boolean remove(Object value) {
+		int rowId = viewRowId(value);
+		if (rowId < 0) {
+			return false;
+		}
+		removeRow(rowId);
+		return true;
+	}
+	
+	/**
+	 * Removes the row, clearing its column values
+	 **/
+	protected void removeRow(int rowId) {
+		ColumnVector.clearBit(live, rowId);
+		--liveCount;
+		for (ColumnVector column : columns.values()) {
+			if (column.has(rowId)) {
+				column.set(rowId, null);
+			}
+		}
+	}
+	
+	/**
+	 * @param  row view to check
+	 *
+	 * @return  true if the row view is in the collection
+	 **/
+	@Override
+	public boolean contains(Object value) {
+		return viewRowId(value) >= 0;
+	}
+	
+	/**
+	 * Removes all rows, and columns. This invalidates all existing row views.
+	 **/
+	@Override
+	public void clear() {
+		columns = new LinkedHashMap<String, ColumnVector>();
+		rowCount = 0;
+		live = new long[1];
+		liveCount = 0;
+		++generation;
+	}
+	
+	/**
+	 * Reclaims the storage of removed rows, by rebuilding the columns.
+	 * This invalidates all existing row views.
+	 **/
+	public void compact() {
+		Map<String, ColumnVector> oldColumns = columns;
+		long[] oldLive = live;
+		int oldCount = rowCount;
+		
+		clear();
+		for (int i = 0; i < oldCount; ++i) {
+			if (!ColumnVector.getBit(oldLive, i)) {
+				continue;
+			}
+			Map<String, Object> row = new LinkedHashMap<String, Object>();
+			for (ColumnVector column : oldColumns.values()) {
+				Object val = column.get(i);
+				if (val != null) {
+					row.put(column.name(), val);
+				}
+			}
+			addRow(row);
+		}
+	}
+	
+	/**
+	 * @return  number of rows in the collection
+	 **/
+	@Override
+	public int size() {
+		return liveCount;
+	}
+	
+	/**
+	 * @return  iterator of row views, in insertion order
+	 **/
+	@Override
+	public Iterator<GenericConvertMap<String, Object>> iterator() {
+		return new Iterator<GenericConvertMap<String, Object>>() {
+			int pos = nextRow(0);
+			int last = -1;
+			
+			@Override
+			public boolean hasNext() {
+				return pos < rowCount;
+			}
+			
+			@Override
+			public GenericConvertMap<String, Object> next() {
+				if (pos >= rowCount) {
+					throw new NoSuchElementException();
+				}
+				last = pos;
+				pos = nextRow(pos + 1);
+				return new RowView(last);
+			}
+			
+			@Override
+			public void remove() {
+				if (last < 0 || !isLive(last)) {
+					throw new IllegalStateException();
+				}
+				removeRow(last);
+				last = -1;
+			}
+		};
+	}
+	
+	/**
+	 * Gets the next non removed row position
+	 **/
+	protected int nextRow(int pos) {
+		while (pos < rowCount && !isLive(pos)) {
+			++pos;
+		}
+		return pos;
+	}
+	
+	//--------------------------------------------------------------------
+	// Query selection
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Evaluates the query, into a selection bitmap of the matching rows
+	 *
+	 * @param   queryClause to evaluate, null to select every row
+	 *
+	 * @return  bitmap of the matching row positions (in insertion order)
+	 **/
+	public BitSet select(Query queryClause) {
+		return BitSet.valueOf(selection(queryClause));
+	}
+	
+	/**
+	 * Evaluates the query, into a selection bitmap of the matching rows
+	 *
+	 * @param   queryClause to evaluate, null to select every row
+	 *
+	 * @return  selection bitmap, of 64 rows per long word
+	 **/
+	protected long[] selection(Query queryClause) {
+		int words = ColumnVector.wordCount(rowCount);
+		long[] ret = new long[words];
+		if (queryClause != null) {
+			evaluate(queryClause, ret);
+		} else {
+			Arrays.fill(ret, -1L);
+		}
+		for (int w = 0; w < words; ++w) {
+			ret[w] &= live[w];
+		}
+		return ret;
+	}
+	
+	/**
+	 * Evaluates the query into the result bitmap. Bits of removed rows are not meaningful,
+	 * and are cleared by selection.
+	 *
+	 * @param   query to evaluate
+	 * @param   result selection bitmap, to overwrite
+	 **/
+	protected void evaluate(Query query, long[] result) {
+		int words = result.length;
+		
+		// AND / OR / NOT combinations, with bitwise operations
+		QueryType type = query.type();
+		if (query.isCombinationOperator()
+			&& (type == QueryType.AND || type == QueryType.OR || type == QueryType.NOT)) {
+			// Blank combinations are a failure
+			List<Query> children = query.childrenQuery();
+			if (children.isEmpty()) {
+				Arrays.fill(result, 0L);
+				return;
+			}
+			
+			evaluate(children.get(0), result);
+			long[] childResult = new long[words];
+			for (int i = 1; i < children.size(); ++i) {
+				evaluate(children.get(i), childResult);
+				if (type == QueryType.AND) {
+					for (int w = 0; w < words; ++w) {
+						result[w] &= childResult[w];
+					}
+				} else {
+					for (int w = 0; w < words; ++w) {
+						result[w] |= childResult[w];
+					}
+				}
+			}
+			
+			// NOT passes, if every child fails
+			if (type == QueryType.NOT) {
+				for (int w = 0; w < words; ++w) {
+					result[w] = ~result[w];
+				}
+			}
+			return;
+		}
+		
+		// Basic operator, on a single column
+		if (query.isBasicOperator() && isColumnField(query.fieldName())) {
+			ColumnVector column = columns.get(query.fieldName());
+			boolean nullResult = query.test(Collections.emptyMap());
+			if (column == null) {
+				Arrays.fill(result, nullResult ? -1L : 0L);
+				return;
+			}
+			
+			column.select(query, rowCount, result);
+			if (nullResult) {
+				long[] present = column.presentBitmap();
+				for (int w = 0; w < words; ++w) {
+					result[w] |= ~((w < present.length) ? present[w] : 0L);
+				}
+			}
+			return;
+		}
+		
+		// Fallback, of testing each row view
+		Arrays.fill(result, 0L);
+		for (int i = nextRow(0); i < rowCount; i = nextRow(i + 1)) {
+			if (query.test(new RowView(i))) {
+				ColumnVector.setBit(result, i);
+			}
+		}
+	}
+	
+	/**
+	 * @param  field name to check
+	 *
+	 * @return  true if the field value, is the value of its column (if any)
+	 **/
+	protected static boolean isColumnField(String fieldName) {
+		return fieldName != null && fieldName.length() > 0 && !FieldPath.isNestedPath(fieldName)
+			&& !"this".equalsIgnoreCase(fieldName) && !"_key".equalsIgnoreCase(fieldName)
+			&& !"_val".equalsIgnoreCase(fieldName);
+	}
+	
+	/**
+	 * Calls the consumer, with every selected row id (in insertion order)
+	 *
+	 * @param  selection bitmap
+	 * @param  consumer of the row ids
+	 **/
+	protected static void forEachRow(long[] selection, IntConsumer consumer) {
+		for (int w = 0; w < selection.length; ++w) {
+			long bits = selection[w];
+			while (bits != 0) {
+				consumer.accept((w << 6) + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+	}
+	
+	/**
+	 * @param  selection bitmap
+	 *
+	 * @return  number of selected rows
+	 **/
+	protected static int cardinality(long[] selection) {
+		int ret = 0;
+		for (long word : selection) {
+			ret += Long.bitCount(word);
+		}
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Query command support
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Searches using the query, returning the matching row views
+	 *
+	 * @param   queryClause, of where query statement and value
+	 *
+	 * @return  matching row views, in insertion order
+	 **/
+	public List<GenericConvertMap<String, Object>> search(Query queryClause) {
+		long[] sel = selection(queryClause);
+		List<GenericConvertMap<String, Object>> ret = new ArrayList<GenericConvertMap<String, Object>>(
+			cardinality(sel));
+		forEachRow(sel, (row) -> ret.add(new RowView(row)));
+		return ret;
+	}
+	
+	/**
+	 * Performs a search query, and returns the respective row views.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  filtered and sorted row view list
+	 **/
+	@Override
+	public List<GenericConvertMap<String, Object>> query(Query queryClause, String orderByStr,
+		int offset, int limit) {
+		// Sorted page, with top K selection
+		if (limit >= 1 && orderByStr != null && orderByStr.trim().length() > 0) {
+			BoundedTopK<GenericConvertMap<String, Object>> topK = new BoundedTopK<>(
+				new OrderBy<GenericConvertMap<String, Object>>(orderByStr.trim()), offset, limit);
+			forEachRow(selection(queryClause), (row) -> topK.accept(new RowView(row)));
+			return topK.toList();
+		}
+		return QueryUtils.sortAndOffsetList(search(queryClause), orderByStr, offset, limit);
+	}
+	
+	/**
+	 * Performs a search query, and returns the number of matching rows
+	 *
+	 * @param   queryClause, of where query statement and value
+	 *
+	 * @return  number of matching rows
+	 **/
+	public long queryCount(Query queryClause) {
+		return cardinality(selection(queryClause));
+	}
+	
+	/**
+	 * Performs a search query, and returns the number of matching rows
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 *
+	 * @return  number of matching rows
+	 **/
+	public long queryCount(String whereClause, Object[] whereValues) {
+		return queryCount((whereClause == null) ? null : Query.build(whereClause, whereValues));
+	}
+	
+	//--------------------------------------------------------------------
+	// Aggregation command support
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Performs a query, and aggregate the matching rows accordingly.
+	 *
+	 * Each aggregation term is computed one column at a time, reading the column values
+	 * of the selected rows directly (without the row views), in insertion order. Long and
+	 * double columns are mapped as primitive values (see MapReduceBase.mapLong / mapDouble).
+	 * Wildcard and nested field terms, are mapped with the row views instead.
+	 *
+	 * @param aggregationTerms to aggregate data with
+	 * @param queryClause to filter the collection with, can be null
+	 *
+	 * @return Aggregation result to the corresponding terms
+	 **/
+	@Override
+	public BigDecimal[] aggregate(String[] aggregationTerms, Query queryClause) {
+		Aggregation aggregation = Aggregation.build(aggregationTerms);
+		MapReduceBase[] partial = aggregation.preparePartial();
+		String[] fieldNames = aggregation.fieldNames();
+		
+		// There is no data at all, this is consistent with Aggregation.compute
+		long[] sel = selection(queryClause);
+		if (cardinality(sel) == 0) {
+			return AggregationUtils.computeMapReduceBase(partial, fieldNames,
+				new ArrayList<Object>());
+		}
+		
+		for (int i = 0; i < partial.length; ++i) {
+			MapReduceBase mapreduce = partial[i];
+			String fieldName = fieldNames[i];
+			if (isColumnField(fieldName) && !"*".equals(fieldName)) {
+				ColumnVector column = columns.get(fieldName);
+				if (column instanceof ColumnVector.LongColumn) {
+					ColumnVector.LongColumn longColumn = (ColumnVector.LongColumn) column;
+					forEachRow(sel, (row) -> {
+						if (longColumn.has(row)) {
+							mapreduce.mapLong(longColumn.getLong(row));
+						} else {
+							mapreduce.mapValue(null);
+						}
+					});
+				} else if (column instanceof ColumnVector.DoubleColumn) {
+					ColumnVector.DoubleColumn doubleColumn = (ColumnVector.DoubleColumn) column;
+					forEachRow(sel, (row) -> {
+						if (doubleColumn.has(row)) {
+							mapreduce.mapDouble(doubleColumn.getDouble(row));
+						} else {
+							mapreduce.mapValue(null);
+						}
+					});
+				} else {
+					forEachRow(sel, (row) -> mapreduce.mapValue((column == null) ? null : column
+						.get(row)));
+				}
+			} else {
+				forEachRow(sel, (row) -> mapreduce.map(new RowView(row), fieldName));
+			}
+		}
+		return aggregation.reducePartial(partial);
+	}
+	
+	/**
+	 * Performs a query, and aggregate the matching row views for each group accordingly
+	 *
+	 * @param aggregationTerms to aggregate data with
+	 * @param groupByFields to group the data by
+	 * @param queryClause to filter the collection with, can be null
+	 * @param havingClause to filter the group result rows with, can be null
+	 * @param orderByStr to sort the group result rows with, can be null
+	 *
+	 * @return Result row of each group, see GroupedAggregation
+	 **/
+	@Override
+	public List<Map<String, Object>> aggregate(String[] aggregationTerms, String[] groupByFields,
+		Query queryClause, Query havingClause, String orderByStr) {
+		long[] sel = selection(queryClause);
+		return Aggregation.build(aggregationTerms).groupBy(groupByFields).having(havingClause)
+			.orderBy(orderByStr).compute((consumer) -> {
+				forEachRow(sel, (row) -> consumer.accept(new RowView(row)));
+			});
+	}
+}
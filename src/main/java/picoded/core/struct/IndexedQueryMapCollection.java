@@ -0,0 +1,918 @@
+package picoded.core.struct;
+
+import java.math.BigDecimal;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import picoded.core.struct.query.Aggregation;
+import picoded.core.struct.query.MaterializedAggregation;
+import picoded.core.struct.query.OrderBy;
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryProfile;
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.QueryUtils;
+import picoded.core.struct.query.index.BitmapFieldIndex;
+import picoded.core.struct.query.index.FieldIndex;
+import picoded.core.struct.query.index.HashFieldIndex;
+import picoded.core.struct.query.index.RoaringBitmap;
+import picoded.core.struct.query.index.RowIdSet;
+import picoded.core.struct.query.index.SortedFieldIndex;
+import picoded.core.struct.query.internal.BoundedTopK;
+import picoded.core.struct.query.internal.FieldPath;
+import picoded.core.struct.query.internal.QueryOptimizer;
+
+/**
+ * In memory collection of maps, with secondary indexes on declared fields, for example
+ *
+ * ```
+ * IndexedQueryMapCollection<Map<String, Object>> users = new IndexedQueryMapCollection<>();
+ * users.createHashIndex("id");
+ * users.createSortedIndex("age");
+ * users.addAll(userList);
+ *
+ * List<Map<String, Object>> res = users.query("id = ?", new Object[] { "abc" }, null, -1, -1);
+ * ```
+ *
+ * + Hash indexes are used for equality (=) conditions
+ * + Sorted indexes are used for range (<, <=, >, >=) conditions
+ * + Bitmap indexes are used for any condition, on low cardinality fields
+ *
+ * Queries which consist only of AND / OR / NOT combinations, of conditions on bitmap indexed
+ * fields, are answered exactly with bitmap operations, without testing any row. For AND
+ * combinations, the bitmap of every such child is also intersected as candidate rows.
+ *
+ * Queries which consist only of AND combinations, are planned using their fieldQueryMap,
+ * where the candidate rows of every usable index are intersected. Only the candidate rows
+ * are then tested against the full query. All other queries are done with a full scan.
+ *
+ * Materialized aggregations can also be declared (see createMaterializedAggregation),
+ * which are updated incrementally as maps are added / removed, instead of a full scan.
+ *
+ * Note that maps are tracked by their instance (not map equality), and that a map which
+ * is modified after being added, needs to be reindexed (see reindex).
+ * This collection is not thread safe.
+ **/
+public class IndexedQueryMapCollection<V extends Map<String, Object>> extends AbstractCollection<V>
+	implements QueryMapCollection<V> {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Minimum number of removed rows, before compaction is considered
+	 **/
+	protected static final int COMPACTION_THRESHOLD = 1024;
+	
+	/**
+	 * The stored rows, in insertion order, where removed rows are null
+	 **/
+	protected ArrayList<V> rows = new ArrayList<V>();
+	
+	/**
+	 * The row id of every stored map instance
+	 **/
+	protected IdentityHashMap<V, Integer> rowIdMap = new IdentityHashMap<V, Integer>();
+	
+	/**
+	 * Number of removed rows, which are not compacted yet
+	 **/
+	protected int removedCount = 0;
+	
+	/**
+	 * The declared indexes, for each field
+	 **/
+	protected Map<String, List<FieldIndex>> fieldIndexes = new HashMap<String, List<FieldIndex>>();
+	
+	/**
+	 * Number of declared bitmap indexes
+	 **/
+	protected int bitmapIndexCount = 0;
+	
+	/**
+	 * Parsed field path of each indexed field, for nested fields
+	 **/
+	protected Map<String, FieldPath> indexPaths = new HashMap<String, FieldPath>();
+	
+	/**
+	 * The declared materialized aggregations
+	 **/
+	protected List<MaterializedAggregation> materializedAggregations = new ArrayList<>();
+	
+	/**
+	 * Number of modifications (add, remove, clear, and reindex) made to the collection
+	 **/
+	protected long modificationCount = 0;
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Blank collection constructor
+	 **/
+	public IndexedQueryMapCollection() {
+		super();
+	}
+	
+	/**
+	 * Constructor, with the initial maps to add
+	 *
+	 * @param  maps to add
+	 **/
+	public IndexedQueryMapCollection(Iterable<? extends V> values) {
+		super();
+		for (V val : values) {
+			add(val);
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Index declaration
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Declares a hash index for equality conditions on the field,
+	 * indexing all the existing maps
+	 *
+	 * @param  field name to index
+	 **/
+	public void createHashIndex(String fieldName) {
+		createIndex(new HashFieldIndex(fieldName));
+	}
+	
+	/**
+	 * Declares a sorted index for range conditions on the field,
+	 * indexing all the existing maps
+	 *
+	 * @param  field name to index
+	 **/
+	public void createSortedIndex(String fieldName) {
+		createIndex(new SortedFieldIndex(fieldName));
+	}
+	
+	/**
+	 * Declares a bitmap index for conditions on a low cardinality field,
+	 * indexing all the existing maps
+	 *
+	 * @param  field name to index
+	 **/
+	public void createBitmapIndex(String fieldName) {
+		createIndex(new BitmapFieldIndex(fieldName));
+	}
+	
+	/**
+	 * Declares a custom field index, indexing all the existing maps
+	 *
+	 * @param  the field index to add
+	 **/
+	public void createIndex(FieldIndex index) {
+		String fieldName = index.fieldName();
+		if (fieldName == null || "this".equalsIgnoreCase(fieldName)
+			|| "_key".equalsIgnoreCase(fieldName) || "_val".equalsIgnoreCase(fieldName)) {
+			throw new RuntimeException("Unable to index reserved field name : " + fieldName);
+		}
+		
+		List<FieldIndex> indexList = fieldIndexes.get(fieldName);
+		if (indexList == null) {
+			indexList = new ArrayList<FieldIndex>();
+			fieldIndexes.put(fieldName, indexList);
+		}
+		indexList.add(index);
+		if (index instanceof BitmapFieldIndex) {
+			++bitmapIndexCount;
+		}
+		
+		// Index the existing rows
+		FieldPath path = FieldPath.of(fieldName);
+		indexPaths.put(fieldName, path);
+		int len = rows.size();
+		for (int i = 0; i < len; ++i) {
+			V row = rows.get(i);
+			if (row != null) {
+				index.add(i, path.get(row));
+			}
+		}
+	}
+	
+	/**
+	 * @return  the declared indexes, for each field
+	 **/
+	public Map<String, List<FieldIndex>> fieldIndexes() {
+		return fieldIndexes;
+	}
+	
+	//--------------------------------------------------------------------
+	// Materialized aggregation declaration
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Declares a materialized aggregation, of the maps matching the where clause.
+	 * Which is updated incrementally as maps are added / removed.
+	 *
+	 * @param   aggregationTerms to aggregate data with
+	 * @param   where query statement, null to aggregate every map
+	 * @param   where clause values array
+	 *
+	 * @return  the materialized aggregation, to get the result from
+	 **/
+	public MaterializedAggregation createMaterializedAggregation(String[] aggregationTerms,
+		String whereClause, Object[] whereValues) {
+		Query queryObj = null;
+		if (whereClause != null) {
+			queryObj = Query.build(whereClause, whereValues);
+		}
+		return createMaterializedAggregation(aggregationTerms, queryObj);
+	}
+	
+	/**
+	 * Declares a materialized aggregation, of the maps matching the where clause.
+	 * Which is updated incrementally as maps are added / removed.
+	 *
+	 * @param   aggregationTerms to aggregate data with
+	 * @param   queryClause to filter the maps with, null to aggregate every map
+	 *
+	 * @return  the materialized aggregation, to get the result from
+	 **/
+	public MaterializedAggregation createMaterializedAggregation(String[] aggregationTerms,
+		Query queryClause) {
+		MaterializedAggregation view = new MaterializedAggregation(aggregationTerms, queryClause,
+			(consumer) -> {
+				if (queryClause == null) {
+					for (V row : rows) {
+						if (row != null) {
+							consumer.accept(row);
+						}
+					}
+				} else {
+					search(queryClause, consumer::accept);
+				}
+			});
+		view.recompute();
+		materializedAggregations.add(view);
+		return view;
+	}
+	
+	/**
+	 * Removes a declared materialized aggregation, which will no longer be updated
+	 *
+	 * @param   the materialized aggregation to remove
+	 *
+	 * @return  true if it was removed
+	 **/
+	public boolean dropMaterializedAggregation(MaterializedAggregation view) {
+		return materializedAggregations.remove(view);
+	}
+	
+	//--------------------------------------------------------------------
+	// Index updates
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds the row to all indexes
+	 **/
+	protected void indexRow(int rowId, V row) {
+		for (Map.Entry<String, List<FieldIndex>> entry : fieldIndexes.entrySet()) {
+			Object value = indexPaths.get(entry.getKey()).get(row);
+			for (FieldIndex index : entry.getValue()) {
+				index.add(rowId, value);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the row from all indexes
+	 **/
+	protected void unindexRow(int rowId) {
+		for (List<FieldIndex> indexList : fieldIndexes.values()) {
+			for (FieldIndex index : indexList) {
+				index.remove(rowId);
+			}
+		}
+	}
+	
+	/**
+	 * Updates the indexes of a map, which was modified after it was added.
+	 * Materialized aggregations are recomputed on their next read.
+	 *
+	 * @param  the modified map
+	 *
+	 * @return  true if the map is in the collection
+	 **/
+	public boolean reindex(V value) {
+		Integer rowId = rowIdMap.get(value);
+		if (rowId == null) {
+			return false;
+		}
+		unindexRow(rowId);
+		indexRow(rowId, value);
+		++modificationCount;
+		for (MaterializedAggregation view : materializedAggregations) {
+			view.invalidate();
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes all the removed rows, and rebuild the indexes
+	 **/
+	protected void compact() {
+		ArrayList<V> oldRows = rows;
+		rows = new ArrayList<V>(oldRows.size() - removedCount);
+		rowIdMap = new IdentityHashMap<V, Integer>();
+		removedCount = 0;
+		for (List<FieldIndex> indexList : fieldIndexes.values()) {
+			for (FieldIndex index : indexList) {
+				index.clear();
+			}
+		}
+		for (V row : oldRows) {
+			if (row != null) {
+				int rowId = rows.size();
+				rows.add(row);
+				rowIdMap.put(row, rowId);
+				indexRow(rowId, row);
+			}
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Collection operations
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds the map, if its instance is not already in the collection
+	 *
+	 * @param  map to add
+	 *
+	 * @return  true if it was added
+	 **/
+	@Override
+	public boolean add(V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Unable to add null value");
+		}
+		if (rowIdMap.containsKey(value)) {
+			return false;
+		}
+		int rowId = rows.size();
+		rows.add(value);
+		rowIdMap.put(value, rowId);
+		indexRow(rowId, value);
+		++modificationCount;
+		for (MaterializedAggregation view : materializedAggregations) {
+			view.add(value);
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the map instance from the collection
+	 *
+	 * @param  map to remove
+	 *
+	 * @return  true if it was removed
+	 **/
+	@Override
+	public boolean remove(Object value) {
+		Integer rowId = rowIdMap.remove(value);
+		if (rowId == null) {
+			return false;
+		}
+		unindexRow(rowId);
+		rows.set(rowId, null);
+		++removedCount;
+		++modificationCount;
+		for (MaterializedAggregation view : materializedAggregations) {
+			view.remove(value);
+		}
+		
+		// Compact the rows, once half of it is removed
+		if (removedCount >= COMPACTION_THRESHOLD && removedCount * 2 > rows.size()) {
+			compact();
+		}
+		return true;
+	}
+	
+	/**
+	 * @param  map to check
+	 *
+	 * @return  true if the map instance is in the collection
+	 **/
+	@Override
+	public boolean contains(Object value) {
+		return rowIdMap.containsKey(value);
+	}
+	
+	/**
+	 * Removes all maps, while keeping the declared indexes
+	 **/
+	@Override
+	public void clear() {
+		rows = new ArrayList<V>();
+		rowIdMap = new IdentityHashMap<V, Integer>();
+		removedCount = 0;
+		for (List<FieldIndex> indexList : fieldIndexes.values()) {
+			for (FieldIndex index : indexList) {
+				index.clear();
+			}
+		}
+		++modificationCount;
+		for (MaterializedAggregation view : materializedAggregations) {
+			view.clear();
+		}
+	}
+	
+	/**
+	 * @return  number of maps in the collection
+	 **/
+	@Override
+	public int size() {
+		return rowIdMap.size();
+	}
+	
+	/**
+	 * Modification counter, which changes on every add, remove, clear, and reindex.
+	 * This can be used to invalidate cached query results (see QueryResultCache).
+	 *
+	 * @return  number of modifications made to the collection
+	 **/
+	public long modificationCount() {
+		return modificationCount;
+	}
+	
+	/**
+	 * @return  iterator of maps, in insertion order
+	 **/
+	@Override
+	public Iterator<V> iterator() {
+		return new Iterator<V>() {
+			int pos = nextRow(0);
+			V last = null;
+			
+			@Override
+			public boolean hasNext() {
+				return pos < rows.size();
+			}
+			
+			@Override
+			public V next() {
+				if (pos >= rows.size()) {
+					throw new NoSuchElementException();
+				}
+				last = rows.get(pos);
+				pos = nextRow(pos + 1);
+				return last;
+			}
+			
+			@Override
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				// Compaction would shift the row positions, so its done without it
+				Integer rowId = rowIdMap.remove(last);
+				unindexRow(rowId);
+				rows.set(rowId, null);
+				++removedCount;
+				++modificationCount;
+				for (MaterializedAggregation view : materializedAggregations) {
+					view.remove(last);
+				}
+				last = null;
+			}
+		};
+	}
+	
+	/**
+	 * Gets the next non removed row position
+	 **/
+	protected int nextRow(int pos) {
+		int len = rows.size();
+		while (pos < len && rows.get(pos) == null) {
+			++pos;
+		}
+		return pos;
+	}
+	
+	//--------------------------------------------------------------------
+	// Query planning
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Indicates if the query consist of only AND combinations, of basic operators
+	 *
+	 * @param  query to check
+	 *
+	 * @return  true if all the basic operators must match
+	 **/
+	protected static boolean isConjunctive(Query query) {
+		if (query.isBasicOperator()) {
+			return true;
+		}
+		if (!query.isCombinationOperator() || query.type() != QueryType.AND) {
+			return false;
+		}
+		for (Query child : query.childrenQuery()) {
+			if (!isConjunctive(child)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the candidate rows for the query, using the declared indexes
+	 *
+	 * @param  query to plan for
+	 *
+	 * @return  candidate row ids (a superset of the matching rows), null if a full scan is needed
+	 **/
+	protected RowIdSet candidateRows(Query query) {
+		return candidateRows(query, null);
+	}
+	
+	/**
+	 * Gets the candidate rows for the query, using the declared indexes
+	 *
+	 * @param  query to plan for
+	 * @param  list to add the description of each index lookup used, can be null
+	 *
+	 * @return  candidate row ids (a superset of the matching rows), null if a full scan is needed
+	 **/
+	protected RowIdSet candidateRows(Query query, List<String> indexPath) {
+		if (fieldIndexes.isEmpty() || !isConjunctive(query)) {
+			return null;
+		}
+		
+		RowIdSet ret = null;
+		for (Map.Entry<String, List<Query>> entry : query.fieldQueryMap().entrySet()) {
+			List<FieldIndex> indexList = fieldIndexes.get(entry.getKey());
+			if (indexList == null) {
+				continue;
+			}
+			
+			for (Query condition : entry.getValue()) {
+				for (FieldIndex index : indexList) {
+					// Bitmap indexes are intersected with bitmapCandidates instead
+					if (index instanceof BitmapFieldIndex) {
+						continue;
+					}
+					RowIdSet found = index.lookup(condition);
+					if (found == null) {
+						continue;
+					}
+					if (indexPath != null) {
+						indexPath.add(index.getClass().getSimpleName() + " " + condition);
+					}
+					ret = (ret == null) ? found : ret.intersect(found);
+					if (ret.isEmpty()) {
+						return ret;
+					}
+					break;
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param  field name of the index
+	 *
+	 * @return  the bitmap index of the field, null if there is none
+	 **/
+	protected BitmapFieldIndex bitmapIndex(String fieldName) {
+		List<FieldIndex> indexList = fieldIndexes.get(fieldName);
+		if (indexList != null) {
+			for (FieldIndex index : indexList) {
+				if (index instanceof BitmapFieldIndex) {
+					return (BitmapFieldIndex) index;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return  all rows of a bitmap index (as every row is in all indexes), which
+	 *          must not be modified
+	 **/
+	protected RoaringBitmap allBitmapRows() {
+		for (List<FieldIndex> indexList : fieldIndexes.values()) {
+			for (FieldIndex index : indexList) {
+				if (index instanceof BitmapFieldIndex) {
+					return ((BitmapFieldIndex) index).allRows();
+				}
+			}
+		}
+		return new RoaringBitmap();
+	}
+	
+	/**
+	 * Gets the exact matching rows of the query, using only the bitmap indexes
+	 *
+	 * @param  query to evaluate
+	 *
+	 * @return  bitmap of the matching row ids, null if the query has a condition
+	 *          (or combination) which cannot be done with the bitmap indexes
+	 **/
+	protected RoaringBitmap bitmapRows(Query query) {
+		if (query.isBasicOperator()) {
+			BitmapFieldIndex index = bitmapIndex(query.fieldName());
+			return (index == null) ? null : index.lookupBitmap(query);
+		}
+		
+		QueryType type = query.type();
+		if (!query.isCombinationOperator()
+			|| !(type == QueryType.AND || type == QueryType.OR || type == QueryType.NOT)) {
+			return null;
+		}
+		
+		// Blank combinations are a failure
+		List<Query> children = query.childrenQuery();
+		if (children.isEmpty()) {
+			return new RoaringBitmap();
+		}
+		
+		RoaringBitmap ret = null;
+		for (Query child : children) {
+			RoaringBitmap found = bitmapRows(child);
+			if (found == null) {
+				return null;
+			}
+			if (ret == null) {
+				ret = found;
+			} else {
+				ret = (type == QueryType.AND) ? ret.and(found) : ret.or(found);
+			}
+		}
+		
+		// NOT passes, if every child fails
+		if (type == QueryType.NOT) {
+			ret = allBitmapRows().andNot(ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the candidate rows of an AND query, from the children which can be done
+	 * exactly with the bitmap indexes
+	 *
+	 * @param  query to plan for
+	 *
+	 * @return  candidate row ids (a superset of the matching rows), null if there is none
+	 **/
+	protected RoaringBitmap bitmapCandidates(Query query) {
+		if (!query.isCombinationOperator() || query.type() != QueryType.AND) {
+			return null;
+		}
+		RoaringBitmap ret = null;
+		for (Query child : query.childrenQuery()) {
+			RoaringBitmap found = bitmapRows(child);
+			if (found != null) {
+				ret = (ret == null) ? found : ret.and(found);
+			}
+		}
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Query command support
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Searches using the query, with the declared indexes where possible
+	 *
+	 * @param   queryClause, of where query statement and value
+	 *
+	 * @return  matching maps, in insertion order
+	 **/
+	public List<V> search(Query queryClause) {
+		List<V> ret = new ArrayList<V>();
+		search(queryClause, ret::add);
+		return ret;
+	}
+	
+	/**
+	 * Searches using the query, with the declared indexes where possible,
+	 * and passes each matching map (in insertion order) to the consumer
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   consumer of the matching maps
+	 **/
+	protected void search(Query queryClause, Consumer<V> consumer) {
+		search(queryClause, consumer, null);
+	}
+	
+	/**
+	 * Searches using the query, with the declared indexes where possible,
+	 * and passes each matching map (in insertion order) to the consumer.
+	 *
+	 * When a profile is given, the query is tested with its profiled predicate,
+	 * and the index path chosen is recorded.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   consumer of the matching maps
+	 * @param   profile of the query, null if not profiling
+	 *
+	 * @return  number of rows tested against the query
+	 **/
+	protected long search(Query queryClause, Consumer<V> consumer, QueryProfile profile) {
+		// Exact bitmap index result, without testing any row
+		if (bitmapIndexCount > 0) {
+			RoaringBitmap exact = bitmapRows(queryClause);
+			if (exact != null) {
+				if (profile != null) {
+					profile.recordIndexPath("BitmapFieldIndex exact result, "
+						+ exact.cardinality() + " rows");
+				}
+				exact.forEach((rowId) -> consumer.accept(rows.get(rowId)));
+				return 0;
+			}
+		}
+		
+		// Candidate rows, of the hash / sorted, and bitmap indexes
+		List<String> indexPath = (profile != null) ? new ArrayList<String>() : null;
+		RowIdSet candidates = candidateRows(queryClause, indexPath);
+		RoaringBitmap bitmapCandidates = (bitmapIndexCount > 0) ? bitmapCandidates(queryClause)
+			: null;
+		if (bitmapCandidates != null) {
+			RowIdSet found = bitmapCandidates.toRowIdSet();
+			candidates = (candidates == null) ? found : candidates.intersect(found);
+			if (indexPath != null) {
+				indexPath.add("BitmapFieldIndex candidates");
+			}
+		}
+		
+		// Full scan
+		if (candidates == null) {
+			Predicate<Object> predicate = (profile != null) ? profile.predicate(this)
+				: QueryOptimizer.searchPredicate(queryClause, this);
+			if (profile != null) {
+				profile.recordIndexPath("full scan");
+			}
+			if (predicate == QueryOptimizer.NEVER) {
+				return 0;
+			}
+			for (V row : rows) {
+				if (row != null && predicate.test(row)) {
+					consumer.accept(row);
+				}
+			}
+			return size();
+		}
+		
+		// Verify the candidate rows only
+		Predicate<Object> predicate = (profile != null) ? profile.predicate(this) : queryClause
+			.optimize();
+		int len = candidates.size();
+		if (profile != null) {
+			profile.recordIndexPath(String.join(", ", indexPath) + ", " + len + " candidate rows");
+		}
+		for (int i = 0; i < len; ++i) {
+			V row = rows.get(candidates.get(i));
+			if (row != null && predicate.test(row)) {
+				consumer.accept(row);
+			}
+		}
+		return len;
+	}
+	
+	/**
+	 * Counts the maps matching the query, with the declared indexes where possible.
+	 * Queries answered exactly by the bitmap indexes, are counted without reading any map.
+	 *
+	 * @param   queryClause, of where query statement and value, null to count every map
+	 *
+	 * @return  number of matching maps
+	 **/
+	public long queryCount(Query queryClause) {
+		if (queryClause == null) {
+			return size();
+		}
+		if (bitmapIndexCount > 0) {
+			RoaringBitmap exact = bitmapRows(queryClause);
+			if (exact != null) {
+				return exact.cardinality();
+			}
+		}
+		long[] count = new long[] { 0 };
+		search(queryClause, (row) -> ++count[0]);
+		return count[0];
+	}
+	
+	/**
+	 * Counts the maps matching the query, with the declared indexes where possible.
+	 *
+	 * @param   where query statement, null to count every map
+	 * @param   where clause values array
+	 *
+	 * @return  number of matching maps
+	 **/
+	public long queryCount(String whereClause, Object[] whereValues) {
+		return queryCount((whereClause == null) ? null : Query.build(whereClause, whereValues));
+	}
+	
+	/**
+	 * Performs a search query, with the declared indexes where possible,
+	 * and returns the respective value list.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  filtered and sorted Value list
+	 **/
+	@Override
+	public List<V> query(Query queryClause, String orderByStr, int offset, int limit) {
+		if (queryClause == null) {
+			return QueryMapCollection.super.query(null, orderByStr, offset, limit);
+		}
+		
+		// Sorted page, with top K selection
+		if (limit >= 1 && orderByStr != null && orderByStr.trim().length() > 0) {
+			BoundedTopK<V> topK = new BoundedTopK<V>(new OrderBy<V>(orderByStr.trim()), offset,
+				limit);
+			search(queryClause, topK);
+			return topK.toList();
+		}
+		return QueryUtils.sortAndOffsetList(search(queryClause), orderByStr, offset, limit);
+	}
+	
+	/**
+	 * Performs a profiled search query (see QueryProfile), with the declared indexes
+	 * where possible, and returns the respective value list.
+	 *
+	 * @param   profile of the query to search with
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  filtered and sorted Value list
+	 **/
+	@Override
+	public List<V> profileQuery(QueryProfile profile, String orderByStr, int offset, int limit) {
+		long start = System.nanoTime();
+		List<V> ret = new ArrayList<V>();
+		long scanned = search(profile.query(), ret::add, profile);
+		profile.recordSearch(scanned, ret.size(), System.nanoTime() - start);
+		return profile.sortAndOffset(ret, orderByStr, offset, limit);
+	}
+	
+	//--------------------------------------------------------------------
+	// Aggregation command support
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Performs a query, with the declared indexes where possible,
+	 * and aggregate the matching maps (without collecting them) accordingly
+	 *
+	 * @param aggregationTerms to aggregate data with
+	 * @param queryClause to filter the collection with, can be null
+	 * 
+	 * @return Aggregation result to the corresponding terms
+	 **/
+	@Override
+	public BigDecimal[] aggregate(String[] aggregationTerms, Query queryClause) {
+		if (queryClause == null) {
+			return scanAggregate(aggregationTerms, null);
+		}
+		return Aggregation.build(aggregationTerms).compute((consumer) -> {
+			search(queryClause, consumer::accept);
+		});
+	}
+	
+	/**
+	 * Performs a query, with the declared indexes where possible,
+	 * and aggregate the matching maps (without collecting them) for each group accordingly
+	 *
+	 * @param aggregationTerms to aggregate data with
+	 * @param groupByFields to group the data by
+	 * @param queryClause to filter the collection with, can be null
+	 * @param havingClause to filter the group result rows with, can be null
+	 * @param orderByStr to sort the group result rows with, can be null
+	 * 
+	 * @return Result row of each group, see GroupedAggregation
+	 **/
+	@Override
+	public List<Map<String, Object>> aggregate(String[] aggregationTerms, String[] groupByFields,
+		Query queryClause, Query havingClause, String orderByStr) {
+		if (queryClause == null) {
+			return scanAggregate(aggregationTerms, groupByFields, null,
+				havingClause, orderByStr);
+		}
+		return Aggregation.build(aggregationTerms).groupBy(groupByFields).having(havingClause)
+			.orderBy(orderByStr).compute((consumer) -> {
+				search(queryClause, consumer::accept);
+			});
+	}
+}
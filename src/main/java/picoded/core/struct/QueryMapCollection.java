@@ -5,9 +5,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
+import picoded.core.struct.query.Aggregation;
+import picoded.core.struct.query.GroupedAggregation;
 import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryProfile;
 import picoded.core.struct.query.QueryUtils;
+import picoded.core.struct.query.internal.ParallelSearch;
+import picoded.core.struct.query.internal.QueryOptimizer;
 
 /**
  * Query and aggregation interface for a collection of maps
@@ -22,6 +28,7 @@ public interface QueryMapCollection<V extends Map> extends Collection<V> {
 	 * Performs a search query, and returns the respective value list.
 	 * 
 	 * Note : When extending this class, with custom query handlers (like mysql), you should only replace this function.
+	 * The default aggregate functions filter with this, while scanAggregate does not.
 	 *
 	 * @param   queryClause, of where query statement and value
 	 * @param   orderByStr string to sort the order by, use null to ignore
@@ -32,6 +39,11 @@ public interface QueryMapCollection<V extends Map> extends Collection<V> {
 	 **/
 	@SuppressWarnings("unchecked")
 	default List<V> query(Query queryClause, String orderByStr, int offset, int limit) {
+		// Paged query, which does not need the full filtered list
+		if (limit >= 1) {
+			return QueryUtils.searchSortAndOffset(queryClause, this, orderByStr, offset, limit);
+		}
+		
 		// Get the collection as a filteredlist
 		List<V> queryList = null;
 		
@@ -43,14 +55,30 @@ public interface QueryMapCollection<V extends Map> extends Collection<V> {
 				queryList = new ArrayList<V>(this);
 			}
 		} else {
-			// Else : Lets query it
-			queryList = queryClause.search(this);
+			// Else : Lets query it, this is done in parallel for large collections,
+			// and sequentially otherwise (with the same result order)
+			queryList = queryClause.parallelSearch(this);
 		}
 		
 		// Sort, and offset list, after the query
 		return QueryUtils.sortAndOffsetList(queryList, orderByStr, offset, limit);
 	}
 	
+	/**
+	 * Performs a profiled search query (see QueryProfile), and returns the respective value list.
+	 * The search is done sequentially, with its statistics recorded in the profile.
+	 *
+	 * @param   profile of the query to search with
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  filtered and sorted Value list
+	 **/
+	default List<V> profileQuery(QueryProfile profile, String orderByStr, int offset, int limit) {
+		return profile.sortAndOffset(profile.search(this), orderByStr, offset, limit);
+	}
+	
 	/**
 	 * Performs a search query, and returns the respective value list.
 	 *
@@ -84,22 +112,60 @@ public interface QueryMapCollection<V extends Map> extends Collection<V> {
 	 * Performs a query, and aggregate the result accordingly
 	 * 
 	 * Note : When extending this class, with custom aggregation handlers (like hazelcast), you should only replace this function.
+	 * 
+	 * The query results are fetched with query(), so that custom query handlers are used,
+	 * while a null query aggregates the whole collection (see scanAggregate).
+	 * Implementations which use the default in-memory query(), may replace this with
+	 * scanAggregate instead, to aggregate without collecting the query results.
 	 *
 	 * @param aggregationTerms to aggregate data with
 	 * @param queryClause to filter the collection with, can be null
 	 * 
 	 * @return Aggregation result to the corresponding terms
 	 */
-	@SuppressWarnings("unchecked")
 	default BigDecimal[] aggregate(String[] aggregationTerms, Query queryClause) {
-		// Aggregate everything directly, if no query is passed
 		if (queryClause == null) {
-			return QueryUtils.aggregate((Collection<Object>) (Object) (this), aggregationTerms);
+			return scanAggregate(aggregationTerms, null);
+		}
+		return Aggregation.build(aggregationTerms).compute(query(queryClause, null, -1, -1), null);
+	}
+	
+	/**
+	 * Scans the collection, and aggregate the values matching the query accordingly.
+	 * 
+	 * The query is tested, and the matching values aggregated in a single pass,
+	 * without collecting the query results into an intermediate list. Large collections
+	 * (of at least 2 chunks, see ParallelSearch) are aggregated in parallel, into partial
+	 * results of each chunk, which are then combined.
+	 * 
+	 * This does not use query(), and should only replace aggregate, for implementations
+	 * which use the default in-memory query()
+	 *
+	 * @param aggregationTerms to aggregate data with
+	 * @param queryClause to filter the collection with, can be null
+	 * 
+	 * @return Aggregation result to the corresponding terms
+	 */
+	default BigDecimal[] scanAggregate(String[] aggregationTerms, Query queryClause) {
+		Aggregation aggregation = Aggregation.build(aggregationTerms);
+		
+		// Sequential aggregation with fused query filtering, for small collections
+		if (!isParallelAggregation()) {
+			return aggregation.compute(this, (queryClause == null) ? null : QueryOptimizer
+				.searchPredicate(queryClause, this));
 		}
 		
-		// Aggregate with query results
-		List<V> queryList = query(queryClause, null, -1, -1);
-		return QueryUtils.aggregate((Collection<Object>) (Object) (queryList), aggregationTerms);
+		// Parallel aggregation, with a predicate shared across the tasks
+		return aggregation.parallelCompute(this, (queryClause == null) ? null : ParallelSearch
+			.sharedPredicate(queryClause, this), ParallelSearch.DEFAULT_MIN_CHUNK, null);
+	}
+	
+	/**
+	 * @return  true, if the collection is large enough to be aggregated in parallel
+	 **/
+	default boolean isParallelAggregation() {
+		return ParallelSearch.isParallelWorthwhile(size(), ParallelSearch.DEFAULT_MIN_CHUNK,
+			ForkJoinPool.commonPool());
 	}
 	
 	/**
@@ -136,4 +202,83 @@ public interface QueryMapCollection<V extends Map> extends Collection<V> {
 		return aggregate(aggregationTerms, null);
 	}
 	
+	/**
+	 * Performs a query, and aggregate the result for each group accordingly
+	 * 
+	 * Note : When extending this class, with custom aggregation handlers, you should only replace this function (for grouped aggregation).
+	 * 
+	 * The query results are fetched with query(), so that custom query handlers are used,
+	 * while a null query aggregates the whole collection (see scanAggregate).
+	 *
+	 * @param aggregationTerms to aggregate data with
+	 * @param groupByFields to group the data by
+	 * @param queryClause to filter the collection with, can be null
+	 * @param havingClause to filter the group result rows with, can be null
+	 * @param orderByStr to sort the group result rows with, can be null
+	 * 
+	 * @return Result row of each group, see GroupedAggregation
+	 */
+	default List<Map<String, Object>> aggregate(String[] aggregationTerms, String[] groupByFields,
+		Query queryClause, Query havingClause, String orderByStr) {
+		if (queryClause == null) {
+			return scanAggregate(aggregationTerms, groupByFields, null, havingClause, orderByStr);
+		}
+		return Aggregation.build(aggregationTerms).groupBy(groupByFields).having(havingClause)
+			.orderBy(orderByStr).compute(query(queryClause, null, -1, -1), null);
+	}
+	
+	/**
+	 * Scans the collection, and aggregate the values matching the query for each group.
+	 * Like scanAggregate(String[], Query), this does not use query(), and should only
+	 * replace aggregate, for implementations which use the default in-memory query()
+	 *
+	 * @param aggregationTerms to aggregate data with
+	 * @param groupByFields to group the data by
+	 * @param queryClause to filter the collection with, can be null
+	 * @param havingClause to filter the group result rows with, can be null
+	 * @param orderByStr to sort the group result rows with, can be null
+	 * 
+	 * @return Result row of each group, see GroupedAggregation
+	 */
+	default List<Map<String, Object>> scanAggregate(String[] aggregationTerms,
+		String[] groupByFields, Query queryClause, Query havingClause, String orderByStr) {
+		// Grouped aggregation to use
+		GroupedAggregation grouped = Aggregation.build(aggregationTerms).groupBy(groupByFields)
+			.having(havingClause).orderBy(orderByStr);
+		
+		// Sequential aggregation with fused query filtering, for small collections
+		if (!isParallelAggregation()) {
+			return grouped.compute(this, (queryClause == null) ? null : QueryOptimizer
+				.searchPredicate(queryClause, this));
+		}
+		
+		// Parallel aggregation, with a predicate shared across the tasks
+		return grouped.parallelCompute(this, (queryClause == null) ? null : ParallelSearch
+			.sharedPredicate(queryClause, this), ParallelSearch.DEFAULT_MIN_CHUNK, null);
+	}
+	
+	/**
+	 * Performs a query, and aggregate the result for each group accordingly
+	 * 
+	 * @param   aggregationTerms to aggregate data with
+	 * @param   groupByFields to group the data by
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * 
+	 * @return Result row of each group, see GroupedAggregation
+	 */
+	default List<Map<String, Object>> aggregate(String[] aggregationTerms, String[] groupByFields,
+		String whereClause, Object[] whereValues) {
+		// Query object to use
+		Query queryObj = null;
+		
+		// Where clause to convert to query object
+		if (whereClause != null) {
+			queryObj = Query.build(whereClause, whereValues);
+		}
+		
+		// Grouped aggregation with query (where applicable)
+		return aggregate(aggregationTerms, groupByFields, queryObj, null, null);
+	}
+	
 }
\ No newline at end of file
@@ -1,13 +1,18 @@
 package picoded.core.struct.query;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import picoded.core.struct.MutablePair;
 import picoded.core.struct.query.mapreduce.*;
 import picoded.core.struct.query.internal.AggregationUtils;
+import picoded.core.struct.query.internal.ParallelSearch;
 
 /**
  * Aggregation library to be used with the query library.
@@ -22,6 +27,23 @@ import picoded.core.struct.query.internal.AggregationUtils;
  * + min(fieldname)
  * + avg(fieldname)
  * + sum(fieldname)
+ * + countDistinct(fieldname), approximated with HyperLogLog for large inputs
+ * + p50(fieldname), p95(fieldname), p99(fieldname), approximated with a t-digest for large inputs
+ *
+ * The approximated functions are computed exactly for small inputs (up to 1024 values),
+ * or for any input size in exact decimal mode (at the cost of keeping every value in memory).
+ *
+ * By default, plain numeric values (Integer, Long, Double, etc) are aggregated with primitive
+ * long / double values, and only converted to BigDecimal for the final result. Integral values,
+ * count, min and max are exact, while sum / avg of Double values are within ~1 ulp of the exact
+ * decimal result (a relative difference of around 1e-15). Use exactDecimal(true) to process
+ * every value as BigDecimal instead.
+ *
+ * For parallel, or distributed aggregation, the partial results (MapReduceBase[], which are
+ * serializable) of each part can be computed with computePartial, then combined together with
+ * combinePartial, and finally reduced with reducePartial.
+ *
+ * For per group results, similar to an SQL "GROUP BY" clause, see groupBy.
  *
  **/
 public class Aggregation {
@@ -42,6 +64,9 @@ public class Aggregation {
 	// Aggregation fuction mapping
 	protected Map<String, MapReduceBase> mapReduceBaseImplementation = null;
 	
+	// Exact decimal mode, where every value is processed as BigDecimal
+	protected boolean exactDecimal = false;
+	
 	/**
 	 * Protected internal constructor
 	 * 
@@ -82,6 +107,44 @@ public class Aggregation {
 		return new Aggregation(queryString);
 	}
 	
+	/**
+	 * Configure the exact decimal mode, where every value is converted to BigDecimal
+	 * before aggregation, instead of using primitive long / double values where possible.
+	 * 
+	 * @param  exactDecimal mode to use
+	 * 
+	 * @return  this aggregation
+	 **/
+	public Aggregation exactDecimal(boolean exactDecimal) {
+		this.exactDecimal = exactDecimal;
+		return this;
+	}
+	
+	/**
+	 * @return  true, if exact decimal mode is used
+	 **/
+	public boolean isExactDecimal() {
+		return exactDecimal;
+	}
+	
+	/**
+	 * @return  the field name of each aggregation term
+	 **/
+	public String[] fieldNames() {
+		return fieldNames.clone();
+	}
+	
+	/**
+	 * Group the aggregation by the given fields, where each group is aggregated seperately.
+	 * 
+	 * @param  groupFields to group by
+	 * 
+	 * @return  grouped aggregation, to compute on
+	 **/
+	public GroupedAggregation groupBy(String... groupFields) {
+		return new GroupedAggregation(this, groupFields);
+	}
+	
 	//--------------------------------------------------------------------
 	// Aggregation computation
 	//--------------------------------------------------------------------
@@ -100,11 +163,193 @@ public class Aggregation {
 		}
 		
 		// 2. Initialize MapReduceBase array implmentations
-		MapReduceBase[] mapreduceArray = AggregationUtils.prepareMapReduceBaseArray(
-			mapReduceBaseImplementation, funcNames);
+		MapReduceBase[] mapreduceArray = preparePartial();
 		
 		// 3. Compute the mapreduceArray and return the result
 		return AggregationUtils.computeMapReduceBase(mapreduceArray, fieldNames, dataSet);
 	}
 	
+	/**
+	 * Compute and get the aggregation result, of the data set values which passes the filter.
+	 * 
+	 * This is done in a single pass, where each value is tested, and aggregated immediately,
+	 * without collecting the filtered values into an intermediate list. The result is the
+	 * same as compute, on the list of filtered values.
+	 * 
+	 * @param  dataSet to compute on
+	 * @param  filter to test each value with, null to compute on every value
+	 * 
+	 * @return  BigDecimal array of the corresponding aggregation result
+	 */
+	public BigDecimal[] compute(Iterable<?> dataSet, Predicate<Object> filter) {
+		// 1. Ensure input safety
+		if (dataSet == null) {
+			throw new RuntimeException("No dataSet given.");
+		}
+		
+		// 2. Pass each value that passes the filter
+		return compute((consumer) -> {
+			for (Object mapDataObj : dataSet) {
+				if (filter == null || filter.test(mapDataObj)) {
+					consumer.accept(mapDataObj);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Compute and get the aggregation result, of the values passed by the data source.
+	 * 
+	 * The data source is called once, with a consumer, to which it passes each value to
+	 * aggregate. This allows the aggregation to be done in the same loop as the data source
+	 * (for example, an index search), without collecting the values into an intermediate list.
+	 * 
+	 * @param  dataSource to pass each value to the given consumer
+	 * 
+	 * @return  BigDecimal array of the corresponding aggregation result
+	 */
+	public BigDecimal[] compute(Consumer<Consumer<Object>> dataSource) {
+		// 1. Initialize MapReduceBase array implmentations
+		MapReduceBase[] mapreduceArray = preparePartial();
+		
+		// 2. Map each value, while counting them
+		long[] count = new long[] { 0 };
+		dataSource.accept((mapDataObj) -> {
+			++count[0];
+			AggregationUtils.mapDataObject(mapreduceArray, fieldNames, mapDataObj);
+		});
+		
+		// 3. There is no data at all, this is consistent with compute
+		if (count[0] == 0) {
+			return AggregationUtils.computeMapReduceBase(mapreduceArray, fieldNames,
+				new ArrayList<Object>());
+		}
+		return reducePartial(mapreduceArray);
+	}
+	
+	/**
+	 * Compute and get the aggregation result from the collection, in parallel (with the
+	 * common fork join pool). Collections smaller than 2 chunks are computed sequentially.
+	 * 
+	 * @param  dataSet to compute on
+	 * 
+	 * @return  BigDecimal array of the corresponding aggregation result
+	 */
+	public BigDecimal[] parallelCompute(Collection<Object> dataSet) {
+		return parallelCompute(dataSet, ParallelSearch.DEFAULT_MIN_CHUNK, null);
+	}
+	
+	/**
+	 * Compute and get the aggregation result from the collection, in parallel.
+	 * The data set is split into parts, each computed into its own partial result,
+	 * which are then combined together.
+	 * 
+	 * @param  dataSet to compute on
+	 * @param  minChunk, minimum number of objects to process per task
+	 * @param  pool, fork join pool to use, null uses the common pool
+	 * 
+	 * @return  BigDecimal array of the corresponding aggregation result
+	 */
+	public BigDecimal[] parallelCompute(Collection<Object> dataSet, int minChunk, ForkJoinPool pool) {
+		return parallelCompute(dataSet, null, minChunk, pool);
+	}
+	
+	/**
+	 * Compute and get the aggregation result, of the data set values which passes the filter,
+	 * in parallel. Each part of the data set is tested, and aggregated in a single pass, into its
+	 * own partial result, which are then combined together. The result is the same as compute,
+	 * on the list of filtered values.
+	 * 
+	 * @param  dataSet to compute on
+	 * @param  filter to test each value with, which must be safe for concurrent use,
+	 *         null to compute on every value
+	 * @param  minChunk, minimum number of objects to process per task
+	 * @param  pool, fork join pool to use, null uses the common pool
+	 * 
+	 * @return  BigDecimal array of the corresponding aggregation result
+	 */
+	public BigDecimal[] parallelCompute(Collection<?> dataSet, Predicate<Object> filter,
+		int minChunk, ForkJoinPool pool) {
+		// 1. Ensure input safety
+		if (dataSet == null) {
+			throw new RuntimeException("No dataSet given.");
+		}
+		
+		// 2. Compute the partial results in parallel
+		MapReduceBase[] mapreduceArray = preparePartial();
+		long count = AggregationUtils.parallelMapMapReduceBase(mapreduceArray, fieldNames, dataSet,
+			filter, minChunk, pool);
+		
+		// 3. There is no data at all, this is consistent with compute
+		if (count == 0) {
+			return AggregationUtils.computeMapReduceBase(preparePartial(), fieldNames,
+				new ArrayList<Object>());
+		}
+		return reducePartial(mapreduceArray);
+	}
+	
+	//--------------------------------------------------------------------
+	// Partial aggregation computation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Prepare a blank partial result, of MapReduceBase implmentations
+	 * 
+	 * @return  MapReduceBase array, for each aggregation term
+	 */
+	public MapReduceBase[] preparePartial() {
+		MapReduceBase[] mapreduceArray = AggregationUtils.prepareMapReduceBaseArray(
+			mapReduceBaseImplementation, funcNames);
+		for (MapReduceBase mapreduce : mapreduceArray) {
+			mapreduce.setExactDecimal(exactDecimal);
+		}
+		return mapreduceArray;
+	}
+	
+	/**
+	 * Compute the partial aggregation result of the collection, without reducing it.
+	 * 
+	 * @param  dataSet to compute on
+	 * 
+	 * @return  MapReduceBase array, for each aggregation term
+	 */
+	public MapReduceBase[] computePartial(Collection<Object> dataSet) {
+		if (dataSet == null) {
+			throw new RuntimeException("No dataSet given.");
+		}
+		MapReduceBase[] mapreduceArray = preparePartial();
+		for (Object mapDataObj : dataSet) {
+			AggregationUtils.mapDataObject(mapreduceArray, fieldNames, mapDataObj);
+		}
+		return mapreduceArray;
+	}
+	
+	/**
+	 * Combines the other partial result, into the first partial result. Where the
+	 * other partial result is treated as computed after the first.
+	 * 
+	 * @param  partial result to combine into
+	 * @param  other partial result to combine from
+	 * 
+	 * @return  the first partial result
+	 */
+	public MapReduceBase[] combinePartial(MapReduceBase[] partial, MapReduceBase[] other) {
+		AggregationUtils.combineMapReduceBase(partial, other);
+		return partial;
+	}
+	
+	/**
+	 * Reduce the partial result, into the aggregation result.
+	 * 
+	 * Note that unlike compute, an empty data set gives null values (instead of 0),
+	 * as the partial results do not track the data set size.
+	 * 
+	 * @param  partial result to reduce
+	 * 
+	 * @return  BigDecimal array of the corresponding aggregation result
+	 */
+	public BigDecimal[] reducePartial(MapReduceBase[] partial) {
+		return AggregationUtils.reduceMapReduceBase(partial);
+	}
+	
 }
\ No newline at end of file
@@ -1,12 +1,9 @@
 package picoded.core.struct.query;
 
-import java.text.Collator;
-import java.text.NumberFormat;
-import java.text.ParseException;
-import java.text.RuleBasedCollator;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.text.CollationKey;
+
+import picoded.core.struct.query.internal.LikeMatcher;
+import picoded.core.struct.query.internal.NormalizedArgument;
 
 /**
  * Comparision utility functions
@@ -46,7 +43,7 @@ public class CompareUtils {
 			return 1;
 		}
 		
-		return stringCompareCollator.compare(o1, o2);
+		return ComparisonEngine.COLLATED.compareString(o1, o2);
 	}
 	
 	/**
@@ -72,7 +69,7 @@ public class CompareUtils {
 			return 1;
 		}
 		
-		return stringCompareCollator.compare(o1, o2);
+		return ComparisonEngine.COLLATED.compareString(o1, o2);
 	}
 	
 	/**
@@ -113,38 +110,22 @@ public class CompareUtils {
 	 * @return -1, 0, or 1 as the first argument is less than, equal to, or greater than the second
 	 **/
 	public static int dynamicCompare(Object o1, Object o2) {
-		// Quick direct equality
-		// also works if both values is null
-		if (o1 == o2) {
-			return 0;
-		}
-		
-		// String type comparision
-		if ( //
-		(o1 instanceof String && o2 instanceof String) || //
-			(o1 instanceof String && o2 == null) || //
-			(o2 instanceof String && o1 == null) //
-		) {
-			return stringCompare( //
-				(o1 != null) ? o1.toString() : null, //
-				(o2 != null) ? o2.toString() : null //
-			);
-		}
-		
-		// Numeric comparision
-		Number n1 = objectToNumberIfPossible(o1);
-		Number n2 = objectToNumberIfPossible(o2);
-		
-		// Tries to numeric compare
-		if (!(n1 == null && n2 == null)) { //
-			return numericCompare(n1, n2);
-		}
-		
-		// fallsback to string
-		return stringCompare( //
-			(o1 != null) ? o1.toString() : null, //
-			(o2 != null) ? o2.toString() : null //
-		);
+		return ComparisonEngine.COLLATED.compare(o1, o2);
+	}
+	
+	/**
+	 * Attempts numeric comparision first, else fallsback to string comparision.
+	 *
+	 * This is the equivalent of dynamicCompare(o1, o2.value), where the numeric parsing,
+	 * and string conversion of the argument value has already been done.
+	 *
+	 * @param o1 - the first object to be compared.
+	 * @param o2 - the normalized argument to be compared.
+	 *
+	 * @return -1, 0, or 1 as the first argument is less than, equal to, or greater than the second
+	 **/
+	public static int dynamicCompareNormalized(Object o1, NormalizedArgument o2) {
+		return ComparisonEngine.COLLATED.compareNormalized(o1, o2);
 	}
 	
 	//--------------------------------------------------------------------
@@ -152,15 +133,16 @@ public class CompareUtils {
 	//-----------------------------------------------------------------
 	
 	/**
-	 * Shared Collator for string compare
-	 **/
-	protected static Collator stringCompareCollator = RuleBasedCollator.getInstance(Locale.ENGLISH);
-	
-	/**
-	 * Number instance for string to numeric
+	 * Gets the collation key of the string, which has the same ordering (and equality)
+	 * as stringCompare, for use as a sorting or hashing key.
+	 *
+	 * @param  string to get the key for
+	 *
+	 * @return the collation key, null if the string is null
 	 **/
-	protected static NumberFormat stringToNumberParser = NumberFormat
-		.getNumberInstance(Locale.ENGLISH);
+	public static CollationKey stringCollationKey(String o) {
+		return ComparisonEngine.COLLATED.collationKey(o);
+	}
 	
 	/**
 	 *
@@ -170,23 +152,34 @@ public class CompareUtils {
 	 *
 	 * @return Number object. Else its null
 	 **/
-	protected static Number objectToNumberIfPossible(Object o) {
-		if (o == null) {
-			return null;
-		}
-		
-		if (o instanceof Number) {
-			return (Number) o;
-		}
-		
-		try {
-			return stringToNumberParser.parse(o.toString());
-		} catch (ParseException e) {
-			return null; //silence ParseException
-		}
+	public static Number objectToNumberIfPossible(Object o) {
+		return ComparisonEngine.COLLATED.toNumber(o);
 	}
 	
+	/**
+	 *
+	 * String SQL 'LIKE' comparision, where '%' matches any sequence of characters
+	 *
+	 * @param o1 - the value to be compared.
+	 * @param o2 - the like pattern to compare against.
+	 *
+	 * @return 0 if it matches, -1 or 1 otherwise (null values are smaller)
+	 **/
 	public static int stringLikeCompare(Object o1, Object o2) {
+		return stringLikeCompare(o1, o2, false);
+	}
+	
+	/**
+	 *
+	 * String SQL 'LIKE' comparision, where '%' matches any sequence of characters
+	 *
+	 * @param o1 - the value to be compared.
+	 * @param o2 - the like pattern to compare against.
+	 * @param caseInsensitive matching
+	 *
+	 * @return 0 if it matches, -1 or 1 otherwise (null values are smaller)
+	 **/
+	public static int stringLikeCompare(Object o1, Object o2, boolean caseInsensitive) {
 		// Null handling
 		if (o1 == null) {
 			// Both equals
@@ -199,10 +192,7 @@ public class CompareUtils {
 			return 1;
 		}
 		
-		Pattern p = Pattern.compile(o2.toString().replaceAll("%", ".*"));
-		Matcher m = p.matcher(o1.toString());
-		
-		if (m.matches()) {
+		if (LikeMatcher.compile(o2.toString(), caseInsensitive).matches(o1.toString())) {
 			return 0;
 		}
 		
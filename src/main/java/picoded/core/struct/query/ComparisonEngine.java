@@ -0,0 +1,296 @@
+package picoded.core.struct.query;
+
+import java.io.Serializable;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+
+import picoded.core.struct.query.internal.NormalizedArgument;
+import picoded.core.struct.query.internal.NumberParser;
+
+/**
+ * Thread safe comparison engine, used by CompareUtils, the query conditions, and OrderBy.
+ *
+ * Values are compared "dynamically", where strings are compared as strings, and everything
+ * else is compared numerically where possible (with strings parsed for their numeric prefix),
+ * before falling back to string comparison.
+ *
+ * Strings are ordered either by
+ *
+ * + COLLATED : locale collation order (the default), with one Collator per thread
+ * + BINARY   : String.compareTo ordinal order, which is considerably faster for ASCII data
+ *
+ * The engine may be extended, with custom string ordering, or number parsing.
+ **/
+public class ComparisonEngine implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	//--------------------------------------------------------------------
+	// String ordering types
+	//--------------------------------------------------------------------
+	
+	/**
+	 * String ordering types
+	 **/
+	public enum StringOrder {
+		COLLATED, BINARY
+	}
+	
+	/**
+	 * Default engine, with english collated string ordering
+	 **/
+	public static final ComparisonEngine COLLATED = new ComparisonEngine(StringOrder.COLLATED,
+		Locale.ENGLISH);
+	
+	/**
+	 * Engine with binary (ordinal) string ordering
+	 **/
+	public static final ComparisonEngine BINARY = new ComparisonEngine(StringOrder.BINARY,
+		Locale.ENGLISH);
+	
+	/**
+	 * Gets the default engine, for the string ordering
+	 *
+	 * @param  string ordering
+	 *
+	 * @return  the comparison engine
+	 **/
+	public static ComparisonEngine of(StringOrder stringOrder) {
+		if (stringOrder == StringOrder.BINARY) {
+			return BINARY;
+		}
+		return COLLATED;
+	}
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * String ordering used
+	 **/
+	protected final StringOrder stringOrder;
+	
+	/**
+	 * Locale used for collation
+	 **/
+	protected final Locale locale;
+	
+	/**
+	 * Collator for string compare, one per thread (as Collator is not thread safe)
+	 **/
+	protected transient ThreadLocal<Collator> collators = null;
+	
+	/**
+	 * Setup the comparison engine
+	 *
+	 * @param  string ordering to use
+	 * @param  locale used for collated string ordering
+	 **/
+	public ComparisonEngine(StringOrder stringOrder, Locale locale) {
+		if (stringOrder == null || locale == null) {
+			throw new IllegalArgumentException("Missing ComparisonEngine string order, or locale");
+		}
+		this.stringOrder = stringOrder;
+		this.locale = locale;
+	}
+	
+	/**
+	 * @return  the string ordering used
+	 **/
+	public StringOrder stringOrder() {
+		return stringOrder;
+	}
+	
+	/**
+	 * @return  true, if strings are ordered by collation
+	 **/
+	public boolean isCollated() {
+		return stringOrder == StringOrder.COLLATED;
+	}
+	
+	/**
+	 * Gets the collator of the current thread
+	 * [to override on extension]
+	 *
+	 * @return  the collator
+	 **/
+	protected Collator collator() {
+		ThreadLocal<Collator> ret = collators;
+		if (ret == null) {
+			ret = ThreadLocal.withInitial(() -> Collator.getInstance(locale));
+			collators = ret;
+		}
+		return ret.get();
+	}
+	
+	//--------------------------------------------------------------------
+	// String comparision
+	//--------------------------------------------------------------------
+	
+	/**
+	 * String comparision, where null values are smaller
+	 * [to override on extension]
+	 *
+	 * @param o1 - the first string to be compared.
+	 * @param o2 - the second string to be compared.
+	 *
+	 * @return negative, 0, or positive as the first argument is less than, equal to, or greater than the second.
+	 **/
+	public int compareString(String o1, String o2) {
+		
+		// Null handling
+		if (o1 == null) {
+			return (o2 == null) ? 0 : -1;
+		} else if (o2 == null) {
+			return 1;
+		}
+		
+		if (stringOrder == StringOrder.BINARY) {
+			return o1.compareTo(o2);
+		}
+		
+		// Equal strings are always equal in collation order
+		if (o1.equals(o2)) {
+			return 0;
+		}
+		return collator().compare(o1, o2);
+	}
+	
+	/**
+	 * Gets the collation key of the string, which has the same ordering (and equality)
+	 * as the collated compareString, for use as a sorting or hashing key.
+	 * [to override on extension]
+	 *
+	 * @param  string to get the key for
+	 *
+	 * @return the collation key, null if the string is null
+	 **/
+	public CollationKey collationKey(String o) {
+		if (o == null) {
+			return null;
+		}
+		return collator().getCollationKey(o);
+	}
+	
+	//--------------------------------------------------------------------
+	// Numeric comparision
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Conversion to numeric format, if possible. Else its null.
+	 * This does not throw (or catch) any exception, for non numeric strings.
+	 * [to override on extension]
+	 *
+	 * @param  object to convert
+	 *
+	 * @return Number object. Else its null
+	 **/
+	public Number toNumber(Object o) {
+		if (o == null) {
+			return null;
+		}
+		if (o instanceof Number) {
+			return (Number) o;
+		}
+		return NumberParser.parse(o.toString());
+	}
+	
+	/**
+	 * Numeric comparision, based on doubleValue, where null values are smaller
+	 *
+	 * @param o1 - the first object to be compared.
+	 * @param o2 - the second object to be compared.
+	 *
+	 * @return -1, 0, or 1 as the first argument is less than, equal to, or greater than the second
+	 **/
+	public int compareNumber(Number o1, Number o2) {
+		
+		// Null handling
+		if (o1 == null) {
+			return (o2 == null) ? 0 : -1;
+		} else if (o2 == null) {
+			return 1;
+		}
+		
+		return Double.compare(o1.doubleValue(), o2.doubleValue());
+	}
+	
+	//--------------------------------------------------------------------
+	// Dynamic comparision
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Attempts numeric comparision first, else fallsback to string comparision
+	 *
+	 * @param o1 - the first object to be compared.
+	 * @param o2 - the second object to be compared.
+	 *
+	 * @return negative, 0, or positive as the first argument is less than, equal to, or greater than the second
+	 **/
+	public int compare(Object o1, Object o2) {
+		// Quick direct equality
+		// also works if both values is null
+		if (o1 == o2) {
+			return 0;
+		}
+		
+		// Pre normalized argument value
+		if (o2 instanceof NormalizedArgument) {
+			return compareNormalized(o1, (NormalizedArgument) o2);
+		}
+		
+		// String type comparision
+		if ((o1 instanceof String && (o2 instanceof String || o2 == null))
+			|| (o2 instanceof String && o1 == null)) {
+			return compareString((String) o1, (String) o2);
+		}
+		
+		// Tries to numeric compare
+		Number n1 = toNumber(o1);
+		Number n2 = toNumber(o2);
+		if (!(n1 == null && n2 == null)) {
+			return compareNumber(n1, n2);
+		}
+		
+		// fallsback to string
+		return compareString( //
+			(o1 != null) ? o1.toString() : null, //
+			(o2 != null) ? o2.toString() : null //
+		);
+	}
+	
+	/**
+	 * Attempts numeric comparision first, else fallsback to string comparision.
+	 *
+	 * This is the equivalent of compare(o1, o2.value), where the numeric parsing,
+	 * and string conversion of the argument value has already been done.
+	 *
+	 * @param o1 - the first object to be compared.
+	 * @param o2 - the normalized argument to be compared.
+	 *
+	 * @return negative, 0, or positive as the first argument is less than, equal to, or greater than the second
+	 **/
+	public int compareNormalized(Object o1, NormalizedArgument o2) {
+		// Quick direct equality
+		if (o1 == o2.value) {
+			return 0;
+		}
+		
+		// String type comparision
+		if ((o1 instanceof String || o1 == null) && o2.isString) {
+			return compareString((String) o1, o2.string);
+		}
+		
+		// Tries to numeric compare
+		Number n1 = toNumber(o1);
+		Number n2 = o2.number;
+		if (!(n1 == null && n2 == null)) {
+			return compareNumber(n1, n2);
+		}
+		
+		// fallsback to string
+		return compareString((o1 != null) ? o1.toString() : null, o2.string);
+	}
+}
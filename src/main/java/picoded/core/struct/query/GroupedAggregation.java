@@ -0,0 +1,396 @@
+package picoded.core.struct.query;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import picoded.core.conv.GenericConvert;
+import picoded.core.struct.query.internal.AggregationUtils;
+import picoded.core.struct.query.internal.FieldPath;
+import picoded.core.struct.query.internal.ParallelSearch;
+import picoded.core.struct.query.internal.SpliteratorTask;
+import picoded.core.struct.query.mapreduce.MapReduceBase;
+
+/**
+ * Grouped aggregation, similar to an SQL "GROUP BY" clause.
+ *
+ * The data set is computed in a single pass, with a hash table of group values,
+ * to the MapReduceBase array of each group. Each group is then returned as a result
+ * row (map), in order of first appearance, unless an orderBy is configured.
+ *
+ * Each result row consists of the group by field values, and the aggregation result
+ * of each term. The aggregation result is stored with both the original term as
+ * the key (eg: "sum(price)"), and its alias (eg: "sum_price"), see `termAlias`.
+ *
+ * As query and orderBy strings cannot refer to a term directly, the having clause, and
+ * orderBy string should use the term alias instead. For example.
+ *
+ * ```
+ * Aggregation.build(new String[] { "count(*)", "sum(price)" }) //
+ * 	.groupBy("tenant", "status") //
+ * 	.having("count_all > ?", new Object[] { 10 }) //
+ * 	.orderBy("sum_price DESC") //
+ * 	.compute(dataSet);
+ * ```
+ **/
+public class GroupedAggregation {
+	
+	//--------------------------------------------------------------------
+	// Protected constructor, for the grouped aggregation class
+	//--------------------------------------------------------------------
+	
+	// The aggregation to compute for each group
+	protected Aggregation aggregation = null;
+	
+	// The fields to group by
+	protected String[] groupFields = null;
+	
+	// The parsed field path, of each group by field
+	protected FieldPath[] groupPaths = null;
+	
+	// The term alias, for each aggregation term
+	protected String[] termAliases = null;
+	
+	// Having clause to filter the result rows with
+	protected Query havingClause = null;
+	
+	// Order by to sort the result rows with
+	protected OrderBy<Map<String, Object>> orderBy = null;
+	
+	/**
+	 * Protected internal constructor, use Aggregation.groupBy instead
+	 *
+	 * @param  aggregation to compute for each group
+	 * @param  groupFields to group by
+	 */
+	protected GroupedAggregation(Aggregation aggregation, String[] groupFields) {
+		// 1. Ensure input safety
+		if (groupFields == null || groupFields.length <= 0) {
+			throw new IllegalArgumentException("Missing group by fields");
+		}
+		
+		// 2. Save the aggregation, and fields
+		this.aggregation = aggregation;
+		this.groupFields = groupFields.clone();
+		groupPaths = new FieldPath[groupFields.length];
+		for (int i = 0; i < groupPaths.length; ++i) {
+			groupPaths[i] = FieldPath.of(groupFields[i]);
+		}
+		
+		// 3. Prepare the term aliases
+		termAliases = new String[aggregation.termsArray.length];
+		for (int i = 0; i < termAliases.length; ++i) {
+			termAliases[i] = termAlias(aggregation.termsArray[i]);
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Term alias handling
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Get the alias of an aggregation term, which can be used within a query, or orderBy.
+	 *
+	 * This is the function and field name, joined with an underscore. With any other
+	 * characters converted to an underscore, and "*" converted to "all".
+	 *
+	 * For example "sum(price)" is "sum_price", "count(*)" is "count_all",
+	 * and "max(item.price)" is "max_item_price"
+	 *
+	 * @param  term to get the alias of
+	 *
+	 * @return  alias of the term
+	 **/
+	public static String termAlias(String term) {
+		String str = term.trim().replace("*", "all");
+		StringBuilder ret = new StringBuilder(str.length());
+		for (int i = 0; i < str.length(); ++i) {
+			char c = str.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				ret.append(c);
+			} else if (ret.length() > 0 && ret.charAt(ret.length() - 1) != '_') {
+				ret.append('_');
+			}
+		}
+		
+		// Remove the trailing underscore, from the closing bracket
+		if (ret.length() > 0 && ret.charAt(ret.length() - 1) == '_') {
+			ret.setLength(ret.length() - 1);
+		}
+		return ret.toString();
+	}
+	
+	/**
+	 * @return  the term alias, of each aggregation term
+	 **/
+	public String[] termAliases() {
+		return termAliases.clone();
+	}
+	
+	/**
+	 * @return  the group by fields
+	 **/
+	public String[] groupFields() {
+		return groupFields.clone();
+	}
+	
+	//--------------------------------------------------------------------
+	// Having and order by configuration
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Configure the having clause, used to filter the result rows (after aggregation)
+	 *
+	 * @param  havingClause query to filter with, null to remove the filter
+	 *
+	 * @return  this grouped aggregation
+	 **/
+	public GroupedAggregation having(Query havingClause) {
+		this.havingClause = havingClause;
+		return this;
+	}
+	
+	/**
+	 * Configure the having clause, used to filter the result rows (after aggregation)
+	 *
+	 * @param  havingClause query string to filter with, null to remove the filter
+	 * @param  havingValues argument values of the query string
+	 *
+	 * @return  this grouped aggregation
+	 **/
+	public GroupedAggregation having(String havingClause, Object[] havingValues) {
+		if (havingClause == null) {
+			return having((Query) null);
+		}
+		return having(Query.build(havingClause, havingValues));
+	}
+	
+	/**
+	 * Configure the order of the result rows
+	 *
+	 * @param  orderByStr to sort the result rows with, null to use the order of first appearance
+	 *
+	 * @return  this grouped aggregation
+	 **/
+	public GroupedAggregation orderBy(String orderByStr) {
+		if (orderByStr == null || orderByStr.trim().isEmpty()) {
+			orderBy = null;
+		} else {
+			orderBy = new OrderBy<Map<String, Object>>(orderByStr);
+		}
+		return this;
+	}
+	
+	//--------------------------------------------------------------------
+	// Grouped aggregation computation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compute and get the grouped aggregation result from the collection
+	 *
+	 * @param  dataSet to compute on
+	 *
+	 * @return  list of result rows, for each group
+	 **/
+	public List<Map<String, Object>> compute(Collection<Object> dataSet) {
+		return compute(dataSet, null);
+	}
+	
+	/**
+	 * Compute and get the grouped aggregation result, of the data set values which passes
+	 * the filter. This is done in a single pass, without collecting the filtered values.
+	 *
+	 * @param  dataSet to compute on
+	 * @param  filter to test each value with, null to compute on every value
+	 *
+	 * @return  list of result rows, for each group
+	 **/
+	public List<Map<String, Object>> compute(Iterable<?> dataSet, Predicate<Object> filter) {
+		// 1. Ensure input safety
+		if (dataSet == null) {
+			throw new RuntimeException("No dataSet given.");
+		}
+		
+		// 2. Pass each value that passes the filter
+		return compute((consumer) -> {
+			for (Object mapDataObj : dataSet) {
+				if (filter == null || filter.test(mapDataObj)) {
+					consumer.accept(mapDataObj);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Compute and get the grouped aggregation result, of the values passed by the data source.
+	 * See Aggregation.compute(Consumer) for details.
+	 *
+	 * @param  dataSource to pass each value to the given consumer
+	 *
+	 * @return  list of result rows, for each group
+	 **/
+	public List<Map<String, Object>> compute(Consumer<Consumer<Object>> dataSource) {
+		// 1. Map each value, into the MapReduceBase array of its group
+		Map<Object, MapReduceBase[]> groupMap = new LinkedHashMap<>();
+		dataSource.accept((mapDataObj) -> {
+			mapGroup(groupMap, mapDataObj);
+		});
+		
+		// 2. Reduce, filter, and sort the result rows
+		return resultRows(groupMap);
+	}
+	
+	/**
+	 * Compute and get the grouped aggregation result, of the data set values which passes
+	 * the filter, in parallel. Each part of the data set is tested, and mapped in a single pass,
+	 * into its own group partial results, which are then combined together (in encounter order).
+	 *
+	 * Aggregation terms which cannot be combined, or data sets smaller than 2 chunks,
+	 * are computed sequentially.
+	 *
+	 * @param  dataSet to compute on
+	 * @param  filter to test each value with, which must be safe for concurrent use,
+	 *         null to compute on every value
+	 * @param  minChunk, minimum number of objects to process per task
+	 * @param  pool, fork join pool to use, null uses the common pool
+	 *
+	 * @return  list of result rows, for each group
+	 **/
+	public List<Map<String, Object>> parallelCompute(Collection<?> dataSet,
+		Predicate<Object> filter, int minChunk, ForkJoinPool pool) {
+		// 1. Ensure input safety
+		if (dataSet == null) {
+			throw new RuntimeException("No dataSet given.");
+		}
+		minChunk = ParallelSearch.minChunk(minChunk);
+		pool = ParallelSearch.pool(pool);
+		
+		// 2. Sequential computation
+		if (!AggregationUtils.isCombinable(aggregation.preparePartial())
+			|| !ParallelSearch.isParallelWorthwhile(dataSet.size(), minChunk, pool)) {
+			return compute(dataSet, filter);
+		}
+		
+		// 3. Map each part in parallel, and combine the group partial results
+		return resultRows(pool.invoke(new SpliteratorTask<Object, Map<Object, MapReduceBase[]>>(
+			dataSet.spliterator(), minChunk, (part) -> {
+				Map<Object, MapReduceBase[]> ret = new LinkedHashMap<>();
+				part.forEachRemaining((mapDataObj) -> {
+					if (filter == null || filter.test(mapDataObj)) {
+						mapGroup(ret, mapDataObj);
+					}
+				});
+				return ret;
+			}, this::combineGroups)));
+	}
+	
+	/**
+	 * Combines the group partial results of the suffix, into the prefix group map
+	 *
+	 * @param  prefixResult group map, to combine into
+	 * @param  suffixResult group map, which values are treated as mapped after prefixResult
+	 *
+	 * @return  the combined prefixResult group map
+	 **/
+	protected Map<Object, MapReduceBase[]> combineGroups(Map<Object, MapReduceBase[]> prefixResult,
+		Map<Object, MapReduceBase[]> suffixResult) {
+		for (Map.Entry<Object, MapReduceBase[]> entry : suffixResult.entrySet()) {
+			MapReduceBase[] partial = prefixResult.get(entry.getKey());
+			if (partial == null) {
+				prefixResult.put(entry.getKey(), entry.getValue());
+			} else {
+				AggregationUtils.combineMapReduceBase(partial, entry.getValue());
+			}
+		}
+		return prefixResult;
+	}
+	
+	/**
+	 * Reduce each group into its result row, filter it with the having clause,
+	 * and sort the result rows (if needed)
+	 *
+	 * @param  groupMap of group key, to the MapReduceBase array
+	 *
+	 * @return  list of result rows, for each group
+	 **/
+	protected List<Map<String, Object>> resultRows(Map<Object, MapReduceBase[]> groupMap) {
+		// 1. Reduce each group into its result row, and filter it with the having clause
+		List<Map<String, Object>> ret = new ArrayList<>(groupMap.size());
+		for (Map.Entry<Object, MapReduceBase[]> entry : groupMap.entrySet()) {
+			Map<String, Object> row = resultRow(entry.getKey(), AggregationUtils
+				.reduceMapReduceBase(entry.getValue()));
+			if (havingClause == null || havingClause.test(row)) {
+				ret.add(row);
+			}
+		}
+		
+		// 2. Sort the result rows (if needed)
+		if (orderBy != null) {
+			orderBy.sort(ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Maps a single data object, into the MapReduceBase array of its group
+	 *
+	 * @param  groupMap of group key, to the MapReduceBase array
+	 * @param  mapDataObj data object to map
+	 **/
+	protected void mapGroup(Map<Object, MapReduceBase[]> groupMap, Object mapDataObj) {
+		Map<String, Object> mapData = GenericConvert.toStringMap(mapDataObj);
+		int groupCount = groupFields.length;
+		
+		// Single field groups are keyed by the value, else by the list of values
+		Object groupKey;
+		if (groupCount == 1) {
+			groupKey = groupPaths[0].get(mapData);
+		} else {
+			Object[] groupValues = new Object[groupCount];
+			for (int i = 0; i < groupCount; ++i) {
+				groupValues[i] = groupPaths[i].get(mapData);
+			}
+			groupKey = Arrays.asList(groupValues);
+		}
+		
+		MapReduceBase[] mapreduceArray = groupMap.get(groupKey);
+		if (mapreduceArray == null) {
+			mapreduceArray = aggregation.preparePartial();
+			groupMap.put(groupKey, mapreduceArray);
+		}
+		AggregationUtils.mapDataObject(mapreduceArray, aggregation.fieldNames, mapData);
+	}
+	
+	/**
+	 * Builds the result row, of a group
+	 *
+	 * @param  groupKey of the group
+	 * @param  result of the aggregation terms
+	 *
+	 * @return  result row map
+	 **/
+	protected Map<String, Object> resultRow(Object groupKey, BigDecimal[] result) {
+		Map<String, Object> row = new HashMap<>();
+		if (groupFields.length == 1) {
+			row.put(groupFields[0], groupKey);
+		} else {
+			List<?> groupValues = (List<?>) groupKey;
+			for (int i = 0; i < groupFields.length; ++i) {
+				row.put(groupFields[i], groupValues.get(i));
+			}
+		}
+		for (int i = 0; i < result.length; ++i) {
+			row.put(aggregation.termsArray[i], result[i]);
+			row.put(termAliases[i], result[i]);
+		}
+		return row;
+	}
+}
@@ -0,0 +1,452 @@
+package picoded.core.struct.query;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import picoded.core.conv.GenericConvert;
+import picoded.core.conv.NestedObjectFetch;
+import picoded.core.struct.query.internal.AggregationUtils;
+import picoded.core.struct.query.mapreduce.MapReduceBase;
+import picoded.core.struct.query.mapreduce.Max;
+import picoded.core.struct.query.mapreduce.Min;
+
+/**
+ * Incrementally maintained aggregation result, of the values matching a where clause.
+ *
+ * Instead of a full scan on every read, each added / removed value is tested against the
+ * where clause, and mapped / unmapped from the running aggregation, which is O(1) per value.
+ * Reads only reduce the running aggregation.
+ *
+ * count, sum, and avg are subtracted on removal. min / max keeps a bounded buffer of its
+ * most extreme values (see EXTREME_BUFFER_SIZE), which replaces the result when the current
+ * min / max is removed. Other functions are only updated on removal if the result is
+ * unaffected. Otherwise (or once a buffer is exhausted) only the affected term is marked
+ * stale, and recomputed on the next read, from the matching values of the data source.
+ *
+ * This is normally created with IndexedQueryMapCollection.createMaterializedAggregation,
+ * which keeps it updated with the collection. Note that values which are modified after
+ * being added, needs to be invalidated (or removed before modification, and added back).
+ * This is not thread safe.
+ **/
+public class MaterializedAggregation {
+	
+	/**
+	 * Number of the most extreme values, kept for each min / max term
+	 **/
+	public static final int EXTREME_BUFFER_SIZE = 16;
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	// The aggregation to maintain
+	protected Aggregation aggregation = null;
+	
+	// The where clause, null matches every value
+	protected Query whereClause = null;
+	
+	// Predicate of the where clause, null matches every value
+	protected Predicate<Object> wherePredicate = null;
+	
+	// Data source of the matching values, used to recompute the aggregation
+	protected Consumer<Consumer<Object>> recomputeSource = null;
+	
+	// The running aggregation
+	protected MapReduceBase[] mapreduceArray = null;
+	
+	// Number of matching values
+	protected long matchCount = 0;
+	
+	// Extreme values buffer of each min / max term, null for other terms
+	protected ExtremeBuffer[] extremeBuffers = null;
+	
+	// Indicates the terms which needs to be recomputed
+	protected boolean[] staleTerms = null;
+	
+	// Indicates the whole running aggregation needs to be recomputed
+	protected boolean stale = true;
+	
+	/**
+	 * Constructor, for an aggregation of the values matching the where clause
+	 *
+	 * @param  aggregationTerms to aggregate using
+	 * @param  whereClause to filter the values with, null to aggregate every value
+	 * @param  recomputeSource which passes every value matching the where clause, to the given consumer
+	 */
+	public MaterializedAggregation(String[] aggregationTerms, Query whereClause,
+		Consumer<Consumer<Object>> recomputeSource) {
+		if (recomputeSource == null) {
+			throw new IllegalArgumentException("Missing recompute data source");
+		}
+		this.aggregation = Aggregation.build(aggregationTerms);
+		this.whereClause = whereClause;
+		this.wherePredicate = (whereClause == null) ? null : whereClause.optimize();
+		this.recomputeSource = recomputeSource;
+	}
+	
+	//--------------------------------------------------------------------
+	// Config getters
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  the aggregation terms
+	 **/
+	public String[] aggregationTerms() {
+		return aggregation.termsArray.clone();
+	}
+	
+	/**
+	 * @return  the where clause, null if every value is aggregated
+	 **/
+	public Query whereClause() {
+		return whereClause;
+	}
+	
+	/**
+	 * @param  value to test
+	 *
+	 * @return  true if the value matches the where clause
+	 **/
+	public boolean matches(Object value) {
+		return wherePredicate == null || wherePredicate.test(value);
+	}
+	
+	//--------------------------------------------------------------------
+	// Incremental updates
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Maps the added value, if it matches the where clause
+	 *
+	 * @param  value which was added
+	 **/
+	public void add(Object value) {
+		if (stale || !matches(value)) {
+			return;
+		}
+		++matchCount;
+		AggregationUtils.mapDataObject(mapreduceArray, aggregation.fieldNames, value);
+		addExtremeValues(extremeBuffers, aggregation.fieldNames, value);
+	}
+	
+	/**
+	 * Unmaps the removed value, if it matches the where clause
+	 *
+	 * @param  value which was removed
+	 **/
+	public void remove(Object value) {
+		if (stale || !matches(value)) {
+			return;
+		}
+		--matchCount;
+		String[] fieldNames = aggregation.fieldNames;
+		for (int i = 0; i < mapreduceArray.length; ++i) {
+			if (staleTerms[i]) {
+				continue;
+			}
+			
+			// Terms without an extreme values buffer
+			ExtremeBuffer buffer = extremeBuffers[i];
+			if (buffer == null) {
+				staleTerms[i] = !mapreduceArray[i].unmap(value, fieldNames[i]);
+				continue;
+			}
+			
+			// Values beyond the buffer, are not the current min / max
+			BigDecimal val = extremeValue(value, fieldNames[i]);
+			if (val == null || !buffer.remove(val) || mapreduceArray[i].unmap(val, val)) {
+				continue;
+			}
+			
+			// The current min / max was removed, replace it from the buffer
+			if (buffer.isExhausted()) {
+				staleTerms[i] = true;
+			} else {
+				buffer.remap(mapreduceArray[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the value of each min / max term, to its extreme values buffer
+	 *
+	 * @param  buffers of each term, null for terms without a buffer
+	 * @param  fieldNames of each term
+	 * @param  value to add
+	 **/
+	protected static void addExtremeValues(ExtremeBuffer[] buffers, String[] fieldNames,
+		Object value) {
+		for (int i = 0; i < buffers.length; ++i) {
+			if (buffers[i] != null) {
+				buffers[i].add(extremeValue(value, fieldNames[i]));
+			}
+		}
+	}
+	
+	/**
+	 * Extracts the value of a min / max term, as a BigDecimal (as done by MapReduceBase.unmap)
+	 *
+	 * @param  value to extract from
+	 * @param  fieldName of the term
+	 *
+	 * @return  the BigDecimal value, null if its missing or not a number
+	 **/
+	protected static BigDecimal extremeValue(Object value, String fieldName) {
+		Object valObj = NestedObjectFetch.fetchObject(value, fieldName);
+		return (valObj == null) ? null : GenericConvert.toBigDecimal(valObj, null);
+	}
+	
+	/**
+	 * Clears the aggregation, when every value is removed
+	 **/
+	public void clear() {
+		mapreduceArray = aggregation.preparePartial();
+		extremeBuffers = prepareExtremeBuffers(mapreduceArray);
+		staleTerms = new boolean[mapreduceArray.length];
+		matchCount = 0;
+		stale = false;
+	}
+	
+	/**
+	 * Marks the aggregation as stale, to be recomputed on the next read
+	 **/
+	public void invalidate() {
+		stale = true;
+		mapreduceArray = null;
+		extremeBuffers = null;
+		staleTerms = null;
+	}
+	
+	/**
+	 * @return  true if the aggregation (or any of its terms) is stale,
+	 *          and will be recomputed on the next read
+	 **/
+	public boolean isStale() {
+		if (stale) {
+			return true;
+		}
+		for (boolean staleTerm : staleTerms) {
+			if (staleTerm) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	//--------------------------------------------------------------------
+	// Result
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Recomputes the whole aggregation, from the data source
+	 **/
+	public void recompute() {
+		MapReduceBase[] recomputeArray = aggregation.preparePartial();
+		ExtremeBuffer[] buffers = prepareExtremeBuffers(recomputeArray);
+		long[] count = new long[] { 0 };
+		String[] fieldNames = aggregation.fieldNames;
+		recomputeSource.accept((value) -> {
+			++count[0];
+			AggregationUtils.mapDataObject(recomputeArray, fieldNames, value);
+			addExtremeValues(buffers, fieldNames, value);
+		});
+		mapreduceArray = recomputeArray;
+		extremeBuffers = buffers;
+		staleTerms = new boolean[recomputeArray.length];
+		matchCount = count[0];
+		stale = false;
+	}
+	
+	/**
+	 * Recomputes only the stale terms, from the data source
+	 **/
+	protected void recomputeStaleTerms() {
+		// The index of each stale term
+		int staleCount = 0;
+		int[] staleIndex = new int[staleTerms.length];
+		for (int i = 0; i < staleTerms.length; ++i) {
+			if (staleTerms[i]) {
+				staleIndex[staleCount++] = i;
+			}
+		}
+		
+		// Only the stale terms are mapped, and buffered
+		MapReduceBase[] allTerms = aggregation.preparePartial();
+		MapReduceBase[] partial = new MapReduceBase[staleCount];
+		String[] fieldNames = new String[staleCount];
+		for (int i = 0; i < staleCount; ++i) {
+			partial[i] = allTerms[staleIndex[i]];
+			fieldNames[i] = aggregation.fieldNames[staleIndex[i]];
+		}
+		ExtremeBuffer[] buffers = prepareExtremeBuffers(partial);
+		recomputeSource.accept((value) -> {
+			AggregationUtils.mapDataObject(partial, fieldNames, value);
+			addExtremeValues(buffers, fieldNames, value);
+		});
+		
+		for (int i = 0; i < staleCount; ++i) {
+			mapreduceArray[staleIndex[i]] = partial[i];
+			extremeBuffers[staleIndex[i]] = buffers[i];
+			staleTerms[staleIndex[i]] = false;
+		}
+	}
+	
+	/**
+	 * Recomputes the whole aggregation, or only its stale terms, if needed
+	 **/
+	protected void recomputeIfStale() {
+		if (stale) {
+			recompute();
+		} else if (isStale()) {
+			recomputeStaleTerms();
+		}
+	}
+	
+	/**
+	 * @return  number of values matching the where clause
+	 **/
+	public long matchCount() {
+		if (stale) {
+			recompute();
+		}
+		return matchCount;
+	}
+	
+	/**
+	 * Get the aggregation result, recomputing it only if its stale.
+	 * This is consistent with Aggregation.compute, on the matching values.
+	 *
+	 * @return  BigDecimal array of the corresponding aggregation result
+	 **/
+	public BigDecimal[] result() {
+		recomputeIfStale();
+		
+		// There is no data at all, this is consistent with compute
+		if (matchCount == 0) {
+			BigDecimal[] ret = new BigDecimal[mapreduceArray.length];
+			for (int i = 0; i < ret.length; ++i) {
+				ret[i] = BigDecimal.ZERO;
+			}
+			return ret;
+		}
+		return AggregationUtils.reduceMapReduceBase(mapreduceArray);
+	}
+	
+	//--------------------------------------------------------------------
+	// Extreme values buffer
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @param  mapreduceArray of the aggregation terms
+	 *
+	 * @return  the extreme values buffer of each min / max term, null for other terms
+	 **/
+	protected static ExtremeBuffer[] prepareExtremeBuffers(MapReduceBase[] mapreduceArray) {
+		ExtremeBuffer[] ret = new ExtremeBuffer[mapreduceArray.length];
+		for (int i = 0; i < ret.length; ++i) {
+			if (mapreduceArray[i] instanceof Min) {
+				ret[i] = new ExtremeBuffer(false);
+			} else if (mapreduceArray[i] instanceof Max) {
+				ret[i] = new ExtremeBuffer(true);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Bounded buffer of the most extreme values (smallest for min, largest for max), and
+	 * their number of occurrences. Values beyond the buffer are dropped, after which only
+	 * values up to the most extreme dropped value are buffered (as any dropped value may
+	 * be more extreme than the values added later), and it can no longer be replaced once
+	 * its exhausted.
+	 **/
+	protected static class ExtremeBuffer {
+		
+		// The buffered values, from the most extreme, to their occurrence count
+		protected TreeMap<BigDecimal, Integer> values;
+		
+		// Order of the values, from the most extreme
+		protected Comparator<BigDecimal> order;
+		
+		// Number of buffered values (including repeated values)
+		protected int size = 0;
+		
+		// The most extreme value dropped from the buffer, null if none was dropped
+		protected BigDecimal dropped = null;
+		
+		/**
+		 * @param  isMax to keep the largest values, instead of the smallest
+		 **/
+		protected ExtremeBuffer(boolean isMax) {
+			order = isMax ? Comparator.reverseOrder() : Comparator.naturalOrder();
+			values = new TreeMap<BigDecimal, Integer>(order);
+		}
+		
+		/**
+		 * Adds a value, dropping the least extreme value when the buffer is full.
+		 * Values less extreme than a dropped value are ignored.
+		 *
+		 * @param  val to add, null values are ignored
+		 **/
+		protected void add(BigDecimal val) {
+			if (val == null || (dropped != null && order.compare(val, dropped) > 0)) {
+				return;
+			}
+			if (size >= EXTREME_BUFFER_SIZE) {
+				BigDecimal last = values.lastKey();
+				if (order.compare(val, last) >= 0) {
+					dropped = val;
+					return;
+				}
+				remove(last);
+				dropped = last;
+			}
+			values.merge(val, 1, Integer::sum);
+			++size;
+		}
+		
+		/**
+		 * Removes a single occurrence of the value, if its buffered
+		 *
+		 * @param  val to remove
+		 *
+		 * @return  true if the value was buffered
+		 **/
+		protected boolean remove(BigDecimal val) {
+			Integer count = values.get(val);
+			if (count == null) {
+				return false;
+			}
+			if (count.intValue() == 1) {
+				values.remove(val);
+			} else {
+				values.put(val, count - 1);
+			}
+			--size;
+			return true;
+		}
+		
+		/**
+		 * @return  true if the buffer is empty, while values beyond it were dropped
+		 **/
+		protected boolean isExhausted() {
+			return size == 0 && dropped != null;
+		}
+		
+		/**
+		 * Resets the min / max term, and maps the most extreme buffered value
+		 *
+		 * @param  mapreduce term to remap
+		 **/
+		protected void remap(MapReduceBase mapreduce) {
+			mapreduce.reset();
+			if (size > 0) {
+				BigDecimal first = values.firstKey();
+				mapreduce.map(first, first);
+			}
+		}
+	}
+}
@@ -1,15 +1,22 @@
 package picoded.core.struct.query;
 
 import java.io.Serializable;
+import java.text.CollationKey;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.Locale;
 
 import picoded.core.struct.MutablePair;
+import picoded.core.struct.query.internal.FieldPath;
 import picoded.core.struct.query.internal.QueryUtils;
+import picoded.core.struct.query.internal.SortKey;
 
 /**
  * Utility class that provides SQL styel OrderBy functionality
@@ -35,6 +42,40 @@ public class OrderBy<T> implements Comparator<T>, Serializable {
 	 **/
 	protected List<MutablePair<String, OrderType>> _comparisionConfig = new ArrayList<MutablePair<String, OrderType>>();
 	
+	/**
+	 * Comparison engine used, which decides between collated, or binary string ordering
+	 **/
+	protected ComparisonEngine _comparisonEngine = ComparisonEngine.COLLATED;
+	
+	/**
+	 * Parsed field path of each comparision configuration, built on first use
+	 **/
+	protected transient FieldPath[] _fieldPaths = null;
+	
+	/**
+	 * Constructor built with given order by string, and string ordering
+	 *
+	 * @param  orderByString to sort with
+	 * @param  stringOrder, either collated or binary
+	 **/
+	public OrderBy(String orderByString, ComparisonEngine.StringOrder stringOrder) {
+		this(orderByString, ComparisonEngine.of(stringOrder));
+	}
+	
+	/**
+	 * Constructor built with given order by string, and comparison engine
+	 *
+	 * @param  orderByString to sort with
+	 * @param  comparisonEngine to compare the values with
+	 **/
+	public OrderBy(String orderByString, ComparisonEngine comparisonEngine) {
+		this(orderByString);
+		if (comparisonEngine == null) {
+			throw new IllegalArgumentException("Missing OrderBy comparison engine");
+		}
+		_comparisonEngine = comparisonEngine;
+	}
+	
 	/**
 	 * Constructor built with given order by string
 	 **/
@@ -136,6 +177,7 @@ public class OrderBy<T> implements Comparator<T>, Serializable {
 				set.setLeft(replacement);
 			}
 		}
+		_fieldPaths = null;
 		return res;
 	}
 	
@@ -143,6 +185,13 @@ public class OrderBy<T> implements Comparator<T>, Serializable {
 	// To OrderBy implmentation
 	//--------------------------------------------------------------------
 	
+	/**
+	 * Gets the comparison engine used in sorting
+	 **/
+	public ComparisonEngine getComparisonEngine() {
+		return _comparisonEngine;
+	}
+	
 	/**
 	 * Gets the orderby keys used in sorting
 	 **/
@@ -154,6 +203,21 @@ public class OrderBy<T> implements Comparator<T>, Serializable {
 		return resSet;
 	}
 	
+	/**
+	 * Gets the parsed field path, of each orderby key (in order)
+	 **/
+	protected FieldPath[] fieldPaths() {
+		FieldPath[] ret = _fieldPaths;
+		if (ret == null) {
+			ret = new FieldPath[_comparisionConfig.size()];
+			for (int i = 0; i < ret.length; ++i) {
+				ret[i] = FieldPath.of(_comparisionConfig.get(i).getLeft());
+			}
+			_fieldPaths = ret;
+		}
+		return ret;
+	}
+	
 	//--------------------------------------------------------------------
 	// Comparator implmentation
 	//--------------------------------------------------------------------
@@ -172,11 +236,13 @@ public class OrderBy<T> implements Comparator<T>, Serializable {
 		/**
 		 * Scan and compare, and return the differences
 		 **/
-		for (MutablePair<String, OrderType> comparePair : _comparisionConfig) {
-			Object left = QueryUtils.getFieldValue(o1, comparePair.getLeft());
-			Object right = QueryUtils.getFieldValue(o2, comparePair.getLeft());
+		FieldPath[] paths = fieldPaths();
+		for (int i = 0; i < paths.length; ++i) {
+			MutablePair<String, OrderType> comparePair = _comparisionConfig.get(i);
+			Object left = paths[i].get(o1);
+			Object right = paths[i].get(o2);
 			
-			int diff = CompareUtils.dynamicCompare(left, right);
+			int diff = _comparisonEngine.compare(left, right);
 			
 			// Skip if equals
 			if (diff == 0) {
@@ -191,6 +257,115 @@ public class OrderBy<T> implements Comparator<T>, Serializable {
 			//}
 		}
 		
-		return CompareUtils.dynamicCompare(o1, o2); //fallback
+		return _comparisonEngine.compare(o1, o2); //fallback
+	}
+	
+	//--------------------------------------------------------------------
+	// Decorate, sort, undecorate implementation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Row to be sorted, with its extracted sort keys (or string ranks)
+	 **/
+	protected static class KeyedRow {
+		protected final Object row;
+		protected final SortKey[] keys;
+		protected final int[] ranks;
+		protected SortKey rowKey = null;
+		
+		protected KeyedRow(Object row, SortKey[] keys, int[] ranks) {
+			this.row = row;
+			this.keys = keys;
+			this.ranks = ranks;
+		}
+		
+		/**
+		 * @return  the sort key of the row itself, used as the final fallback
+		 **/
+		protected SortKey rowKey(ComparisonEngine engine) {
+			if (rowKey == null) {
+				rowKey = new SortKey(row, engine, null);
+			}
+			return rowKey;
+		}
+	}
+	
+	/**
+	 * Sorts the list in place, with the same (stable) result as Collections.sort(list, this).
+	 *
+	 * Unlike Collections.sort, the field values of each row are extracted and normalized only
+	 * once (into sort keys), instead of on every comparison, which is considerably faster for
+	 * large lists. Fields which only contain strings are further ranked by their collation
+	 * order, and compared as int values.
+	 *
+	 * @param  list to sort
+	 *
+	 * @throws UnsupportedOperationException if the list is not modifiable
+	 **/
+	@SuppressWarnings("unchecked")
+	public void sort(List<T> list) {
+		int size = list.size();
+		if (size < 2) {
+			return;
+		}
+		
+		// Field paths and order, in array form
+		int fieldCount = _comparisionConfig.size();
+		FieldPath[] fields = fieldPaths();
+		boolean[] descending = new boolean[fieldCount];
+		for (int i = 0; i < fieldCount; ++i) {
+			MutablePair<String, OrderType> comparePair = _comparisionConfig.get(i);
+			descending[i] = (comparePair.getRight() == OrderType.DESC);
+		}
+		
+		// Extract the field values of each row, once
+		Object[] rows = list.toArray();
+		Object[][] columns = new Object[fieldCount][size];
+		for (int r = 0; r < size; ++r) {
+			for (int i = 0; i < fieldCount; ++i) {
+				columns[i][r] = fields[i].get(rows[r]);
+			}
+		}
+		
+		// Rank the string only fields, with collation keys shared across repeated strings
+		Map<String, CollationKey> collationCache = new HashMap<String, CollationKey>();
+		int[][] rankColumns = new int[fieldCount][];
+		for (int i = 0; i < fieldCount; ++i) {
+			rankColumns[i] = SortKey.stringRanks(columns[i], _comparisonEngine, collationCache);
+		}
+		
+		// Decorate each row with its sort keys, or string ranks
+		KeyedRow[] keyedRows = new KeyedRow[size];
+		for (int r = 0; r < size; ++r) {
+			SortKey[] keys = new SortKey[fieldCount];
+			int[] ranks = new int[fieldCount];
+			for (int i = 0; i < fieldCount; ++i) {
+				if (rankColumns[i] != null) {
+					ranks[i] = rankColumns[i][r];
+				} else {
+					keys[i] = new SortKey(columns[i][r], _comparisonEngine, collationCache);
+				}
+			}
+			keyedRows[r] = new KeyedRow(rows[r], keys, ranks);
+		}
+		
+		// Sort the decorated rows (Arrays.sort is stable for objects)
+		Arrays.sort(keyedRows, (a, b) -> {
+			for (int i = 0; i < fieldCount; ++i) {
+				int diff = (rankColumns[i] != null) ? Integer.compare(a.ranks[i], b.ranks[i])
+					: a.keys[i].compareTo(b.keys[i]);
+				if (diff != 0) {
+					return descending[i] ? -diff : diff;
+				}
+			}
+			return a.rowKey(_comparisonEngine).compareTo(b.rowKey(_comparisonEngine)); //fallback
+		});
+		
+		// Undecorate, back into the list
+		ListIterator<T> iter = list.listIterator();
+		for (KeyedRow keyedRow : keyedRows) {
+			iter.next();
+			iter.set((T) keyedRow.row);
+		}
 	}
-}
+}
\ No newline at end of file
@@ -4,16 +4,19 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
 
 import picoded.core.struct.ArrayListMap;
-import picoded.core.struct.query.internal.QueryFilter;
+import picoded.core.struct.query.internal.ParallelSearch;
+import picoded.core.struct.query.internal.QueryOptimizer;
+import picoded.core.struct.query.internal.QueryPlanCache;
+import picoded.core.struct.query.internal.QueryRewriter;
 
 /**
  * Representas a query condition, that can be used as a java Predicate against a collection
@@ -28,21 +31,21 @@ public interface Query extends Predicate<Object> {
 	 * Build the query using no predefiend arguments
 	 **/
 	static Query build(String queryString) {
-		return QueryFilter.buildQuery(queryString, null, null);
+		return QueryPlanCache.shared().buildQuery(queryString, null, null);
 	}
 	
 	/**
 	 * Build the query using argumented array
 	 **/
 	static Query build(String queryString, Object[] argumentArr) {
-		return QueryFilter.buildQuery(queryString, null, argumentArr);
+		return QueryPlanCache.shared().buildQuery(queryString, null, argumentArr);
 	}
 	
 	/**
 	 * Build the query using the parameter map
 	 **/
 	static Query build(String queryString, Map<String, Object> paramMap) {
-		return QueryFilter.buildQuery(queryString, paramMap, null);
+		return QueryPlanCache.shared().buildQuery(queryString, paramMap, null);
 	}
 	
 	//--------------------------------------------------------------------
@@ -140,6 +143,150 @@ public interface Query extends Predicate<Object> {
 		return null;
 	}
 	
+	//--------------------------------------------------------------------
+	// Query duplication
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Duplicates the query tree, with a new default argument map.
+	 *
+	 * This is used to reuse an already parsed query (such as in the QueryPlanCache),
+	 * with a different set of arguments, without needing to reparse the query string.
+	 * The original query is left unmodified.
+	 *
+	 * Query implementations without duplication support returns itself, as is
+	 * (such as within a duplicated, or bound, combination query). This is only valid
+	 * for queries which do not use any arguments, as the new argument map is ignored.
+	 * Query implementations which use arguments, needs to override this (as done by
+	 * ConditionBase, and CombinationBase).
+	 *
+	 * @param   the new default argument map to use
+	 *
+	 * @return  the duplicated query
+	 **/
+	default Query duplicate(Map<String, Object> argMap) {
+		return this;
+	}
+	
+	/**
+	 * Duplicates the query tree, with its argument values resolved ahead of time
+	 * from the given argument map, for repeated testing against many objects.
+	 *
+	 * Argument values are resolved (and normalized, such as numeric parsing) once
+	 * on binding, instead of once per object tested. As such changes made to the
+	 * argument map after binding are not reflected in the bound query.
+	 *
+	 * Query implementations without duplication support ignores the argument map
+	 * (see duplicate(argMap)), and are only valid if they do not use any arguments.
+	 *
+	 * @param   the argument map to bind with
+	 *
+	 * @return  the bound query
+	 **/
+	default Query bind(Map<String, Object> argMap) {
+		return duplicate(argMap);
+	}
+	
+	/**
+	 * Duplicates the query tree, with its argument values resolved ahead of time
+	 * from its default argument map. See bind(argMap)
+	 *
+	 * Query implementations without binding support returns itself.
+	 *
+	 * @return  the bound query
+	 **/
+	default Query bind() {
+		return this;
+	}
+	
+	//--------------------------------------------------------------------
+	// Query compilation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compiles the query tree, with its default argument map values, into a flat predicate.
+	 *
+	 * Unlike the query tree itself, all decisions that do not depend on the object being tested
+	 * (argument values, field name handling, and the comparison types used) are made once
+	 * during compilation, instead of once per object tested.
+	 *
+	 * The compiled predicate is equivalent to test(Object) of the query at the point of compilation.
+	 * Query implementations without compilation support returns its bound test function.
+	 *
+	 * @return  the compiled predicate
+	 **/
+	default Predicate<Object> compile() {
+		Query bound = bind();
+		return bound::test;
+	}
+	
+	/**
+	 * Rewrites the query tree into a normalized equivalent (see QueryRewriter), with its
+	 * combinations flattened, NOT pushed down to the basic conditions, duplicated conditions
+	 * removed, numeric ranges merged, and contradictions folded into an always false query.
+	 *
+	 * The rewrite is done with the default argument values, which the returned query is bound to.
+	 *
+	 * @return  the normalized query
+	 **/
+	default Query normalize() {
+		return QueryRewriter.rewrite(this);
+	}
+	
+	/**
+	 * Compiles the query tree into a flat predicate, with its combinations flattened,
+	 * and their children reordered by their estimated cost and selectivity (see QueryOptimizer).
+	 * The query is normalized beforehand (see normalize).
+	 *
+	 * The query tree itself is left unmodified, as such toString and toSqlString
+	 * continues to reflect the original query.
+	 *
+	 * @return  the compiled predicate
+	 **/
+	default Predicate<Object> optimize() {
+		return QueryOptimizer.optimize(this, null, false);
+	}
+	
+	/**
+	 * Compiles the query tree into a flat predicate, with its combinations flattened,
+	 * and their children reordered by their selectivity sampled from the given collection.
+	 * The children order is further adapted to the pass rates observed during use.
+	 *
+	 * @param   collection to sample from, this is usually the collection to be searched
+	 *
+	 * @return  the compiled predicate
+	 **/
+	default Predicate<Object> optimize(Collection<?> sample) {
+		return QueryOptimizer.optimize(this, sample, true);
+	}
+	
+	/**
+	 * Gets a new execution profile of the query (see QueryProfile), used to search
+	 * and explain where the time is spent. Searches done without the profile are unaffected.
+	 *
+	 * @return  the query profile
+	 **/
+	default QueryProfile profile() {
+		return new QueryProfile(this);
+	}
+	
+	/**
+	 * Gets the relative cost of testing a single object, used for query optimization.
+	 * Where a simple equality condition has the cost of 1.
+	 *
+	 * @return  the estimated cost
+	 **/
+	default double estimateCost() {
+		if (isCombinationOperator()) {
+			double ret = 0.0;
+			for (Query child : childrenQuery()) {
+				ret += child.estimateCost();
+			}
+			return ret;
+		}
+		return 1.0;
+	}
+	
 	//--------------------------------------------------------------------
 	// Query mapping search, modification, and arguments output
 	//--------------------------------------------------------------------
@@ -319,9 +466,13 @@ public interface Query extends Predicate<Object> {
 	 * Searches using the query, and returns the resulting set
 	 **/
 	default <V> List<V> search(Collection<V> list) {
+		Predicate<Object> evaluator = QueryOptimizer.searchPredicate(this, list);
 		List<V> ret = new ArrayList<V>();
+		if (evaluator == QueryOptimizer.NEVER) {
+			return ret;
+		}
 		for (V val : list) {
-			if (test(val)) {
+			if (evaluator.test(val)) {
 				ret.add(val);
 			}
 		}
@@ -333,7 +484,7 @@ public interface Query extends Predicate<Object> {
 	 **/
 	default <V> List<V> search(Collection<V> list, Comparator<V> compareFunc) {
 		List<V> ret = search(list);
-		Collections.sort(ret, compareFunc);
+		QueryUtils.sortList(ret, compareFunc);
 		return ret;
 	}
 	
@@ -348,11 +499,15 @@ public interface Query extends Predicate<Object> {
 	 * Searches using the query, and returns the resulting set
 	 **/
 	default <K, V> List<V> search(Map<K, V> set) {
+		Predicate<Object> evaluator = QueryOptimizer.searchPredicate(this, set.values());
 		List<V> ret = new ArrayList<V>();
+		if (evaluator == QueryOptimizer.NEVER) {
+			return ret;
+		}
 		//for (K key : set.keySet()) {
 		for (Entry<K, V> entry : set.entrySet()) {
 			V val = entry.getValue();
-			if (test(val)) {
+			if (evaluator.test(val)) {
 				ret.add(val);
 			}
 		}
@@ -364,7 +519,7 @@ public interface Query extends Predicate<Object> {
 	 **/
 	default <K, V> List<V> search(Map<K, V> set, Comparator<V> compareFunc) {
 		List<V> ret = search(set);
-		Collections.sort(ret, compareFunc);
+		QueryUtils.sortList(ret, compareFunc);
 		return ret;
 	}
 	
@@ -375,6 +530,72 @@ public interface Query extends Predicate<Object> {
 		return search(set, new OrderBy<V>(orderBy));
 	}
 	
+	//--------------------------------------------------------------------
+	// Parallel query searching
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Searches using the query in parallel (with the common fork join pool),
+	 * and returns the resulting set in the same order as search(list).
+	 *
+	 * Collections smaller than 2 chunks are searched sequentially.
+	 **/
+	default <V> List<V> parallelSearch(Collection<V> list) {
+		return ParallelSearch.search(this, list, ParallelSearch.DEFAULT_MIN_CHUNK, null);
+	}
+	
+	/**
+	 * Searches using the query in parallel (with the common fork join pool),
+	 * and returns the resulting set in the same order as search(list).
+	 *
+	 * @param  collection to search
+	 * @param  minimum number of objects to search per task
+	 **/
+	default <V> List<V> parallelSearch(Collection<V> list, int minChunk) {
+		return ParallelSearch.search(this, list, minChunk, null);
+	}
+	
+	/**
+	 * Searches using the query in parallel, and returns the resulting set
+	 * in the same order as search(list).
+	 *
+	 * @param  collection to search
+	 * @param  minimum number of objects to search per task
+	 * @param  fork join pool to use, null uses the common pool
+	 **/
+	default <V> List<V> parallelSearch(Collection<V> list, int minChunk, ForkJoinPool pool) {
+		return ParallelSearch.search(this, list, minChunk, pool);
+	}
+	
+	/**
+	 * Searches using the query in parallel, and sorted by the comparator
+	 **/
+	default <V> List<V> parallelSearch(Collection<V> list, Comparator<V> compareFunc) {
+		List<V> ret = parallelSearch(list);
+		QueryUtils.sortList(ret, compareFunc);
+		return ret;
+	}
+	
+	/**
+	 * Searches using the query in parallel (with the common fork join pool),
+	 * and returns the resulting set in the same order as search(map).
+	 **/
+	default <K, V> List<V> parallelSearch(Map<K, V> set) {
+		return ParallelSearch.search(this, set.values(), ParallelSearch.DEFAULT_MIN_CHUNK, null);
+	}
+	
+	/**
+	 * Searches using the query in parallel, and returns the resulting set
+	 * in the same order as search(map).
+	 *
+	 * @param  map to search
+	 * @param  minimum number of objects to search per task
+	 * @param  fork join pool to use, null uses the common pool
+	 **/
+	default <K, V> List<V> parallelSearch(Map<K, V> set, int minChunk, ForkJoinPool pool) {
+		return ParallelSearch.search(this, set.values(), minChunk, pool);
+	}
+	
 	//--------------------------------------------------------------------
 	// Aggregation on search
 	//--------------------------------------------------------------------
@@ -382,25 +603,76 @@ public interface Query extends Predicate<Object> {
 	/**
 	 * Searches using the query, and perform the stated aggregation
 	 * 
-	 * @param  collectionObj,  either using a map, list or collection class
+	 * The query is tested, and the matching values aggregated in a single pass,
+	 * without collecting the matching values into an intermediate list.
+	 * 
+	 * @param  collectionObj,  either using a map (its values), collection, iterable, or array
 	 * @param  aggregationObj, used to compute the result
 	 * 
 	 * @return  BigDecimal[] array of the aggregation result
 	 **/
 	default BigDecimal[] aggregation(Object collectionObj, Aggregation aggregationObj) {
 		
+		// 1. Get the values, and query predicate, based on its collection type
+		Collection<?> collection = null;
+		if (collectionObj instanceof Map) {
+			collection = ((Map<?, ?>) collectionObj).values();
+		} else if (collectionObj instanceof Collection) {
+			collection = (Collection<?>) collectionObj;
+		} else if (collectionObj instanceof Object[]) {
+			collection = Arrays.asList((Object[]) collectionObj);
+		} else if (collectionObj instanceof Iterable) {
+			return aggregationObj.compute((Iterable<?>) collectionObj, optimize());
+		} else {
+			throw new RuntimeException("No dataSet given.");
+		}
+		
+		// 2. Perform the fused search and aggregation computation
+		return aggregationObj.compute(collection, QueryOptimizer.searchPredicate(this, collection));
+	}
+	
+	/**
+	 * Searches using the query in parallel, and perform the stated aggregation
+	 * on the search result.
+	 * 
+	 * @param  collectionObj,  either using a map, list or collection class
+	 * @param  aggregationObj, used to compute the result
+	 * @param  fork join pool to use, null uses the common pool
+	 * 
+	 * @return  BigDecimal[] array of the aggregation result
+	 **/
+	default BigDecimal[] parallelAggregation(Object collectionObj, Aggregation aggregationObj,
+		ForkJoinPool pool) {
+		
 		// 1. Perform the relevent search query, based on its collection type
 		Collection<Object> aggregationData = null;
 		if (collectionObj instanceof Map) {
-			aggregationData = search((Map<String, Object>) collectionObj);
+			aggregationData = parallelSearch((Map<String, Object>) collectionObj,
+				ParallelSearch.DEFAULT_MIN_CHUNK, pool);
 		} else if (collectionObj instanceof Collection) {
-			aggregationData = search((Collection<Object>) collectionObj);
+			aggregationData = parallelSearch((Collection<Object>) collectionObj,
+				ParallelSearch.DEFAULT_MIN_CHUNK, pool);
 		} else if (collectionObj instanceof Object[]) {
-			aggregationData = search(Arrays.asList((Object[]) collectionObj));
+			aggregationData = parallelSearch(Arrays.asList((Object[]) collectionObj),
+				ParallelSearch.DEFAULT_MIN_CHUNK, pool);
 		}
 		
-		// 2. Perform the aggregation computation
-		return aggregationObj.compute(aggregationData);
+		// 2. Perform the aggregation computation, in parallel
+		return aggregationObj.parallelCompute(aggregationData, ParallelSearch.DEFAULT_MIN_CHUNK,
+			pool);
+	}
+	
+	/**
+	 * Searches using the query in parallel (with the common fork join pool),
+	 * and perform the stated aggregation on the search result.
+	 * 
+	 * @param  collectionObj,    either using a map, list or collection class
+	 * @param  aggregationTerms, used to compute the result
+	 * 
+	 * @return  BigDecimal[] array of the aggregation result
+	 **/
+	default BigDecimal[] parallelAggregation(Object collectionObj, String[] aggregationTerms) {
+		return parallelAggregation(collectionObj, Aggregation.build(aggregationTerms), null);
 	}
 	
 	/**
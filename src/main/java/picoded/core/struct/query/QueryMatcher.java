@@ -0,0 +1,657 @@
+package picoded.core.struct.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import picoded.core.struct.query.index.FieldIndex;
+import picoded.core.struct.query.index.HashFieldIndex;
+import picoded.core.struct.query.internal.FieldPath;
+import picoded.core.struct.query.internal.InArgument;
+
+/**
+ * Matches records against many registered queries, sharing the work across them.
+ *
+ * Instead of testing every registered query on each record, the queries are compiled
+ * into a shared plan, where
+ *
+ * + identical conditions (and sub conditions) across queries are evaluated once per record
+ * + each query is anchored on a condition which must pass for the query to pass,
+ *   such as an equality condition of an AND query (an OR query is anchored on each branch)
+ * + equality anchors are hashed by field and value, so each record field is a single lookup
+ *   (an IN condition is hashed under each of its argument values)
+ * + numeric range anchors (>, >=, <, <=) are kept in sorted threshold arrays, so each
+ *   record field is a binary search
+ *
+ * Only the queries whose anchor matches (and queries which cannot be anchored, such as a
+ * NOT query) are fully verified, so the cost of each match is roughly proportional to the
+ * relevant conditions, instead of the number of registered queries.
+ *
+ * The shared plan is rebuilt on the next match after any registration change, so registering
+ * queries in batches is preferred. Matching is thread safe.
+ **/
+public class QueryMatcher {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	// Registered queries, in registration order
+	protected final Map<String, Query> registry = new LinkedHashMap<String, Query>();
+	
+	// The current shared plan, null if it needs to be rebuilt
+	protected volatile MatchPlan plan = null;
+	
+	// Per thread scratch state, used while matching
+	protected final ThreadLocal<MatchState> scratch = ThreadLocal.withInitial(MatchState::new);
+	
+	//--------------------------------------------------------------------
+	// Query registration
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Registers the query, replacing any existing query of the same id
+	 *
+	 * @param  id of the query, returned on match
+	 * @param  query to register
+	 **/
+	public synchronized void register(String id, Query query) {
+		if (id == null) {
+			throw new IllegalArgumentException("Missing query id");
+		}
+		if (query == null) {
+			throw new IllegalArgumentException("Missing query for id : " + id);
+		}
+		registry.put(id, query);
+		plan = null;
+	}
+	
+	/**
+	 * Registers the query, replacing any existing query of the same id
+	 *
+	 * @param  id of the query, returned on match
+	 * @param  where query statement
+	 * @param  where clause values array
+	 **/
+	public void register(String id, String whereClause, Object[] whereValues) {
+		register(id, Query.build(whereClause, whereValues));
+	}
+	
+	/**
+	 * Removes the registered query
+	 *
+	 * @param  id of the query to remove
+	 *
+	 * @return  true if it was registered
+	 **/
+	public synchronized boolean unregister(String id) {
+		if (registry.remove(id) == null) {
+			return false;
+		}
+		plan = null;
+		return true;
+	}
+	
+	/**
+	 * Removes all registered queries
+	 **/
+	public synchronized void clear() {
+		registry.clear();
+		plan = null;
+	}
+	
+	/**
+	 * @param  id of the query
+	 *
+	 * @return  the registered query, null if its not registered
+	 **/
+	public synchronized Query registeredQuery(String id) {
+		return registry.get(id);
+	}
+	
+	/**
+	 * @return  number of registered queries
+	 **/
+	public synchronized int size() {
+		return registry.size();
+	}
+	
+	/**
+	 * @return  the shared plan, rebuilt if needed
+	 **/
+	protected MatchPlan plan() {
+		MatchPlan ret = plan;
+		if (ret == null) {
+			synchronized (this) {
+				ret = plan;
+				if (ret == null) {
+					ret = new MatchPlan(registry);
+					plan = ret;
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return  number of distinct (shared) conditions, across all registered queries
+	 **/
+	public int conditionCount() {
+		return plan().nodeType.length;
+	}
+	
+	/**
+	 * @return  number of registered queries, which could not be anchored
+	 *          (and are verified on every match)
+	 **/
+	public int unanchoredCount() {
+		return plan().unanchored.length;
+	}
+	
+	//--------------------------------------------------------------------
+	// Shared plan
+	//--------------------------------------------------------------------
+	
+	// Shared condition node types
+	protected static final byte LEAF = 0;
+	protected static final byte AND = 1;
+	protected static final byte OR = 2;
+	protected static final byte NOT = 3;
+	
+	/**
+	 * Anchors of a single field, to the registered query positions
+	 **/
+	protected static class FieldAnchor {
+		
+		protected final FieldPath path;
+		protected final Map<Object, int[]> equalityQueries;
+		protected final double[] lowerThresholds;
+		protected final int[] lowerQueries;
+		protected final double[] upperThresholds;
+		protected final int[] upperQueries;
+		protected final int[] stringArgumentQueries;
+		
+		FieldAnchor(FieldPath path, Map<Object, List<Integer>> equality,
+			List<double[]> lowerBounds, List<double[]> upperBounds, List<Integer> stringArguments) {
+			this.path = path;
+			stringArgumentQueries = toIntArray(stringArguments);
+			equalityQueries = new HashMap<Object, int[]>();
+			for (Map.Entry<Object, List<Integer>> entry : equality.entrySet()) {
+				equalityQueries.put(entry.getKey(), toIntArray(entry.getValue()));
+			}
+			
+			// Range bounds are sorted by their threshold
+			Collections.sort(lowerBounds, (a, b) -> Double.compare(a[0], b[0]));
+			Collections.sort(upperBounds, (a, b) -> Double.compare(a[0], b[0]));
+			lowerThresholds = new double[lowerBounds.size()];
+			lowerQueries = new int[lowerBounds.size()];
+			for (int i = 0; i < lowerThresholds.length; ++i) {
+				lowerThresholds[i] = lowerBounds.get(i)[0];
+				lowerQueries[i] = (int) lowerBounds.get(i)[1];
+			}
+			upperThresholds = new double[upperBounds.size()];
+			upperQueries = new int[upperBounds.size()];
+			for (int i = 0; i < upperThresholds.length; ++i) {
+				upperThresholds[i] = upperBounds.get(i)[0];
+				upperQueries[i] = (int) upperBounds.get(i)[1];
+			}
+		}
+	}
+	
+	/**
+	 * Immutable shared plan, of all the registered queries
+	 **/
+	protected static class MatchPlan {
+		
+		// Registered query ids, and their root node
+		protected final String[] ids;
+		protected final int[] roots;
+		
+		// Shared condition nodes
+		protected final byte[] nodeType;
+		protected final Predicate<Object>[] leafTests;
+		protected final int[][] children;
+		
+		// Anchors by field, and the queries without an anchor
+		protected final FieldAnchor[] anchors;
+		protected final int[] unanchored;
+		
+		// Build state, of the shared nodes
+		private final Map<Object, Integer> internMap = new HashMap<Object, Integer>();
+		private final List<Query> nodeQueries = new ArrayList<Query>();
+		private final List<int[]> nodeChildren = new ArrayList<int[]>();
+		private final List<Byte> nodeTypes = new ArrayList<Byte>();
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		MatchPlan(Map<String, Query> registry) {
+			int size = registry.size();
+			ids = new String[size];
+			roots = new int[size];
+			
+			// Intern the nodes of every query
+			int pos = 0;
+			for (Map.Entry<String, Query> entry : registry.entrySet()) {
+				ids[pos] = entry.getKey();
+				roots[pos] = intern(entry.getValue());
+				++pos;
+			}
+			
+			int nodeCount = nodeQueries.size();
+			nodeType = new byte[nodeCount];
+			leafTests = new Predicate[nodeCount];
+			children = new int[nodeCount][];
+			for (int i = 0; i < nodeCount; ++i) {
+				nodeType[i] = nodeTypes.get(i);
+				children[i] = nodeChildren.get(i);
+				if (nodeType[i] == LEAF) {
+					leafTests[i] = nodeQueries.get(i).compile();
+				}
+			}
+			
+			// Anchor each query, by field
+			Map<String, Map<Object, List<Integer>>> equality = new LinkedHashMap<>();
+			Map<String, List<double[]>> lowerBounds = new HashMap<String, List<double[]>>();
+			Map<String, List<double[]>> upperBounds = new HashMap<String, List<double[]>>();
+			Map<String, List<Integer>> stringArguments = new HashMap<String, List<Integer>>();
+			List<Integer> unanchoredList = new ArrayList<Integer>();
+			for (int q = 0; q < size; ++q) {
+				List<Integer> anchorNodes = anchorsOf(roots[q]);
+				if (anchorNodes == null) {
+					unanchoredList.add(q);
+					continue;
+				}
+				for (int node : anchorNodes) {
+					Query leaf = nodeQueries.get(node);
+					String field = leaf.fieldName();
+					equality.computeIfAbsent(field, (k) -> new HashMap<Object, List<Integer>>());
+					if (isEqualityAnchor(leaf)) {
+						Object arg = FieldIndex.conditionArgument(leaf);
+						List<Object> values = (leaf.type() == QueryType.IN) ? InArgument
+							.argumentValues(arg) : Collections.singletonList(arg);
+						for (Object value : values) {
+							Object keys = HashFieldIndex.equalityKeys(value);
+							for (Object key : (keys instanceof Object[]) ? (Object[]) keys
+								: new Object[] { keys }) {
+								equality.get(field).computeIfAbsent(key,
+									(k) -> new ArrayList<Integer>()).add(q);
+							}
+						}
+					} else {
+						double threshold = rangeThreshold(leaf);
+						Map<String, List<double[]>> bounds = isLowerBound(leaf) ? lowerBounds
+							: upperBounds;
+						bounds.computeIfAbsent(field, (k) -> new ArrayList<double[]>()).add(
+							new double[] { threshold, q });
+						if (FieldIndex.conditionArgument(leaf) instanceof String) {
+							stringArguments.computeIfAbsent(field, (k) -> new ArrayList<Integer>()).add(q);
+						}
+					}
+				}
+			}
+			
+			anchors = new FieldAnchor[equality.size()];
+			int a = 0;
+			for (Map.Entry<String, Map<Object, List<Integer>>> entry : equality.entrySet()) {
+				String field = entry.getKey();
+				anchors[a++] = new FieldAnchor(FieldPath.of(field), entry.getValue(), lowerBounds
+					.getOrDefault(field, new ArrayList<double[]>()), upperBounds.getOrDefault(field,
+					new ArrayList<double[]>()), stringArguments.getOrDefault(field,
+					new ArrayList<Integer>()));
+			}
+			unanchored = toIntArray(unanchoredList);
+		}
+		
+		/**
+		 * Interns the query node, and its children, sharing identical nodes
+		 *
+		 * @return  the node position
+		 **/
+		private int intern(Query query) {
+			QueryType type = query.type();
+			byte kind = LEAF;
+			if (query.isCombinationOperator()) {
+				if (type == QueryType.AND) {
+					kind = AND;
+				} else if (type == QueryType.OR) {
+					kind = OR;
+				} else if (type == QueryType.NOT) {
+					kind = NOT;
+				}
+			}
+			
+			// Identical leaves have the same class, field, and argument value,
+			// while identical combinations have the same type, and children
+			Object key;
+			int[] childNodes = null;
+			if (kind == LEAF) {
+				key = Arrays.asList(query.getClass(), query.fieldName(), argumentKey(FieldIndex
+					.conditionArgument(query)), query.isCombinationOperator() ? query : null);
+			} else {
+				List<Query> childQueries = query.childrenQuery();
+				childNodes = new int[childQueries.size()];
+				for (int i = 0; i < childNodes.length; ++i) {
+					childNodes[i] = intern(childQueries.get(i));
+				}
+				key = Arrays.asList(kind, Arrays.toString(childNodes));
+			}
+			
+			Integer ret = internMap.get(key);
+			if (ret == null) {
+				ret = nodeQueries.size();
+				internMap.put(key, ret);
+				nodeQueries.add(query);
+				nodeChildren.add(childNodes);
+				nodeTypes.add(kind);
+			}
+			return ret;
+		}
+		
+		/**
+		 * Gets the leaf nodes, of which at least one must pass for the node to pass
+		 *
+		 * @return  the anchor leaf nodes, null if it cannot be anchored
+		 **/
+		private List<Integer> anchorsOf(int node) {
+			byte kind = nodeTypes.get(node);
+			if (kind == LEAF) {
+				return isAnchorable(nodeQueries.get(node)) ? Collections.singletonList(node) : null;
+			}
+			int[] childNodes = nodeChildren.get(node);
+			if (kind == OR) {
+				List<Integer> ret = new ArrayList<Integer>();
+				for (int child : childNodes) {
+					List<Integer> childAnchors = anchorsOf(child);
+					if (childAnchors == null) {
+						return null;
+					}
+					ret.addAll(childAnchors);
+				}
+				return ret.isEmpty() ? null : ret;
+			}
+			if (kind == AND) {
+				// Any child anchor, preferring equality only, and fewer anchors
+				List<Integer> best = null;
+				boolean bestIsEquality = false;
+				for (int child : childNodes) {
+					List<Integer> childAnchors = anchorsOf(child);
+					if (childAnchors == null) {
+						continue;
+					}
+					boolean isEquality = true;
+					for (int anchor : childAnchors) {
+						isEquality = isEquality && isEqualityAnchor(nodeQueries.get(anchor));
+					}
+					if (best == null || (isEquality && !bestIsEquality)
+						|| (isEquality == bestIsEquality && childAnchors.size() < best.size())) {
+						best = childAnchors;
+						bestIsEquality = isEquality;
+					}
+				}
+				return best;
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the key used to compare argument values, for sharing identical leaves
+	 **/
+	protected static Object argumentKey(Object arg) {
+		if (arg instanceof Object[]) {
+			Object[] arr = (Object[]) arg;
+			List<Object> ret = new ArrayList<Object>(arr.length);
+			for (Object item : arr) {
+				ret.add(argumentKey(item));
+			}
+			return ret;
+		}
+		return arg;
+	}
+	
+	/**
+	 * @return  true if the leaf condition can be used as a hash, or range anchor
+	 **/
+	protected static boolean isAnchorable(Query leaf) {
+		if (!leaf.isBasicOperator()) {
+			return false;
+		}
+		String field = leaf.fieldName();
+		if ("_key".equalsIgnoreCase(field) || "_val".equalsIgnoreCase(field)) {
+			return false;
+		}
+		QueryType type = leaf.type();
+		if (isEqualityAnchor(leaf)) {
+			return true;
+		}
+		if (type == QueryType.MORE_THAN || type == QueryType.MORE_THAN_OR_EQUALS
+			|| type == QueryType.LESS_THAN || type == QueryType.LESS_THAN_OR_EQUALS) {
+			return !Double.isNaN(rangeThreshold(leaf));
+		}
+		return false;
+	}
+	
+	/**
+	 * @return  true if the leaf condition is hashed by its argument values (= or IN)
+	 **/
+	protected static boolean isEqualityAnchor(Query leaf) {
+		return leaf.type() == QueryType.EQUALS || leaf.type() == QueryType.IN;
+	}
+	
+	/**
+	 * @return  true if the range condition is a lower bound (> or >=)
+	 **/
+	protected static boolean isLowerBound(Query leaf) {
+		return leaf.type() == QueryType.MORE_THAN || leaf.type() == QueryType.MORE_THAN_OR_EQUALS;
+	}
+	
+	/**
+	 * @return  the numeric threshold of a range condition, NaN if its not numeric
+	 **/
+	protected static double rangeThreshold(Query leaf) {
+		Number num = CompareUtils.objectToNumberIfPossible(FieldIndex.conditionArgument(leaf));
+		return (num == null) ? Double.NaN : num.doubleValue();
+	}
+	
+	/**
+	 * Converts the integer list to an array
+	 **/
+	protected static int[] toIntArray(List<Integer> list) {
+		int[] ret = new int[list.size()];
+		for (int i = 0; i < ret.length; ++i) {
+			ret[i] = list.get(i);
+		}
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Matching
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Per thread scratch state, reused across matches.
+	 *
+	 * Node results, and candidate queries are marked with the current match epoch,
+	 * so that nothing needs to be cleared between matches.
+	 **/
+	protected static class MatchState {
+		
+		protected MatchPlan plan = null;
+		protected int epoch = 0;
+		protected int[] nodeEpoch = new int[0];
+		protected boolean[] nodeResult = new boolean[0];
+		protected int[] queryEpoch = new int[0];
+		protected int[] candidates = new int[16];
+		protected int candidateCount = 0;
+		
+		/**
+		 * Prepares the state, for a new match with the given plan
+		 **/
+		protected void begin(MatchPlan matchPlan) {
+			if (plan != matchPlan || ++epoch == Integer.MAX_VALUE) {
+				plan = matchPlan;
+				epoch = 1;
+				nodeEpoch = new int[matchPlan.nodeType.length];
+				nodeResult = new boolean[matchPlan.nodeType.length];
+				queryEpoch = new int[matchPlan.ids.length];
+			}
+			candidateCount = 0;
+		}
+		
+		/**
+		 * Adds the query position as a candidate, if its not already added
+		 **/
+		protected void addCandidate(int query) {
+			if (queryEpoch[query] == epoch) {
+				return;
+			}
+			queryEpoch[query] = epoch;
+			if (candidateCount >= candidates.length) {
+				candidates = Arrays.copyOf(candidates, candidates.length * 2);
+			}
+			candidates[candidateCount++] = query;
+		}
+		
+		/**
+		 * Adds the query positions as candidates
+		 **/
+		protected void addCandidates(int[] queries, int start, int end) {
+			for (int i = start; i < end; ++i) {
+				addCandidate(queries[i]);
+			}
+		}
+		
+		/**
+		 * Evaluates the shared node on the record, at most once per match
+		 **/
+		protected boolean evaluate(int node, Object record) {
+			if (nodeEpoch[node] == epoch) {
+				return nodeResult[node];
+			}
+			
+			boolean result;
+			byte kind = plan.nodeType[node];
+			if (kind == LEAF) {
+				result = plan.leafTests[node].test(record);
+			} else {
+				int[] childNodes = plan.children[node];
+				if (kind == OR) {
+					result = false;
+					for (int i = 0; i < childNodes.length && !result; ++i) {
+						result = evaluate(childNodes[i], record);
+					}
+				} else {
+					// AND passes if every child pass, NOT passes if every child fails,
+					// while a blank combination always fails
+					boolean expected = (kind != NOT);
+					result = childNodes.length > 0;
+					for (int i = 0; i < childNodes.length && result; ++i) {
+						result = (evaluate(childNodes[i], record) == expected);
+					}
+				}
+			}
+			
+			nodeEpoch[node] = epoch;
+			nodeResult[node] = result;
+			return result;
+		}
+	}
+	
+	/**
+	 * Gets the ids of all registered queries, which the record passes
+	 *
+	 * @param  record to match
+	 *
+	 * @return  list of matching query ids, in registration order
+	 **/
+	public List<String> match(Object record) {
+		MatchPlan matchPlan = plan();
+		MatchState state = scratch.get();
+		state.begin(matchPlan);
+		
+		// Collect the candidate queries, from the anchors of each field
+		for (FieldAnchor anchor : matchPlan.anchors) {
+			Object value = anchor.path.get(record);
+			if (!anchor.equalityQueries.isEmpty()) {
+				Object keys = HashFieldIndex.equalityKeys(value);
+				for (Object key : (keys instanceof Object[]) ? (Object[]) keys : new Object[] { keys }) {
+					int[] queries = anchor.equalityQueries.get(key);
+					if (queries != null) {
+						state.addCandidates(queries, 0, queries.length);
+					}
+				}
+			}
+			
+			// Range conditions never pass for null values
+			if (value == null || anchor.lowerQueries.length + anchor.upperQueries.length == 0) {
+				continue;
+			}
+			Number num = CompareUtils.objectToNumberIfPossible(value);
+			double val = (num == null) ? Double.NaN : num.doubleValue();
+			if (Double.isNaN(val)) {
+				// Non numeric values are compared as strings, so every range query is a candidate
+				state.addCandidates(anchor.lowerQueries, 0, anchor.lowerQueries.length);
+				state.addCandidates(anchor.upperQueries, 0, anchor.upperQueries.length);
+				continue;
+			}
+			
+			// String values are compared as strings against string arguments
+			if (value instanceof String) {
+				state.addCandidates(anchor.stringArgumentQueries, 0,
+					anchor.stringArgumentQueries.length);
+			}
+			
+			// Thresholds equal to the value are included, as the final test is exact
+			state.addCandidates(anchor.lowerQueries, 0, boundIndex(anchor.lowerThresholds, val,
+				true));
+			state.addCandidates(anchor.upperQueries, boundIndex(anchor.upperThresholds, val, false),
+				anchor.upperQueries.length);
+		}
+		state.addCandidates(matchPlan.unanchored, 0, matchPlan.unanchored.length);
+		
+		// Verify each candidate, with the shared node results
+		int[] matched = new int[state.candidateCount];
+		int matchCount = 0;
+		for (int i = 0; i < state.candidateCount; ++i) {
+			int query = state.candidates[i];
+			if (state.evaluate(matchPlan.roots[query], record)) {
+				matched[matchCount++] = query;
+			}
+		}
+		Arrays.sort(matched, 0, matchCount);
+		
+		List<String> ret = new ArrayList<String>(matchCount);
+		for (int i = 0; i < matchCount; ++i) {
+			ret.add(matchPlan.ids[matched[i]]);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Binary search of the sorted thresholds
+	 *
+	 * @param  sorted thresholds to search
+	 * @param  value to search for
+	 * @param  after, to return the position after the values equal to the value,
+	 *         else the position before them
+	 *
+	 * @return  the position found
+	 **/
+	protected static int boundIndex(double[] sorted, double value, boolean after) {
+		int lo = 0;
+		int hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < value || (after && sorted[mid] == value)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,453 @@
+package picoded.core.struct.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import picoded.core.struct.query.internal.QueryOptimizer;
+
+/**
+ * Opt-in execution profile of a query, used to find out why a search is slow. For example
+ *
+ * ```
+ * QueryProfile profile = QueryProfile.build("age > ? AND name LIKE ?", new Object[] { 21, "%a%" });
+ * List<Map<String, Object>> res = collection.profileQuery(profile, "age DESC", 0, 10);
+ * System.out.println(profile.explain());
+ * ```
+ *
+ * The profile records
+ *
+ * + the parse time of the query string (including the query plan cache lookup)
+ * + the index path chosen by the collection searched (if any)
+ * + rows scanned, rows returned, and the search time
+ * + the sort (and offset) time
+ * + evaluation count, pass rate, and cumulative time of every node of the evaluated tree
+ *
+ * The evaluated tree is the optimized plan of the query (see QueryOptimizer), with every node
+ * wrapped by a counting Node. The plan is made once, on the first profiled search. Profiled
+ * searches are done sequentially, and without adaptive reordering, so that the explained order
+ * is the order of evaluation. The time of each node includes its children, and the overhead
+ * of the profiling itself.
+ *
+ * Profiling is only done through a QueryProfile, all other searches are left unchanged,
+ * without any profiling overhead. This class is not thread safe.
+ **/
+public class QueryProfile {
+	
+	//--------------------------------------------------------------------
+	// Profiled tree node
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Profiled node of the evaluated tree, which counts the evaluations, passes,
+	 * and time taken of its predicate
+	 **/
+	public static class Node implements Predicate<Object> {
+		
+		protected final String label;
+		protected final double estimatedPassRate;
+		protected final Predicate<Object> predicate;
+		protected final List<Node> children;
+		
+		protected long evaluated = 0;
+		protected long passed = 0;
+		protected long nanos = 0;
+		
+		/**
+		 * Setup the profiled node
+		 *
+		 * @param  label of the node, used by explain
+		 * @param  the estimated pass rate, used by the optimizer
+		 * @param  the predicate to profile
+		 * @param  the profiled children nodes, in their order of evaluation
+		 **/
+		public Node(String label, double estimatedPassRate, Predicate<Object> predicate,
+			List<Node> children) {
+			this.label = label;
+			this.estimatedPassRate = estimatedPassRate;
+			this.predicate = predicate;
+			this.children = (children == null) ? Collections.<Node> emptyList() : children;
+		}
+		
+		@Override
+		public boolean test(Object t) {
+			long start = System.nanoTime();
+			boolean ret = predicate.test(t);
+			nanos += System.nanoTime() - start;
+			++evaluated;
+			if (ret) {
+				++passed;
+			}
+			return ret;
+		}
+		
+		/**
+		 * @return  label of the node
+		 **/
+		public String label() {
+			return label;
+		}
+		
+		/**
+		 * @return  the profiled children nodes, in their order of evaluation
+		 **/
+		public List<Node> children() {
+			return children;
+		}
+		
+		/**
+		 * @return  number of times evaluated
+		 **/
+		public long evaluated() {
+			return evaluated;
+		}
+		
+		/**
+		 * @return  number of times passed
+		 **/
+		public long passed() {
+			return passed;
+		}
+		
+		/**
+		 * @return  the observed pass rate, 0 if never evaluated
+		 **/
+		public double passRate() {
+			return (evaluated == 0) ? 0.0 : ((double) passed) / evaluated;
+		}
+		
+		/**
+		 * @return  the estimated pass rate, used by the optimizer
+		 **/
+		public double estimatedPassRate() {
+			return estimatedPassRate;
+		}
+		
+		/**
+		 * @return  the cumulative time taken in nanoseconds, including its children
+		 **/
+		public long nanos() {
+			return nanos;
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Profile state
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The query profiled
+	 **/
+	protected final Query query;
+	
+	/**
+	 * Root node of the evaluated tree, null if not planned, or if the query always fails
+	 **/
+	protected Node root = null;
+	protected boolean planned = false;
+	
+	/**
+	 * Index path used by the last search, null if not searched
+	 **/
+	protected String indexPath = null;
+	
+	/**
+	 * Recorded statistics
+	 **/
+	protected long parseNanos = 0;
+	protected long searchNanos = 0;
+	protected long sortNanos = 0;
+	protected long rowsScanned = 0;
+	protected long rowsMatched = 0;
+	protected long rowsReturned = 0;
+	
+	//--------------------------------------------------------------------
+	// Constructor, and builder
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Setup the profile, of an already built query
+	 *
+	 * @param  the query to profile
+	 **/
+	public QueryProfile(Query query) {
+		if (query == null) {
+			throw new IllegalArgumentException("Missing query to profile");
+		}
+		this.query = query;
+	}
+	
+	/**
+	 * Build the query using argumented array, with its parse time recorded
+	 *
+	 * @param  the query string
+	 * @param  the argument array
+	 *
+	 * @return  the query profile
+	 **/
+	public static QueryProfile build(String queryString, Object[] argumentArr) {
+		long start = System.nanoTime();
+		QueryProfile ret = new QueryProfile(Query.build(queryString, argumentArr));
+		ret.parseNanos = System.nanoTime() - start;
+		return ret;
+	}
+	
+	/**
+	 * Build the query using the parameter map, with its parse time recorded
+	 *
+	 * @param  the query string
+	 * @param  the parameter map
+	 *
+	 * @return  the query profile
+	 **/
+	public static QueryProfile build(String queryString, Map<String, Object> paramMap) {
+		long start = System.nanoTime();
+		QueryProfile ret = new QueryProfile(Query.build(queryString, paramMap));
+		ret.parseNanos = System.nanoTime() - start;
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Profiled execution
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the profiled predicate, which is planned on its first use, with the pass rates
+	 * sampled from the given collection (see QueryOptimizer.searchPredicate)
+	 *
+	 * @param  collection to be searched
+	 *
+	 * @return  the profiled predicate, or QueryOptimizer.NEVER if the query always fails
+	 **/
+	public Predicate<Object> predicate(Collection<?> collection) {
+		if (!planned) {
+			root = QueryOptimizer.profile(query, collection);
+			planned = true;
+		}
+		return (root == null) ? QueryOptimizer.NEVER : root;
+	}
+	
+	/**
+	 * Searches the collection with a full scan, and returns the resulting set
+	 *
+	 * @param  collection to search
+	 *
+	 * @return  the matching values
+	 **/
+	public <V> List<V> search(Collection<V> collection) {
+		long start = System.nanoTime();
+		Predicate<Object> predicate = predicate(collection);
+		List<V> ret = new ArrayList<V>();
+		if (predicate == QueryOptimizer.NEVER) {
+			recordIndexPath("none, the query always fails");
+			recordSearch(0, 0, System.nanoTime() - start);
+			return ret;
+		}
+		for (V val : collection) {
+			if (predicate.test(val)) {
+				ret.add(val);
+			}
+		}
+		recordIndexPath("full scan");
+		recordSearch(collection.size(), ret.size(), System.nanoTime() - start);
+		return ret;
+	}
+	
+	/**
+	 * Sort and limit the result of a search, with its time recorded
+	 * (see QueryUtils.sortAndOffsetList)
+	 *
+	 * @param   list to sort and return
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  list to return
+	 **/
+	public <V> List<V> sortAndOffset(List<V> list, String orderByStr, int offset, int limit) {
+		long start = System.nanoTime();
+		List<V> ret = QueryUtils.sortAndOffsetList(list, orderByStr, offset, limit);
+		sortNanos += System.nanoTime() - start;
+		rowsReturned += ret.size() - ((list == null) ? 0 : list.size());
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Recording, used by the collections searched
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Records the index path chosen for the search
+	 *
+	 * @param  description of the index path
+	 **/
+	public void recordIndexPath(String path) {
+		indexPath = path;
+	}
+	
+	/**
+	 * Records a search, which adds to the current statistics
+	 *
+	 * @param  number of rows scanned (tested against the query)
+	 * @param  number of rows matched
+	 * @param  time taken in nanoseconds
+	 **/
+	public void recordSearch(long scanned, long matched, long nanos) {
+		rowsScanned += scanned;
+		rowsMatched += matched;
+		rowsReturned += matched;
+		searchNanos += nanos;
+	}
+	
+	//--------------------------------------------------------------------
+	// Statistics accessors
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  the query profiled
+	 **/
+	public Query query() {
+		return query;
+	}
+	
+	/**
+	 * @return  root node of the evaluated tree, null if not searched, or if the query always fails
+	 **/
+	public Node root() {
+		return root;
+	}
+	
+	/**
+	 * @return  the index path of the last search, null if not searched
+	 **/
+	public String indexPath() {
+		return indexPath;
+	}
+	
+	/**
+	 * @return  parse time in nanoseconds, 0 if the query was not built by the profile
+	 **/
+	public long parseNanos() {
+		return parseNanos;
+	}
+	
+	/**
+	 * @return  search time in nanoseconds, including the index lookups
+	 **/
+	public long searchNanos() {
+		return searchNanos;
+	}
+	
+	/**
+	 * @return  sort (and offset) time in nanoseconds
+	 **/
+	public long sortNanos() {
+		return sortNanos;
+	}
+	
+	/**
+	 * @return  number of rows scanned (tested against the query)
+	 **/
+	public long rowsScanned() {
+		return rowsScanned;
+	}
+	
+	/**
+	 * @return  number of rows matching the query
+	 **/
+	public long rowsMatched() {
+		return rowsMatched;
+	}
+	
+	/**
+	 * @return  number of rows returned, after the offset and limit
+	 **/
+	public long rowsReturned() {
+		return rowsReturned;
+	}
+	
+	//--------------------------------------------------------------------
+	// Explain output
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Renders the profile statistics, and the evaluated tree, for example
+	 *
+	 * ```
+	 * Query  : "age" > :0 AND "name" LIKE :1
+	 * Parse  : 0.052 ms
+	 * Index  : SortedFieldIndex "age" > :0, 120 candidate rows
+	 * Search : 120 rows scanned, 40 rows matched, 0.310 ms
+	 * Sort   : 10 rows returned, 0.021 ms
+	 * Plan   :
+	 *   AND : 120 evaluated, 40 passed (33.3%, estimated 8.3%), 0.250 ms
+	 *     "age" > :0 : 120 evaluated, 120 passed (100.0%, estimated 33.0%), 0.040 ms
+	 *     "name" LIKE :1 : 120 evaluated, 40 passed (33.3%, estimated 25.0%), 0.150 ms
+	 * ```
+	 *
+	 * @return  the explain string
+	 **/
+	public String explain() {
+		StringBuilder ret = new StringBuilder();
+		ret.append("Query  : ").append(query.toString()).append("\n");
+		ret.append("Parse  : ").append(millis(parseNanos)).append("\n");
+		ret.append("Index  : ").append((indexPath == null) ? "-" : indexPath).append("\n");
+		ret.append("Search : ").append(rowsScanned).append(" rows scanned, ").append(rowsMatched)
+			.append(" rows matched, ").append(millis(searchNanos)).append("\n");
+		ret.append("Sort   : ").append(rowsReturned).append(" rows returned, ")
+			.append(millis(sortNanos)).append("\n");
+		ret.append("Plan   :\n");
+		if (root != null) {
+			explain(root, 1, ret);
+		} else {
+			ret.append(planned ? "  FALSE : the query always fails\n" : "  - : not searched\n");
+		}
+		return ret.toString();
+	}
+	
+	/**
+	 * Renders the node, and its children
+	 *
+	 * @param  the node to render
+	 * @param  depth of the node
+	 * @param  string builder to render into
+	 **/
+	protected static void explain(Node node, int depth, StringBuilder ret) {
+		for (int i = 0; i < depth; ++i) {
+			ret.append("  ");
+		}
+		ret.append(node.label()).append(" : ").append(node.evaluated()).append(" evaluated, ")
+			.append(node.passed()).append(" passed (").append(percent(node.passRate()))
+			.append(", estimated ").append(percent(node.estimatedPassRate())).append("), ")
+			.append(millis(node.nanos())).append("\n");
+		for (Node child : node.children()) {
+			explain(child, depth + 1, ret);
+		}
+	}
+	
+	/**
+	 * @return  the nanoseconds formatted as milliseconds
+	 **/
+	protected static String millis(long nanos) {
+		return String.format(Locale.ENGLISH, "%.3f ms", nanos / 1000000.0);
+	}
+	
+	/**
+	 * @return  the rate formatted as a percentage
+	 **/
+	protected static String percent(double rate) {
+		return String.format(Locale.ENGLISH, "%.1f%%", rate * 100.0);
+	}
+	
+	/**
+	 * Returns the explain string
+	 **/
+	@Override
+	public String toString() {
+		return explain();
+	}
+}
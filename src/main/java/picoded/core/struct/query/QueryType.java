@@ -29,7 +29,13 @@ public enum QueryType {
 	
 	MORE_THAN(30), MORE_THAN_OR_EQUALS(31),
 	
-	LIKE(40);
+	LIKE(40), ILIKE(41),
+	
+	//--------------------------------------------------------------------
+	// Set membership types
+	//--------------------------------------------------------------------
+	
+	IN(50), NOT_IN(51);
 	
 	//////////////////////////////////////////////////////////////////////
 	//
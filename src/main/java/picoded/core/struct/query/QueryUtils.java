@@ -2,6 +2,10 @@ package picoded.core.struct.query;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.Predicate;
+
+import picoded.core.struct.query.internal.BoundedTopK;
+import picoded.core.struct.query.internal.QueryOptimizer;
 
 /**
  * Collection of query utility functions, used to query a collection and sort its results
@@ -97,12 +101,12 @@ public class QueryUtils {
 			
 			// Lets try to sort the list
 			try {
-				Collections.sort(inList, sorter);
+				sorter.sort(inList);
 			} catch (UnsupportedOperationException e) {
 				// Ok sorting failed, lets try again as array list
 				// As it might have been read only
 				inList = new ArrayList<V>(inList);
-				Collections.sort(inList, sorter);
+				sorter.sort(inList);
 			}
 		}
 		
@@ -111,9 +115,28 @@ public class QueryUtils {
 		return inList;
 	}
 	
+	/**
+	 * Sorts the list in place with the comparator, using the decorate sort undecorate
+	 * implementation when the comparator is an OrderBy
+	 *
+	 * @param  list to sort
+	 * @param  comparator to sort with
+	 **/
+	public static <V> void sortList(List<V> list, Comparator<V> comparator) {
+		if (comparator instanceof OrderBy) {
+			((OrderBy<V>) comparator).sort(list);
+		} else {
+			Collections.sort(list, comparator);
+		}
+	}
+	
 	/**
 	 * Sort and limit the result of a list
 	 *
+	 * When a limit (and order by) is given, the page is selected with a bounded top K
+	 * selection, and the given list is left unmodified. Otherwise the given list is sorted
+	 * in place (see sortList), unless it is read only.
+	 *
 	 * @param   list of DataObject to sort and return. Null returns a blank list
 	 * @param   query string to sort the order by, use null to ignore
 	 * @param   offset of the result to display, use -1 to ignore
@@ -123,10 +146,78 @@ public class QueryUtils {
 	 **/
 	public static <V> List<V> sortAndOffsetList(List<V> list, String orderByStr, int offset,
 		int limit) {
+		// Only the first (offset + limit) values are needed, use a bounded top K selection
+		if (list != null && limit >= 1 && isOrderByString(orderByStr)) {
+			BoundedTopK<V> topK = new BoundedTopK<V>(new OrderBy<V>(orderByStr.trim()), offset, limit);
+			for (V val : list) {
+				topK.accept(val);
+			}
+			return topK.toList();
+		}
+		
 		List<V> sortedList = sortList(list, orderByStr);
 		return offsetList(sortedList, offset, limit);
 	}
 	
+	/**
+	 * Searches the collection, then sort and limit its result.
+	 *
+	 * When a limit is given, the matching values are fed directly into a bounded top K
+	 * selection (or the search ends early, if there is no order by), so the full list
+	 * of matching values is never built.
+	 *
+	 * @param   query to search with, use null to match everything
+	 * @param   collection to search
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  list to return
+	 **/
+	public static <V> List<V> searchSortAndOffset(Query query, Collection<V> collection,
+		String orderByStr, int offset, int limit) {
+		// Without a limit, the full list is needed for sorting anyway
+		if (limit < 1) {
+			List<V> list = (query == null) ? new ArrayList<V>(collection) : query
+				.parallelSearch(collection);
+			return sortAndOffsetList(list, orderByStr, offset, limit);
+		}
+		
+		Predicate<Object> predicate = (query == null) ? null : QueryOptimizer.searchPredicate(
+			query, collection);
+		
+		// Without sorting, stop once the page is filled
+		if (!isOrderByString(orderByStr)) {
+			long pageEnd = Math.max(offset, 0) + (long) limit;
+			List<V> ret = new ArrayList<V>();
+			for (V val : collection) {
+				if (predicate == null || predicate.test(val)) {
+					ret.add(val);
+					if (ret.size() >= pageEnd) {
+						break;
+					}
+				}
+			}
+			return offsetList(ret, Math.max(offset, 0), limit);
+		}
+		
+		// Sorted page, with top K selection
+		BoundedTopK<V> topK = new BoundedTopK<V>(new OrderBy<V>(orderByStr.trim()), offset, limit);
+		for (V val : collection) {
+			if (predicate == null || predicate.test(val)) {
+				topK.accept(val);
+			}
+		}
+		return topK.toList();
+	}
+	
+	/**
+	 * @return  true, if the order by string is not blank
+	 **/
+	protected static boolean isOrderByString(String orderByStr) {
+		return orderByStr != null && orderByStr.trim().length() > 0;
+	}
+	
 	/**
 	 * Utility funciton, used to sort and limit the result of a list
 	 *
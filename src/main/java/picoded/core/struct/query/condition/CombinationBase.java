@@ -3,6 +3,8 @@ package picoded.core.struct.query.condition;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import picoded.core.struct.query.Query;
 import picoded.core.struct.query.QueryType;
@@ -16,7 +18,7 @@ import picoded.core.struct.query.QueryType;
  *
  * Base implmentation is equivalent as Equals
  **/
-public class CombinationBase implements Query {
+public class CombinationBase implements Query, Cloneable {
 	
 	//
 	// Constructor vars
@@ -110,6 +112,131 @@ public class CombinationBase implements Query {
 		return result;
 	}
 	
+	//
+	// Query duplication
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Duplicates the combination, and all its children, with a new default argument map
+	 *
+	 * @param   the new default argument map to use
+	 *
+	 * @return  the duplicated combination, of the same class type
+	 **/
+	@Override
+	public CombinationBase duplicate(Map<String, Object> argMap) {
+		try {
+			CombinationBase ret = (CombinationBase) clone();
+			ret._argMap = argMap;
+			ret._children = new ArrayList<Query>(_children.size());
+			for (Query child : _children) {
+				ret._children.add(child.duplicate(argMap));
+			}
+			return ret;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Duplicates the combination, with all its children bound to the given argument map
+	 *
+	 * @param   the argument map to bind with
+	 *
+	 * @return  the bound combination, of the same class type
+	 **/
+	@Override
+	public CombinationBase bind(Map<String, Object> argMap) {
+		try {
+			CombinationBase ret = (CombinationBase) clone();
+			ret._argMap = argMap;
+			ret._children = new ArrayList<Query>(_children.size());
+			for (Query child : _children) {
+				ret._children.add(child.bind(argMap));
+			}
+			return ret;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Duplicates the combination, with all its children bound to its default argument map
+	 *
+	 * @return  the bound combination, of the same class type
+	 **/
+	@Override
+	public CombinationBase bind() {
+		return bind(_argMap);
+	}
+	
+	//
+	// Query compilation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compiles the combination, and all its children (bound to its default argument map),
+	 * into a flat predicate.
+	 *
+	 * @return  the compiled predicate
+	 **/
+	@Override
+	public Predicate<Object> compile() {
+		CombinationBase bound = bind();
+		List<Predicate<Object>> childPredicates = new ArrayList<Predicate<Object>>();
+		for (Query child : bound._children) {
+			childPredicates.add(child.compile());
+		}
+		return bound.compileCombination(childPredicates);
+	}
+	
+	/**
+	 * Combines the compiled child predicates, in accordance to the combination type.
+	 * This should have the same result as test(Object, Map), which is an AND for the base class.
+	 *
+	 * [to override on extension]
+	 *
+	 * @param   the compiled child predicates
+	 *
+	 * @return  the combined predicate
+	 **/
+	protected Predicate<Object> compileCombination(List<Predicate<Object>> childPredicates) {
+		int size = childPredicates.size();
+		if (size == 0) {
+			return (t) -> false; //blank combination is a failure
+		}
+		if (size == 1) {
+			return childPredicates.get(0);
+		}
+		if (size == 2) {
+			Predicate<Object> left = childPredicates.get(0);
+			Predicate<Object> right = childPredicates.get(1);
+			return (t) -> left.test(t) && right.test(t);
+		}
+		
+		Predicate<Object>[] childArr = predicateArray(childPredicates);
+		return (t) -> {
+			for (Predicate<Object> child : childArr) {
+				if (!child.test(t)) {
+					return false; //breaks and return false on first failure
+				}
+			}
+			return true;
+		};
+	}
+	
+	/**
+	 * Converts the compiled child predicates, to an array for iteration
+	 *
+	 * @param   the compiled child predicates
+	 *
+	 * @return  the predicate array
+	 **/
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static Predicate<Object>[] predicateArray(List<Predicate<Object>> childPredicates) {
+		return childPredicates.toArray(new Predicate[childPredicates.size()]);
+	}
+	
 	//
 	// Public accessors
 	//--------------------------------------------------------------------
@@ -132,6 +259,14 @@ public class CombinationBase implements Query {
 		return QueryType.AND;
 	}
 	
+	/**
+	 * Gets the default argument map, used to test its children
+	 **/
+	@Override
+	public Map<String, Object> defaultArgumentMap() {
+		return _argMap;
+	}
+	
 	/**
 	 * Gets the children conditions
 	 **/
@@ -157,6 +292,26 @@ public class CombinationBase implements Query {
 	 **/
 	@Override
 	public String toString() {
+		return joinChildren(Query::toString);
+	}
+	
+	/**
+	 * The query string, with the SQL array format, where each child is converted
+	 * with its own toSqlString (to allow child specific argument expansion)
+	 **/
+	@Override
+	public String toSqlString() {
+		return joinChildren(Query::toSqlString);
+	}
+	
+	/**
+	 * Joins the children query string, with the combination operator
+	 *
+	 * @param   function to convert each child query to its string
+	 *
+	 * @return  the combined query string
+	 **/
+	protected String joinChildren(Function<Query, String> childString) {
 		StringBuilder ret = new StringBuilder();
 		
 		int iteration = 0;
@@ -173,7 +328,7 @@ public class CombinationBase implements Query {
 				ret.append("(");
 			}
 			
-			ret.append(child.toString());
+			ret.append(childString.apply(child));
 			
 			if (child.isCombinationOperator()) {
 				ret.append(")");
@@ -3,12 +3,16 @@ package picoded.core.struct.query.condition;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 
 import picoded.core.conv.NestedObjectFetch;
 import picoded.core.conv.GenericConvert;
+import picoded.core.struct.query.CompareUtils;
 import picoded.core.struct.query.Query;
 import picoded.core.struct.query.QueryType;
-import picoded.core.struct.query.internal.QueryUtils;
+import picoded.core.struct.query.internal.FieldPath;
+import picoded.core.struct.query.internal.NormalizedArgument;
 
 /**
  * Acts as the base for all conditional types,
@@ -19,7 +23,7 @@ import picoded.core.struct.query.internal.QueryUtils;
  *
  * Base implmentation is equivalent as Equals
  **/
-public class ConditionBase implements Query {
+public class ConditionBase implements Query, Cloneable {
 	
 	//
 	// Constructor vars
@@ -29,6 +33,10 @@ public class ConditionBase implements Query {
 	 * The field name, this/null is reserved to refering to itself
 	 **/
 	protected String _fieldName = null;
+	/**
+	 * The parsed field path, of the field name (see FieldPath)
+	 **/
+	protected FieldPath _fieldPath = null;
 	/**
 	 * The constructed argument name
 	 **/
@@ -38,6 +46,15 @@ public class ConditionBase implements Query {
 	 **/
 	protected Map<String, Object> _argMap = null;
 	
+	/**
+	 * Indicates if the argument value was resolved ahead of time (see bind)
+	 **/
+	protected boolean _isBound = false;
+	/**
+	 * The resolved, and prepared argument value, when bound
+	 **/
+	protected Object _boundArgValue = null;
+	
 	//
 	// Constructor Setup
 	//--------------------------------------------------------------------
@@ -51,6 +68,7 @@ public class ConditionBase implements Query {
 	 **/
 	public ConditionBase(String field, String argName, Map<String, Object> defaultArgMap) {
 		_fieldName = field;
+		_fieldPath = FieldPath.of(field);
 		_argName = argName;
 		_argMap = defaultArgMap;
 	}
@@ -74,6 +92,23 @@ public class ConditionBase implements Query {
 		return NestedObjectFetch.fetchObject(argMap, argName, null);
 	}
 	
+	/**
+	 * Prepares the argument value, for repeated use with testValues.
+	 * This is done once when the condition is bound, instead of once per row tested.
+	 *
+	 * The returned value must be handled by testValues, as an equivalent of the
+	 * original argument value. By default the argument value is used as it is.
+	 *
+	 * [to override on extension]
+	 *
+	 * @param   the argument actual value
+	 *
+	 * @return  the prepared argument value
+	 **/
+	protected Object prepareArgumentValue(Object argValue) {
+		return argValue;
+	}
+	
 	/**
 	 * To test against the specific value, this is the actual
 	 * argument which is being used. After fetching both
@@ -106,11 +141,29 @@ public class ConditionBase implements Query {
 	 *
 	 * @return  boolean indicating success or failure
 	 **/
-	@SuppressWarnings("unchecked")
 	protected boolean getAndTestFieldValue(Object t, Map<String, Object> argMap) {
 		
-		// Argument value to test against
-		Object argValue = getArgumentValue(argMap, _argName);
+		// Argument value to test against, resolved ahead of time if bound
+		Object argValue = null;
+		if (_isBound && argMap == _argMap) {
+			argValue = _boundArgValue;
+		} else {
+			argValue = getArgumentValue(argMap, _argName);
+		}
+		
+		return getAndTestFieldWithArgument(t, argValue);
+	}
+	
+	/**
+	 * Gets the field value, and tests it against the given argument value
+	 *
+	 * @param   object to extract out the field value
+	 * @param   the argument value to test against
+	 *
+	 * @return  boolean indicating success or failure
+	 **/
+	@SuppressWarnings("unchecked")
+	protected boolean getAndTestFieldWithArgument(Object t, Object argValue) {
 		
 		// Allow operation across all key / val mappings, wildcard search
 		if (t instanceof Map) {
@@ -139,9 +192,8 @@ public class ConditionBase implements Query {
 			}
 		}
 		
-		//System.out.println("> "+ QueryUtils.getFieldValue(t, _fieldName) +" = "+argValue);
 		// Get the target value to test, and test it
-		return testValues(QueryUtils.getFieldValue(t, _fieldName), argValue);
+		return testValues(_fieldPath.get(t), argValue);
 	}
 	
 	//
@@ -176,6 +228,205 @@ public class ConditionBase implements Query {
 		return getAndTestFieldValue(t, argMap);
 	}
 	
+	//
+	// Query duplication
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Duplicates the condition, with a new default argument map
+	 *
+	 * @param   the new default argument map to use
+	 *
+	 * @return  the duplicated condition, of the same class type
+	 **/
+	@Override
+	public ConditionBase duplicate(Map<String, Object> argMap) {
+		try {
+			ConditionBase ret = (ConditionBase) clone();
+			ret._argMap = argMap;
+			ret._isBound = false;
+			ret._boundArgValue = null;
+			return ret;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Duplicates the condition, with its argument value resolved, and prepared
+	 * from the given argument map ahead of time.
+	 *
+	 * @param   the argument map to bind with
+	 *
+	 * @return  the bound condition, of the same class type
+	 **/
+	@Override
+	public ConditionBase bind(Map<String, Object> argMap) {
+		ConditionBase ret = duplicate(argMap);
+		ret._boundArgValue = ret.prepareArgumentValue(getArgumentValue(argMap, _argName));
+		ret._isBound = true;
+		return ret;
+	}
+	
+	/**
+	 * Duplicates the condition, with its argument value resolved, and prepared
+	 * from its default argument map ahead of time.
+	 *
+	 * @return  the bound condition, of the same class type
+	 **/
+	@Override
+	public ConditionBase bind() {
+		return bind(_argMap);
+	}
+	
+	//
+	// Query compilation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compiles the condition, with its default argument map value, into a flat predicate.
+	 *
+	 * The field value lookup, and its wildcard handling, is decided once on compilation.
+	 * Along with the value test itself (see compileValueTest).
+	 *
+	 * @return  the compiled predicate
+	 **/
+	@Override
+	@SuppressWarnings("unchecked")
+	public Predicate<Object> compile() {
+		ConditionBase bound = _isBound ? this : bind();
+		Predicate<Object> valueTest = bound.compileValueTest(bound._boundArgValue);
+		String field = _fieldName;
+		
+		// Wildcard search across all keys / values, if its a map
+		if ("_key".equalsIgnoreCase(field) || "_val".equalsIgnoreCase(field)) {
+			boolean isKey = "_key".equalsIgnoreCase(field);
+			return (t) -> {
+				if (!(t instanceof Map)) {
+					return valueTest.test(null);
+				}
+				for (Map.Entry<Object, Object> e : ((Map<Object, Object>) t).entrySet()) {
+					if (valueTest.test(isKey ? e.getKey() : e.getValue())) {
+						return true;
+					}
+				}
+				return false;
+			};
+		}
+		
+		// Testing against itself
+		FieldPath path = _fieldPath;
+		if (path.isSelf()) {
+			return valueTest;
+		}
+		
+		// Testing against the nested field value
+		if (path.isNested()) {
+			return (t) -> valueTest.test(path.get(t));
+		}
+		
+		// Testing against the map field value
+		return (t) -> valueTest.test((t instanceof Map) ? ((Map<String, Object>) t).get(field) : null);
+	}
+	
+	/**
+	 * Compiles the value test, with the prepared argument value.
+	 * By default this calls testValues for every value tested.
+	 *
+	 * [to override on extension]
+	 *
+	 * @param   the prepared argument value (see prepareArgumentValue)
+	 *
+	 * @return  the compiled value test
+	 **/
+	protected Predicate<Object> compileValueTest(Object preparedArg) {
+		return (fieldValue) -> testValues(fieldValue, preparedArg);
+	}
+	
+	/**
+	 * Compiles a value test, for the comparision conditions (using CompareUtils.dynamicCompare).
+	 *
+	 * Where the argument value is a NormalizedArgument, numeric and string values are compared
+	 * directly with the pre parsed argument. Everything else (including null values) falls back
+	 * to testValues, so that the result is the same as the uncompiled test.
+	 *
+	 * @param   the prepared argument value (see prepareArgumentValue)
+	 * @param   the test to apply on the comparision result
+	 *
+	 * @return  the compiled value test
+	 **/
+	protected Predicate<Object> compileCompareTest(Object preparedArg, IntPredicate resultTest) {
+		Predicate<Object> fallback = (fieldValue) -> testValues(fieldValue, preparedArg);
+		if (!(preparedArg instanceof NormalizedArgument)) {
+			return fallback;
+		}
+		
+		NormalizedArgument arg = (NormalizedArgument) preparedArg;
+		String argString = arg.string;
+		
+		// Non numeric string argument
+		if (arg.number == null) {
+			if (!arg.isString) {
+				return fallback;
+			}
+			return (v) -> {
+				if (v instanceof String) {
+					return resultTest.test(CompareUtils.stringCompare((String) v, argString));
+				}
+				return fallback.test(v);
+			};
+		}
+		
+		double argNumber = arg.number.doubleValue();
+		
+		// Numeric argument
+		if (!arg.isString) {
+			return (v) -> {
+				if (v instanceof Number) {
+					return resultTest.test(Double.compare(((Number) v).doubleValue(), argNumber));
+				}
+				return fallback.test(v);
+			};
+		}
+		
+		// Numeric string argument, which is compared as a string, against string values
+		return (v) -> {
+			if (v instanceof Number) {
+				return resultTest.test(Double.compare(((Number) v).doubleValue(), argNumber));
+			}
+			if (v instanceof String) {
+				return resultTest.test(CompareUtils.stringCompare((String) v, argString));
+			}
+			return fallback.test(v);
+		};
+	}
+	
+	/**
+	 * Gets the relative cost of testing a single object, used for query optimization.
+	 * Wildcard (_key / _val) conditions are costed for multiple values.
+	 *
+	 * @return  the estimated cost
+	 **/
+	@Override
+	public double estimateCost() {
+		double cost = estimateValueTestCost();
+		if ("_key".equalsIgnoreCase(_fieldName) || "_val".equalsIgnoreCase(_fieldName)) {
+			cost = cost * 8;
+		}
+		return cost;
+	}
+	
+	/**
+	 * Gets the relative cost of a single testValues call, where a simple equality is 1
+	 *
+	 * [to override on extension]
+	 *
+	 * @return  the estimated cost
+	 **/
+	protected double estimateValueTestCost() {
+		return 1.0;
+	}
+	
 	//
 	// Public accessors
 	//--------------------------------------------------------------------
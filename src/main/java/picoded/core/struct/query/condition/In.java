@@ -0,0 +1,182 @@
+package picoded.core.struct.query.condition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.internal.InArgument;
+
+/**
+ * Set membership condition, where the argument is a collection (or array) of values.
+ *
+ * This is the equivalent of "field = ? OR field = ? ...", for each of the argument values,
+ * with the membership test done with a pre-built set (see InArgument).
+ **/
+public class In extends ConditionBase {
+	
+	//
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The membership set, of the last argument tested (without binding)
+	 **/
+	protected volatile InArgument _lastArgumentSet = null;
+	
+	//
+	// Constructor Setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The constructor with the field name, and default argument
+	 *
+	 * @param   default field to test
+	 * @param   default argument name to test against
+	 * @param   default argument map to get test value
+	 **/
+	public In(String field, String argName, Map<String, Object> defaultArgMap) {
+		super(field, argName, defaultArgMap);
+	}
+	
+	//
+	// Required overwrites
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Builds the membership set once, for repeated tests
+	 *
+	 * @param   the argument actual value
+	 *
+	 * @return  the membership set
+	 **/
+	@Override
+	protected Object prepareArgumentValue(Object argValue) {
+		return InArgument.of(argValue);
+	}
+	
+	/**
+	 * To test against the specific value, this is the actual
+	 * argument which is being used. After fetching both
+	 * the field and argument value
+	 *
+	 * [to override on extension]
+	 *
+	 * @param   the object to test against
+	 * @param   the argument actual value
+	 *
+	 * @return  boolean indicating success or failure
+	 **/
+	@Override
+	protected boolean testValues(Object fieldValue, Object argValue) {
+		return argumentSet(argValue).contains(fieldValue);
+	}
+	
+	/**
+	 * Gets the membership set of the argument, which is only rebuilt when the
+	 * argument instance changes, for repeated tests without binding the query
+	 *
+	 * @param   the argument actual value
+	 *
+	 * @return  the membership set
+	 **/
+	protected InArgument argumentSet(Object argValue) {
+		InArgument set = InArgument.of(argValue, _lastArgumentSet);
+		_lastArgumentSet = set;
+		return set;
+	}
+	
+	/**
+	 * Compiles the value test, with the pre-built membership set
+	 *
+	 * @param   the prepared argument value
+	 *
+	 * @return  the compiled value test
+	 **/
+	@Override
+	protected Predicate<Object> compileValueTest(Object preparedArg) {
+		InArgument set = InArgument.of(preparedArg);
+		return (fieldValue) -> set.contains(fieldValue);
+	}
+	
+	/**
+	 * Gets the relative cost of a single membership test (a hash lookup)
+	 *
+	 * @return  the estimated cost
+	 **/
+	@Override
+	protected double estimateValueTestCost() {
+		return 2.0;
+	}
+	
+	/**
+	 * Gets the argument values, with the default argument map
+	 *
+	 * @return  the argument values list
+	 **/
+	public List<Object> argumentValues() {
+		return InArgument.argumentValues(getArgumentValue(_argMap, _argName));
+	}
+	
+	/**
+	 * The operator symbol support
+	 *
+	 * [to override on extension]
+	 **/
+	@Override
+	public String operatorSymbol() {
+		return "IN";
+	}
+	
+	/**
+	 * Gets the query type
+	 *
+	 * [to override on extension]
+	 **/
+	@Override
+	public QueryType type() {
+		return QueryType.IN;
+	}
+	
+	//
+	// String handling, and argument extraction
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The query string, with the argument collection expanded to a "?" for each value.
+	 * An empty collection is expanded to "()", which some SQL dialects may not accept.
+	 **/
+	@Override
+	public String toSqlString() {
+		StringBuilder ret = new StringBuilder();
+		ret.append("\"").append(fieldName()).append("\" ").append(operatorSymbol()).append(" (");
+		int size = argumentValues().size();
+		for (int i = 0; i < size; ++i) {
+			ret.append((i > 0) ? ", ?" : "?");
+		}
+		return ret.append(")").toString();
+	}
+	
+	/**
+	 * Returns the argument values used, with each of the collection values
+	 * in accordance to toSqlString
+	 **/
+	@Override
+	public List<Object> queryArgumentsList(List<Object> ret) {
+		ret.addAll(argumentValues());
+		return ret;
+	}
+	
+	/**
+	 * Extract out the respective query keys, and each of its values
+	 **/
+	@Override
+	public Map<String, List<Object>> keyValuesMap(Map<String, List<Object>> mapToReturn) {
+		if (mapToReturn.get(_fieldName) == null) {
+			mapToReturn.put(_fieldName, new ArrayList<Object>());
+		}
+		mapToReturn.get(_fieldName).addAll(argumentValues());
+		return mapToReturn;
+	}
+}
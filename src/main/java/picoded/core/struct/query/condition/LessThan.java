@@ -1,9 +1,11 @@
 package picoded.core.struct.query.condition;
 
 import java.util.Map;
+import java.util.function.Predicate;
 
 import picoded.core.struct.query.CompareUtils;
 import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.internal.NormalizedArgument;
 
 public class LessThan extends ConditionBase {
 	
@@ -26,6 +28,18 @@ public class LessThan extends ConditionBase {
 	// Required overwrites
 	//--------------------------------------------------------------------
 	
+	/**
+	 * Normalizes the argument value once, for repeated numeric / string comparision
+	 *
+	 * @param   the argument actual value
+	 *
+	 * @return  the normalized argument value
+	 **/
+	@Override
+	protected Object prepareArgumentValue(Object argValue) {
+		return NormalizedArgument.of(argValue);
+	}
+	
 	/**
 	 * To test against the specific value, this is the actual
 	 * argument which is being used. After fetching both
@@ -47,6 +61,18 @@ public class LessThan extends ConditionBase {
 		//}
 	}
 	
+	/**
+	 * Compiles the value test, with direct numeric and string comparision
+	 *
+	 * @param   the prepared argument value
+	 *
+	 * @return  the compiled value test
+	 **/
+	@Override
+	protected Predicate<Object> compileValueTest(Object preparedArg) {
+		return compileCompareTest(preparedArg, (result) -> result < 0);
+	}
+	
 	/**
 	 * The operator symbol support
 	 *
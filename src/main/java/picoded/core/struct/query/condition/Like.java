@@ -1,12 +1,23 @@
 package picoded.core.struct.query.condition;
 
 import java.util.Map;
+import java.util.function.Predicate;
 
-import picoded.core.struct.query.CompareUtils;
 import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.internal.LikeMatcher;
 
 public class Like extends ConditionBase {
 	
+	//
+	// Compiled matcher
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The last compiled like matcher, this is reused for as long as
+	 * the argument value remains the same.
+	 **/
+	protected volatile LikeMatcher _likeMatcher = null;
+	
 	//
 	// Constructor Setup
 	//--------------------------------------------------------------------
@@ -26,6 +37,21 @@ public class Like extends ConditionBase {
 	// Required overwrites
 	//--------------------------------------------------------------------
 	
+	/**
+	 * Compiles the like matcher once, when the argument value is bound
+	 *
+	 * @param   the argument actual value
+	 *
+	 * @return  the compiled like matcher, or null if there is no argument value
+	 **/
+	@Override
+	protected Object prepareArgumentValue(Object argValue) {
+		if (argValue == null) {
+			return null;
+		}
+		return LikeMatcher.compile(argValue.toString(), isCaseInsensitive());
+	}
+	
 	/**
 	 * To test against the specific value, this is the actual
 	 * argument which is being used. After fetching both
@@ -43,10 +69,80 @@ public class Like extends ConditionBase {
 		if (argValue == null || fieldValue == null) {
 			return false;
 		} //else {
-		return CompareUtils.stringLikeCompare(fieldValue, argValue) == 0;
+		if (argValue instanceof LikeMatcher) {
+			return ((LikeMatcher) argValue).matches(fieldValue.toString());
+		}
+		return likeMatcher(argValue.toString()).matches(fieldValue.toString());
 		//}
 	}
 	
+	/**
+	 * Compiles the value test, with the precompiled like matcher
+	 *
+	 * @param   the prepared argument value
+	 *
+	 * @return  the compiled value test
+	 **/
+	@Override
+	protected Predicate<Object> compileValueTest(Object preparedArg) {
+		if (!(preparedArg instanceof LikeMatcher)) {
+			return super.compileValueTest(preparedArg);
+		}
+		LikeMatcher matcher = (LikeMatcher) preparedArg;
+		return (fieldValue) -> fieldValue != null && matcher.matches(fieldValue.toString());
+	}
+	
+	/**
+	 * Gets the relative cost of a single like match, in accordance to the pattern shape
+	 *
+	 * @return  the estimated cost
+	 **/
+	@Override
+	protected double estimateValueTestCost() {
+		Object arg = _isBound ? _boundArgValue : prepareArgumentValue(getArgumentValue(_argMap,
+			_argName));
+		if (!(arg instanceof LikeMatcher)) {
+			return 1.0;
+		}
+		
+		LikeMatcher.Shape shape = ((LikeMatcher) arg).shape();
+		double cost = 1.0;
+		if (shape == LikeMatcher.Shape.PREFIX || shape == LikeMatcher.Shape.SUFFIX) {
+			cost = 1.5;
+		} else if (shape == LikeMatcher.Shape.CONTAINS) {
+			cost = 4.0;
+		} else if (shape == LikeMatcher.Shape.GENERAL) {
+			cost = 16.0;
+		}
+		return isCaseInsensitive() ? cost * 2 : cost;
+	}
+	
+	/**
+	 * Indicates if the like matching is case insensitive
+	 *
+	 * [to override on extension]
+	 **/
+	public boolean isCaseInsensitive() {
+		return false;
+	}
+	
+	/**
+	 * Gets the compiled like matcher for the given pattern,
+	 * this is only compiled once per argument value
+	 *
+	 * @param   the like pattern
+	 *
+	 * @return  the compiled like matcher
+	 **/
+	protected LikeMatcher likeMatcher(String pattern) {
+		LikeMatcher matcher = _likeMatcher;
+		if (matcher == null || !matcher.isCompiledFor(pattern, isCaseInsensitive())) {
+			matcher = LikeMatcher.compile(pattern, isCaseInsensitive());
+			_likeMatcher = matcher;
+		}
+		return matcher;
+	}
+	
 	/**
 	 * The operator symbol support
 	 *
@@ -1,6 +1,7 @@
 package picoded.core.struct.query.condition;
 
 import java.util.*;
+import java.util.function.Predicate;
 import picoded.core.struct.query.*;
 
 public class Not extends CombinationBase {
@@ -51,6 +52,35 @@ public class Not extends CombinationBase {
 		return result;
 	}
 	
+	/**
+	 * Combines the compiled child predicates, failing on the first child success
+	 *
+	 * @param   the compiled child predicates
+	 *
+	 * @return  the combined predicate
+	 **/
+	@Override
+	protected Predicate<Object> compileCombination(List<Predicate<Object>> childPredicates) {
+		int size = childPredicates.size();
+		if (size == 0) {
+			return (t) -> false; //blank combination is a failure
+		}
+		if (size == 1) {
+			Predicate<Object> child = childPredicates.get(0);
+			return (t) -> !child.test(t);
+		}
+		
+		Predicate<Object>[] childArr = predicateArray(childPredicates);
+		return (t) -> {
+			for (Predicate<Object> child : childArr) {
+				if (child.test(t)) {
+					return false; //breaks and return false on first failure
+				}
+			}
+			return true;
+		};
+	}
+	
 	/**
 	 * Gets the query type
 	 *
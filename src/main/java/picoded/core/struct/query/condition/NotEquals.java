@@ -1,7 +1,9 @@
 package picoded.core.struct.query.condition;
 
 import java.util.*;
+import java.util.function.Predicate;
 import picoded.core.struct.query.*;
+import picoded.core.struct.query.internal.NormalizedArgument;
 
 public class NotEquals extends ConditionBase {
 	//
@@ -23,6 +25,18 @@ public class NotEquals extends ConditionBase {
 	// Required overwrites
 	//--------------------------------------------------------------------
 	
+	/**
+	 * Normalizes the argument value once, for repeated numeric / string comparision
+	 *
+	 * @param   the argument actual value
+	 *
+	 * @return  the normalized argument value
+	 **/
+	@Override
+	protected Object prepareArgumentValue(Object argValue) {
+		return NormalizedArgument.of(argValue);
+	}
+	
 	/**
 	 * To test against the specific value, this is the actual
 	 * argument which is being used. After fetching both
@@ -40,6 +54,18 @@ public class NotEquals extends ConditionBase {
 		return CompareUtils.dynamicCompare(fieldValue, argValue) != 0;
 	}
 	
+	/**
+	 * Compiles the value test, with direct numeric and string comparision
+	 *
+	 * @param   the prepared argument value
+	 *
+	 * @return  the compiled value test
+	 **/
+	@Override
+	protected Predicate<Object> compileValueTest(Object preparedArg) {
+		return compileCompareTest(preparedArg, (result) -> result != 0);
+	}
+	
 	/**
 	 * The operator symbol support
 	 *
@@ -0,0 +1,84 @@
+package picoded.core.struct.query.condition;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.internal.InArgument;
+
+/**
+ * Inverse of the set membership condition, which is the equivalent of
+ * "field != ? AND field != ? ...", for each of the argument values (see In).
+ * An empty argument collection matches everything.
+ **/
+public class NotIn extends In {
+	
+	//
+	// Constructor Setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The constructor with the field name, and default argument
+	 *
+	 * @param   default field to test
+	 * @param   default argument name to test against
+	 * @param   default argument map to get test value
+	 **/
+	public NotIn(String field, String argName, Map<String, Object> defaultArgMap) {
+		super(field, argName, defaultArgMap);
+	}
+	
+	//
+	// Required overwrites
+	//--------------------------------------------------------------------
+	
+	/**
+	 * To test against the specific value, this is the actual
+	 * argument which is being used. After fetching both
+	 * the field and argument value
+	 *
+	 * [to override on extension]
+	 *
+	 * @param   the object to test against
+	 * @param   the argument actual value
+	 *
+	 * @return  boolean indicating success or failure
+	 **/
+	@Override
+	protected boolean testValues(Object fieldValue, Object argValue) {
+		return !argumentSet(argValue).contains(fieldValue);
+	}
+	
+	/**
+	 * Compiles the value test, with the pre-built membership set
+	 *
+	 * @param   the prepared argument value
+	 *
+	 * @return  the compiled value test
+	 **/
+	@Override
+	protected Predicate<Object> compileValueTest(Object preparedArg) {
+		InArgument set = InArgument.of(preparedArg);
+		return (fieldValue) -> !set.contains(fieldValue);
+	}
+	
+	/**
+	 * The operator symbol support
+	 *
+	 * [to override on extension]
+	 **/
+	@Override
+	public String operatorSymbol() {
+		return "NOT IN";
+	}
+	
+	/**
+	 * Gets the query type
+	 *
+	 * [to override on extension]
+	 **/
+	@Override
+	public QueryType type() {
+		return QueryType.NOT_IN;
+	}
+}
@@ -1,6 +1,7 @@
 package picoded.core.struct.query.condition;
 
 import java.util.*;
+import java.util.function.Predicate;
 import picoded.core.struct.query.*;
 
 public class Or extends CombinationBase {
@@ -61,6 +62,39 @@ public class Or extends CombinationBase {
 		return false;
 	}
 	
+	/**
+	 * Combines the compiled child predicates, succeeding on the first success
+	 *
+	 * @param   the compiled child predicates
+	 *
+	 * @return  the combined predicate
+	 **/
+	@Override
+	protected Predicate<Object> compileCombination(List<Predicate<Object>> childPredicates) {
+		int size = childPredicates.size();
+		if (size == 0) {
+			return (t) -> false;
+		}
+		if (size == 1) {
+			return childPredicates.get(0);
+		}
+		if (size == 2) {
+			Predicate<Object> left = childPredicates.get(0);
+			Predicate<Object> right = childPredicates.get(1);
+			return (t) -> left.test(t) || right.test(t);
+		}
+		
+		Predicate<Object>[] childArr = predicateArray(childPredicates);
+		return (t) -> {
+			for (Predicate<Object> child : childArr) {
+				if (child.test(t)) {
+					return true; //succeds on first success
+				}
+			}
+			return false;
+		};
+	}
+	
 	/**
 	 * Gets the query type
 	 *
@@ -0,0 +1,222 @@
+package picoded.core.struct.query.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import picoded.core.struct.query.Query;
+
+/**
+ * Bitmap index of a low cardinality field (such as a status, or type field), which keeps a
+ * compressed bitmap (see RoaringBitmap) of the rows, for each distinct field value.
+ *
+ * Unlike the other indexes, lookups are exact (and not a superset of the matching rows).
+ * A basic condition is tested once against each distinct value (and null), and the
+ * bitmaps of every matching value are merged. This is done for every basic operator,
+ * but is only efficient for fields with few distinct values.
+ *
+ * AND / OR / NOT combinations of conditions on bitmap indexed fields, can then be done
+ * with bitmap operations, without testing any row (see IndexedQueryMapCollection).
+ **/
+public class BitmapFieldIndex implements FieldIndex {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Value id used for rows, with a null (or missing) value
+	 **/
+	protected static final int NULL_ID = -1;
+	
+	/**
+	 * Value id used for rows, which are not indexed
+	 **/
+	protected static final int NOT_INDEXED = -2;
+	
+	/**
+	 * The field name indexed
+	 **/
+	protected final String fieldName;
+	
+	/**
+	 * The distinct values, and their value id
+	 **/
+	protected final List<Object> values = new ArrayList<Object>();
+	protected final Map<Object, Integer> valueIds = new HashMap<Object, Integer>();
+	
+	/**
+	 * The rows of each distinct value, and rows with a null value
+	 **/
+	protected final List<RoaringBitmap> valueRows = new ArrayList<RoaringBitmap>();
+	protected RoaringBitmap nullRows = new RoaringBitmap();
+	
+	/**
+	 * All the rows indexed
+	 **/
+	protected RoaringBitmap allRows = new RoaringBitmap();
+	
+	/**
+	 * The value id of each row, for removal
+	 **/
+	protected int[] rowValueIds = new int[16];
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Constructor with the field name to index
+	 *
+	 * @param  field name to index
+	 **/
+	public BitmapFieldIndex(String fieldName) {
+		this.fieldName = fieldName;
+		Arrays.fill(rowValueIds, NOT_INDEXED);
+	}
+	
+	/**
+	 * @return  the field name indexed
+	 **/
+	@Override
+	public String fieldName() {
+		return fieldName;
+	}
+	
+	/**
+	 * @return  number of distinct (non null) values indexed
+	 **/
+	public int distinctCount() {
+		int ret = 0;
+		for (RoaringBitmap rows : valueRows) {
+			if (!rows.isEmpty()) {
+				++ret;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return  all the rows indexed, which must not be modified
+	 **/
+	public RoaringBitmap allRows() {
+		return allRows;
+	}
+	
+	//--------------------------------------------------------------------
+	// Index updates
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds the row, with its field value to the index
+	 *
+	 * @param  row id to add
+	 * @param  the row field value
+	 **/
+	@Override
+	public void add(int rowId, Object value) {
+		if (rowId >= rowValueIds.length) {
+			int oldLength = rowValueIds.length;
+			rowValueIds = Arrays.copyOf(rowValueIds, Math.max(rowId + 1, oldLength * 2));
+			Arrays.fill(rowValueIds, oldLength, rowValueIds.length, NOT_INDEXED);
+		}
+		
+		int valueId = NULL_ID;
+		if (value == null) {
+			nullRows.add(rowId);
+		} else {
+			Integer id = valueIds.get(value);
+			if (id == null) {
+				id = values.size();
+				values.add(value);
+				valueIds.put(value, id);
+				valueRows.add(new RoaringBitmap());
+			}
+			valueId = id;
+			valueRows.get(valueId).add(rowId);
+		}
+		rowValueIds[rowId] = valueId;
+		allRows.add(rowId);
+	}
+	
+	/**
+	 * Removes the row from the index, using the field value it was added with
+	 *
+	 * @param  row id to remove
+	 **/
+	@Override
+	public void remove(int rowId) {
+		if (rowId >= rowValueIds.length || rowValueIds[rowId] == NOT_INDEXED) {
+			return;
+		}
+		int valueId = rowValueIds[rowId];
+		rowValueIds[rowId] = NOT_INDEXED;
+		if (valueId == NULL_ID) {
+			nullRows.remove(rowId);
+		} else {
+			valueRows.get(valueId).remove(rowId);
+		}
+		allRows.remove(rowId);
+	}
+	
+	/**
+	 * Removes all rows from the index
+	 **/
+	@Override
+	public void clear() {
+		values.clear();
+		valueIds.clear();
+		valueRows.clear();
+		nullRows = new RoaringBitmap();
+		allRows = new RoaringBitmap();
+		rowValueIds = new int[16];
+		Arrays.fill(rowValueIds, NOT_INDEXED);
+	}
+	
+	//--------------------------------------------------------------------
+	// Index lookup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the exact matching rows, of a basic condition on the indexed field
+	 *
+	 * @param  the basic condition to lookup
+	 *
+	 * @return  new bitmap of the matching rows, null if its not a basic condition
+	 **/
+	public RoaringBitmap lookupBitmap(Query condition) {
+		if (!condition.isBasicOperator()) {
+			return null;
+		}
+		
+		RoaringBitmap ret = new RoaringBitmap();
+		if (condition.test(Collections.emptyMap())) {
+			ret = ret.or(nullRows);
+		}
+		int len = values.size();
+		for (int i = 0; i < len; ++i) {
+			RoaringBitmap rows = valueRows.get(i);
+			if (!rows.isEmpty()
+				&& condition.test(Collections.singletonMap(fieldName, values.get(i)))) {
+				ret = ret.or(rows);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the exact matching rows, of a basic condition on the indexed field
+	 *
+	 * @param  the basic condition to lookup
+	 *
+	 * @return  matching row ids, null if its not a basic condition
+	 **/
+	@Override
+	public RowIdSet lookup(Query condition) {
+		RoaringBitmap ret = lookupBitmap(condition);
+		return (ret == null) ? null : ret.toRowIdSet();
+	}
+}
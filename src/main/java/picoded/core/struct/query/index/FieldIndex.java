@@ -0,0 +1,64 @@
+package picoded.core.struct.query.index;
+
+import picoded.core.conv.NestedObjectFetch;
+import picoded.core.struct.query.Query;
+
+/**
+ * Secondary index over a single field, of a collection of rows (identified by their int row id)
+ *
+ * Indexes only need to return a superset of the matching rows, as all
+ * candidate rows are verified against the full query afterwards.
+ **/
+public interface FieldIndex {
+	
+	/**
+	 * @return  the field name indexed
+	 **/
+	String fieldName();
+	
+	/**
+	 * Adds the row, with its field value to the index
+	 *
+	 * @param  row id to add
+	 * @param  the row field value
+	 **/
+	void add(int rowId, Object value);
+	
+	/**
+	 * Removes the row from the index, using the field value it was added with
+	 *
+	 * @param  row id to remove
+	 **/
+	void remove(int rowId);
+	
+	/**
+	 * Removes all rows from the index
+	 **/
+	void clear();
+	
+	/**
+	 * Gets the candidate rows for the condition, on the indexed field
+	 *
+	 * @param  the basic condition to lookup
+	 *
+	 * @return  candidate row ids (a superset of all matching rows), null if the index cannot be used.
+	 *          The returned set may be used internally by the index, and must not be modified.
+	 **/
+	RowIdSet lookup(Query condition);
+	
+	/**
+	 * Gets the argument value of a basic condition, with its default argument map.
+	 * This is consistent with how ConditionBase resolves its argument.
+	 *
+	 * @param  the basic condition
+	 *
+	 * @return  the argument value
+	 **/
+	static Object conditionArgument(Query condition) {
+		if (condition.defaultArgumentMap() == null || condition.argumentName() == null) {
+			return null;
+		}
+		return NestedObjectFetch.fetchObject(condition.defaultArgumentMap(),
+			condition.argumentName(), null);
+	}
+}
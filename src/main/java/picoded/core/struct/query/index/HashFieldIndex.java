@@ -0,0 +1,226 @@
+package picoded.core.struct.query.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import picoded.core.struct.query.CompareUtils;
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.internal.InArgument;
+
+/**
+ * Hash index of a field, used for equality conditions.
+ *
+ * As equality follows CompareUtils.dynamicCompare, each value is indexed under
+ * all the keys it could be equal with
+ *
+ * + its numeric value (as a Double), if its a number, or a numeric string
+ * + its string collation key, if its not a Number
+ * + a null key, for null (or missing) values
+ *
+ * Equality lookups are done with the same keys of the argument value, giving a superset of the matching rows.
+ * Set membership (IN) lookups are done in the same way, for each of the argument values.
+ **/
+public class HashFieldIndex implements FieldIndex {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Key used for null values
+	 **/
+	protected static final Object NULL_KEY = new Object();
+	
+	/**
+	 * The field name indexed
+	 **/
+	protected final String fieldName;
+	
+	/**
+	 * The index key, to its row ids
+	 **/
+	protected final Map<Object, RowIdSet> keyRows = new HashMap<Object, RowIdSet>();
+	
+	/**
+	 * The keys used by each row (a key object, or an Object[] of keys), for removal
+	 **/
+	protected Object[] rowKeys = new Object[16];
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Constructor with the field name to index
+	 *
+	 * @param  field name to index
+	 **/
+	public HashFieldIndex(String fieldName) {
+		this.fieldName = fieldName;
+	}
+	
+	/**
+	 * @return  the field name indexed
+	 **/
+	@Override
+	public String fieldName() {
+		return fieldName;
+	}
+	
+	//--------------------------------------------------------------------
+	// Index keys
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the equality index keys of a value
+	 *
+	 * @param  value to get the keys for
+	 *
+	 * @return  a single key object, or an Object[] of keys
+	 **/
+	public static Object equalityKeys(Object value) {
+		if (value == null) {
+			return NULL_KEY;
+		}
+		if (value instanceof Number) {
+			return Double.valueOf(((Number) value).doubleValue());
+		}
+		
+		Object stringKey = CompareUtils.stringCollationKey(value.toString());
+		Number num = CompareUtils.objectToNumberIfPossible(value);
+		if (num == null) {
+			return stringKey;
+		}
+		return new Object[] { stringKey, Double.valueOf(num.doubleValue()) };
+	}
+	
+	//--------------------------------------------------------------------
+	// Index updates
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds the row, with its field value to the index
+	 *
+	 * @param  row id to add
+	 * @param  the row field value
+	 **/
+	@Override
+	public void add(int rowId, Object value) {
+		Object keys = equalityKeys(value);
+		if (rowId >= rowKeys.length) {
+			rowKeys = Arrays.copyOf(rowKeys, Math.max(rowId + 1, rowKeys.length * 2));
+		}
+		rowKeys[rowId] = keys;
+		
+		if (keys instanceof Object[]) {
+			for (Object key : (Object[]) keys) {
+				addKey(rowId, key);
+			}
+		} else {
+			addKey(rowId, keys);
+		}
+	}
+	
+	/**
+	 * Adds the row id, under a single key
+	 **/
+	protected void addKey(int rowId, Object key) {
+		RowIdSet rows = keyRows.get(key);
+		if (rows == null) {
+			rows = new RowIdSet(1);
+			keyRows.put(key, rows);
+		}
+		rows.add(rowId);
+	}
+	
+	/**
+	 * Removes the row from the index, using the field value it was added with
+	 *
+	 * @param  row id to remove
+	 **/
+	@Override
+	public void remove(int rowId) {
+		if (rowId >= rowKeys.length || rowKeys[rowId] == null) {
+			return;
+		}
+		Object keys = rowKeys[rowId];
+		rowKeys[rowId] = null;
+		
+		if (keys instanceof Object[]) {
+			for (Object key : (Object[]) keys) {
+				removeKey(rowId, key);
+			}
+		} else {
+			removeKey(rowId, keys);
+		}
+	}
+	
+	/**
+	 * Removes the row id, from a single key
+	 **/
+	protected void removeKey(int rowId, Object key) {
+		RowIdSet rows = keyRows.get(key);
+		if (rows != null) {
+			rows.remove(rowId);
+			if (rows.isEmpty()) {
+				keyRows.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Removes all rows from the index
+	 **/
+	@Override
+	public void clear() {
+		keyRows.clear();
+		rowKeys = new Object[16];
+	}
+	
+	//--------------------------------------------------------------------
+	// Index lookup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the candidate rows for an equality condition, or a set membership (IN) condition,
+	 * which is done as a lookup for each of its argument values
+	 *
+	 * @param  the basic condition to lookup
+	 *
+	 * @return  candidate row ids, null if its not an equality, or IN condition
+	 **/
+	@Override
+	public RowIdSet lookup(Query condition) {
+		List<RowIdSet> found = new ArrayList<RowIdSet>();
+		if (condition.type() == QueryType.EQUALS) {
+			addKeyRows(FieldIndex.conditionArgument(condition), found);
+		} else if (condition.type() == QueryType.IN) {
+			for (Object value : InArgument.argumentValues(FieldIndex.conditionArgument(condition))) {
+				addKeyRows(value, found);
+			}
+		} else {
+			return null;
+		}
+		return found.isEmpty() ? new RowIdSet(1) : RowIdSet.union(found);
+	}
+	
+	/**
+	 * Adds the row ids, of each of the value equality keys
+	 *
+	 * @param  value to lookup
+	 * @param  list of row id sets found, to add to
+	 **/
+	protected void addKeyRows(Object value, List<RowIdSet> found) {
+		Object keys = equalityKeys(value);
+		for (Object key : (keys instanceof Object[]) ? (Object[]) keys : new Object[] { keys }) {
+			RowIdSet rows = keyRows.get(key);
+			if (rows != null) {
+				found.add(rows);
+			}
+		}
+	}
+}
@@ -0,0 +1,638 @@
+package picoded.core.struct.query.index;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed bitmap of non negative int row ids, in the "roaring" format.
+ *
+ * Row ids are split by their upper 16 bits, into containers of up to 65536 values each,
+ * where every container uses the smaller of
+ *
+ * + ArrayContainer  : a sorted char[] of the lower 16 bits, for up to 4096 values
+ * + BitmapContainer : a fixed long[1024] bitmap (8 KB), for more than 4096 values
+ *
+ * So sparse bitmaps use 2 bytes per row id, and dense bitmaps use 1 bit per row id.
+ * The and / or / andNot operations return new bitmaps, and are done container by container.
+ **/
+public class RoaringBitmap {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Maximum number of values in an ArrayContainer
+	 **/
+	protected static final int ARRAY_MAX = 4096;
+	
+	/**
+	 * The upper 16 bits of each container, in increasing order
+	 **/
+	protected char[] keys;
+	
+	/**
+	 * The containers, of each key
+	 **/
+	protected Container[] containers;
+	
+	/**
+	 * Number of containers in use
+	 **/
+	protected int size = 0;
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Blank bitmap constructor
+	 **/
+	public RoaringBitmap() {
+		this(4);
+	}
+	
+	/**
+	 * Blank bitmap constructor, with the initial container capacity
+	 **/
+	protected RoaringBitmap(int capacity) {
+		keys = new char[Math.max(capacity, 1)];
+		containers = new Container[keys.length];
+	}
+	
+	/**
+	 * Builds the bitmap from the row ids
+	 *
+	 * @param  row ids to add
+	 *
+	 * @return  the bitmap
+	 **/
+	public static RoaringBitmap of(int... ids) {
+		RoaringBitmap ret = new RoaringBitmap();
+		for (int id : ids) {
+			ret.add(id);
+		}
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Containers
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Set of the lower 16 bits of row ids, with the same upper 16 bits
+	 **/
+	protected abstract static class Container {
+		
+		/**
+		 * @return  number of values
+		 **/
+		abstract int cardinality();
+		
+		abstract boolean contains(char val);
+		
+		/**
+		 * @return  the container with the value, which may be a converted container
+		 **/
+		abstract Container add(char val);
+		
+		/**
+		 * @return  the container without the value, which may be a converted container
+		 **/
+		abstract Container remove(char val);
+		
+		/**
+		 * Calls the consumer with each value (in increasing order), with the upper bits
+		 **/
+		abstract void forEach(int high, IntConsumer consumer);
+		
+		abstract Container copy();
+		
+		/**
+		 * @return  the bitmap words of the container values
+		 **/
+		abstract long[] toWords();
+	}
+	
+	/**
+	 * Sorted array of values
+	 **/
+	protected static class ArrayContainer extends Container {
+		
+		protected char[] values;
+		protected int cardinality;
+		
+		ArrayContainer(int capacity) {
+			values = new char[Math.max(capacity, 4)];
+		}
+		
+		ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+		
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+		
+		@Override
+		boolean contains(char val) {
+			return Arrays.binarySearch(values, 0, cardinality, val) >= 0;
+		}
+		
+		@Override
+		Container add(char val) {
+			// Appending in order (most common case)
+			int pos = cardinality;
+			if (cardinality > 0 && values[cardinality - 1] >= val) {
+				pos = Arrays.binarySearch(values, 0, cardinality, val);
+				if (pos >= 0) {
+					return this;
+				}
+				pos = -pos - 1;
+			}
+			if (cardinality >= ARRAY_MAX) {
+				return toBitmapContainer().add(val);
+			}
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(values.length * 2, ARRAY_MAX));
+			}
+			System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+			values[pos] = val;
+			++cardinality;
+			return this;
+		}
+		
+		@Override
+		Container remove(char val) {
+			int pos = Arrays.binarySearch(values, 0, cardinality, val);
+			if (pos >= 0) {
+				System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+				--cardinality;
+			}
+			return this;
+		}
+		
+		@Override
+		void forEach(int high, IntConsumer consumer) {
+			for (int i = 0; i < cardinality; ++i) {
+				consumer.accept(high | values[i]);
+			}
+		}
+		
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+		}
+		
+		@Override
+		long[] toWords() {
+			long[] words = new long[1024];
+			for (int i = 0; i < cardinality; ++i) {
+				words[values[i] >>> 6] |= (1L << values[i]);
+			}
+			return words;
+		}
+		
+		BitmapContainer toBitmapContainer() {
+			return new BitmapContainer(toWords(), cardinality);
+		}
+		
+		/**
+		 * @param  other container to filter with
+		 * @param  true to keep the values in the other container, false to keep the rest
+		 *
+		 * @return  the filtered values
+		 **/
+		ArrayContainer filter(Container other, boolean keep) {
+			char[] ret = new char[Math.max(cardinality, 1)];
+			int len = 0;
+			for (int i = 0; i < cardinality; ++i) {
+				if (other.contains(values[i]) == keep) {
+					ret[len++] = values[i];
+				}
+			}
+			return new ArrayContainer(ret, len);
+		}
+	}
+	
+	/**
+	 * Fixed bitmap, of all 65536 values
+	 **/
+	protected static class BitmapContainer extends Container {
+		
+		protected final long[] words;
+		protected int cardinality;
+		
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+		
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+		
+		@Override
+		boolean contains(char val) {
+			return (words[val >>> 6] & (1L << val)) != 0;
+		}
+		
+		@Override
+		Container add(char val) {
+			long before = words[val >>> 6];
+			long after = before | (1L << val);
+			if (before != after) {
+				words[val >>> 6] = after;
+				++cardinality;
+			}
+			return this;
+		}
+		
+		@Override
+		Container remove(char val) {
+			long before = words[val >>> 6];
+			long after = before & ~(1L << val);
+			if (before != after) {
+				words[val >>> 6] = after;
+				--cardinality;
+			}
+			return (cardinality <= ARRAY_MAX) ? toArrayContainer() : this;
+		}
+		
+		@Override
+		void forEach(int high, IntConsumer consumer) {
+			for (int w = 0; w < words.length; ++w) {
+				long bits = words[w];
+				while (bits != 0) {
+					consumer.accept(high | (w << 6) | Long.numberOfTrailingZeros(bits));
+					bits &= bits - 1;
+				}
+			}
+		}
+		
+		@Override
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+		
+		@Override
+		long[] toWords() {
+			return words;
+		}
+		
+		ArrayContainer toArrayContainer() {
+			char[] values = new char[Math.max(cardinality, 1)];
+			int len = 0;
+			for (int w = 0; w < words.length; ++w) {
+				long bits = words[w];
+				while (bits != 0) {
+					values[len++] = (char) ((w << 6) | Long.numberOfTrailingZeros(bits));
+					bits &= bits - 1;
+				}
+			}
+			return new ArrayContainer(values, len);
+		}
+	}
+	
+	/**
+	 * Builds the smallest container, from the bitmap words
+	 **/
+	protected static Container fromWords(long[] words) {
+		int cardinality = 0;
+		for (long word : words) {
+			cardinality += Long.bitCount(word);
+		}
+		BitmapContainer ret = new BitmapContainer(words, cardinality);
+		return (cardinality <= ARRAY_MAX) ? ret.toArrayContainer() : ret;
+	}
+	
+	/**
+	 * @return  the intersection of both containers
+	 **/
+	protected static Container and(Container a, Container b) {
+		if (a instanceof ArrayContainer) {
+			return ((ArrayContainer) a).filter(b, true);
+		}
+		if (b instanceof ArrayContainer) {
+			return ((ArrayContainer) b).filter(a, true);
+		}
+		long[] wa = a.toWords();
+		long[] wb = b.toWords();
+		long[] ret = new long[1024];
+		for (int w = 0; w < 1024; ++w) {
+			ret[w] = wa[w] & wb[w];
+		}
+		return fromWords(ret);
+	}
+	
+	/**
+	 * @return  the union of both containers
+	 **/
+	protected static Container or(Container a, Container b) {
+		// Merge of sorted arrays
+		if (a instanceof ArrayContainer && b instanceof ArrayContainer
+			&& a.cardinality() + b.cardinality() <= ARRAY_MAX) {
+			ArrayContainer x = (ArrayContainer) a;
+			ArrayContainer y = (ArrayContainer) b;
+			char[] ret = new char[Math.max(x.cardinality + y.cardinality, 1)];
+			int len = 0;
+			int i = 0;
+			int j = 0;
+			while (i < x.cardinality || j < y.cardinality) {
+				if (j >= y.cardinality || (i < x.cardinality && x.values[i] < y.values[j])) {
+					ret[len++] = x.values[i++];
+				} else if (i >= x.cardinality || x.values[i] > y.values[j]) {
+					ret[len++] = y.values[j++];
+				} else {
+					ret[len++] = x.values[i++];
+					++j;
+				}
+			}
+			return new ArrayContainer(ret, len);
+		}
+		
+		long[] wa = a.toWords();
+		long[] wb = b.toWords();
+		long[] ret = new long[1024];
+		for (int w = 0; w < 1024; ++w) {
+			ret[w] = wa[w] | wb[w];
+		}
+		return fromWords(ret);
+	}
+	
+	/**
+	 * @return  the values of the first container, which are not in the second container
+	 **/
+	protected static Container andNot(Container a, Container b) {
+		if (a instanceof ArrayContainer) {
+			return ((ArrayContainer) a).filter(b, false);
+		}
+		long[] wa = a.toWords();
+		long[] wb = b.toWords();
+		long[] ret = new long[1024];
+		for (int w = 0; w < 1024; ++w) {
+			ret[w] = wa[w] & ~wb[w];
+		}
+		return fromWords(ret);
+	}
+	
+	//--------------------------------------------------------------------
+	// Container lookup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @param  upper 16 bits of the container
+	 *
+	 * @return  the container position, or (-insertion position - 1) if its not found
+	 **/
+	protected int containerIndex(char key) {
+		// Last container (most common case, for appended row ids)
+		if (size > 0 && keys[size - 1] == key) {
+			return size - 1;
+		}
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+	
+	/**
+	 * Appends the container, which must have a larger key than every existing container
+	 **/
+	protected void appendContainer(char key, Container container) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		keys[size] = key;
+		containers[size] = container;
+		++size;
+	}
+	
+	/**
+	 * Removes the container at the given position
+	 **/
+	protected void removeContainer(int pos) {
+		System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+		System.arraycopy(containers, pos + 1, containers, pos, size - pos - 1);
+		--size;
+		containers[size] = null;
+	}
+	
+	//--------------------------------------------------------------------
+	// Bitmap operations
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds the row id
+	 *
+	 * @param  row id to add
+	 **/
+	public void add(int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Invalid negative row id : " + id);
+		}
+		char key = (char) (id >>> 16);
+		int pos = containerIndex(key);
+		if (pos < 0) {
+			pos = -pos - 1;
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				containers = Arrays.copyOf(containers, size * 2);
+			}
+			System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+			System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+			keys[pos] = key;
+			containers[pos] = new ArrayContainer(4);
+			++size;
+		}
+		containers[pos] = containers[pos].add((char) id);
+	}
+	
+	/**
+	 * Removes the row id
+	 *
+	 * @param  row id to remove
+	 *
+	 * @return  true if it was removed
+	 **/
+	public boolean remove(int id) {
+		if (id < 0) {
+			return false;
+		}
+		int pos = containerIndex((char) (id >>> 16));
+		if (pos < 0 || !containers[pos].contains((char) id)) {
+			return false;
+		}
+		containers[pos] = containers[pos].remove((char) id);
+		if (containers[pos].cardinality() == 0) {
+			removeContainer(pos);
+		}
+		return true;
+	}
+	
+	/**
+	 * @param  row id to check
+	 *
+	 * @return  true if the row id is in the bitmap
+	 **/
+	public boolean contains(int id) {
+		if (id < 0) {
+			return false;
+		}
+		int pos = containerIndex((char) (id >>> 16));
+		return pos >= 0 && containers[pos].contains((char) id);
+	}
+	
+	/**
+	 * @return  number of row ids in the bitmap
+	 **/
+	public long cardinality() {
+		long ret = 0;
+		for (int i = 0; i < size; ++i) {
+			ret += containers[i].cardinality();
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return  true if the bitmap is empty
+	 **/
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * @return  a copy of the bitmap
+	 **/
+	public RoaringBitmap copy() {
+		RoaringBitmap ret = new RoaringBitmap(size);
+		for (int i = 0; i < size; ++i) {
+			ret.appendContainer(keys[i], containers[i].copy());
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param  other bitmap to intersect with
+	 *
+	 * @return  new bitmap, of the row ids in both bitmaps
+	 **/
+	public RoaringBitmap and(RoaringBitmap other) {
+		RoaringBitmap ret = new RoaringBitmap(Math.min(size, other.size));
+		int i = 0;
+		int j = 0;
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				++i;
+			} else if (keys[i] > other.keys[j]) {
+				++j;
+			} else {
+				Container c = and(containers[i], other.containers[j]);
+				if (c.cardinality() > 0) {
+					ret.appendContainer(keys[i], c);
+				}
+				++i;
+				++j;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param  other bitmap to merge with
+	 *
+	 * @return  new bitmap, of the row ids in either bitmap
+	 **/
+	public RoaringBitmap or(RoaringBitmap other) {
+		RoaringBitmap ret = new RoaringBitmap(size + other.size);
+		int i = 0;
+		int j = 0;
+		while (i < size || j < other.size) {
+			if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+				ret.appendContainer(keys[i], containers[i].copy());
+				++i;
+			} else if (i >= size || keys[i] > other.keys[j]) {
+				ret.appendContainer(other.keys[j], other.containers[j].copy());
+				++j;
+			} else {
+				ret.appendContainer(keys[i], or(containers[i], other.containers[j]));
+				++i;
+				++j;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param  other bitmap to exclude
+	 *
+	 * @return  new bitmap, of the row ids which are not in the other bitmap
+	 **/
+	public RoaringBitmap andNot(RoaringBitmap other) {
+		RoaringBitmap ret = new RoaringBitmap(size);
+		int j = 0;
+		for (int i = 0; i < size; ++i) {
+			while (j < other.size && other.keys[j] < keys[i]) {
+				++j;
+			}
+			Container c = containers[i];
+			if (j < other.size && other.keys[j] == keys[i]) {
+				c = andNot(c, other.containers[j]);
+				if (c.cardinality() == 0) {
+					continue;
+				}
+			} else {
+				c = c.copy();
+			}
+			ret.appendContainer(keys[i], c);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Calls the consumer with each row id, in increasing order
+	 *
+	 * @param  consumer of the row ids
+	 **/
+	public void forEach(IntConsumer consumer) {
+		for (int i = 0; i < size; ++i) {
+			containers[i].forEach(keys[i] << 16, consumer);
+		}
+	}
+	
+	/**
+	 * @return  the row ids, in increasing order
+	 **/
+	public int[] toArray() {
+		int[] ret = new int[(int) cardinality()];
+		int[] pos = new int[] { 0 };
+		forEach((id) -> ret[pos[0]++] = id);
+		return ret;
+	}
+	
+	/**
+	 * @return  the row ids, as a RowIdSet
+	 **/
+	public RowIdSet toRowIdSet() {
+		int[] arr = toArray();
+		return RowIdSet.fromUnsorted(arr, arr.length);
+	}
+	
+	/**
+	 * @return  approximate memory used by the containers, in bytes
+	 **/
+	public long sizeInBytes() {
+		long ret = 0;
+		for (int i = 0; i < size; ++i) {
+			ret += (containers[i] instanceof BitmapContainer) ? 8192
+				: 2 * ((ArrayContainer) containers[i]).values.length;
+		}
+		return ret + 10L * keys.length;
+	}
+	
+	@Override
+	public String toString() {
+		return "RoaringBitmap[cardinality=" + cardinality() + ", containers=" + size + "]";
+	}
+}
@@ -0,0 +1,218 @@
+package picoded.core.struct.query.index;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted set of int row id, backed by a growable int array.
+ *
+ * Row ids are mostly added in increasing order (as new rows are appended),
+ * which is done in constant time. Out of order inserts, and removal, shifts the array.
+ **/
+public class RowIdSet {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The sorted row ids, and the number of ids in use
+	 **/
+	protected int[] ids;
+	protected int size = 0;
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Blank set constructor
+	 **/
+	public RowIdSet() {
+		this(4);
+	}
+	
+	/**
+	 * Blank set constructor, with the initial capacity
+	 *
+	 * @param  initial capacity
+	 **/
+	public RowIdSet(int capacity) {
+		ids = new int[Math.max(capacity, 1)];
+	}
+	
+	/**
+	 * Builds the set from an unsorted array of row ids (which may contain duplicates)
+	 *
+	 * @param  the row ids array, this is sorted and reused
+	 * @param  number of row ids in the array to use
+	 *
+	 * @return  the row id set
+	 **/
+	public static RowIdSet fromUnsorted(int[] arr, int len) {
+		Arrays.sort(arr, 0, len);
+		
+		// Remove the duplicates
+		int size = 0;
+		for (int i = 0; i < len; ++i) {
+			if (size == 0 || arr[size - 1] != arr[i]) {
+				arr[size++] = arr[i];
+			}
+		}
+		
+		RowIdSet ret = new RowIdSet(0);
+		ret.ids = arr;
+		ret.size = size;
+		return ret;
+	}
+	
+	/**
+	 * Builds the union of several row id sets
+	 *
+	 * @param  list of sets to merge
+	 *
+	 * @return  the merged set
+	 **/
+	public static RowIdSet union(List<RowIdSet> sets) {
+		if (sets.size() == 1) {
+			return sets.get(0);
+		}
+		
+		int total = 0;
+		for (RowIdSet set : sets) {
+			total += set.size;
+		}
+		int[] arr = new int[total];
+		int pos = 0;
+		for (RowIdSet set : sets) {
+			System.arraycopy(set.ids, 0, arr, pos, set.size);
+			pos += set.size;
+		}
+		return fromUnsorted(arr, total);
+	}
+	
+	//--------------------------------------------------------------------
+	// Set operations
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds the row id, if its not already in the set
+	 *
+	 * @param  row id to add
+	 **/
+	public void add(int id) {
+		// Appending in order (most common case)
+		if (size == 0 || ids[size - 1] < id) {
+			ensureCapacity(size + 1);
+			ids[size++] = id;
+			return;
+		}
+		
+		// Out of order insert
+		int pos = Arrays.binarySearch(ids, 0, size, id);
+		if (pos >= 0) {
+			return;
+		}
+		pos = -(pos + 1);
+		ensureCapacity(size + 1);
+		System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+		ids[pos] = id;
+		++size;
+	}
+	
+	/**
+	 * Removes the row id
+	 *
+	 * @param  row id to remove
+	 *
+	 * @return  true if it was removed
+	 **/
+	public boolean remove(int id) {
+		int pos = Arrays.binarySearch(ids, 0, size, id);
+		if (pos < 0) {
+			return false;
+		}
+		System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+		--size;
+		return true;
+	}
+	
+	/**
+	 * @param  row id to check
+	 *
+	 * @return  true if the row id is in the set
+	 **/
+	public boolean contains(int id) {
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+	
+	/**
+	 * Intersects with another set, neither set is modified
+	 *
+	 * @param  the other set
+	 *
+	 * @return  the row ids found in both sets
+	 **/
+	public RowIdSet intersect(RowIdSet other) {
+		RowIdSet ret = new RowIdSet(Math.min(size, other.size));
+		int a = 0;
+		int b = 0;
+		while (a < size && b < other.size) {
+			int idA = ids[a];
+			int idB = other.ids[b];
+			if (idA == idB) {
+				ret.ids[ret.size++] = idA;
+				++a;
+				++b;
+			} else if (idA < idB) {
+				++a;
+			} else {
+				++b;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Ensures the array capacity
+	 **/
+	protected void ensureCapacity(int capacity) {
+		if (capacity > ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(capacity, ids.length * 2));
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Accessors
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  number of row ids
+	 **/
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return  true if there is no row ids
+	 **/
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * @param  position in the set
+	 *
+	 * @return  the row id at the position (in increasing order)
+	 **/
+	public int get(int pos) {
+		return ids[pos];
+	}
+	
+	/**
+	 * @return  a copy of the row ids, in increasing order
+	 **/
+	public int[] toArray() {
+		return Arrays.copyOf(ids, size);
+	}
+}
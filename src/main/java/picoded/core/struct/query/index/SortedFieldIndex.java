@@ -0,0 +1,244 @@
+package picoded.core.struct.query.index;
+
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import picoded.core.struct.query.CompareUtils;
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryType;
+
+/**
+ * Sorted (navigable) index of a field, used for range conditions (<, <=, >, >=).
+ *
+ * As CompareUtils.dynamicCompare has no consistent ordering across mixed value types,
+ * numeric and string values are kept in separate sorted maps. A range lookup is only done
+ * when the field values are all of a single type (ignoring nulls), which is consistent with the argument.
+ *
+ * + all numbers, with a numeric argument (or numeric string argument) : numeric ordering
+ * + all strings, with a string argument : string collation ordering
+ *
+ * Everything else falls back to a full scan (by returning null on lookup).
+ **/
+public class SortedFieldIndex implements FieldIndex {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Marker for values which are neither numbers or strings
+	 **/
+	protected static final Object OTHER_VALUE = new Object();
+	
+	/**
+	 * The field name indexed
+	 **/
+	protected final String fieldName;
+	
+	/**
+	 * Numeric values, and string values sorted maps, to their row ids
+	 **/
+	protected final TreeMap<Double, RowIdSet> numericRows = new TreeMap<Double, RowIdSet>();
+	protected final TreeMap<CollationKey, RowIdSet> stringRows = new TreeMap<CollationKey, RowIdSet>();
+	
+	/**
+	 * Number of rows indexed, for each value type
+	 **/
+	protected int numericCount = 0;
+	protected int stringCount = 0;
+	protected int otherCount = 0;
+	
+	/**
+	 * The key used by each row (Double, CollationKey, or OTHER_VALUE), for removal
+	 **/
+	protected Object[] rowKeys = new Object[16];
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Constructor with the field name to index
+	 *
+	 * @param  field name to index
+	 **/
+	public SortedFieldIndex(String fieldName) {
+		this.fieldName = fieldName;
+	}
+	
+	/**
+	 * @return  the field name indexed
+	 **/
+	@Override
+	public String fieldName() {
+		return fieldName;
+	}
+	
+	//--------------------------------------------------------------------
+	// Index updates
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds the row, with its field value to the index
+	 *
+	 * @param  row id to add
+	 * @param  the row field value
+	 **/
+	@Override
+	public void add(int rowId, Object value) {
+		if (rowId >= rowKeys.length) {
+			rowKeys = Arrays.copyOf(rowKeys, Math.max(rowId + 1, rowKeys.length * 2));
+		}
+		
+		// Null values never match any range
+		if (value == null) {
+			rowKeys[rowId] = null;
+			return;
+		}
+		
+		if (value instanceof Number) {
+			Double key = Double.valueOf(((Number) value).doubleValue());
+			rowKeys[rowId] = key;
+			addKey(numericRows, key, rowId);
+			++numericCount;
+		} else if (value instanceof String) {
+			CollationKey key = CompareUtils.stringCollationKey((String) value);
+			rowKeys[rowId] = key;
+			addKey(stringRows, key, rowId);
+			++stringCount;
+		} else {
+			rowKeys[rowId] = OTHER_VALUE;
+			++otherCount;
+		}
+	}
+	
+	/**
+	 * Adds the row id, under a single key
+	 **/
+	protected static <K> void addKey(TreeMap<K, RowIdSet> map, K key, int rowId) {
+		RowIdSet rows = map.get(key);
+		if (rows == null) {
+			rows = new RowIdSet(1);
+			map.put(key, rows);
+		}
+		rows.add(rowId);
+	}
+	
+	/**
+	 * Removes the row id, from a single key
+	 **/
+	protected static <K> void removeKey(TreeMap<K, RowIdSet> map, K key, int rowId) {
+		RowIdSet rows = map.get(key);
+		if (rows != null) {
+			rows.remove(rowId);
+			if (rows.isEmpty()) {
+				map.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the row from the index, using the field value it was added with
+	 *
+	 * @param  row id to remove
+	 **/
+	@Override
+	public void remove(int rowId) {
+		if (rowId >= rowKeys.length || rowKeys[rowId] == null) {
+			return;
+		}
+		Object key = rowKeys[rowId];
+		rowKeys[rowId] = null;
+		
+		if (key instanceof Double) {
+			removeKey(numericRows, (Double) key, rowId);
+			--numericCount;
+		} else if (key instanceof CollationKey) {
+			removeKey(stringRows, (CollationKey) key, rowId);
+			--stringCount;
+		} else {
+			--otherCount;
+		}
+	}
+	
+	/**
+	 * Removes all rows from the index
+	 **/
+	@Override
+	public void clear() {
+		numericRows.clear();
+		stringRows.clear();
+		numericCount = 0;
+		stringCount = 0;
+		otherCount = 0;
+		rowKeys = new Object[16];
+	}
+	
+	//--------------------------------------------------------------------
+	// Index lookup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the candidate rows for a range condition
+	 *
+	 * @param  the basic condition to lookup
+	 *
+	 * @return  candidate row ids, null if the index cannot be used
+	 **/
+	@Override
+	public RowIdSet lookup(Query condition) {
+		QueryType type = condition.type();
+		if (type != QueryType.LESS_THAN && type != QueryType.LESS_THAN_OR_EQUALS
+			&& type != QueryType.MORE_THAN && type != QueryType.MORE_THAN_OR_EQUALS) {
+			return null;
+		}
+		
+		// Null arguments never match any range
+		Object arg = FieldIndex.conditionArgument(condition);
+		if (arg == null) {
+			return new RowIdSet(1);
+		}
+		
+		// Numeric field values
+		if (stringCount == 0 && otherCount == 0) {
+			Number num = CompareUtils.objectToNumberIfPossible(arg);
+			if (num == null) {
+				return null;
+			}
+			return rangeRows(numericRows, Double.valueOf(num.doubleValue()), type);
+		}
+		
+		// String field values
+		if (numericCount == 0 && otherCount == 0 && arg instanceof String) {
+			return rangeRows(stringRows, CompareUtils.stringCollationKey((String) arg), type);
+		}
+		
+		// Mixed value types
+		return null;
+	}
+	
+	/**
+	 * Gets the rows within the range, of the given key
+	 **/
+	protected static <K> RowIdSet rangeRows(TreeMap<K, RowIdSet> map, K key, QueryType type) {
+		NavigableMap<K, RowIdSet> range = null;
+		if (type == QueryType.LESS_THAN) {
+			range = map.headMap(key, false);
+		} else if (type == QueryType.LESS_THAN_OR_EQUALS) {
+			range = map.headMap(key, true);
+		} else if (type == QueryType.MORE_THAN) {
+			range = map.tailMap(key, false);
+		} else {
+			range = map.tailMap(key, true);
+		}
+		
+		if (range.isEmpty()) {
+			return new RowIdSet(1);
+		}
+		return RowIdSet.union(new ArrayList<RowIdSet>(range.values()));
+	}
+}
@@ -0,0 +1,5 @@
+/**
+ * Secondary indexes, used to narrow down the candidate set of a query
+ * against an in memory collection of maps
+ **/
+package picoded.core.struct.query.index;
@@ -4,6 +4,9 @@ import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 import picoded.core.conv.GenericConvert;
 import picoded.core.struct.MutablePair;
@@ -40,6 +43,10 @@ public class AggregationUtils {
 		map.put("min", new Min());
 		map.put("sum", new Sum());
 		map.put("avg", new Avg());
+		map.put("countDistinct", new CountDistinct());
+		map.put("p50", new Percentile(0.50));
+		map.put("p95", new Percentile(0.95));
+		map.put("p99", new Percentile(0.99));
 		
 		// Save the implementation map for reuse
 		_mapReduceBaseImplementation = map;
@@ -147,19 +154,171 @@ public class AggregationUtils {
 		
 		// 2. Iterate the dataset, and the MapReduceBase
 		for (Object mapDataObj : dataSet) {
-			Map<String, Object> mapData = GenericConvert.toStringMap(mapDataObj);
-			for (int i = 0; i < len; ++i) {
-				mapreduceArray[i].map(mapData, fieldNames[i]);
-			}
+			mapDataObject(mapreduceArray, fieldNames, mapDataObj);
 		}
 		
 		// 3. reduce out the result for each mapreduce implmentation
 		//    into the resulting array
-		for (int i = 0; i < len; ++i) {
+		return reduceMapReduceBase(mapreduceArray);
+	}
+	
+	/**
+	 * Maps a single data object, into each MapReduceBase
+	 * 
+	 * @param  mapreduceArray to use and perform computaton with
+	 * @param  fieldNames     fieldNames to the respective mapreduceArray, to extract values from
+	 * @param  mapDataObj     data object to extract values from
+	 */
+	@SuppressWarnings("unchecked")
+	public static void mapDataObject(MapReduceBase[] mapreduceArray, String[] fieldNames,
+		Object mapDataObj) {
+		Map<String, Object> mapData = (mapDataObj instanceof Map) ? (Map<String, Object>) mapDataObj
+			: GenericConvert.toStringMap(mapDataObj);
+		for (int i = 0; i < mapreduceArray.length; ++i) {
+			mapreduceArray[i].map(mapData, fieldNames[i]);
+		}
+	}
+	
+	/**
+	 * Reduce out the result for each MapReduceBase, into the resulting array
+	 * 
+	 * @param  mapreduceArray to reduce
+	 * 
+	 * @return  BigDecimal array of results
+	 */
+	public static BigDecimal[] reduceMapReduceBase(MapReduceBase[] mapreduceArray) {
+		BigDecimal[] ret = new BigDecimal[mapreduceArray.length];
+		for (int i = 0; i < mapreduceArray.length; ++i) {
 			ret[i] = mapreduceArray[i].reduce();
 		}
-		
-		// 4. return the array of BigDecimal's
 		return ret;
 	}
+	
+	//---------------------------------------
+	//
+	// Partial / parallel computation
+	//
+	//---------------------------------------
+	
+	/**
+	 * Combines the other MapReduceBase array, into the given array
+	 * 
+	 * @param  mapreduceArray to combine into
+	 * @param  otherArray     to combine from, which values are treated as mapped after mapreduceArray
+	 */
+	public static void combineMapReduceBase(MapReduceBase[] mapreduceArray,
+		MapReduceBase[] otherArray) {
+		if (mapreduceArray.length != otherArray.length) {
+			throw new RuntimeException("Unable to combine MapReduceBase arrays of different length : "
+				+ mapreduceArray.length + ", " + otherArray.length);
+		}
+		for (int i = 0; i < mapreduceArray.length; ++i) {
+			mapreduceArray[i].combine(otherArray[i]);
+		}
+	}
+	
+	/**
+	 * Indicates if every MapReduceBase in the array supports combine
+	 * 
+	 * @param  mapreduceArray to check
+	 * 
+	 * @return  true if combine is supported
+	 */
+	public static boolean isCombinable(MapReduceBase[] mapreduceArray) {
+		for (MapReduceBase base : mapreduceArray) {
+			if (!base.isCombinable()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Creates a blank instance of each MapReduceBase in the array
+	 * 
+	 * @param  mapreduceArray to duplicate
+	 * 
+	 * @return  array of new MapReduceBase instances
+	 */
+	public static MapReduceBase[] newInstanceArray(MapReduceBase[] mapreduceArray) {
+		MapReduceBase[] ret = new MapReduceBase[mapreduceArray.length];
+		for (int i = 0; i < ret.length; ++i) {
+			ret[i] = mapreduceArray[i].newInstance();
+		}
+		return ret;
+	}
+	
+	/**
+	 * Given a dataset collection, and the MapReduceBase array, compute the partial result
+	 * (without reducing it). This is done in parallel, with fork join tasks of at least minChunk
+	 * objects, if worthwhile and every MapReduceBase is combinable. Else its done sequentially.
+	 * 
+	 * @param  mapreduceArray to map into, this is used as the first partition
+	 * @param  fieldNames     fieldNames to the respective mapreduceArray, to extract values from
+	 * @param  dataSet        dataset to extract values from to compute
+	 * @param  minChunk       minimum number of objects to process per task
+	 * @param  pool           fork join pool to use, null uses the common pool
+	 */
+	public static void parallelMapMapReduceBase(MapReduceBase[] mapreduceArray,
+		String[] fieldNames, Collection<Object> dataSet, int minChunk, ForkJoinPool pool) {
+		parallelMapMapReduceBase(mapreduceArray, fieldNames, dataSet, null, minChunk, pool);
+	}
+	
+	/**
+	 * Given a dataset collection, and the MapReduceBase array, compute the partial result
+	 * of the values which passes the filter (without reducing it). See the unfiltered
+	 * parallelMapMapReduceBase, where each value is tested and mapped in the same pass.
+	 * 
+	 * @param  mapreduceArray to map into, this is used as the first partition
+	 * @param  fieldNames     fieldNames to the respective mapreduceArray, to extract values from
+	 * @param  dataSet        dataset to extract values from to compute
+	 * @param  filter         to test each value with, which must be safe for concurrent use,
+	 *                        null to map every value
+	 * @param  minChunk       minimum number of objects to process per task
+	 * @param  pool           fork join pool to use, null uses the common pool
+	 * 
+	 * @return  number of values mapped
+	 */
+	public static long parallelMapMapReduceBase(MapReduceBase[] mapreduceArray,
+		String[] fieldNames, Collection<?> dataSet, Predicate<Object> filter, int minChunk,
+		ForkJoinPool pool) {
+		minChunk = ParallelSearch.minChunk(minChunk);
+		pool = ParallelSearch.pool(pool);
+		
+		// Sequential computation
+		if (!isCombinable(mapreduceArray)
+			|| !ParallelSearch.isParallelWorthwhile(dataSet.size(), minChunk, pool)) {
+			long count = 0;
+			for (Object mapDataObj : dataSet) {
+				if (filter == null || filter.test(mapDataObj)) {
+					mapDataObject(mapreduceArray, fieldNames, mapDataObj);
+					++count;
+				}
+			}
+			return count;
+		}
+		
+		// Parallel computation, into a new partial, that is combined back
+		MapReduceBase[] prototypeArray = newInstanceArray(mapreduceArray);
+		LongAdder count = new LongAdder();
+		SpliteratorTask<Object, MapReduceBase[]> task = new SpliteratorTask<>(dataSet
+			.spliterator(), minChunk, (part) -> {
+			// Map this part sequentially
+			MapReduceBase[] ret = newInstanceArray(prototypeArray);
+			long[] partCount = new long[] { 0 };
+			part.forEachRemaining((mapDataObj) -> {
+				if (filter == null || filter.test(mapDataObj)) {
+					mapDataObject(ret, fieldNames, mapDataObj);
+					++partCount[0];
+				}
+			});
+			count.add(partCount[0]);
+			return ret;
+		}, (prefixResult, suffixResult) -> {
+			combineMapReduceBase(prefixResult, suffixResult);
+			return prefixResult;
+		});
+		combineMapReduceBase(mapreduceArray, pool.invoke(task));
+		return count.sum();
+	}
 }
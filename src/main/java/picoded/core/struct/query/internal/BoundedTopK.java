@@ -0,0 +1,240 @@
+package picoded.core.struct.query.internal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bounded top K selection, used for sorted offset / limit pages.
+ *
+ * Values are fed one at a time, and only the first (offset + limit) values, in sorted order,
+ * are kept in a binary max heap. This uses O(K) memory, and O(N log K) comparisons, instead
+ * of sorting the full list of N values.
+ *
+ * Ties are broken by their encounter order, so the resulting page is the same as a full
+ * stable sort (such as Collections.sort), followed by a subList.
+ **/
+public class BoundedTopK<V> implements Consumer<V> {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Comparator used for sorting
+	 **/
+	protected final Comparator<? super V> comparator;
+	
+	/**
+	 * Offset, and limit of the page
+	 **/
+	protected final int offset;
+	protected final int limit;
+	
+	/**
+	 * Maximum number of values to keep (offset + limit)
+	 **/
+	protected final int capacity;
+	
+	//--------------------------------------------------------------------
+	// Heap state
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Max heap of values, and their respective encounter order
+	 **/
+	protected Object[] heapValues;
+	protected long[] heapOrder;
+	
+	/**
+	 * Number of values in the heap
+	 **/
+	protected int heapSize = 0;
+	
+	/**
+	 * Number of values fed so far
+	 **/
+	protected long encountered = 0;
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Setup the top K selection
+	 *
+	 * @param  comparator to sort with
+	 * @param  offset of the page, negative values are treated as 0
+	 * @param  limit of the page, must be 1 or more
+	 **/
+	public BoundedTopK(Comparator<? super V> comparator, int offset, int limit) {
+		if (limit < 1) {
+			throw new RuntimeException("BoundedTopK requires a limit of at least 1 : " + limit);
+		}
+		this.comparator = comparator;
+		this.offset = Math.max(offset, 0);
+		this.limit = limit;
+		this.capacity = (int) Math.min(((long) this.offset) + limit, Integer.MAX_VALUE - 8);
+		
+		// Initial heap size, which is grown as needed (for large offsets)
+		int initialSize = Math.min(capacity, 64);
+		heapValues = new Object[initialSize];
+		heapOrder = new long[initialSize];
+	}
+	
+	//--------------------------------------------------------------------
+	// Heap handling
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compares the 2 values, with their encounter order as a tie breaker
+	 **/
+	@SuppressWarnings("unchecked")
+	protected int compareEntry(Object aVal, long aOrder, Object bVal, long bOrder) {
+		int diff = comparator.compare((V) aVal, (V) bVal);
+		if (diff != 0) {
+			return diff;
+		}
+		return Long.compare(aOrder, bOrder);
+	}
+	
+	/**
+	 * Compares the 2 heap positions
+	 **/
+	protected int compareAt(int a, int b) {
+		return compareEntry(heapValues[a], heapOrder[a], heapValues[b], heapOrder[b]);
+	}
+	
+	/**
+	 * Swap the 2 heap positions
+	 **/
+	protected void swap(int a, int b) {
+		Object val = heapValues[a];
+		heapValues[a] = heapValues[b];
+		heapValues[b] = val;
+		long order = heapOrder[a];
+		heapOrder[a] = heapOrder[b];
+		heapOrder[b] = order;
+	}
+	
+	/**
+	 * Moves the value at the given position up, till the heap is valid
+	 **/
+	protected void siftUp(int pos) {
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (compareAt(pos, parent) <= 0) {
+				return;
+			}
+			swap(pos, parent);
+			pos = parent;
+		}
+	}
+	
+	/**
+	 * Moves the value at the given position down, till the heap is valid
+	 **/
+	protected void siftDown(int pos) {
+		while (true) {
+			int left = pos * 2 + 1;
+			if (left >= heapSize) {
+				return;
+			}
+			int largest = left;
+			int right = left + 1;
+			if (right < heapSize && compareAt(right, left) > 0) {
+				largest = right;
+			}
+			if (compareAt(largest, pos) <= 0) {
+				return;
+			}
+			swap(pos, largest);
+			pos = largest;
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Selection
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Feeds a single value into the selection
+	 *
+	 * @param  value to add
+	 **/
+	@Override
+	public void accept(V value) {
+		long order = encountered++;
+		
+		// Heap is not full yet, add the value
+		if (heapSize < capacity) {
+			if (heapSize == heapValues.length) {
+				int newSize = (int) Math.min(Math.max(((long) heapSize) * 2, 16), capacity);
+				Object[] newValues = new Object[newSize];
+				long[] newOrder = new long[newSize];
+				System.arraycopy(heapValues, 0, newValues, 0, heapSize);
+				System.arraycopy(heapOrder, 0, newOrder, 0, heapSize);
+				heapValues = newValues;
+				heapOrder = newOrder;
+			}
+			heapValues[heapSize] = value;
+			heapOrder[heapSize] = order;
+			siftUp(heapSize);
+			++heapSize;
+			return;
+		}
+		
+		// Heap is full, replace the largest value, only if the new value sorts before it.
+		// As the new value is encountered last, ties are never replaced.
+		if (comparator.compare(value, valueAt(0)) < 0) {
+			heapValues[0] = value;
+			heapOrder[0] = order;
+			siftDown(0);
+		}
+	}
+	
+	/**
+	 * @return  the value at the heap position
+	 **/
+	@SuppressWarnings("unchecked")
+	protected V valueAt(int pos) {
+		return (V) heapValues[pos];
+	}
+	
+	/**
+	 * @return  the number of values fed so far
+	 **/
+	public long encounteredCount() {
+		return encountered;
+	}
+	
+	/**
+	 * Gets the selected page, in sorted order.
+	 * This clears the selection, for any further values fed.
+	 *
+	 * @return  values from offset, up to limit
+	 **/
+	public List<V> toList() {
+		// Sort the heap in place, by repeatedly moving the largest value to the end
+		int size = heapSize;
+		while (heapSize > 1) {
+			swap(0, heapSize - 1);
+			--heapSize;
+			siftDown(0);
+		}
+		heapSize = size;
+		
+		// Extract the page
+		List<V> ret = new ArrayList<V>(Math.max(size - offset, 0));
+		for (int i = offset; i < size; ++i) {
+			ret.add(valueAt(i));
+		}
+		
+		// The heap is no longer valid after sorting, reset it
+		heapSize = 0;
+		heapValues = new Object[0];
+		heapOrder = new long[0];
+		return ret;
+	}
+}
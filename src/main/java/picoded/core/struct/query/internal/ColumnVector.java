@@ -0,0 +1,595 @@
+package picoded.core.struct.query.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import picoded.core.struct.query.CompareUtils;
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.index.FieldIndex;
+
+/**
+ * Single field column, of a columnar table (see ColumnarQueryMapCollection).
+ *
+ * Values are stored in a primitive array of the column type, with a bitmap of the rows
+ * which has a (non null) value. The column type is decided by the first value stored
+ *
+ * + LongColumn   : Long, Integer, Short, and Byte values, stored as long[] (and read as Long)
+ * + DoubleColumn : Double, and Float values, stored as double[] (and read as Double)
+ * + StringColumn : String values, dictionary encoded as int[]
+ * + ObjectColumn : Any other value, stored as Object[]
+ *
+ * A value which does not fit the column type, converts the column to an ObjectColumn.
+ *
+ * Query conditions on the column are evaluated into a selection bitmap, of 64 rows per
+ * long word (where row N is bit N % 64, of word N / 64).
+ **/
+public abstract class ColumnVector {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The field name of the column
+	 **/
+	protected final String name;
+	
+	/**
+	 * Bitmap of rows, which has a value
+	 **/
+	protected long[] present;
+	
+	/**
+	 * Constructor, with the field name and initial row capacity
+	 *
+	 * @param  field name of the column
+	 * @param  initial row capacity
+	 **/
+	protected ColumnVector(String name, int capacity) {
+		this.name = name;
+		this.present = new long[wordCount(capacity)];
+	}
+	
+	/**
+	 * Creates a new column, with the type of the given value
+	 *
+	 * @param  field name of the column
+	 * @param  first value to store, which decides the column type
+	 * @param  initial row capacity
+	 *
+	 * @return  the new column
+	 **/
+	public static ColumnVector forValue(String name, Object value, int capacity) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short
+			|| value instanceof Byte) {
+			return new LongColumn(name, capacity);
+		}
+		if (value instanceof Double || value instanceof Float) {
+			return new DoubleColumn(name, capacity);
+		}
+		if (value instanceof String) {
+			return new StringColumn(name, capacity);
+		}
+		return new ObjectColumn(name, capacity);
+	}
+	
+	//--------------------------------------------------------------------
+	// Bitmap utilities
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @param  number of rows
+	 *
+	 * @return  number of long words needed, for a bitmap of the rows
+	 **/
+	public static int wordCount(int rows) {
+		return (rows + 63) >>> 6;
+	}
+	
+	/**
+	 * @return  true if the bitmap has the row
+	 **/
+	public static boolean getBit(long[] words, int row) {
+		int w = row >>> 6;
+		return w < words.length && (words[w] & (1L << row)) != 0;
+	}
+	
+	/**
+	 * Adds the row to the bitmap, which must be large enough
+	 **/
+	public static void setBit(long[] words, int row) {
+		words[row >>> 6] |= (1L << row);
+	}
+	
+	/**
+	 * Removes the row from the bitmap, which must be large enough
+	 **/
+	public static void clearBit(long[] words, int row) {
+		words[row >>> 6] &= ~(1L << row);
+	}
+	
+	//--------------------------------------------------------------------
+	// Column values
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  the field name of the column
+	 **/
+	public String name() {
+		return name;
+	}
+	
+	/**
+	 * @return  the presence bitmap, of rows which has a value
+	 **/
+	public long[] presentBitmap() {
+		return present;
+	}
+	
+	/**
+	 * @param  row to check
+	 *
+	 * @return  true if the row has a value
+	 **/
+	public boolean has(int row) {
+		return getBit(present, row);
+	}
+	
+	/**
+	 * @param  row to get
+	 *
+	 * @return  the row value, null if there is no value
+	 **/
+	public Object get(int row) {
+		return has(row) ? getValue(row) : null;
+	}
+	
+	/**
+	 * Sets the row value, the value must be accepted by the column, or null
+	 *
+	 * @param  row to set
+	 * @param  value to store, null to remove the row value
+	 **/
+	public void set(int row, Object value) {
+		ensureCapacity(row + 1);
+		if (value == null) {
+			clearBit(present, row);
+			clearValue(row);
+			return;
+		}
+		setValue(row, value);
+		setBit(present, row);
+	}
+	
+	/**
+	 * Ensures the column can store the given number of rows
+	 *
+	 * @param  number of rows
+	 **/
+	public void ensureCapacity(int rows) {
+		int words = wordCount(rows);
+		if (words > present.length) {
+			int newWords = Math.max(words, present.length * 2);
+			present = Arrays.copyOf(present, newWords);
+			resizeValues(newWords << 6);
+		}
+	}
+	
+	/**
+	 * Converts the column values, into an ObjectColumn
+	 *
+	 * @param  number of rows to convert
+	 *
+	 * @return  the converted column
+	 **/
+	public ObjectColumn toObjectColumn(int rows) {
+		ObjectColumn ret = new ObjectColumn(name, rows);
+		for (int i = 0; i < rows; ++i) {
+			if (has(i)) {
+				ret.set(i, getValue(i));
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param  value to check (not null)
+	 *
+	 * @return  true if the value can be stored in the column, as it is
+	 **/
+	public abstract boolean accepts(Object value);
+	
+	/**
+	 * @return  the value of a row, which has a value
+	 **/
+	protected abstract Object getValue(int row);
+	
+	/**
+	 * Stores the (non null) value of a row
+	 **/
+	protected abstract void setValue(int row, Object value);
+	
+	/**
+	 * Clears the stored value of a row, so that it can be garbage collected
+	 * [to override on extension]
+	 **/
+	protected void clearValue(int row) {
+		// Does nothing for primitive values
+	}
+	
+	/**
+	 * Resize the value storage, for the given number of rows
+	 **/
+	protected abstract void resizeValues(int rows);
+	
+	//--------------------------------------------------------------------
+	// Query condition selection
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Evaluates the basic operator condition, on the rows with a value.
+	 * Rows without a value (or outside the row count) are not selected.
+	 *
+	 * The result is the same as the condition test, of a map with only the row value.
+	 *
+	 * @param  condition to evaluate, on the column field
+	 * @param  number of rows
+	 * @param  result selection bitmap, of at least wordCount(rows) words
+	 **/
+	public void select(Query condition, int rows, long[] result) {
+		// Generic evaluation, of each row value
+		String field = name;
+		int words = selectWords(rows, result);
+		for (int w = 0; w < words; ++w) {
+			long bits = present[w];
+			long ret = 0;
+			while (bits != 0) {
+				int b = Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int row = (w << 6) + b;
+				if (row < rows
+					&& condition.test(Collections.singletonMap(field, getValue(row)))) {
+					ret |= (1L << b);
+				}
+			}
+			result[w] = ret;
+		}
+	}
+	
+	/**
+	 * Indicates if the condition result on a numeric value, depends only on how the value
+	 * compares to the argument (see numericOutcomes)
+	 **/
+	protected static boolean isNumericComparison(Query condition) {
+		QueryType type = condition.type();
+		return type == QueryType.EQUALS || type == QueryType.NOT_EQUALS
+			|| type == QueryType.LESS_THAN || type == QueryType.LESS_THAN_OR_EQUALS
+			|| type == QueryType.MORE_THAN || type == QueryType.MORE_THAN_OR_EQUALS;
+	}
+	
+	/**
+	 * @return  the numeric argument of a comparison condition, NaN if its not numeric
+	 **/
+	protected static double numericArgument(Query condition) {
+		Number arg = CompareUtils.objectToNumberIfPossible(FieldIndex.conditionArgument(condition));
+		return (arg == null) ? Double.NaN : arg.doubleValue();
+	}
+	
+	/**
+	 * Gets the comparison condition result, for numeric values which are less, equal, and
+	 * more than the numeric argument (in Double.compare ordering). This is done by testing
+	 * the condition once with a value of each outcome, so that it is consistent with the
+	 * condition comparision (where numbers are compared by their double value).
+	 *
+	 * @param  condition to test
+	 *
+	 * @return  boolean array of the less, equal, and more outcomes
+	 **/
+	protected boolean[] numericOutcomes(Query condition) {
+		boolean[] ret = new boolean[3];
+		Number arg = CompareUtils.objectToNumberIfPossible(FieldIndex.conditionArgument(condition));
+		
+		// Numbers are always more than a non numeric argument, so the result is the same
+		if (arg == null) {
+			Arrays.fill(ret, condition.test(Collections.singletonMap(name, 0L)));
+			return ret;
+		}
+		
+		// NaN is more than every other value, and -Infinity is less (or equal)
+		double threshold = arg.doubleValue();
+		ret[0] = condition.test(Collections.singletonMap(name, Double.NEGATIVE_INFINITY));
+		ret[1] = condition.test(Collections.singletonMap(name, threshold));
+		ret[2] = !Double.isNaN(threshold)
+			&& condition.test(Collections.singletonMap(name, Double.NaN));
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Column types
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Integral number column, stored as long[]
+	 **/
+	public static class LongColumn extends ColumnVector {
+		
+		protected long[] values;
+		
+		public LongColumn(String name, int capacity) {
+			super(name, capacity);
+			values = new long[present.length << 6];
+		}
+		
+		@Override
+		public boolean accepts(Object value) {
+			return value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte;
+		}
+		
+		@Override
+		protected Object getValue(int row) {
+			return values[row];
+		}
+		
+		/**
+		 * @return  the primitive value of a row, 0 if there is no value
+		 **/
+		public long getLong(int row) {
+			return values[row];
+		}
+		
+		@Override
+		protected void setValue(int row, Object value) {
+			values[row] = ((Number) value).longValue();
+		}
+		
+		@Override
+		protected void clearValue(int row) {
+			values[row] = 0;
+		}
+		
+		@Override
+		protected void resizeValues(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+		
+		@Override
+		public void select(Query condition, int rows, long[] result) {
+			if (!isNumericComparison(condition)) {
+				super.select(condition, rows, result);
+				return;
+			}
+			double threshold = numericArgument(condition);
+			boolean[] outcomes = numericOutcomes(condition);
+			boolean less = outcomes[0];
+			boolean equal = outcomes[1];
+			boolean more = outcomes[2];
+			
+			int words = selectWords(rows, result);
+			for (int w = 0; w < words; ++w) {
+				long ret = 0;
+				int base = w << 6;
+				for (int b = 0; b < 64; ++b) {
+					int cmp = Double.compare((double) values[base + b], threshold);
+					if (cmp < 0 ? less : (cmp == 0 ? equal : more)) {
+						ret |= (1L << b);
+					}
+				}
+				result[w] = ret & present[w];
+			}
+			clearTail(result, rows);
+		}
+	}
+	
+	/**
+	 * Floating point number column, stored as double[]
+	 **/
+	public static class DoubleColumn extends ColumnVector {
+		
+		protected double[] values;
+		
+		public DoubleColumn(String name, int capacity) {
+			super(name, capacity);
+			values = new double[present.length << 6];
+		}
+		
+		@Override
+		public boolean accepts(Object value) {
+			return value instanceof Double || value instanceof Float;
+		}
+		
+		@Override
+		protected Object getValue(int row) {
+			return values[row];
+		}
+		
+		/**
+		 * @return  the primitive value of a row, 0 if there is no value
+		 **/
+		public double getDouble(int row) {
+			return values[row];
+		}
+		
+		@Override
+		protected void setValue(int row, Object value) {
+			values[row] = ((Number) value).doubleValue();
+		}
+		
+		@Override
+		protected void clearValue(int row) {
+			values[row] = 0;
+		}
+		
+		@Override
+		protected void resizeValues(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+		
+		@Override
+		public void select(Query condition, int rows, long[] result) {
+			if (!isNumericComparison(condition)) {
+				super.select(condition, rows, result);
+				return;
+			}
+			double threshold = numericArgument(condition);
+			boolean[] outcomes = numericOutcomes(condition);
+			boolean less = outcomes[0];
+			boolean equal = outcomes[1];
+			boolean more = outcomes[2];
+			
+			int words = selectWords(rows, result);
+			for (int w = 0; w < words; ++w) {
+				long ret = 0;
+				int base = w << 6;
+				for (int b = 0; b < 64; ++b) {
+					int cmp = Double.compare(values[base + b], threshold);
+					if (cmp < 0 ? less : (cmp == 0 ? equal : more)) {
+						ret |= (1L << b);
+					}
+				}
+				result[w] = ret & present[w];
+			}
+			clearTail(result, rows);
+		}
+	}
+	
+	/**
+	 * String column, dictionary encoded as int[] codes
+	 **/
+	public static class StringColumn extends ColumnVector {
+		
+		protected int[] codes;
+		protected List<String> dictionary = new ArrayList<String>();
+		protected Map<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+		
+		public StringColumn(String name, int capacity) {
+			super(name, capacity);
+			codes = new int[present.length << 6];
+		}
+		
+		@Override
+		public boolean accepts(Object value) {
+			return value instanceof String;
+		}
+		
+		@Override
+		protected Object getValue(int row) {
+			return dictionary.get(codes[row]);
+		}
+		
+		@Override
+		protected void setValue(int row, Object value) {
+			String str = (String) value;
+			Integer code = dictionaryCodes.get(str);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(str);
+				dictionaryCodes.put(str, code);
+			}
+			codes[row] = code;
+		}
+		
+		@Override
+		protected void resizeValues(int rows) {
+			codes = Arrays.copyOf(codes, rows);
+		}
+		
+		/**
+		 * @return  number of distinct strings stored (including strings which are overwritten)
+		 **/
+		public int dictionarySize() {
+			return dictionary.size();
+		}
+		
+		@Override
+		public void select(Query condition, int rows, long[] result) {
+			// The condition is tested once per distinct string
+			int dictSize = dictionary.size();
+			boolean[] match = new boolean[dictSize];
+			for (int i = 0; i < dictSize; ++i) {
+				match[i] = condition.test(Collections.singletonMap(name, dictionary.get(i)));
+			}
+			
+			int words = selectWords(rows, result);
+			for (int w = 0; w < words; ++w) {
+				long ret = 0;
+				int base = w << 6;
+				for (int b = 0; b < 64; ++b) {
+					if (match[codes[base + b]]) {
+						ret |= (1L << b);
+					}
+				}
+				result[w] = ret & present[w];
+			}
+			clearTail(result, rows);
+		}
+	}
+	
+	/**
+	 * Column of any other value type, stored as Object[]
+	 **/
+	public static class ObjectColumn extends ColumnVector {
+		
+		protected Object[] values;
+		
+		public ObjectColumn(String name, int capacity) {
+			super(name, capacity);
+			values = new Object[present.length << 6];
+		}
+		
+		@Override
+		public boolean accepts(Object value) {
+			return true;
+		}
+		
+		@Override
+		protected Object getValue(int row) {
+			return values[row];
+		}
+		
+		@Override
+		protected void setValue(int row, Object value) {
+			values[row] = value;
+		}
+		
+		@Override
+		protected void clearValue(int row) {
+			values[row] = null;
+		}
+		
+		@Override
+		protected void resizeValues(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+	}
+	
+	/**
+	 * Clears the result words, which are after the column capacity
+	 *
+	 * @param  number of rows
+	 * @param  result selection bitmap
+	 *
+	 * @return  number of result words, to compute from the column
+	 **/
+	protected int selectWords(int rows, long[] result) {
+		int words = wordCount(rows);
+		int ret = Math.min(words, present.length);
+		Arrays.fill(result, ret, words, 0L);
+		return ret;
+	}
+	
+	/**
+	 * Clears the bits of the last word, after the given number of rows
+	 **/
+	protected static void clearTail(long[] result, int rows) {
+		int tail = rows & 63;
+		if (tail != 0 && (rows >>> 6) < result.length) {
+			result[rows >>> 6] &= (1L << tail) - 1;
+		}
+	}
+}
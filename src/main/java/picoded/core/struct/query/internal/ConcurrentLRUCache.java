@@ -0,0 +1,250 @@
+package picoded.core.struct.query.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size bounded, thread safe, least recently used cache.
+ *
+ * This is used internally by the query library, to cache parsed query plans,
+ * and query results. The cache is split into several independently locked segments,
+ * each being an access ordered LinkedHashMap, to reduce lock contention across threads.
+ *
+ * As such the LRU ordering is per segment, and the maximum size is approximate
+ * (rounded up to the number of segments).
+ **/
+public class ConcurrentLRUCache<K, V> {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Default number of segments used
+	 **/
+	protected static final int DEFAULT_SEGMENT_COUNT = 16;
+	
+	/**
+	 * The cache segments, each one locked independently
+	 **/
+	protected final Segment<K, V>[] segments;
+	
+	/**
+	 * The maximum number of entries
+	 **/
+	protected final int maxSize;
+	
+	/**
+	 * Hit / miss / eviction counters
+	 **/
+	protected final LongAdder hits = new LongAdder();
+	protected final LongAdder misses = new LongAdder();
+	protected final LongAdder evictions = new LongAdder();
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Constructor with the maximum cache size
+	 *
+	 * @param  maxSize of the cache, 0 or less disables caching
+	 **/
+	public ConcurrentLRUCache(int maxSize) {
+		this(maxSize, DEFAULT_SEGMENT_COUNT);
+	}
+	
+	/**
+	 * Constructor with the maximum cache size, and segment count
+	 *
+	 * @param  maxSize of the cache, 0 or less disables caching
+	 * @param  segmentCount to split the cache into
+	 **/
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ConcurrentLRUCache(int maxSize, int segmentCount) {
+		this.maxSize = (maxSize > 0) ? maxSize : 0;
+		
+		// Small caches do not need to be segmented
+		if (segmentCount < 1 || this.maxSize < segmentCount * 4) {
+			segmentCount = 1;
+		}
+		
+		// Split the capacity across the segments
+		int segmentSize = (this.maxSize + segmentCount - 1) / segmentCount;
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; ++i) {
+			segments[i] = new Segment<K, V>(segmentSize, evictions);
+		}
+	}
+	
+	/**
+	 * Single LRU segment
+	 **/
+	@SuppressWarnings("serial")
+	protected static class Segment<K, V> extends LinkedHashMap<K, V> {
+		
+		protected final int capacity;
+		protected final LongAdder evictions;
+		
+		Segment(int capacity, LongAdder evictions) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+			this.evictions = evictions;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			if (size() > capacity) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Gets the segment responsible for the key
+	 **/
+	protected Segment<K, V> segmentFor(Object key) {
+		if (segments.length == 1) {
+			return segments[0];
+		}
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+	
+	//--------------------------------------------------------------------
+	// Cache operations
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the cached value, and update the hit / miss counters
+	 *
+	 * @param  key to fetch
+	 *
+	 * @return  the cached value, null if its not cached
+	 **/
+	public V get(K key) {
+		V ret = null;
+		if (maxSize > 0) {
+			Segment<K, V> seg = segmentFor(key);
+			synchronized (seg) {
+				ret = seg.get(key);
+			}
+		}
+		
+		if (ret == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return ret;
+	}
+	
+	/**
+	 * Stores the value, evicting the least recently used value if needed
+	 *
+	 * @param  key to store
+	 * @param  value to store
+	 **/
+	public void put(K key, V value) {
+		if (maxSize <= 0) {
+			return;
+		}
+		Segment<K, V> seg = segmentFor(key);
+		synchronized (seg) {
+			seg.put(key, value);
+		}
+	}
+	
+	/**
+	 * Removes the cached value
+	 *
+	 * @param  key to remove
+	 **/
+	public void remove(K key) {
+		if (maxSize <= 0) {
+			return;
+		}
+		Segment<K, V> seg = segmentFor(key);
+		synchronized (seg) {
+			seg.remove(key);
+		}
+	}
+	
+	/**
+	 * Clears the whole cache (counters are left as it is)
+	 **/
+	public void clear() {
+		for (Segment<K, V> seg : segments) {
+			synchronized (seg) {
+				seg.clear();
+			}
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Cache statistics
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  the current number of cached entries
+	 **/
+	public int size() {
+		int ret = 0;
+		for (Segment<K, V> seg : segments) {
+			synchronized (seg) {
+				ret += seg.size();
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return  the configured maximum size
+	 **/
+	public int maxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * @return  number of cache hits
+	 **/
+	public long hitCount() {
+		return hits.sum();
+	}
+	
+	/**
+	 * @return  number of cache misses
+	 **/
+	public long missCount() {
+		return misses.sum();
+	}
+	
+	/**
+	 * @return  number of least recently used evictions
+	 **/
+	public long evictionCount() {
+		return evictions.sum();
+	}
+	
+	/**
+	 * @return  ratio of hits over total lookups, 0 if there was no lookup
+	 **/
+	public double hitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return (total == 0) ? 0.0 : ((double) h) / total;
+	}
+	
+	/**
+	 * Reset the hit / miss / eviction counters
+	 **/
+	public void resetStats() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+}
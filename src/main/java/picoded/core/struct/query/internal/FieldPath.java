@@ -0,0 +1,242 @@
+package picoded.core.struct.query.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import picoded.core.conv.NestedObjectFetch;
+
+/**
+ * Immutable, pre-parsed query field path, such as "address.city", or "items[0].name".
+ *
+ * The field name is split into its path segments once (when the query is built),
+ * so that fetching the field value of each row is a simple traversal of the nested
+ * maps / lists / arrays, without any substring or string joining.
+ *
+ * For consistency with flattened (fully qualified key) maps, the full field name is
+ * always fetched first as a single map key, before the nested traversal is attempted.
+ *
+ * "this" (or null) refers to the row itself.
+ **/
+public class FieldPath {
+	
+	//--------------------------------------------------------------------
+	// Shared parsed paths
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Field path, refering to the row itself
+	 **/
+	public static final FieldPath SELF = new FieldPath(null);
+	
+	/**
+	 * Cache of parsed field paths, used by FieldPath.of
+	 **/
+	protected static final ConcurrentLRUCache<String, FieldPath> pathCache = new ConcurrentLRUCache<>(
+		1024);
+	
+	/**
+	 * Gets the parsed field path, from a shared cache where possible
+	 *
+	 * @param  field name to parse
+	 *
+	 * @return  the parsed field path
+	 **/
+	public static FieldPath of(String field) {
+		if (field == null || "this".equalsIgnoreCase(field)) {
+			return SELF;
+		}
+		FieldPath ret = pathCache.get(field);
+		if (ret == null) {
+			ret = new FieldPath(field);
+			pathCache.put(field, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param  field name to check
+	 *
+	 * @return  true if the field name is a nested path (with "." or "[")
+	 **/
+	public static boolean isNestedPath(String field) {
+		return field != null && (field.indexOf('.') >= 0 || field.indexOf('[') >= 0);
+	}
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The original field name, null for the row itself
+	 **/
+	protected final String field;
+	
+	/**
+	 * The field path segments, null if its not a nested path
+	 **/
+	protected final String[] segments;
+	
+	/**
+	 * The list / array index of each segment, -1 if its not a valid index
+	 **/
+	protected final int[] indexes;
+	
+	/**
+	 * Parses the field name into its path segments
+	 *
+	 * @param  field name to parse, null for the row itself
+	 **/
+	public FieldPath(String field) {
+		this.field = (field == null || "this".equalsIgnoreCase(field)) ? null : field;
+		
+		if (!isNestedPath(this.field)) {
+			segments = null;
+			indexes = null;
+			return;
+		}
+		
+		segments = NestedObjectFetch.splitObjectPath(this.field);
+		indexes = new int[segments.length];
+		for (int i = 0; i < segments.length; ++i) {
+			indexes[i] = parseIndex(segments[i]);
+		}
+	}
+	
+	/**
+	 * @param  segment to parse
+	 *
+	 * @return  the non negative integer index, or -1 if its not an index
+	 **/
+	protected static int parseIndex(String segment) {
+		int len = segment.length();
+		if (len == 0 || len > 9) {
+			return -1;
+		}
+		int ret = 0;
+		for (int i = 0; i < len; ++i) {
+			char c = segment.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			ret = ret * 10 + (c - '0');
+		}
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Accessors
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  the original field name, null for the row itself
+	 **/
+	public String field() {
+		return field;
+	}
+	
+	/**
+	 * @return  true if the path refers to the row itself
+	 **/
+	public boolean isSelf() {
+		return field == null;
+	}
+	
+	/**
+	 * @return  true if the path is nested (more than a single map key)
+	 **/
+	public boolean isNested() {
+		return segments != null;
+	}
+	
+	/**
+	 * @return  number of path segments
+	 **/
+	public int segmentCount() {
+		if (field == null) {
+			return 0;
+		}
+		return (segments == null) ? 1 : segments.length;
+	}
+	
+	/**
+	 * @param  index of the segment
+	 *
+	 * @return  the path segment
+	 **/
+	public String segment(int index) {
+		if (segments == null) {
+			if (field != null && index == 0) {
+				return field;
+			}
+			throw new IndexOutOfBoundsException("Invalid segment index : " + index);
+		}
+		return segments[index];
+	}
+	
+	//--------------------------------------------------------------------
+	// Field value fetching
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the field value of the given row
+	 *
+	 * @param  row to extract the field value from
+	 *
+	 * @return  The extracted object, null if it does not exist
+	 **/
+	@SuppressWarnings("rawtypes")
+	public Object get(Object row) {
+		if (field == null) {
+			return row;
+		}
+		if (!(row instanceof Map)) {
+			return null;
+		}
+		
+		// Full key match (for flat, or fully qualified key maps)
+		Object ret = ((Map) row).get(field);
+		if (ret != null || segments == null) {
+			return ret;
+		}
+		
+		// Nested traversal, of each segment
+		ret = row;
+		for (int i = 0; i < segments.length && ret != null; ++i) {
+			ret = getSegment(ret, i);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the segment value, of a nested map / list / array
+	 *
+	 * @param  obj to get from
+	 * @param  index of the segment
+	 *
+	 * @return  The segment value, null if it does not exist
+	 **/
+	@SuppressWarnings("rawtypes")
+	protected Object getSegment(Object obj, int index) {
+		if (obj instanceof Map) {
+			return ((Map) obj).get(segments[index]);
+		}
+		int pos = indexes[index];
+		if (pos < 0) {
+			return null;
+		}
+		if (obj instanceof List) {
+			List list = (List) obj;
+			return (pos < list.size()) ? list.get(pos) : null;
+		}
+		if (obj instanceof Object[]) {
+			Object[] arr = (Object[]) obj;
+			return (pos < arr.length) ? arr[pos] : null;
+		}
+		return null;
+	}
+	
+	@Override
+	public String toString() {
+		return (field == null) ? "this" : field;
+	}
+}
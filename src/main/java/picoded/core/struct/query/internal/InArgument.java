@@ -0,0 +1,256 @@
+package picoded.core.struct.query.internal;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import picoded.core.struct.query.CompareUtils;
+import picoded.core.struct.query.index.HashFieldIndex;
+
+/**
+ * Set membership argument, of the IN / NOT IN conditions, which is built once
+ * for repeated membership tests (see Query.bind).
+ *
+ * A value is a member, if it is equal (see the Equals condition) to any of the argument values.
+ * Which is the same result as a chain of "field = ? OR field = ? ...", without testing every value.
+ *
+ * + if every argument value is a Number, a sorted double[] is used, with a binary search
+ * + else the argument values are hashed, by their HashFieldIndex.equalityKeys. Where only the
+ *   argument values, which share a key with the tested value are compared.
+ *
+ * The argument may be a Collection, an array, or a single value. With null being an empty set.
+ **/
+public class InArgument {
+	
+	/**
+	 * The argument the set was built from, for reuse (see of(Object, InArgument))
+	 **/
+	protected final Object source;
+	
+	/**
+	 * The original argument values
+	 **/
+	protected final List<Object> values;
+	
+	/**
+	 * Sorted numeric values, if all argument values are numbers, else null
+	 **/
+	protected final double[] numbers;
+	
+	/**
+	 * The equality key, to its argument values (a NormalizedArgument, or a List of them)
+	 **/
+	protected final Map<Object, Object> keyValues;
+	
+	/**
+	 * Indicates if a null value is in the argument values
+	 **/
+	protected final boolean hasNull;
+	
+	/**
+	 * Build the membership set of the argument values
+	 *
+	 * @param  argument the values were taken from
+	 * @param  argument values to use
+	 **/
+	protected InArgument(Object source, List<Object> values) {
+		this.source = source;
+		this.values = Collections.unmodifiableList(values);
+		
+		// Numeric only argument values
+		boolean allNumbers = true;
+		for (Object val : values) {
+			if (!(val instanceof Number)) {
+				allNumbers = false;
+				break;
+			}
+		}
+		if (allNumbers) {
+			double[] sorted = new double[values.size()];
+			for (int i = 0; i < sorted.length; ++i) {
+				sorted[i] = ((Number) values.get(i)).doubleValue();
+			}
+			Arrays.sort(sorted);
+			this.numbers = sorted;
+			this.keyValues = null;
+			this.hasNull = false;
+			return;
+		}
+		
+		// Mixed argument values, hashed by their equality keys
+		boolean foundNull = false;
+		Map<Object, Object> keyMap = new HashMap<Object, Object>();
+		for (Object val : values) {
+			if (val == null) {
+				foundNull = true;
+				continue;
+			}
+			NormalizedArgument arg = NormalizedArgument.of(val);
+			Object keys = HashFieldIndex.equalityKeys(val);
+			if (keys instanceof Object[]) {
+				for (Object key : (Object[]) keys) {
+					addKeyValue(keyMap, key, arg);
+				}
+			} else {
+				addKeyValue(keyMap, keys, arg);
+			}
+		}
+		this.numbers = null;
+		this.keyValues = keyMap;
+		this.hasNull = foundNull;
+	}
+	
+	/**
+	 * Adds the argument value, under a single equality key
+	 **/
+	@SuppressWarnings("unchecked")
+	protected static void addKeyValue(Map<Object, Object> keyMap, Object key,
+		NormalizedArgument arg) {
+		Object found = keyMap.get(key);
+		if (found == null) {
+			keyMap.put(key, arg);
+		} else if (found instanceof List) {
+			((List<Object>) found).add(arg);
+		} else {
+			List<Object> list = new ArrayList<Object>();
+			list.add(found);
+			list.add(arg);
+			keyMap.put(key, list);
+		}
+	}
+	
+	/**
+	 * Gets the list of values, of a collection, array, or single value argument
+	 *
+	 * @param  argument value
+	 *
+	 * @return  the argument values, empty if the argument is null
+	 **/
+	public static List<Object> argumentValues(Object argValue) {
+		if (argValue instanceof InArgument) {
+			return ((InArgument) argValue).values;
+		}
+		List<Object> ret = new ArrayList<Object>();
+		if (argValue == null) {
+			return ret;
+		}
+		if (argValue instanceof Collection) {
+			ret.addAll((Collection<?>) argValue);
+		} else if (argValue.getClass().isArray()) {
+			int len = Array.getLength(argValue);
+			for (int i = 0; i < len; ++i) {
+				ret.add(Array.get(argValue, i));
+			}
+		} else {
+			ret.add(argValue);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Build the membership set of the argument
+	 *
+	 * @param  a collection, array, or single value argument
+	 *
+	 * @return  the membership set
+	 **/
+	public static InArgument of(Object argValue) {
+		if (argValue instanceof InArgument) {
+			return (InArgument) argValue;
+		}
+		return new InArgument(argValue, argumentValues(argValue));
+	}
+	
+	/**
+	 * Build the membership set of the argument, reusing the previously built set
+	 * if it was built from the same argument instance. Used for unbound queries,
+	 * which are tested with the same argument repeatedly.
+	 *
+	 * Note that a collection (or array) argument, modified after the set was built,
+	 * is not reflected in the reused set (the same as a bound query).
+	 *
+	 * @param  a collection, array, or single value argument
+	 * @param  previously built set, can be null
+	 *
+	 * @return  the membership set
+	 **/
+	public static InArgument of(Object argValue, InArgument previous) {
+		if (previous != null && previous.source == argValue) {
+			return previous;
+		}
+		return of(argValue);
+	}
+	
+	/**
+	 * @return  the argument values, which must not be modified
+	 **/
+	public List<Object> values() {
+		return values;
+	}
+	
+	/**
+	 * Test if the value is equal to any of the argument values
+	 *
+	 * @param  value to test
+	 *
+	 * @return  true if its a member
+	 **/
+	public boolean contains(Object value) {
+		
+		// Numeric only argument values
+		if (numbers != null) {
+			if (numbers.length == 0 || value == null) {
+				return false;
+			}
+			Number num = CompareUtils.objectToNumberIfPossible(value);
+			return num != null && Arrays.binarySearch(numbers, num.doubleValue()) >= 0;
+		}
+		
+		if (value == null) {
+			return hasNull;
+		}
+		Object keys = HashFieldIndex.equalityKeys(value);
+		if (keys instanceof Object[]) {
+			for (Object key : (Object[]) keys) {
+				if (containsWithKey(key, value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return containsWithKey(keys, value);
+	}
+	
+	/**
+	 * Test if the value is equal to any argument values, with the same equality key
+	 **/
+	@SuppressWarnings("unchecked")
+	protected boolean containsWithKey(Object key, Object value) {
+		Object found = keyValues.get(key);
+		if (found == null) {
+			return false;
+		}
+		if (found instanceof List) {
+			for (Object arg : (List<Object>) found) {
+				if (CompareUtils.dynamicCompareNormalized(value, (NormalizedArgument) arg) == 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return CompareUtils.dynamicCompareNormalized(value, (NormalizedArgument) found) == 0;
+	}
+	
+	/**
+	 * The argument values string
+	 **/
+	@Override
+	public String toString() {
+		return values.toString();
+	}
+}
@@ -0,0 +1,270 @@
+package picoded.core.struct.query.internal;
+
+import java.util.regex.Pattern;
+
+/**
+ * Precompiled SQL 'LIKE' pattern matcher, where '%' matches any sequence of characters.
+ *
+ * The pattern is classified on compilation into one of the following shapes,
+ * each with its own allocation free matcher
+ *
+ * + EXACT    : "abc"
+ * + PREFIX   : "abc%"
+ * + SUFFIX   : "%abc"
+ * + CONTAINS : "%abc%"
+ * + GENERAL  : anything else, such as "a%b%c", which falls back to a regex Pattern
+ *
+ * All other characters are matched literally, including regex special characters.
+ * Compiled matchers are cached by their pattern, as they are immutable.
+ **/
+public class LikeMatcher {
+	
+	//--------------------------------------------------------------------
+	// Pattern shapes
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Pattern shape types, used to choose the matcher
+	 **/
+	public enum Shape {
+		EXACT, PREFIX, SUFFIX, CONTAINS, GENERAL
+	}
+	
+	/**
+	 * Cached case sensitive matchers, by their like pattern
+	 **/
+	protected static final ConcurrentLRUCache<String, LikeMatcher> matcherCache = //
+		new ConcurrentLRUCache<String, LikeMatcher>(256);
+	
+	/**
+	 * Cached case insensitive matchers, by their like pattern
+	 **/
+	protected static final ConcurrentLRUCache<String, LikeMatcher> insensitiveMatcherCache = //
+		new ConcurrentLRUCache<String, LikeMatcher>(256);
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The original like pattern
+	 **/
+	protected final String pattern;
+	
+	/**
+	 * Case insensitive matching
+	 **/
+	protected final boolean caseInsensitive;
+	
+	/**
+	 * The pattern shape
+	 **/
+	protected final Shape shape;
+	
+	/**
+	 * The literal string used by the non GENERAL shapes (without the '%')
+	 **/
+	protected final String literal;
+	
+	/**
+	 * The regex pattern used by GENERAL shapes
+	 **/
+	protected final Pattern regex;
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compiles the like pattern
+	 *
+	 * @param  pattern to compile, where '%' matches any sequence of characters
+	 * @param  caseInsensitive matching
+	 **/
+	protected LikeMatcher(String pattern, boolean caseInsensitive) {
+		this.pattern = pattern;
+		this.caseInsensitive = caseInsensitive;
+		
+		// Leading and trailing wildcards (with repeated "%%" collapsed)
+		int len = pattern.length();
+		int leading = 0;
+		while (leading < len && pattern.charAt(leading) == '%') {
+			++leading;
+		}
+		int trailing = len;
+		while (trailing > leading && pattern.charAt(trailing - 1) == '%') {
+			--trailing;
+		}
+		
+		// Classify the pattern shape
+		if (pattern.indexOf('%') < 0) {
+			shape = Shape.EXACT;
+		} else if (pattern.lastIndexOf('%', trailing - 1) >= leading) {
+			// There is an inner wildcard, between the leading and trailing wildcards
+			shape = Shape.GENERAL;
+		} else if (leading > 0 && trailing < len) {
+			shape = Shape.CONTAINS;
+		} else if (leading > 0) {
+			shape = Shape.SUFFIX;
+		} else {
+			shape = Shape.PREFIX;
+		}
+		
+		// Setup the respective literal, or regex
+		if (shape == Shape.GENERAL) {
+			literal = null;
+			regex = generalPattern(pattern, caseInsensitive);
+		} else {
+			literal = pattern.substring(leading, trailing);
+			regex = null;
+		}
+	}
+	
+	/**
+	 * Compiles the like pattern, or gets its cached matcher
+	 *
+	 * @param  pattern to compile, where '%' matches any sequence of characters
+	 * @param  caseInsensitive matching
+	 *
+	 * @return  the like matcher
+	 **/
+	public static LikeMatcher compile(String pattern, boolean caseInsensitive) {
+		ConcurrentLRUCache<String, LikeMatcher> cache = caseInsensitive ? insensitiveMatcherCache
+			: matcherCache;
+		LikeMatcher ret = cache.get(pattern);
+		if (ret == null) {
+			ret = new LikeMatcher(pattern, caseInsensitive);
+			cache.put(pattern, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Compiles the like pattern (case sensitive)
+	 *
+	 * @param  pattern to compile, where '%' matches any sequence of characters
+	 *
+	 * @return  the like matcher
+	 **/
+	public static LikeMatcher compile(String pattern) {
+		return compile(pattern, false);
+	}
+	
+	/**
+	 * Builds the regex pattern, for GENERAL shaped like patterns
+	 *
+	 * @param  pattern to compile
+	 * @param  caseInsensitive matching
+	 *
+	 * @return  regex pattern
+	 **/
+	protected static Pattern generalPattern(String pattern, boolean caseInsensitive) {
+		// Quote each literal segment, and join them with wildcards
+		StringBuilder regexStr = new StringBuilder();
+		int start = 0;
+		int pos = 0;
+		while ((pos = pattern.indexOf('%', start)) >= 0) {
+			if (pos > start) {
+				regexStr.append(Pattern.quote(pattern.substring(start, pos)));
+			}
+			regexStr.append(".*");
+			start = pos + 1;
+		}
+		if (start < pattern.length()) {
+			regexStr.append(Pattern.quote(pattern.substring(start)));
+		}
+		
+		int flags = Pattern.DOTALL;
+		if (caseInsensitive) {
+			flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+		}
+		return Pattern.compile(regexStr.toString(), flags);
+	}
+	
+	//--------------------------------------------------------------------
+	// Accessors
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  the original like pattern
+	 **/
+	public String pattern() {
+		return pattern;
+	}
+	
+	/**
+	 * @return  true if matching is case insensitive
+	 **/
+	public boolean isCaseInsensitive() {
+		return caseInsensitive;
+	}
+	
+	/**
+	 * @return  the pattern shape
+	 **/
+	public Shape shape() {
+		return shape;
+	}
+	
+	/**
+	 * Checks if the matcher was compiled for the given pattern and case sensitivity
+	 *
+	 * @param  pattern to check
+	 * @param  caseInsensitive matching
+	 *
+	 * @return  true if its the same
+	 **/
+	public boolean isCompiledFor(String pattern, boolean caseInsensitive) {
+		return this.caseInsensitive == caseInsensitive && this.pattern.equals(pattern);
+	}
+	
+	//--------------------------------------------------------------------
+	// Matching
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Test if the value matches the like pattern
+	 *
+	 * @param  value to test
+	 *
+	 * @return  true if it matches
+	 **/
+	public boolean matches(String value) {
+		if (value == null) {
+			return false;
+		}
+		
+		int valLen = value.length();
+		int litLen = (literal != null) ? literal.length() : 0;
+		
+		if (shape == Shape.EXACT) {
+			return caseInsensitive ? literal.equalsIgnoreCase(value) : literal.equals(value);
+		} else if (shape == Shape.PREFIX) {
+			return value.regionMatches(caseInsensitive, 0, literal, 0, litLen);
+		} else if (shape == Shape.SUFFIX) {
+			return valLen >= litLen
+				&& value.regionMatches(caseInsensitive, valLen - litLen, literal, 0, litLen);
+		} else if (shape == Shape.CONTAINS) {
+			if (!caseInsensitive) {
+				return value.indexOf(literal) >= 0;
+			}
+			for (int i = 0; i <= valLen - litLen; ++i) {
+				if (value.regionMatches(true, i, literal, 0, litLen)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		// GENERAL shape, fallback to regex
+		return regex.matcher(value).matches();
+	}
+	
+	/**
+	 * The like pattern
+	 **/
+	@Override
+	public String toString() {
+		return pattern;
+	}
+}
@@ -0,0 +1,70 @@
+package picoded.core.struct.query.internal;
+
+import picoded.core.struct.query.CompareUtils;
+
+/**
+ * Query argument value, which is normalized once for repeated comparisions.
+ *
+ * This is used by bound queries (see Query.bind), where the argument value remains the same
+ * for every row tested, so that its numeric parsing, and string conversion is only done once.
+ * CompareUtils.dynamicCompare handles this as a drop in replacement of the original argument.
+ **/
+public class NormalizedArgument {
+	
+	/**
+	 * The original argument value
+	 **/
+	public final Object value;
+	
+	/**
+	 * Indicates if the original value is a string
+	 **/
+	public final boolean isString;
+	
+	/**
+	 * The numeric value of the argument, null if its not numeric
+	 **/
+	public final Number number;
+	
+	/**
+	 * The string value of the argument, null if the value is null
+	 **/
+	public final String string;
+	
+	/**
+	 * Normalize the argument value
+	 *
+	 * @param  value to normalize
+	 **/
+	protected NormalizedArgument(Object value) {
+		this.value = value;
+		this.isString = (value instanceof String);
+		this.number = CompareUtils.objectToNumberIfPossible(value);
+		this.string = (value != null) ? value.toString() : null;
+	}
+	
+	/**
+	 * Normalize the argument value
+	 *
+	 * @param  value to normalize
+	 *
+	 * @return  the normalized argument, or null if the value is null
+	 **/
+	public static NormalizedArgument of(Object value) {
+		if (value == null) {
+			return null;
+		}
+		if (value instanceof NormalizedArgument) {
+			return (NormalizedArgument) value;
+		}
+		return new NormalizedArgument(value);
+	}
+	
+	/**
+	 * The original value string
+	 **/
+	@Override
+	public String toString() {
+		return string;
+	}
+}
@@ -0,0 +1,125 @@
+package picoded.core.struct.query.internal;
+
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.Locale;
+
+/**
+ * Exception free string to number parser, with the same results as
+ * NumberFormat.getNumberInstance(Locale.ENGLISH).parse(str).
+ *
+ * That is, the longest numeric prefix of the string is parsed (so "5abc" is 5), with
+ * integral values returned as Long, and everything else as Double. Strings without a
+ * numeric prefix return null, instead of throwing a ParseException.
+ *
+ * Plain decimal strings (such as "-12", or "3.25") are parsed directly from the string
+ * chars, while anything else that NumberFormat may accept (digit grouping, exponents,
+ * NaN, infinity and non ASCII digits) falls back to a per thread NumberFormat.
+ **/
+public class NumberParser {
+	
+	/**
+	 * Maximum number of digits, parsed directly as a long
+	 **/
+	protected static final int MAX_FAST_DIGITS = 18;
+	
+	/**
+	 * Fallback number format, one per thread (as NumberFormat is not thread safe)
+	 **/
+	protected static final ThreadLocal<NumberFormat> numberFormat = ThreadLocal
+		.withInitial(() -> NumberFormat.getNumberInstance(Locale.ENGLISH));
+	
+	/**
+	 * Utility class
+	 **/
+	protected NumberParser() {
+		throw new IllegalAccessError("Utility class");
+	}
+	
+	/**
+	 * Parse the string numeric prefix
+	 *
+	 * @param  string to parse
+	 *
+	 * @return Number object. Else its null
+	 **/
+	public static Number parse(String str) {
+		int len = str.length();
+		int i = 0;
+		
+		// Negative sign
+		boolean negative = false;
+		if (i < len && str.charAt(i) == '-') {
+			negative = true;
+			++i;
+		}
+		int numStart = i;
+		
+		// Integer digits
+		long integerValue = 0;
+		int digits = 0;
+		char c = 0;
+		while (i < len && (c = str.charAt(i)) >= '0' && c <= '9') {
+			integerValue = integerValue * 10 + (c - '0');
+			++digits;
+			++i;
+		}
+		
+		// Fraction digits
+		boolean hasFraction = false;
+		if (i < len && str.charAt(i) == '.') {
+			++i;
+			while (i < len && (c = str.charAt(i)) >= '0' && c <= '9') {
+				++digits;
+				if (c != '0') {
+					hasFraction = true;
+				}
+				++i;
+			}
+		}
+		
+		// Anything else which NumberFormat may treat as part of the number,
+		// or values too large to be parsed as a long
+		if (i < len) {
+			c = str.charAt(i);
+			if (c == ',' || c == 'E' || c > 127 || (c == 'N' && i == numStart)) {
+				return fallbackParse(str);
+			}
+		}
+		if (digits > MAX_FAST_DIGITS) {
+			return fallbackParse(str);
+		}
+		
+		// No numeric prefix
+		if (digits == 0) {
+			return null;
+		}
+		
+		// Fractional value
+		if (hasFraction) {
+			return Double.parseDouble(str.substring(negative ? numStart - 1 : numStart, i));
+		}
+		
+		// Integral value, with negative zero as a double
+		if (negative && integerValue == 0) {
+			return -0.0d;
+		}
+		return negative ? -integerValue : integerValue;
+	}
+	
+	/**
+	 * Parse the string with NumberFormat, without throwing a ParseException
+	 *
+	 * @param  string to parse
+	 *
+	 * @return Number object. Else its null
+	 **/
+	protected static Number fallbackParse(String str) {
+		ParsePosition pos = new ParsePosition(0);
+		Number ret = numberFormat.get().parse(str, pos);
+		if (pos.getIndex() == 0) {
+			return null;
+		}
+		return ret;
+	}
+}
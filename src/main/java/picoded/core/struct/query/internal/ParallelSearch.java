@@ -0,0 +1,126 @@
+package picoded.core.struct.query.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+import picoded.core.struct.query.Query;
+
+/**
+ * Fork / join implementation of Query.parallelSearch.
+ *
+ * The collection spliterator is recursively split, till each part is no larger than
+ * the minimum chunk size. Each part is then filtered on its own, and the results
+ * joined in their encounter order (the same order as Query.search).
+ *
+ * Collections smaller than 2 chunks (or a pool without any parallelism),
+ * are searched sequentially, as the fork / join overhead is not worth it.
+ **/
+public class ParallelSearch {
+	
+	/**
+	 * Default minimum number of objects, searched by a single task
+	 **/
+	public static final int DEFAULT_MIN_CHUNK = 8192;
+	
+	/**
+	 * Utility class
+	 **/
+	protected ParallelSearch() {
+		throw new IllegalAccessError("Utility class");
+	}
+	
+	//--------------------------------------------------------------------
+	// Search
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Searches the collection using the query, in parallel where worthwhile
+	 *
+	 * @param  the query to search with
+	 * @param  collection to search
+	 * @param  minimum number of objects per task, 0 or less uses the default
+	 * @param  fork join pool to use, null uses the common pool
+	 *
+	 * @return  the matching objects, in encounter order
+	 **/
+	public static <V> List<V> search(Query query, Collection<V> list, int minChunk, ForkJoinPool pool) {
+		minChunk = minChunk(minChunk);
+		pool = pool(pool);
+		
+		// Sequential search, for small collections
+		if (!isParallelWorthwhile(list.size(), minChunk, pool)) {
+			Predicate<Object> predicate = QueryOptimizer.searchPredicate(query, list);
+			List<V> ret = new ArrayList<V>();
+			for (V val : list) {
+				if (predicate.test(val)) {
+					ret.add(val);
+				}
+			}
+			return ret;
+		}
+		
+		Predicate<Object> predicate = sharedPredicate(query, list);
+		return pool.invoke(new SpliteratorTask<V, List<V>>(list.spliterator(), minChunk, (part) -> {
+			List<V> ret = new ArrayList<V>();
+			part.forEachRemaining((val) -> {
+				if (predicate.test(val)) {
+					ret.add(val);
+				}
+			});
+			return ret;
+		}, (prefixResult, suffixResult) -> {
+			prefixResult.addAll(suffixResult);
+			return prefixResult;
+		}));
+	}
+	
+	/**
+	 * Compiles the query once, to be shared across the tasks.
+	 *
+	 * Large collections are still sampled for their pass rates, but adaptive ordering is
+	 * not used, as its counters are updated on every test, and are not thread safe.
+	 *
+	 * @param  the query to compile
+	 * @param  collection to search
+	 *
+	 * @return  the predicate, which is safe for concurrent use
+	 **/
+	public static Predicate<Object> sharedPredicate(Query query, Collection<?> list) {
+		Collection<?> sample = (list.size() >= QueryOptimizer.SAMPLING_THRESHOLD) ? list : null;
+		return QueryOptimizer.optimize(query, sample, false);
+	}
+	
+	/**
+	 * Indicates if the collection should be processed in parallel
+	 *
+	 * @param  collection size
+	 * @param  minimum number of objects per task
+	 * @param  fork join pool to use
+	 *
+	 * @return  true if parallel processing should be used
+	 **/
+	public static boolean isParallelWorthwhile(int size, int minChunk, ForkJoinPool pool) {
+		return pool.getParallelism() > 1 && size >= ((long) minChunk) * 2;
+	}
+	
+	/**
+	 * @param  minimum number of objects per task, 0 or less uses the default
+	 *
+	 * @return  the minimum number of objects per task to use
+	 **/
+	public static int minChunk(int minChunk) {
+		return (minChunk <= 0) ? DEFAULT_MIN_CHUNK : minChunk;
+	}
+	
+	/**
+	 * @param  fork join pool to use, null uses the common pool
+	 *
+	 * @return  the fork join pool to use
+	 **/
+	public static ForkJoinPool pool(ForkJoinPool pool) {
+		return (pool == null) ? ForkJoinPool.commonPool() : pool;
+	}
+}
@@ -0,0 +1,581 @@
+package picoded.core.struct.query.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryProfile;
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.condition.And;
+import picoded.core.struct.query.condition.CombinationBase;
+import picoded.core.struct.query.condition.Not;
+import picoded.core.struct.query.condition.Or;
+
+/**
+ * Cost based query optimizer, used to compile a query into a predicate,
+ * with its AND / OR / NOT combinations reordered for early termination.
+ *
+ * # Flattening
+ *
+ * Nested combinations of the same type are merged into a single combination,
+ * for example `(A AND B) AND C` is compiled as `A AND B AND C`. Blank combinations
+ * are never merged, as their result differs from their parent combination.
+ *
+ * # Ordering
+ *
+ * Each node has an estimated cost (see Query.estimateCost) and selectivity (its pass rate).
+ * The pass rate is either sampled from the collection to be searched, or
+ * estimated from the operator type. Children are then sorted by
+ *
+ * + AND : cost / (1 - pass rate), cheap conditions which fail often goes first
+ * + OR / NOT : cost / pass rate, cheap conditions which pass often goes first
+ *
+ * # Adaptive ordering
+ *
+ * When enabled, each combination tracks the observed pass rates of its children,
+ * and periodically reorders them accordingly. As every child is side effect free, the
+ * order of evaluation has no effect on the result.
+ *
+ * # Rewriting
+ *
+ * The query is first normalized (see QueryRewriter), where an always false query is
+ * compiled into the NEVER predicate.
+ *
+ * # Profiling
+ *
+ * When profiling (see QueryProfile), every planned node is wrapped by a counting node.
+ * This is decided once when planning, as such predicates planned without profiling
+ * have no profiling overhead.
+ *
+ * The query tree itself is never modified, so that its string representation remains the same.
+ **/
+public class QueryOptimizer {
+	
+	//--------------------------------------------------------------------
+	// Configuration
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Maximum number of objects sampled from the collection
+	 **/
+	public static final int SAMPLE_SIZE = 256;
+	
+	/**
+	 * Minimum collection size, for Query.search to sample the collection,
+	 * and use adaptive ordering. Smaller collections are optimized using estimates only.
+	 **/
+	public static final int SAMPLING_THRESHOLD = 4096;
+	
+	/**
+	 * Number of evaluations, between each adaptive reordering
+	 **/
+	public static final int ADAPTIVE_INTERVAL = 4096;
+	
+	/**
+	 * Predicate of queries which always fails (see QueryRewriter), so that
+	 * searches can skip the collection entirely
+	 **/
+	public static final Predicate<Object> NEVER = (t) -> false;
+	
+	//--------------------------------------------------------------------
+	// Optimizer state
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Sampled pass rates of the basic conditions (of the bound query), null if not sampled
+	 **/
+	protected final Map<Query, Double> sampledPassRate;
+	
+	/**
+	 * Indicates if the adaptive ordering is used
+	 **/
+	protected final boolean adaptive;
+	
+	/**
+	 * Indicates if every planned node is wrapped by a QueryProfile.Node
+	 **/
+	protected final boolean profiling;
+	
+	/**
+	 * Optimizer setup
+	 *
+	 * @param  sampled pass rates of basic conditions, can be null
+	 * @param  use adaptive ordering
+	 **/
+	protected QueryOptimizer(Map<Query, Double> sampledPassRate, boolean adaptive) {
+		this(sampledPassRate, adaptive, false);
+	}
+	
+	/**
+	 * Optimizer setup
+	 *
+	 * @param  sampled pass rates of basic conditions, can be null
+	 * @param  use adaptive ordering
+	 * @param  wrap every planned node with a QueryProfile.Node
+	 **/
+	protected QueryOptimizer(Map<Query, Double> sampledPassRate, boolean adaptive,
+		boolean profiling) {
+		this.sampledPassRate = sampledPassRate;
+		this.adaptive = adaptive;
+		this.profiling = profiling;
+	}
+	
+	//--------------------------------------------------------------------
+	// Public API
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compiles the query (with its default argument map) into an optimized predicate
+	 *
+	 * @param  the query to compile
+	 * @param  collection to sample the pass rates from, can be null
+	 * @param  use adaptive ordering
+	 *
+	 * @return  the optimized predicate
+	 **/
+	public static Predicate<Object> optimize(Query query, Collection<?> sample, boolean adaptive) {
+		Query bound = QueryRewriter.rewrite(query);
+		if (QueryRewriter.isAlwaysFalse(bound)) {
+			return NEVER;
+		}
+		Map<Query, Double> passRate = null;
+		if (sample != null && !sample.isEmpty()) {
+			passRate = samplePassRate(bound, sampleList(sample, SAMPLE_SIZE));
+		}
+		return new QueryOptimizer(passRate, adaptive).plan(bound).predicate;
+	}
+	
+	/**
+	 * Gets the predicate used to search the collection, where large collections are
+	 * sampled for its pass rates, and adaptively reordered.
+	 *
+	 * @param  the query to compile
+	 * @param  collection to be searched
+	 *
+	 * @return  the optimized predicate
+	 **/
+	public static Predicate<Object> searchPredicate(Query query, Collection<?> collection) {
+		if (collection.size() >= SAMPLING_THRESHOLD) {
+			return query.optimize(collection);
+		}
+		return query.optimize();
+	}
+	
+	/**
+	 * Compiles the query into a profiled predicate (see QueryProfile), where every node
+	 * of the plan records its evaluations, passes, and time taken.
+	 *
+	 * Large collections are sampled for their pass rates, as per searchPredicate,
+	 * but without adaptive ordering, so that the plan order is the order of evaluation.
+	 *
+	 * @param  the query to compile
+	 * @param  collection to be searched, can be null
+	 *
+	 * @return  root node of the profiled plan, null if the query always fails
+	 **/
+	public static QueryProfile.Node profile(Query query, Collection<?> collection) {
+		Query bound = QueryRewriter.rewrite(query);
+		if (QueryRewriter.isAlwaysFalse(bound)) {
+			return null;
+		}
+		Map<Query, Double> passRate = null;
+		if (collection != null && collection.size() >= SAMPLING_THRESHOLD) {
+			passRate = samplePassRate(bound, sampleList(collection, SAMPLE_SIZE));
+		}
+		return (QueryProfile.Node) new QueryOptimizer(passRate, false, true).plan(bound).predicate;
+	}
+	
+	//--------------------------------------------------------------------
+	// Sampling
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets a sample of the collection, evenly spaced for random access lists,
+	 * else the first few objects
+	 *
+	 * @param  collection to sample
+	 * @param  maximum sample size
+	 *
+	 * @return  the sample list
+	 **/
+	protected static List<Object> sampleList(Collection<?> collection, int maxSize) {
+		int size = collection.size();
+		List<Object> ret = new ArrayList<Object>(Math.min(size, maxSize));
+		
+		if (collection instanceof List && collection instanceof RandomAccess && size > maxSize) {
+			List<?> list = (List<?>) collection;
+			for (int i = 0; i < maxSize; ++i) {
+				ret.add(list.get((int) (((long) i) * size / maxSize)));
+			}
+			return ret;
+		}
+		
+		Iterator<?> iter = collection.iterator();
+		while (iter.hasNext() && ret.size() < maxSize) {
+			ret.add(iter.next());
+		}
+		return ret;
+	}
+	
+	/**
+	 * Samples the pass rate of every basic condition in the (bound) query
+	 *
+	 * @param  the bound query
+	 * @param  the sample objects
+	 *
+	 * @return  pass rate of each basic condition
+	 **/
+	protected static Map<Query, Double> samplePassRate(Query bound, List<Object> sample) {
+		Map<Query, Double> ret = new IdentityHashMap<Query, Double>();
+		samplePassRate(bound, sample, ret);
+		return ret;
+	}
+	
+	/**
+	 * Recursive implementation of samplePassRate
+	 **/
+	protected static void samplePassRate(Query node, List<Object> sample, Map<Query, Double> ret) {
+		if (node.isBasicOperator()) {
+			Predicate<Object> predicate = node.compile();
+			int passes = 0;
+			for (Object obj : sample) {
+				if (predicate.test(obj)) {
+					++passes;
+				}
+			}
+			// Smoothed, so that the rate is never exactly 0 or 1
+			ret.put(node, (passes + 1.0) / (sample.size() + 2.0));
+		} else if (node.isCombinationOperator()) {
+			for (Query child : node.childrenQuery()) {
+				samplePassRate(child, sample, ret);
+			}
+		}
+	}
+	
+	/**
+	 * Estimated pass rate of a basic condition, by its operator type
+	 *
+	 * @param  the basic condition
+	 *
+	 * @return  the estimated pass rate
+	 **/
+	protected static double estimatePassRate(Query condition) {
+		QueryType type = condition.type();
+		if (type == QueryType.EQUALS) {
+			return 0.1;
+		} else if (type == QueryType.NOT_EQUALS) {
+			return 0.9;
+		} else if (type == QueryType.LIKE || type == QueryType.ILIKE) {
+			return 0.25;
+		} else if (type == QueryType.IN) {
+			return 0.2;
+		} else if (type == QueryType.NOT_IN) {
+			return 0.8;
+		} else if (type == QueryType.LESS_THAN || type == QueryType.LESS_THAN_OR_EQUALS
+			|| type == QueryType.MORE_THAN || type == QueryType.MORE_THAN_OR_EQUALS) {
+			return 0.33;
+		}
+		return 0.5;
+	}
+	
+	//--------------------------------------------------------------------
+	// Planning
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compiled node, with its estimated cost, and pass rate
+	 **/
+	protected static class Plan {
+		
+		protected final Predicate<Object> predicate;
+		protected final double cost;
+		protected final double passRate;
+		
+		protected Plan(Predicate<Object> predicate, double cost, double passRate) {
+			this.predicate = predicate;
+			this.cost = cost;
+			this.passRate = passRate;
+		}
+	}
+	
+	/**
+	 * Gets the combination type, that can be optimized for the node
+	 *
+	 * @param  the query node
+	 *
+	 * @return  AND, OR, NOT, or null if the node is not an optimizable combination
+	 **/
+	protected static QueryType combinationType(Query node) {
+		Class<?> nodeClass = node.getClass();
+		if (nodeClass == And.class || nodeClass == CombinationBase.class) {
+			return QueryType.AND;
+		} else if (nodeClass == Or.class) {
+			return QueryType.OR;
+		} else if (nodeClass == Not.class) {
+			return QueryType.NOT;
+		}
+		return null;
+	}
+	
+	/**
+	 * Collects the children of the combination, merging nested combinations of the
+	 * given type. NOT combinations have their OR children merged.
+	 *
+	 * @param  the combination node
+	 * @param  combination type of the children to merge
+	 * @param  list to collect into
+	 **/
+	protected static void flattenChildren(Query node, QueryType mergeType, List<Query> ret) {
+		for (Query child : node.childrenQuery()) {
+			if (combinationType(child) == mergeType && !child.childrenQuery().isEmpty()) {
+				flattenChildren(child, mergeType, ret);
+			} else {
+				ret.add(child);
+			}
+		}
+	}
+	
+	/**
+	 * Plans the (bound) query node
+	 *
+	 * @param  the query node
+	 *
+	 * @return  the compiled plan
+	 **/
+	protected Plan plan(Query node) {
+		QueryType type = combinationType(node);
+		
+		// Basic conditions, or custom query implementations
+		if (type == null) {
+			double passRate = 0.5;
+			if (node.isBasicOperator()) {
+				Double sampled = (sampledPassRate != null) ? sampledPassRate.get(node) : null;
+				passRate = (sampled != null) ? sampled : estimatePassRate(node);
+			}
+			return profiled(node, null, new Plan(node.compile(), node.estimateCost(), passRate),
+				null);
+		}
+		
+		// Flatten, and plan the children
+		List<Query> children = new ArrayList<Query>();
+		flattenChildren(node, (type == QueryType.NOT) ? QueryType.OR : type, children);
+		if (children.isEmpty()) {
+			//blank combination is a failure
+			return profiled(node, type, new Plan((t) -> false, 0.0, 0.0), null);
+		}
+		
+		List<Plan> childPlans = new ArrayList<Plan>(children.size());
+		for (Query child : children) {
+			childPlans.add(plan(child));
+		}
+		
+		// Order the children, for early termination
+		boolean isAnd = (type == QueryType.AND);
+		childPlans.sort((a, b) -> Double.compare(rank(a.cost, a.passRate, isAnd), rank(b.cost,
+			b.passRate, isAnd)));
+		
+		// Expected cost, and pass rate, with early termination
+		double cost = 0.0;
+		double reach = 1.0;
+		for (Plan child : childPlans) {
+			cost += reach * child.cost;
+			reach *= isAnd ? child.passRate : (1.0 - child.passRate);
+		}
+		
+		Predicate<Object> predicate = combine(childPlans, isAnd);
+		if (type == QueryType.NOT) {
+			Predicate<Object> anyPass = predicate;
+			return profiled(node, type, new Plan((t) -> !anyPass.test(t), cost, reach),
+				childPlans);
+		}
+		return profiled(node, type, new Plan(predicate, cost, isAnd ? reach : 1.0 - reach),
+			childPlans);
+	}
+	
+	/**
+	 * Wraps the planned node with a QueryProfile.Node, when profiling.
+	 * The node label is only rendered when profiling.
+	 *
+	 * @param  the query node planned
+	 * @param  combination type of the node, labelled by its type name, null for conditions
+	 * @param  the planned node
+	 * @param  the ordered child plans (which are already wrapped), can be null
+	 *
+	 * @return  the profiled plan, or the plan itself if not profiling
+	 **/
+	protected Plan profiled(Query node, QueryType type, Plan plan, List<Plan> childPlans) {
+		if (!profiling) {
+			return plan;
+		}
+		String label = (type != null) ? type.name() : node.toString();
+		List<QueryProfile.Node> children = new ArrayList<QueryProfile.Node>();
+		if (childPlans != null) {
+			for (Plan child : childPlans) {
+				children.add((QueryProfile.Node) child.predicate);
+			}
+		}
+		return new Plan(new QueryProfile.Node(label, plan.passRate, plan.predicate, children),
+			plan.cost, plan.passRate);
+	}
+	
+	/**
+	 * Gets the ordering rank of a child node, lower ranks are evaluated first
+	 *
+	 * @param  estimated cost
+	 * @param  estimated pass rate
+	 * @param  true if its within an AND combination, else its OR
+	 *
+	 * @return  the rank
+	 **/
+	protected static double rank(double cost, double passRate, boolean isAnd) {
+		double terminateRate = isAnd ? (1.0 - passRate) : passRate;
+		return cost / Math.max(terminateRate, 0.0001);
+	}
+	
+	/**
+	 * Combines the ordered child plans
+	 *
+	 * @param  ordered child plans
+	 * @param  true for AND, false for OR
+	 *
+	 * @return  the combined predicate
+	 **/
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected Predicate<Object> combine(List<Plan> childPlans, boolean isAnd) {
+		int size = childPlans.size();
+		if (size == 1) {
+			return childPlans.get(0).predicate;
+		}
+		if (adaptive) {
+			return new AdaptiveCombination(childPlans, isAnd);
+		}
+		if (size == 2) {
+			Predicate<Object> left = childPlans.get(0).predicate;
+			Predicate<Object> right = childPlans.get(1).predicate;
+			if (isAnd) {
+				return (t) -> left.test(t) && right.test(t);
+			}
+			return (t) -> left.test(t) || right.test(t);
+		}
+		
+		Predicate<Object>[] childArr = new Predicate[size];
+		for (int i = 0; i < size; ++i) {
+			childArr[i] = childPlans.get(i).predicate;
+		}
+		if (isAnd) {
+			return (t) -> {
+				for (Predicate<Object> child : childArr) {
+					if (!child.test(t)) {
+						return false;
+					}
+				}
+				return true;
+			};
+		}
+		return (t) -> {
+			for (Predicate<Object> child : childArr) {
+				if (child.test(t)) {
+					return true;
+				}
+			}
+			return false;
+		};
+	}
+	
+	//--------------------------------------------------------------------
+	// Adaptive ordering
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Child predicate, with its observed pass rate
+	 **/
+	protected static class AdaptiveChild {
+		
+		protected final Predicate<Object> predicate;
+		protected final double cost;
+		protected final double estimatedPassRate;
+		
+		/**
+		 * Observed evaluation, and pass counts. These are updated without synchronization,
+		 * as they are only used as an estimate.
+		 **/
+		protected long evaluated = 0;
+		protected long passed = 0;
+		
+		protected AdaptiveChild(Plan plan) {
+			predicate = plan.predicate;
+			cost = plan.cost;
+			estimatedPassRate = plan.passRate;
+		}
+		
+		/**
+		 * Observed pass rate, weighted with the original estimate
+		 **/
+		protected double passRate() {
+			return (passed + estimatedPassRate * 16) / (evaluated + 16);
+		}
+	}
+	
+	/**
+	 * AND / OR combination, which periodically reorders its children by their observed pass rate
+	 **/
+	protected static class AdaptiveCombination implements Predicate<Object> {
+		
+		protected final boolean isAnd;
+		protected volatile AdaptiveChild[] children;
+		protected int evaluations = 0;
+		
+		protected AdaptiveCombination(List<Plan> childPlans, boolean isAnd) {
+			this.isAnd = isAnd;
+			AdaptiveChild[] arr = new AdaptiveChild[childPlans.size()];
+			for (int i = 0; i < arr.length; ++i) {
+				arr[i] = new AdaptiveChild(childPlans.get(i));
+			}
+			children = arr;
+		}
+		
+		@Override
+		public boolean test(Object t) {
+			if (++evaluations >= ADAPTIVE_INTERVAL) {
+				evaluations = 0;
+				reorder();
+			}
+			
+			for (AdaptiveChild child : children) {
+				++child.evaluated;
+				if (child.predicate.test(t)) {
+					++child.passed;
+					if (!isAnd) {
+						return true;
+					}
+				} else if (isAnd) {
+					return false;
+				}
+			}
+			return isAnd;
+		}
+		
+		/**
+		 * Reorders the children, by their observed pass rate.
+		 *
+		 * The ranks are snapshotted before sorting, as the counters may still be updated
+		 * by other threads (when used in a parallel search).
+		 **/
+		protected void reorder() {
+			AdaptiveChild[] arr = children.clone();
+			IdentityHashMap<AdaptiveChild, Double> ranks = new IdentityHashMap<AdaptiveChild, Double>();
+			for (AdaptiveChild child : arr) {
+				ranks.put(child, rank(child.cost, child.passRate(), isAnd));
+			}
+			Arrays.sort(arr, (a, b) -> Double.compare(ranks.get(a), ranks.get(b)));
+			children = arr;
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package picoded.core.struct.query.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import picoded.core.struct.query.Query;
+
+/**
+ * Single pass query string lexer, and recursive descent parser.
+ *
+ * This replaces the former multi pass string processing (regex whitespace
+ * enforcement, string splitting, and repeated bracket scanning), while keeping to
+ * the same grammar and error messages.
+ *
+ * # Lexing
+ *
+ * The query string is tokenized in a single pass over its char[], where
+ *
+ * + whitespace separates tokens
+ * + "(" and ")" are always tokens on their own
+ * + "=", "<", ">", "<=", ">=", "!=" are operator tokens
+ * + ":" starts a named argument token, and "?" is treated as ":N" (N being its position)
+ * + quoted field names ("field", 'field', [field]) may contain whitespace
+ * + everything else forms a word token, with the uppercase words "LIKE" and "ILIKE" as operators
+ * + the uppercase words "IN", and "NOT IN" are set membership operators, where the argument
+ *   may be enclosed in brackets, such as `id IN (?)`
+ *
+ * # Parsing
+ *
+ * A basic condition is any token followed by an operator, and a named argument.
+ * Within each bracket group, conditions are joined left to right, by their combination
+ * operators. Consecutive use of the same operator are merged into a single combination,
+ * while a change in operator wraps everything before it as a single child. For example
+ * `A AND B OR C` is parsed as `(A AND B) OR C`.
+ **/
+public class QueryParser {
+	
+	//--------------------------------------------------------------------
+	// Token types
+	//--------------------------------------------------------------------
+	
+	protected static final byte WORD = 0;
+	protected static final byte ARGUMENT = 1;
+	protected static final byte OPERATOR = 2;
+	protected static final byte OPEN_BRACKET = 3;
+	protected static final byte CLOSE_BRACKET = 4;
+	protected static final byte QUERY = 5;
+	
+	//--------------------------------------------------------------------
+	// Lexer output
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Token types, and its respective string
+	 **/
+	protected byte[] tokenType;
+	protected String[] tokenText;
+	
+	/**
+	 * Prebuilt query of each QUERY token, only used when parsing a token list
+	 **/
+	protected Query[] tokenQuery;
+	
+	/**
+	 * Number of tokens found
+	 **/
+	protected int tokenCount = 0;
+	
+	/**
+	 * Number of "?" arguments found
+	 **/
+	protected int argumentCount = 0;
+	
+	//--------------------------------------------------------------------
+	// Parser state
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The current token position
+	 **/
+	protected int pos = 0;
+	
+	/**
+	 * The parameter map used by the parsed query
+	 **/
+	protected Map<String, Object> paramMap = null;
+	
+	//--------------------------------------------------------------------
+	// Constructor
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Tokenize the query string
+	 *
+	 * @param  query string to tokenize
+	 **/
+	public QueryParser(String query) {
+		tokenize(query.toCharArray());
+	}
+	
+	/**
+	 * Uses a list of prebuilt Query, and string tokens, such as the output of
+	 * QueryFilter.buildBasicQuery. Where the strings "(" and ")" are brackets,
+	 * and any other string is a word token.
+	 *
+	 * @param  list of Query, and String tokens
+	 **/
+	public QueryParser(List<Object> tokens) {
+		int size = tokens.size();
+		tokenType = new byte[size];
+		tokenText = new String[size];
+		tokenQuery = new Query[size];
+		for (Object token : tokens) {
+			if (token instanceof Query) {
+				tokenType[tokenCount] = QUERY;
+				tokenQuery[tokenCount] = (Query) token;
+			} else if (token instanceof String) {
+				tokenType[tokenCount] = "(".equals(token) ? OPEN_BRACKET
+					: (")".equals(token) ? CLOSE_BRACKET : WORD);
+			} else {
+				throw new RuntimeException("Unknown token type: " + token);
+			}
+			tokenText[tokenCount] = token.toString();
+			++tokenCount;
+		}
+	}
+	
+	/**
+	 * @return  the number of "?" arguments in the query string
+	 **/
+	public int argumentCount() {
+		return argumentCount;
+	}
+	
+	//--------------------------------------------------------------------
+	// Lexer
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds a single token
+	 **/
+	protected void addToken(byte type, String text) {
+		if (tokenCount == tokenType.length) {
+			int newLength = tokenCount * 2;
+			byte[] newType = new byte[newLength];
+			String[] newText = new String[newLength];
+			System.arraycopy(tokenType, 0, newType, 0, tokenCount);
+			System.arraycopy(tokenText, 0, newText, 0, tokenCount);
+			tokenType = newType;
+			tokenText = newText;
+		}
+		tokenType[tokenCount] = type;
+		tokenText[tokenCount] = text;
+		++tokenCount;
+	}
+	
+	/**
+	 * Indicates if the character is a whitespace
+	 **/
+	protected static boolean isWhitespace(char c) {
+		return c == ' ' || (c < ' ') || (c > 127 && Character.isWhitespace(c));
+	}
+	
+	/**
+	 * Indicates if the character terminates a word / argument token
+	 **/
+	protected static boolean isTokenBoundary(char[] q, int i) {
+		char c = q[i];
+		return c == '(' || c == ')' || c == '=' || c == '<' || c == '>' || c == ':' || c == '?'
+			|| (c == '!' && i + 1 < q.length && q[i + 1] == '=') || isWhitespace(c);
+	}
+	
+	/**
+	 * Scans till the end of the current word / argument token
+	 *
+	 * @return  the ending position (exclusive)
+	 **/
+	protected static int scanWord(char[] q, int i) {
+		int len = q.length;
+		while (i < len && !isTokenBoundary(q, i)) {
+			++i;
+		}
+		return i;
+	}
+	
+	/**
+	 * Tokenize the query char array in a single pass
+	 *
+	 * @param  query char array to tokenize
+	 **/
+	protected void tokenize(char[] q) {
+		int len = q.length;
+		tokenType = new byte[16];
+		tokenText = new String[16];
+		
+		int i = 0;
+		while (i < len) {
+			char c = q[i];
+			
+			if (isWhitespace(c)) {
+				++i;
+			} else if (c == '(') {
+				addToken(OPEN_BRACKET, "(");
+				++i;
+			} else if (c == ')') {
+				addToken(CLOSE_BRACKET, ")");
+				++i;
+			} else if (c == '<' || c == '>' || c == '!' && i + 1 < len && q[i + 1] == '=') {
+				if (i + 1 < len && q[i + 1] == '=') {
+					addToken(OPERATOR, (c == '<') ? "<=" : ((c == '>') ? ">=" : "!="));
+					i += 2;
+				} else {
+					addToken(OPERATOR, (c == '<') ? "<" : ">");
+					++i;
+				}
+			} else if (c == '=') {
+				addToken(OPERATOR, "=");
+				++i;
+			} else if (c == ':') {
+				// Named argument
+				int end = scanWord(q, i + 1);
+				addToken(ARGUMENT, new String(q, i, end - i));
+				i = end;
+			} else if (c == '?') {
+				// Numbered argument, with any trailing word characters
+				int end = scanWord(q, i + 1);
+				String arg = ":" + argumentCount;
+				if (end > i + 1) {
+					arg = arg + new String(q, i + 1, end - i - 1);
+				}
+				++argumentCount;
+				addToken(ARGUMENT, arg);
+				i = end;
+			} else {
+				int end = i;
+				
+				// Quoted field name, which is kept as a single token (quotes included)
+				if (c == '"' || c == '\'' || c == '[') {
+					char close = (c == '[') ? ']' : c;
+					int quoteEnd = i + 1;
+					while (quoteEnd < len && q[quoteEnd] != close) {
+						++quoteEnd;
+					}
+					if (quoteEnd < len) {
+						end = quoteEnd + 1;
+					}
+				}
+				
+				// Rest of the word
+				end = scanWord(q, end);
+				if (end == i) {
+					// Quote without closing, that is immediately terminated
+					end = i + 1;
+				}
+				addWord(new String(q, i, end - i));
+				i = end;
+			}
+		}
+	}
+	
+	/**
+	 * Adds a word token, after classifying it
+	 **/
+	protected void addWord(String text) {
+		if ("LIKE".equals(text) || "ILIKE".equals(text)) {
+			addToken(OPERATOR, text);
+		} else if ("IN".equals(text)) {
+			// "NOT IN" is a single operator, which replaces the previous "NOT" word
+			if (tokenCount > 0 && tokenType[tokenCount - 1] == WORD
+				&& "NOT".equals(tokenText[tokenCount - 1])) {
+				tokenType[tokenCount - 1] = OPERATOR;
+				tokenText[tokenCount - 1] = "NOT IN";
+			} else {
+				addToken(OPERATOR, text);
+			}
+		} else {
+			addToken(WORD, text);
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Parser
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Parse the tokens into a query
+	 *
+	 * @param  parameter map to use as default
+	 *
+	 * @return  the parsed query
+	 **/
+	public Query parse(Map<String, Object> paramMap) {
+		this.paramMap = paramMap;
+		this.pos = 0;
+		
+		// Blank, or single string token query
+		if (tokenCount == 0) {
+			throw new RuntimeException("Unexpected collapseQueryTokens end -> ");
+		}
+		if (tokenCount == 1) {
+			if (tokenType[0] == QUERY) {
+				return tokenQuery[0];
+			}
+			throw new RuntimeException("Unexpected collapseQueryTokens end -> " + tokenText[0]);
+		}
+		
+		return parseGroup(false);
+	}
+	
+	/**
+	 * Parse the tokens as a single combination group, without the checks for
+	 * a blank, or single token query done by parse(Map)
+	 *
+	 * @param  parameter map to use as default
+	 *
+	 * @return  the combined query
+	 **/
+	public Query parseCombination(Map<String, Object> paramMap) {
+		this.paramMap = paramMap;
+		this.pos = 0;
+		return parseGroup(false);
+	}
+	
+	/**
+	 * Parse a bracket group (or the whole query), till its closing bracket
+	 *
+	 * @param  inBracket indicates if the group is within a bracket
+	 *
+	 * @return  the combined group query
+	 **/
+	protected Query parseGroup(boolean inBracket) {
+		List<Query> childList = new ArrayList<Query>();
+		String combinationType = null;
+		int groupTokens = 0;
+		
+		while (true) {
+			
+			// End of tokens
+			if (pos >= tokenCount) {
+				if (inBracket) {
+					throw new RuntimeException("Found starting bracket '(' without closing bracket");
+				}
+				break;
+			}
+			
+			byte type = tokenType[pos];
+			
+			// End of bracket group
+			if (type == CLOSE_BRACKET) {
+				if (!inBracket) {
+					throw new RuntimeException("Found closing bracket ')' without opening bracket");
+				}
+				++pos;
+				break;
+			}
+			
+			++groupTokens;
+			
+			// Prebuilt query token
+			if (type == QUERY) {
+				childList.add(tokenQuery[pos]);
+				++pos;
+				continue;
+			}
+			
+			// Nested bracket group
+			if (type == OPEN_BRACKET) {
+				++pos;
+				childList.add(parseGroup(true));
+				continue;
+			}
+			
+			// Basic condition
+			if (pos + 1 < tokenCount && tokenType[pos + 1] == OPERATOR) {
+				if (pos + 2 >= tokenCount) {
+					throw new RuntimeException("Unexpected end of operator token : "
+						+ tokenText[pos + 1]);
+				}
+				
+				// Set membership argument within brackets, "IN (:arg)"
+				if (tokenType[pos + 2] == OPEN_BRACKET
+					&& QueryFilter.setOperators.contains(tokenText[pos + 1])) {
+					if (pos + 4 >= tokenCount || tokenType[pos + 4] != CLOSE_BRACKET) {
+						throw new RuntimeException("Expected a single bracketed argument after : "
+							+ tokenText[pos + 1]);
+					}
+					childList.add(QueryFilter.basicQueryFromTokens(paramMap, tokenText[pos],
+						tokenText[pos + 1], tokenText[pos + 3]));
+					pos += 5;
+					continue;
+				}
+				
+				childList.add(QueryFilter.basicQueryFromTokens(paramMap, tokenText[pos],
+					tokenText[pos + 1], tokenText[pos + 2]));
+				pos += 3;
+				continue;
+			}
+			
+			// Combination operator
+			String op = tokenText[pos].toUpperCase(Locale.ENGLISH);
+			++pos;
+			if (!(QueryFilter.combinationOperators.contains(op))) {
+				throw new RuntimeException("Unable to process combination token: " + op);
+			}
+			
+			// Setup combination type, or continue the current combination
+			if (combinationType == null) {
+				combinationType = op;
+				continue;
+			}
+			if (combinationType.equals(op)) {
+				continue;
+			}
+			
+			// Change of combination, wrap everything up till the current point
+			if (childList.isEmpty()) {
+				throw new RuntimeException("Unexpected blank child list: " + childList);
+			}
+			Query combined = QueryFilter.combinationQuery(combinationType, childList, paramMap);
+			childList = new ArrayList<Query>();
+			childList.add(combined);
+			combinationType = op;
+		}
+		
+		// Group without any combination operator
+		if (combinationType == null) {
+			if (groupTokens == 0) {
+				throw new RuntimeException("Missing combination token: Empty tokens and child list");
+			}
+			if (childList.size() == 1) {
+				return childList.get(0);
+			}
+			throw new RuntimeException("Missing combination token: " + childList);
+		}
+		
+		return QueryFilter.combinationQuery(combinationType, childList, paramMap);
+	}
+}
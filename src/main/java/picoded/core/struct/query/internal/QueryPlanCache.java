@@ -0,0 +1,294 @@
+package picoded.core.struct.query.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import picoded.core.struct.query.Query;
+
+/**
+ * Bounded cache of parsed query plans, keyed by the normalized query string.
+ *
+ * Parsing a query string is relatively expensive when compared to executing a
+ * query against a small collection. As most applications reuse the same set of
+ * where clauses, the parsed query tree is cached as an immutable template,
+ * which is duplicated with the per call arguments on every build.
+ *
+ * The cached template is never exposed directly, as the Query tree itself is mutable
+ * (see Query.replaceQuery).
+ **/
+public class QueryPlanCache {
+	
+	//--------------------------------------------------------------------
+	// Shared cache instance
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Default number of query plans cached by the shared instance
+	 **/
+	public static final int DEFAULT_MAX_SIZE = 1024;
+	
+	/**
+	 * The shared cache instance, used by Query.build
+	 **/
+	protected static final QueryPlanCache sharedCache = new QueryPlanCache(DEFAULT_MAX_SIZE);
+	
+	/**
+	 * @return  the shared cache instance, used by Query.build
+	 **/
+	public static QueryPlanCache shared() {
+		return sharedCache;
+	}
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The underlying plan cache
+	 **/
+	protected final ConcurrentLRUCache<String, QueryPlan> cache;
+	
+	/**
+	 * Constructor with the maximum number of query plans to cache
+	 *
+	 * @param  maxSize of the cache, 0 or less disables caching
+	 **/
+	public QueryPlanCache(int maxSize) {
+		cache = new ConcurrentLRUCache<String, QueryPlan>(maxSize);
+	}
+	
+	//--------------------------------------------------------------------
+	// Cached query plan
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Immutable parsed query template, and its "?" argument count
+	 **/
+	public static class QueryPlan {
+		
+		/**
+		 * The parsed query template, this is never exposed
+		 **/
+		protected final Query template;
+		
+		/**
+		 * Number of "?" arguments used in the query string
+		 **/
+		protected final int argumentCount;
+		
+		/**
+		 * Parses the query string into a template
+		 *
+		 * @param  normalized query string to parse
+		 **/
+		public QueryPlan(String query) {
+			QueryParser parser = new QueryParser(query);
+			argumentCount = parser.argumentCount();
+			template = parser.parse(new HashMap<String, Object>());
+		}
+		
+		/**
+		 * @return  number of "?" arguments used in the query string
+		 **/
+		public int argumentCount() {
+			return argumentCount;
+		}
+		
+		/**
+		 * Bind the arguments to a copy of the query template
+		 *
+		 * @param  named map to build on and use, creates a HashMap if null
+		 * @param  arguments array to convert from
+		 *
+		 * @return  the query with its arguments
+		 **/
+		public Query bind(Map<String, Object> baseMap, Object[] argArr) {
+			// Ensures argument map
+			if (baseMap == null) {
+				baseMap = new HashMap<String, Object>();
+			}
+			
+			// Validate and convert the argument array (consistent with QueryFilter.buildQuery)
+			int argArrCount = (argArr != null) ? argArr.length : argumentCount;
+			if (argArrCount != argumentCount) {
+				throw new RuntimeException("Query string argument count (" + argumentCount
+					+ "), and argument array length mismatched (" + argArrCount + ")");
+			}
+			if (argumentCount > 0) {
+				baseMap = QueryFilter.argumentsArrayToMap(baseMap, argArr);
+			}
+			
+			return template.duplicate(baseMap);
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Query building
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the end of the quoted segment (such as a quoted field name) at the given
+	 * position, following the same rules as the QueryParser, where quotes are only
+	 * opened at the start of a word.
+	 *
+	 * @param  query string to scan
+	 * @param  i position to check
+	 *
+	 * @return  the ending position of the quoted segment (exclusive), or -1 if not quoted
+	 **/
+	protected static int quotedSegmentEnd(String query, int i) {
+		char c = query.charAt(i);
+		if (c != '"' && c != '\'' && c != '[') {
+			return -1;
+		}
+		if (i > 0) {
+			char prev = query.charAt(i - 1);
+			if (!QueryParser.isWhitespace(prev) && prev != '(' && prev != ')' && prev != '='
+				&& prev != '<' && prev != '>') {
+				return -1;
+			}
+		}
+		int close = query.indexOf((c == '[') ? ']' : c, i + 1);
+		return (close < 0) ? -1 : close + 1;
+	}
+	
+	/**
+	 * Normalize the query string whitespace, to be used as the cache key.
+	 * Quoted segments (such as quoted field names) are left untouched.
+	 *
+	 * This is done in a single pass, and returns the original string
+	 * if there is no changes needed.
+	 *
+	 * @param  query string to normalize
+	 *
+	 * @return  normalized query string
+	 **/
+	public static String normalizeQueryString(String query) {
+		int len = query.length();
+		
+		// Check if any normalization is needed at all
+		boolean needed = (len > 0 && (Character.isWhitespace(query.charAt(0)) || Character
+			.isWhitespace(query.charAt(len - 1))));
+		for (int i = 0; i < len && !needed; ++i) {
+			char c = query.charAt(i);
+			int quoteEnd = quotedSegmentEnd(query, i);
+			if (quoteEnd > 0) {
+				i = quoteEnd - 1;
+			} else if (Character.isWhitespace(c)
+				&& (c != ' ' || (i + 1 < len && Character.isWhitespace(query.charAt(i + 1))))) {
+				needed = true;
+			}
+		}
+		if (!needed) {
+			return query;
+		}
+		
+		// Collapse all whitespace (outside of quotes) into single spaces, and trim it
+		StringBuilder ret = new StringBuilder(len);
+		boolean pendingSpace = false;
+		for (int i = 0; i < len; ++i) {
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				pendingSpace = (ret.length() > 0);
+				continue;
+			}
+			if (pendingSpace) {
+				ret.append(' ');
+				pendingSpace = false;
+			}
+			int quoteEnd = quotedSegmentEnd(query, i);
+			if (quoteEnd > 0) {
+				ret.append(query, i, quoteEnd);
+				i = quoteEnd - 1;
+			} else {
+				ret.append(c);
+			}
+		}
+		return ret.toString();
+	}
+	
+	/**
+	 * Gets the cached query plan, parsing and caching it if needed.
+	 *
+	 * @param  the query string to use
+	 *
+	 * @return  the query plan
+	 **/
+	public QueryPlan queryPlan(String query) {
+		String key = normalizeQueryString(query);
+		QueryPlan plan = cache.get(key);
+		if (plan == null) {
+			// Parsing errors are thrown here, and are never cached
+			plan = new QueryPlan(key);
+			cache.put(key, plan);
+		}
+		return plan;
+	}
+	
+	/**
+	 * Builds the query, from its cached plan where possible.
+	 * This is the cached equivalent of QueryFilter.buildQuery
+	 *
+	 * @param  the query string to filter out
+	 * @param  named map to build on and return, creates a HashMap if null
+	 * @param  arguments array to convert from
+	 *
+	 * @return  the query to be built
+	 **/
+	public Query buildQuery(String query, Map<String, Object> baseMap, Object[] argArr) {
+		return queryPlan(query).bind(baseMap, argArr);
+	}
+	
+	//--------------------------------------------------------------------
+	// Cache management, and statistics
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Clears all cached query plans
+	 **/
+	public void clear() {
+		cache.clear();
+	}
+	
+	/**
+	 * @return  the current number of cached query plans
+	 **/
+	public int size() {
+		return cache.size();
+	}
+	
+	/**
+	 * @return  number of cache hits
+	 **/
+	public long hitCount() {
+		return cache.hitCount();
+	}
+	
+	/**
+	 * @return  number of cache misses
+	 **/
+	public long missCount() {
+		return cache.missCount();
+	}
+	
+	/**
+	 * @return  number of query plans evicted from the cache
+	 **/
+	public long evictionCount() {
+		return cache.evictionCount();
+	}
+	
+	/**
+	 * @return  ratio of hits over total lookups
+	 **/
+	public double hitRate() {
+		return cache.hitRate();
+	}
+	
+	/**
+	 * Reset the hit / miss / eviction counters
+	 **/
+	public void resetStats() {
+		cache.resetStats();
+	}
+}
@@ -0,0 +1,391 @@
+package picoded.core.struct.query.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import picoded.core.struct.query.OrderBy;
+import picoded.core.struct.query.Query;
+
+/**
+ * Bounded cache of query results, keyed by the normalized query string, arguments,
+ * order by, and paging (offset / limit).
+ *
+ * Cached results are invalidated either by
+ *
+ * + a collection modification counter (see IndexedQueryMapCollection.modificationCount),
+ *   where any change to the counter invalidates every cached result
+ * + invalidate(), for changes which adds or removes values
+ * + invalidateFields(), for changes to specific fields of existing values, which only
+ *   invalidates the results whose where clause or order by uses those fields
+ *
+ * Invalidations which happens while a result is being computed, invalidates the result.
+ * Cached results are shared across calls, and must not be modified by the caller.
+ **/
+public class QueryResultCache {
+	
+	//--------------------------------------------------------------------
+	// Constructor vars
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Default number of query results cached
+	 **/
+	public static final int DEFAULT_MAX_SIZE = 256;
+	
+	/**
+	 * The underlying result cache
+	 **/
+	protected final ConcurrentLRUCache<CacheKey, CacheEntry> cache;
+	
+	/**
+	 * Collection modification counter, null if its not used
+	 **/
+	protected final LongSupplier modificationCounter;
+	
+	/**
+	 * Logical clock, incremented on every invalidation
+	 **/
+	protected final AtomicLong clock = new AtomicLong();
+	
+	/**
+	 * Clock value of the last full invalidation
+	 **/
+	protected volatile long invalidatedAt = 0;
+	
+	/**
+	 * Clock value of the last invalidation, of each field
+	 **/
+	protected final ConcurrentHashMap<String, Long> fieldInvalidatedAt = new ConcurrentHashMap<>();
+	
+	/**
+	 * Hit / miss / stale counters, the LRU cache counters are not used
+	 * as stale results are only detected after the lookup
+	 **/
+	protected final LongAdder hits = new LongAdder();
+	protected final LongAdder misses = new LongAdder();
+	protected final LongAdder staleCount = new LongAdder();
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Constructor with the maximum number of query results to cache, without a
+	 * modification counter (invalidation is done manually)
+	 *
+	 * @param  maxSize of the cache, 0 or less disables caching
+	 **/
+	public QueryResultCache(int maxSize) {
+		this(maxSize, null);
+	}
+	
+	/**
+	 * Constructor with the maximum number of query results to cache, and the
+	 * collection modification counter
+	 *
+	 * @param  maxSize of the cache, 0 or less disables caching
+	 * @param  modificationCounter which changes on every collection modification, null to ignore
+	 **/
+	public QueryResultCache(int maxSize, LongSupplier modificationCounter) {
+		cache = new ConcurrentLRUCache<CacheKey, CacheEntry>(maxSize);
+		this.modificationCounter = modificationCounter;
+	}
+	
+	//--------------------------------------------------------------------
+	// Cache key, and entry
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Normalized query result key
+	 **/
+	public static class CacheKey {
+		
+		protected final String type;
+		protected final String whereClause;
+		protected final Object[] whereValues;
+		protected final String orderByStr;
+		protected final int offset;
+		protected final int limit;
+		protected final int hash;
+		
+		/**
+		 * Constructor, normalizing the query, order by, and paging
+		 *
+		 * @param  type of result cached (for example "query", or "count")
+		 * @param  where query statement, null for all values
+		 * @param  where clause values array
+		 * @param  query string to sort the order by, use null to ignore
+		 * @param  offset of the result, 0 or less to ignore
+		 * @param  limit of the result, 0 or less to ignore
+		 **/
+		public CacheKey(String type, String whereClause, Object[] whereValues, String orderByStr,
+			int offset, int limit) {
+			this.type = type;
+			this.whereClause = (whereClause == null) ? null : QueryPlanCache
+				.normalizeQueryString(whereClause);
+			this.whereValues = (whereValues == null || whereValues.length == 0) ? null
+				: whereValues.clone();
+			this.orderByStr = (orderByStr == null) ? null : QueryPlanCache
+				.normalizeQueryString(orderByStr);
+			this.offset = Math.max(offset, 0);
+			this.limit = Math.max(limit, 0);
+			
+			int h = Objects.hash(type, this.whereClause, this.orderByStr, this.offset, this.limit);
+			hash = 31 * h + Arrays.deepHashCode(this.whereValues);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			return hash == other.hash && offset == other.offset && limit == other.limit
+				&& Objects.equals(type, other.type) && Objects.equals(whereClause, other.whereClause)
+				&& Objects.equals(orderByStr, other.orderByStr)
+				&& Arrays.deepEquals(whereValues, other.whereValues);
+		}
+	}
+	
+	/**
+	 * Cached result, with its invalidation state
+	 **/
+	protected static class CacheEntry {
+		
+		protected final Object result;
+		protected final long cachedAt;
+		protected final long modificationCount;
+		protected final String[] dependencies;
+		
+		CacheEntry(Object result, long cachedAt, long modificationCount, String[] dependencies) {
+			this.result = result;
+			this.cachedAt = cachedAt;
+			this.modificationCount = modificationCount;
+			this.dependencies = dependencies;
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Field dependency
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the top level field name, of a nested field path (such as "a" of "a.b", or "a[0]")
+	 *
+	 * @param  fieldName to get from
+	 *
+	 * @return  top level field name
+	 **/
+	protected static String rootField(String fieldName) {
+		int len = fieldName.length();
+		for (int i = 0; i < len; ++i) {
+			char c = fieldName.charAt(i);
+			if (c == '.' || c == '[') {
+				return fieldName.substring(0, i);
+			}
+		}
+		return fieldName;
+	}
+	
+	/**
+	 * Gets the fields used by the query, and order by. This includes the top level
+	 * field name of nested field paths, so that a change to "a" invalidates "a.b".
+	 *
+	 * @param  query to get the fields from, null to ignore
+	 * @param  query string to sort the order by, null to ignore
+	 *
+	 * @return  set of fields used
+	 **/
+	public static Set<String> dependencyFields(Query query, String orderByStr) {
+		Set<String> fields = new HashSet<String>();
+		if (query != null) {
+			fields.addAll(query.fieldQueryMap().keySet());
+		}
+		if (orderByStr != null && orderByStr.trim().length() > 0) {
+			fields.addAll(new OrderBy<Object>(orderByStr).getKeyNames());
+		}
+		
+		Set<String> ret = new HashSet<String>();
+		for (String field : fields) {
+			ret.add(field);
+			ret.add(rootField(field));
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return  the current modification counter value, 0 if its not used
+	 **/
+	protected long modificationCount() {
+		return (modificationCounter == null) ? 0 : modificationCounter.getAsLong();
+	}
+	
+	/**
+	 * @param  entry to validate
+	 *
+	 * @return  true if the cached entry is still valid
+	 **/
+	protected boolean isValid(CacheEntry entry) {
+		if (entry.cachedAt < invalidatedAt || entry.modificationCount != modificationCount()) {
+			return false;
+		}
+		for (String field : entry.dependencies) {
+			Long fieldAt = fieldInvalidatedAt.get(field);
+			if (fieldAt != null && entry.cachedAt < fieldAt) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	//--------------------------------------------------------------------
+	// Cache operations
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Gets the cached result, computing and caching it if needed.
+	 *
+	 * @param  type of result cached (for example "query", or "count")
+	 * @param  where query statement, null for all values
+	 * @param  where clause values array
+	 * @param  query string to sort the order by, use null to ignore
+	 * @param  offset of the result, 0 or less to ignore
+	 * @param  limit of the result, 0 or less to ignore
+	 * @param  compute function of the result, on a cache miss
+	 *
+	 * @return  the cached, or computed result
+	 **/
+	@SuppressWarnings("unchecked")
+	public <T> T get(String type, String whereClause, Object[] whereValues, String orderByStr,
+		int offset, int limit, Supplier<T> compute) {
+		CacheKey key = new CacheKey(type, whereClause, whereValues, orderByStr, offset, limit);
+		
+		// Cache hit
+		CacheEntry entry = cache.get(key);
+		if (entry != null) {
+			if (isValid(entry)) {
+				hits.increment();
+				return (T) entry.result;
+			}
+			staleCount.increment();
+			cache.remove(key);
+		}
+		misses.increment();
+		
+		// The invalidation state is taken before computing, so that any
+		// invalidation while computing invalidates the result
+		long cachedAt = clock.get();
+		long modificationCount = modificationCount();
+		T result = compute.get();
+		if (result == null || cache.maxSize() <= 0) {
+			return result;
+		}
+		
+		// Query errors are thrown by compute, and are never cached
+		Query query = (whereClause == null) ? null : Query.build(whereClause, whereValues);
+		String[] dependencies = dependencyFields(query, orderByStr).toArray(new String[0]);
+		cache.put(key, new CacheEntry(result, cachedAt, modificationCount, dependencies));
+		return result;
+	}
+	
+	/**
+	 * Invalidates all cached results, this should be called when values are added or removed
+	 **/
+	public void invalidate() {
+		invalidatedAt = clock.incrementAndGet();
+	}
+	
+	/**
+	 * Invalidates the cached results whose where clause or order by uses the given fields.
+	 * This should be called when existing values are modified.
+	 *
+	 * @param  fieldNames which was modified
+	 **/
+	public void invalidateFields(String... fieldNames) {
+		long now = clock.incrementAndGet();
+		for (String field : fieldNames) {
+			fieldInvalidatedAt.put(field, now);
+			fieldInvalidatedAt.put(rootField(field), now);
+		}
+	}
+	
+	/**
+	 * Clears all cached results
+	 **/
+	public void clear() {
+		cache.clear();
+	}
+	
+	//--------------------------------------------------------------------
+	// Cache statistics
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  the current number of cached results (including stale results)
+	 **/
+	public int size() {
+		return cache.size();
+	}
+	
+	/**
+	 * @return  number of cache hits
+	 **/
+	public long hitCount() {
+		return hits.sum();
+	}
+	
+	/**
+	 * @return  number of cache misses (including stale results)
+	 **/
+	public long missCount() {
+		return misses.sum();
+	}
+	
+	/**
+	 * @return  number of stale results found, and removed
+	 **/
+	public long staleCount() {
+		return staleCount.sum();
+	}
+	
+	/**
+	 * @return  number of results evicted from the cache
+	 **/
+	public long evictionCount() {
+		return cache.evictionCount();
+	}
+	
+	/**
+	 * @return  ratio of hits over total lookups, 0 if there was no lookup
+	 **/
+	public double hitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return (total == 0) ? 0.0 : ((double) h) / total;
+	}
+	
+	/**
+	 * Reset the hit / miss / stale / eviction counters
+	 **/
+	public void resetStats() {
+		hits.reset();
+		misses.reset();
+		staleCount.reset();
+		cache.resetStats();
+	}
+}
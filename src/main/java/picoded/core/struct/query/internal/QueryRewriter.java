@@ -0,0 +1,567 @@
+package picoded.core.struct.query.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.condition.And;
+import picoded.core.struct.query.condition.Equals;
+import picoded.core.struct.query.condition.In;
+import picoded.core.struct.query.condition.LessThan;
+import picoded.core.struct.query.condition.LessThanOrEquals;
+import picoded.core.struct.query.condition.MoreThan;
+import picoded.core.struct.query.condition.MoreThanOrEquals;
+import picoded.core.struct.query.condition.Not;
+import picoded.core.struct.query.condition.NotEquals;
+import picoded.core.struct.query.condition.NotIn;
+import picoded.core.struct.query.condition.Or;
+import picoded.core.struct.query.index.FieldIndex;
+
+/**
+ * Query rewrite pass, which normalizes a query tree into a simpler equivalent tree,
+ * with the same test result for its default argument values.
+ *
+ * # Rewrite steps
+ *
+ * + nested AND / OR combinations are flattened, `(A AND B) AND C` into `A AND B AND C`
+ * + NOT is pushed down to the basic conditions with De Morgan's laws, where `NOT(A OR B)`
+ *   is `NOT A AND NOT B`. Conditions with an exact inverse are negated directly (= and !=,
+ *   IN and NOT IN), while the others remain wrapped in a single NOT
+ * + identical conditions (and sub combinations) within a combination are removed
+ * + numeric range conditions (<, <=, >, >=) of the same field are merged into a single
+ *   interval, of at most one lower, and one upper bound. Within AND the tightest bounds are
+ *   kept, within OR the loosest bounds are kept
+ * + contradictions are folded into an always false query, such as `a < 3 AND a > 9`,
+ *   `a = 1 AND a = 2`, a range condition with a null argument, or IN with an empty set
+ *
+ * # Exactness
+ *
+ * Values are compared dynamically (see ComparisonEngine), where a string argument compares
+ * strings and numbers differently. As such ranges are only merged for numeric arguments,
+ * where every field value is compared by its numeric value (non numeric values being
+ * smaller than every number), giving a single consistent ordering.
+ *
+ * Wildcard fields (_key / _val) are never merged or negated, as they match any key / value.
+ *
+ * # Constants
+ *
+ * An always false query is represented as a blank OR combination (a blank combination is
+ * a failure), and an always true query as a NOT of it. See isAlwaysFalse, and isAlwaysTrue.
+ **/
+public class QueryRewriter {
+	
+	protected QueryRewriter() {
+		throw new IllegalAccessError("Utility class");
+	}
+	
+	//--------------------------------------------------------------------
+	// Public API
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Rewrites the query into its normalized form.
+	 *
+	 * As combinations test their children with their own argument map, the query is bound
+	 * (see Query.bind) to its default argument map first, so that the arguments used by the
+	 * rewrite are the same as the arguments used for testing.
+	 *
+	 * @param  query to rewrite
+	 *
+	 * @return  the normalized query, which may be the same query, if there is nothing to rewrite
+	 **/
+	public static Query rewrite(Query query) {
+		if (query == null) {
+			return null;
+		}
+		Query bound = query.bind();
+		return new QueryRewriter.Pass(bound.defaultArgumentMap()).rewrite(bound);
+	}
+	
+	/**
+	 * @param  query to check
+	 *
+	 * @return  true if its the always false constant (a blank combination)
+	 **/
+	public static boolean isAlwaysFalse(Query query) {
+		return QueryOptimizer.combinationType(query) != null && query.childrenQuery().isEmpty();
+	}
+	
+	/**
+	 * @param  query to check
+	 *
+	 * @return  true if its the always true constant (a NOT of a blank combination)
+	 **/
+	public static boolean isAlwaysTrue(Query query) {
+		return query.getClass() == Not.class && query.childrenQuery().size() == 1
+			&& isAlwaysFalse(query.childrenQuery().get(0));
+	}
+	
+	//--------------------------------------------------------------------
+	// Rewrite pass
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Single rewrite pass, with the argument map used for all new combinations
+	 **/
+	protected static class Pass {
+		
+		protected final Map<String, Object> argMap;
+		
+		protected Pass(Map<String, Object> argMap) {
+			this.argMap = argMap;
+		}
+		
+		/**
+		 * @return  new always false constant
+		 **/
+		protected Query alwaysFalse() {
+			return new Or(new ArrayList<Query>(), argMap);
+		}
+		
+		/**
+		 * @return  new always true constant
+		 **/
+		protected Query alwaysTrue() {
+			List<Query> children = new ArrayList<Query>();
+			children.add(alwaysFalse());
+			return new Not(children, argMap);
+		}
+		
+		/**
+		 * Rewrites the query node
+		 *
+		 * @param  the query node
+		 *
+		 * @return  the rewritten node
+		 **/
+		protected Query rewrite(Query node) {
+			QueryType type = QueryOptimizer.combinationType(node);
+			if (type == null) {
+				return isFalseCondition(node) ? alwaysFalse() : node;
+			}
+			
+			List<Query> children = node.childrenQuery();
+			if (children.isEmpty()) {
+				return alwaysFalse();
+			}
+			
+			List<Query> rewritten = new ArrayList<Query>(children.size());
+			if (type == QueryType.NOT) {
+				// NOT passes when every child fails, which is an AND of each negated child
+				for (Query child : children) {
+					rewritten.add(negate(child));
+				}
+				return junction(QueryType.AND, rewritten);
+			}
+			for (Query child : children) {
+				rewritten.add(rewrite(child));
+			}
+			return junction(type, rewritten);
+		}
+		
+		/**
+		 * Rewrites the negation of the query node, by negating its rewritten form,
+		 * so that constants folded within the node are negated as well
+		 *
+		 * @param  the query node to negate
+		 *
+		 * @return  the rewritten negated node
+		 **/
+		protected Query negate(Query node) {
+			return negateRewritten(rewrite(node));
+		}
+		
+		/**
+		 * Negates an already rewritten node, where NOT only wraps a single basic condition
+		 * (or custom query), or is the always true constant
+		 *
+		 * @param  the rewritten node to negate
+		 *
+		 * @return  the rewritten negated node
+		 **/
+		protected Query negateRewritten(Query node) {
+			if (isAlwaysFalse(node)) {
+				return alwaysTrue();
+			}
+			if (isAlwaysTrue(node)) {
+				return alwaysFalse();
+			}
+			
+			QueryType type = QueryOptimizer.combinationType(node);
+			
+			// Basic conditions, and custom query implementations
+			if (type == null) {
+				Query inverse = inverseCondition(node);
+				if (inverse != null) {
+					return inverse;
+				}
+				List<Query> single = new ArrayList<Query>();
+				single.add(node);
+				return new Not(single, argMap);
+			}
+			
+			List<Query> children = node.childrenQuery();
+			if (type == QueryType.NOT) {
+				// Negation of NOT, is when any child passes
+				return junction(QueryType.OR, children);
+			}
+			List<Query> negated = new ArrayList<Query>(children.size());
+			for (Query child : children) {
+				negated.add(negateRewritten(child));
+			}
+			return junction((type == QueryType.AND) ? QueryType.OR : QueryType.AND, negated);
+		}
+		
+		/**
+		 * Builds the AND / OR combination of the rewritten children, after flattening,
+		 * constant folding, deduplication, and range merging
+		 *
+		 * @param  AND, or OR
+		 * @param  rewritten children
+		 *
+		 * @return  the combined node
+		 **/
+		protected Query junction(QueryType type, List<Query> children) {
+			boolean isAnd = (type == QueryType.AND);
+			
+			// Flatten, fold constants, and remove duplicates
+			List<Query> flat = new ArrayList<Query>();
+			Set<Object> seen = new HashSet<Object>();
+			List<Query> pending = new ArrayList<Query>(children);
+			for (int i = 0; i < pending.size(); ++i) {
+				Query child = pending.get(i);
+				if (isAlwaysFalse(child)) {
+					if (isAnd) {
+						return alwaysFalse();
+					}
+					continue;
+				}
+				if (isAlwaysTrue(child)) {
+					if (!isAnd) {
+						return alwaysTrue();
+					}
+					continue;
+				}
+				if (QueryOptimizer.combinationType(child) == type) {
+					pending.addAll(i + 1, child.childrenQuery());
+					continue;
+				}
+				if (seen.add(nodeKey(child))) {
+					flat.add(child);
+				}
+			}
+			
+			List<Query> merged = mergeRanges(flat, isAnd);
+			if (merged == null) {
+				return alwaysFalse();
+			}
+			if (merged.isEmpty()) {
+				return isAnd ? alwaysTrue() : alwaysFalse();
+			}
+			if (merged.size() == 1) {
+				return merged.get(0);
+			}
+			return isAnd ? new And(merged, argMap) : new Or(merged, argMap);
+		}
+		
+		//------------------------------------------------------------------
+		// Range merging
+		//------------------------------------------------------------------
+		
+		/**
+		 * Merges the numeric range conditions of each field
+		 *
+		 * @param  the flattened children
+		 * @param  true for AND, false for OR
+		 *
+		 * @return  the merged children, or null if its a contradiction (for AND)
+		 **/
+		protected List<Query> mergeRanges(List<Query> children, boolean isAnd) {
+			Map<String, FieldRange> ranges = new HashMap<String, FieldRange>();
+			for (Query child : children) {
+				int kind = rangeKind(child);
+				if (kind == NONE || (kind == POINT && !isAnd)) {
+					continue;
+				}
+				FieldRange range = ranges.computeIfAbsent(child.fieldName(),
+					(k) -> new FieldRange());
+				if (!range.add(child, kind, isAnd)) {
+					return null;
+				}
+			}
+			if (ranges.isEmpty()) {
+				return children;
+			}
+			
+			// Keep only the chosen conditions, in their original order
+			List<Query> ret = new ArrayList<Query>(children.size());
+			for (Query child : children) {
+				int kind = rangeKind(child);
+				boolean merged = (kind != NONE && (kind != POINT || isAnd));
+				FieldRange range = merged ? ranges.get(child.fieldName()) : null;
+				if (range == null || range.keeps(child)) {
+					ret.add(child);
+				}
+			}
+			return ret;
+		}
+	}
+	
+	/**
+	 * Range condition kinds
+	 **/
+	protected static final int NONE = 0;
+	protected static final int LOWER = 1;
+	protected static final int UPPER = 2;
+	protected static final int POINT = 3;
+	
+	/**
+	 * Merged numeric range of a single field
+	 **/
+	protected static class FieldRange {
+		
+		protected Query lower = null;
+		protected double lowerValue = 0;
+		protected boolean lowerStrict = false;
+		
+		protected Query upper = null;
+		protected double upperValue = 0;
+		protected boolean upperStrict = false;
+		
+		protected Query point = null;
+		protected double pointValue = 0;
+		
+		/**
+		 * Adds the range condition
+		 *
+		 * @return  false if its a contradiction
+		 **/
+		protected boolean add(Query condition, int kind, boolean isAnd) {
+			double value = numericArgument(condition).doubleValue();
+			QueryType type = condition.type();
+			
+			if (kind == POINT) {
+				if (point != null && Double.compare(pointValue, value) != 0) {
+					return false;
+				}
+				point = condition;
+				pointValue = value;
+			} else if (kind == LOWER) {
+				boolean strict = (type == QueryType.MORE_THAN);
+				int cmp = (lower == null) ? 0 : Double.compare(value, lowerValue);
+				// AND keeps the tightest (largest) bound, and OR the loosest (smallest)
+				if (lower == null || (isAnd ? cmp > 0 : cmp < 0)
+					|| (cmp == 0 && (isAnd ? strict && !lowerStrict : !strict && lowerStrict))) {
+					lower = condition;
+					lowerValue = value;
+					lowerStrict = strict;
+				}
+			} else {
+				boolean strict = (type == QueryType.LESS_THAN);
+				int cmp = (upper == null) ? 0 : Double.compare(value, upperValue);
+				if (upper == null || (isAnd ? cmp < 0 : cmp > 0)
+					|| (cmp == 0 && (isAnd ? strict && !upperStrict : !strict && upperStrict))) {
+					upper = condition;
+					upperValue = value;
+					upperStrict = strict;
+				}
+			}
+			
+			if (!isAnd) {
+				return true;
+			}
+			
+			// Empty interval
+			if (lower != null && upper != null) {
+				int cmp = Double.compare(lowerValue, upperValue);
+				if (cmp > 0 || (cmp == 0 && (lowerStrict || upperStrict))) {
+					return false;
+				}
+			}
+			
+			// Point outside of the interval
+			if (point != null) {
+				if (lower != null) {
+					int cmp = Double.compare(pointValue, lowerValue);
+					if (cmp < 0 || (cmp == 0 && lowerStrict)) {
+						return false;
+					}
+				}
+				if (upper != null) {
+					int cmp = Double.compare(pointValue, upperValue);
+					if (cmp > 0 || (cmp == 0 && upperStrict)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * @return  true if the condition is kept, where the bounds are redundant to a point
+		 **/
+		protected boolean keeps(Query condition) {
+			if (point != null) {
+				return condition == point;
+			}
+			return condition == lower || condition == upper;
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Condition utilities
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  true if the condition is on a wildcard (_key / _val) field
+	 **/
+	protected static boolean isWildcard(Query condition) {
+		String field = condition.fieldName();
+		return "_key".equalsIgnoreCase(field) || "_val".equalsIgnoreCase(field);
+	}
+	
+	/**
+	 * @return  the numeric argument of the condition, null if its not a Number
+	 **/
+	protected static Number numericArgument(Query condition) {
+		Object arg = FieldIndex.conditionArgument(condition);
+		return (arg instanceof Number) ? (Number) arg : null;
+	}
+	
+	/**
+	 * Gets the range kind, of a numeric range (or equality) condition
+	 *
+	 * @param  the condition
+	 *
+	 * @return  LOWER, UPPER, POINT, or NONE if it cannot be merged
+	 **/
+	protected static int rangeKind(Query condition) {
+		Class<?> nodeClass = condition.getClass();
+		int kind = NONE;
+		if (nodeClass == MoreThan.class || nodeClass == MoreThanOrEquals.class) {
+			kind = LOWER;
+		} else if (nodeClass == LessThan.class || nodeClass == LessThanOrEquals.class) {
+			kind = UPPER;
+		} else if (nodeClass == Equals.class) {
+			kind = POINT;
+		}
+		if (kind == NONE || isWildcard(condition) || numericArgument(condition) == null) {
+			return NONE;
+		}
+		return kind;
+	}
+	
+	/**
+	 * Indicates if the basic condition always fails, a range condition with a null argument
+	 * (as null is never compared), or an IN condition with an empty set
+	 *
+	 * @param  the condition
+	 *
+	 * @return  true if it always fails
+	 **/
+	protected static boolean isFalseCondition(Query condition) {
+		Class<?> nodeClass = condition.getClass();
+		if (nodeClass == MoreThan.class || nodeClass == MoreThanOrEquals.class
+			|| nodeClass == LessThan.class || nodeClass == LessThanOrEquals.class) {
+			return FieldIndex.conditionArgument(condition) == null;
+		}
+		if (nodeClass == In.class) {
+			return InArgument.argumentValues(FieldIndex.conditionArgument(condition)).isEmpty();
+		}
+		return false;
+	}
+	
+	/**
+	 * Gets the exact inverse of the basic condition, with the same field and argument
+	 *
+	 * @param  the condition
+	 *
+	 * @return  the inverse condition, null if there is none
+	 **/
+	protected static Query inverseCondition(Query condition) {
+		if (!condition.isBasicOperator() || isWildcard(condition)) {
+			return null;
+		}
+		Class<?> nodeClass = condition.getClass();
+		String field = condition.fieldName();
+		String argName = condition.argumentName();
+		Map<String, Object> conditionArgMap = condition.defaultArgumentMap();
+		if (nodeClass == Equals.class) {
+			return new NotEquals(field, argName, conditionArgMap);
+		} else if (nodeClass == NotEquals.class) {
+			return new Equals(field, argName, conditionArgMap);
+		} else if (nodeClass == In.class) {
+			return new NotIn(field, argName, conditionArgMap);
+		} else if (nodeClass == NotIn.class) {
+			return new In(field, argName, conditionArgMap);
+		}
+		return null;
+	}
+	
+	/**
+	 * Gets the key used to find identical nodes, which are of the same class, field and
+	 * argument value (or identical children). Custom query implementations are only
+	 * identical to themselves.
+	 *
+	 * @param  the query node
+	 *
+	 * @return  the node key
+	 **/
+	protected static Object nodeKey(Query node) {
+		if (node.isBasicOperator()) {
+			return Arrays.asList(node.getClass(), node.fieldName(), argumentKey(FieldIndex
+				.conditionArgument(node)));
+		}
+		if (QueryOptimizer.combinationType(node) != null) {
+			List<Object> ret = new ArrayList<Object>();
+			ret.add(node.getClass());
+			for (Query child : node.childrenQuery()) {
+				ret.add(nodeKey(child));
+			}
+			return ret;
+		}
+		return new IdentityKey(node);
+	}
+	
+	/**
+	 * Gets the key used to compare argument values, where arrays are compared by their values
+	 **/
+	protected static Object argumentKey(Object arg) {
+		if (arg != null && arg.getClass().isArray()) {
+			List<Object> ret = new ArrayList<Object>();
+			for (Object item : InArgument.argumentValues(arg)) {
+				ret.add(argumentKey(item));
+			}
+			return ret;
+		}
+		return arg;
+	}
+	
+	/**
+	 * Identity based key, of a custom query implementation
+	 **/
+	protected static class IdentityKey {
+		
+		protected final Object node;
+		
+		protected IdentityKey(Object node) {
+			this.node = node;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			return (other instanceof IdentityKey) && ((IdentityKey) other).node == node;
+		}
+		
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(node);
+		}
+	}
+}
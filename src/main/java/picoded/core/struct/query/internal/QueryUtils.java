@@ -11,19 +11,22 @@ public class QueryUtils {
 	}
 	
 	/**
-	 * Gets the field value to test
+	 * Gets the field value to test, this supports nested field paths
+	 * (such as "address.city", or "items[0]"), see FieldPath.
+	 *
+	 * For repeated use, prefer a pre-parsed FieldPath instead.
 	 *
 	 * @param   object to extract out the field value
 	 * @param   field name of extraction
 	 *
-	 * @TODO: Support FullyQualifiedDomainName extraction? With arrays even?
-	 *
 	 * @return  The extracted object
 	 **/
 	@SuppressWarnings("rawtypes")
 	public static Object getFieldValue(Object t, String field) {
 		if (field == null || "this".equalsIgnoreCase(field)) {
 			return t;
+		} else if (FieldPath.isNestedPath(field)) {
+			return FieldPath.of(field).get(t);
 		} else if (t instanceof Map) {
 			return ((Map) t).get(field);
 		}
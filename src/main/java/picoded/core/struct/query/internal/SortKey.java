@@ -0,0 +1,280 @@
+package picoded.core.struct.query.internal;
+
+import java.text.CollationKey;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import picoded.core.struct.query.ComparisonEngine;
+
+/**
+ * Precomputed sort key of a single value, used by OrderBy to extract and normalize
+ * the sorting values once per row, instead of once per comparison.
+ *
+ * Comparing 2 sort keys gives the exact same result as ComparisonEngine.compare
+ * on their original values. As the engine chooses between string, and numeric
+ * comparison based on both values, the numeric value (parsed from strings) and the
+ * string collation key are computed lazily, on first use, and then reused.
+ *
+ * Sort keys are meant to be used within a single sort, and are not thread safe.
+ * Sort keys of the same sort may share a collation key cache, as generating collation
+ * keys is the most expensive step, and repeated string values are common.
+ **/
+public class SortKey implements Comparable<SortKey> {
+	
+	//--------------------------------------------------------------------
+	// Key values
+	//--------------------------------------------------------------------
+	
+	/**
+	 * The original value
+	 **/
+	protected final Object value;
+	
+	/**
+	 * Indicates if the value is a string
+	 **/
+	protected final boolean isString;
+	
+	/**
+	 * Numeric value, valid only if hasNumber is true (after numberParsed)
+	 **/
+	protected double number = 0;
+	protected boolean hasNumber = false;
+	protected boolean numberParsed = false;
+	
+	/**
+	 * Collation key of the value string, computed on first use
+	 **/
+	protected CollationKey collationKey = null;
+	
+	/**
+	 * Shared collation key cache, can be null
+	 **/
+	protected final Map<String, CollationKey> collationCache;
+	
+	/**
+	 * Comparison engine used
+	 **/
+	protected final ComparisonEngine engine;
+	
+	//--------------------------------------------------------------------
+	// Constructor setup
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Setup the sort key
+	 *
+	 * @param  value to sort with
+	 **/
+	public SortKey(Object value) {
+		this(value, ComparisonEngine.COLLATED, null);
+	}
+	
+	/**
+	 * Setup the sort key, with a shared collation key cache
+	 *
+	 * @param  value to sort with
+	 * @param  engine used for comparison
+	 * @param  collationCache to share with other sort keys, can be null
+	 **/
+	public SortKey(Object value, ComparisonEngine engine, Map<String, CollationKey> collationCache) {
+		this.value = value;
+		this.engine = engine;
+		this.collationCache = collationCache;
+		this.isString = (value instanceof String);
+		
+		// Numbers are normalized immediately, as they never need parsing
+		if (value instanceof Number) {
+			number = ((Number) value).doubleValue();
+			hasNumber = true;
+			numberParsed = true;
+		}
+	}
+	
+	/**
+	 * @return  the original value
+	 **/
+	public Object value() {
+		return value;
+	}
+	
+	//--------------------------------------------------------------------
+	// Lazy normalization
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Parses the numeric value, if not done previously
+	 *
+	 * @return  true if the value has a numeric representation
+	 **/
+	protected boolean hasNumber() {
+		if (!numberParsed) {
+			Number n = engine.toNumber(value);
+			if (n != null) {
+				number = n.doubleValue();
+				hasNumber = true;
+			}
+			numberParsed = true;
+		}
+		return hasNumber;
+	}
+	
+	/**
+	 * @return  the collation key of the value string, null for null values
+	 **/
+	protected CollationKey collationKey() {
+		if (collationKey == null && value != null) {
+			String str = value.toString();
+			if (collationCache == null) {
+				collationKey = engine.collationKey(str);
+			} else {
+				collationKey = collationCache.get(str);
+				if (collationKey == null) {
+					collationKey = engine.collationKey(str);
+					collationCache.put(str, collationKey);
+				}
+			}
+		}
+		return collationKey;
+	}
+	
+	/**
+	 * Compares the value strings, with the engine string ordering (using collation keys
+	 * for collated ordering)
+	 *
+	 * @param  other sort key to compare with
+	 *
+	 * @return -1, 0, or 1 as this key is less than, equal to, or greater than the other.
+	 **/
+	protected int compareStrings(SortKey other) {
+		if (engine.isCollated()) {
+			return Integer.signum(compareCollationKey(collationKey(), other.collationKey()));
+		}
+		return Integer.signum(engine.compareString((value != null) ? value.toString() : null,
+			(other.value != null) ? other.value.toString() : null));
+	}
+	
+	/**
+	 * Compare collation keys, where null is smaller
+	 **/
+	protected static int compareCollationKey(CollationKey a, CollationKey b) {
+		if (a == null) {
+			return (b == null) ? 0 : -1;
+		} else if (b == null) {
+			return 1;
+		}
+		return a.compareTo(b);
+	}
+	
+	//--------------------------------------------------------------------
+	// String column ranking
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Ranks a column of string values by their string order, so that they can be sorted
+	 * by comparing int ranks, instead of collation keys (or strings). Each distinct string
+	 * is only ranked once, where strings which are equal in order share the same rank.
+	 *
+	 * Comparing the ranks gives the same result as ComparisonEngine.compare, on their
+	 * original values, where null values are ranked as -1.
+	 *
+	 * @param  values to rank, which should be either string or null
+	 * @param  engine used for comparison
+	 * @param  collationCache to share with other sort keys, can be null
+	 *
+	 * @return  the rank of each value, null if any value is not a string (or null)
+	 **/
+	public static int[] stringRanks(Object[] values, ComparisonEngine engine,
+		Map<String, CollationKey> collationCache) {
+		// Distinct strings, and their position
+		Map<String, Integer> distinctPos = new HashMap<String, Integer>();
+		int[] valuePos = new int[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			Object val = values[i];
+			if (val == null) {
+				valuePos[i] = -1;
+				continue;
+			}
+			if (!(val instanceof String)) {
+				return null;
+			}
+			Integer pos = distinctPos.get(val);
+			if (pos == null) {
+				pos = distinctPos.size();
+				distinctPos.put((String) val, pos);
+			}
+			valuePos[i] = pos;
+		}
+		
+		// Sort the distinct strings
+		SortKey[] distinct = new SortKey[distinctPos.size()];
+		for (Map.Entry<String, Integer> entry : distinctPos.entrySet()) {
+			distinct[entry.getValue()] = new SortKey(entry.getKey(), engine, collationCache);
+		}
+		Integer[] order = new Integer[distinct.length];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> distinct[a].compareStrings(distinct[b]));
+		
+		// Assign the ranks, with equal strings (in string order) sharing the same rank
+		int[] distinctRank = new int[distinct.length];
+		int rank = 0;
+		for (int i = 0; i < order.length; ++i) {
+			if (i > 0 && distinct[order[i - 1]].compareStrings(distinct[order[i]]) != 0) {
+				++rank;
+			}
+			distinctRank[order[i]] = rank;
+		}
+		
+		// Map each value to its rank
+		int[] ret = new int[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			ret[i] = (valuePos[i] < 0) ? -1 : distinctRank[valuePos[i]];
+		}
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------
+	// Comparison
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compares the sort keys, this is the same as ComparisonEngine.compare
+	 * on their respective values.
+	 *
+	 * @param  other sort key to compare with
+	 *
+	 * @return -1, 0, or 1 as this key is less than, equal to, or greater than the other.
+	 **/
+	@Override
+	public int compareTo(SortKey other) {
+		Object otherValue = other.value;
+		
+		// Quick direct equality, also works if both values is null
+		if (value == otherValue) {
+			return 0;
+		}
+		
+		// String type comparision
+		if ((isString && (other.isString || otherValue == null))
+			|| (value == null && other.isString)) {
+			return compareStrings(other);
+		}
+		
+		// Numeric comparision
+		boolean n1 = hasNumber();
+		boolean n2 = other.hasNumber();
+		if (n1 && n2) {
+			return Double.compare(number, other.number);
+		} else if (n1) {
+			return 1;
+		} else if (n2) {
+			return -1;
+		}
+		
+		// fallsback to string
+		return compareStrings(other);
+	}
+}
@@ -0,0 +1,59 @@
+package picoded.core.struct.query.internal;
+
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Recursive fork / join task, over a part of a collection (see ParallelSearch).
+ *
+ * The spliterator is recursively split, till each part is no larger than the minimum
+ * chunk size. Each part is then processed sequentially by the leaf function, and the
+ * results of each split merged in their encounter order (prefix first).
+ *
+ * This is shared by the parallel search, and parallel aggregations.
+ **/
+@SuppressWarnings("serial")
+public class SpliteratorTask<T, R> extends RecursiveTask<R> {
+	
+	protected final Spliterator<? extends T> spliterator;
+	protected final int minChunk;
+	protected final Function<Spliterator<? extends T>, R> leaf;
+	protected final BinaryOperator<R> merge;
+	
+	/**
+	 * Constructor, for the task over the given spliterator
+	 *
+	 * @param  spliterator of the part to process
+	 * @param  minChunk, minimum number of objects to process per task
+	 * @param  leaf function, which sequentially processes a part, into its result
+	 * @param  merge function, of the prefix and suffix results (in that order)
+	 **/
+	public SpliteratorTask(Spliterator<? extends T> spliterator, int minChunk,
+		Function<Spliterator<? extends T>, R> leaf, BinaryOperator<R> merge) {
+		this.spliterator = spliterator;
+		this.minChunk = minChunk;
+		this.leaf = leaf;
+		this.merge = merge;
+	}
+	
+	@Override
+	protected R compute() {
+		// Split the prefix into its own task, if its still large enough
+		if (spliterator.estimateSize() > minChunk) {
+			Spliterator<? extends T> prefix = spliterator.trySplit();
+			if (prefix != null) {
+				SpliteratorTask<T, R> prefixTask = new SpliteratorTask<T, R>(prefix, minChunk,
+					leaf, merge);
+				prefixTask.fork();
+				R suffixResult = new SpliteratorTask<T, R>(spliterator, minChunk, leaf, merge)
+					.compute();
+				return merge.apply(prefixTask.join(), suffixResult);
+			}
+		}
+		
+		// Process this part sequentially
+		return leaf.apply(spliterator);
+	}
+}
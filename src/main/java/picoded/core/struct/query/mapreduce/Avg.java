@@ -4,9 +4,15 @@ import java.math.BigDecimal;
 
 /**
  * Avg function for MapReduceBase
+ * 
+ * Unless exact decimal mode is used, plain numbers are summed up with primitive long / double
+ * values. Integral values are exact, while Double values are within ~1 ulp of the exact sum
+ * (see SumAccumulator), before the division.
  **/
 public class Avg extends MapReduceBase {
 	
+	private static final long serialVersionUID = 1L;
+	
 	// this variable is here  to make the avg function not crash 
 	// if the result has a repeating non terminating decimal portion
 	// will limit the result to ~ 24 decimal places
@@ -14,10 +20,15 @@ public class Avg extends MapReduceBase {
 	// Note : precision vs scale terminology - https://stackoverflow.com/questions/35435691/bigdecimal-precision-and-scale
 	private static int AVG_RESULT_MAX_SCALE = 24;
 	
+	/**
+	 * Running sum, of the mapped values
+	 */
+	protected SumAccumulator sum = new SumAccumulator();
+	
 	/**
 	 * Counting variable to use
 	 */
-	protected BigDecimal count = null;
+	protected long count = 0;
 	
 	/**
 	 * mapping function used to process a single value as it comes in
@@ -27,27 +38,104 @@ public class Avg extends MapReduceBase {
 	public void map(BigDecimal val, Object rawVal) {
 		// Add up those value if its provided
 		if (val != null) {
-			
-			// Initialize the res variable (if needed)
-			if (res == null) {
-				res = BigDecimal.ZERO;
-				count = BigDecimal.ZERO;
-			}
-			
-			// Increment the value
-			res = res.add(val);
-			count = count.add(BigDecimal.ONE);
+			sum.addDecimal(val);
+			++count;
+		}
+	}
+	
+	/**
+	 * Primitive mapping function, used for non null Number values
+	 * 
+	 * @param   val  number extracted from the data map
+	 * 
+	 * @return  true if the value was mapped
+	 */
+	protected boolean mapNumber(Number val) {
+		if (sum.addNumber(val)) {
+			++count;
+			return true;
 		}
+		return false;
 	}
 	
 	/**
-	 * Returns the current calculation reduce-ed as a BigDecimal.
-	 * By default this simply returns a clone of the "res" object
+	 * Primitive long mapping function, without boxing the value
+	 * 
+	 * @param   val  long value extracted from the column
+	 */
+	@Override
+	public void mapLong(long val) {
+		if (exactDecimal) {
+			super.mapLong(val);
+			return;
+		}
+		sum.addLong(val);
+		++count;
+	}
+	
+	/**
+	 * Primitive double mapping function, without boxing the value
+	 * 
+	 * @param   val  double value extracted from the column
+	 */
+	@Override
+	public void mapDouble(double val) {
+		if (exactDecimal || Double.isNaN(val) || Double.isInfinite(val) || !sum.addDouble(val)) {
+			super.mapDouble(val);
+			return;
+		}
+		++count;
+	}
+	
+	/**
+	 * Removes a previously mapped value, by subtracting it from the sum
+	 * 
+	 * @param   value used in mapping, this value is possible null if the parameter does not exist
+	 * 
+	 * @return  true, as the sum can always be subtracted from
+	 */
+	public boolean unmap(BigDecimal val, Object rawVal) {
+		if (val == null) {
+			return true;
+		}
+		if (exactDecimal || !(rawVal instanceof Number) || !sum.subtractNumber((Number) rawVal)) {
+			sum.addDecimal(val.negate());
+		}
+		if (--count <= 0) {
+			reset();
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the current average as a BigDecimal, null if no value was mapped
 	 * 
 	 * @return  BigDecimal representing the current result
 	 */
 	public BigDecimal reduce() {
-		return res.divide(count, AVG_RESULT_MAX_SCALE, BigDecimal.ROUND_HALF_UP);
+		if (count == 0) {
+			return null;
+		}
+		return sum.toBigDecimal().divide(BigDecimal.valueOf(count), AVG_RESULT_MAX_SCALE,
+			BigDecimal.ROUND_HALF_UP);
+	}
+	
+	/**
+	 * Combines the partial sum, and count of another instance
+	 * 
+	 * @param  other instance to combine with, which is left unchanged
+	 */
+	public void combine(MapReduceBase other) {
+		validateCombine(other);
+		sum.merge(((Avg) other).sum);
+		count += ((Avg) other).count;
+	}
+	
+	/**
+	 * @return  true, as combine is supported
+	 */
+	public boolean isCombinable() {
+		return true;
 	}
 	
 	/**
@@ -55,7 +143,8 @@ public class Avg extends MapReduceBase {
 	 */
 	public void reset() {
 		res = null;
-		count = null;
+		sum.reset();
+		count = 0;
 	}
 	
-}
\ No newline at end of file
+}
@@ -6,6 +6,14 @@ import java.math.BigDecimal;
  * Count function for MapReduceBase
  **/
 public class Count extends MapReduceBase {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Counting variable to use
+	 */
+	protected long count = 0;
+	
 	/**
 	 * mapping function used to process a single value as it comes in
 	 * 
@@ -15,15 +23,50 @@ public class Count extends MapReduceBase {
 		// Increment the count when called
 		// only if a value is passed
 		if (rawVal != null) {
-			// Initialize the res variable (if needed)
-			if (res == null) {
-				res = BigDecimal.ONE;
-			} else {
-				res = res.add(BigDecimal.ONE);
-			}
+			++count;
 		}
 	}
 	
+	/**
+	 * Primitive mapping function, used for non null Number values
+	 * 
+	 * @param   val  number extracted from the data map
+	 * 
+	 * @return  true, as every number is counted
+	 */
+	protected boolean mapNumber(Number val) {
+		++count;
+		return true;
+	}
+	
+	/**
+	 * Primitive long mapping function, without boxing the value
+	 * 
+	 * @param   val  long value extracted from the column
+	 */
+	@Override
+	public void mapLong(long val) {
+		if (exactDecimal) {
+			super.mapLong(val);
+			return;
+		}
+		++count;
+	}
+	
+	/**
+	 * Primitive double mapping function, without boxing the value
+	 * 
+	 * @param   val  double value extracted from the column
+	 */
+	@Override
+	public void mapDouble(double val) {
+		if (exactDecimal) {
+			super.mapDouble(val);
+			return;
+		}
+		++count;
+	}
+	
 	/**
 	 * mapping function used to process a parameter in a map
 	 * 
@@ -33,10 +76,78 @@ public class Count extends MapReduceBase {
 	public void map(Object inmap, String key) {
 		// Wildcard matching
 		if (key.equalsIgnoreCase("*")) {
-			map(BigDecimal.ONE, BigDecimal.ONE);
+			++count;
 		} else {
 			super.map(inmap, key);
 		}
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Removes a previously counted value
+	 * 
+	 * @param   value used in mapping, this value is possible null if the parameter does not exist
+	 * 
+	 * @return  true, as counting can always be reversed
+	 */
+	public boolean unmap(BigDecimal val, Object rawVal) {
+		if (rawVal != null) {
+			--count;
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes a previously counted parameter in a map
+	 * 
+	 * @param  inmap map object, to extract the value from
+	 * @param  key   to extract value from
+	 * 
+	 * @return  true, as counting can always be reversed
+	 */
+	public boolean unmap(Object inmap, String key) {
+		// Wildcard matching
+		if (key.equalsIgnoreCase("*")) {
+			--count;
+			return true;
+		}
+		return super.unmap(inmap, key);
+	}
+	
+	/**
+	 * Returns the current count as a BigDecimal, null if nothing was counted
+	 * 
+	 * @return  BigDecimal representing the current result
+	 */
+	public BigDecimal reduce() {
+		if (count == 0) {
+			return null;
+		}
+		return BigDecimal.valueOf(count);
+	}
+	
+	/**
+	 * Combines the partial count of another instance
+	 * 
+	 * @param  other instance to combine with, which is left unchanged
+	 */
+	public void combine(MapReduceBase other) {
+		validateCombine(other);
+		count += ((Count) other).count;
+	}
+	
+	/**
+	 * @return  true, as combine is supported
+	 */
+	public boolean isCombinable() {
+		return true;
+	}
+	
+	/**
+	 * Reset any running calculation, used to reset existing map operations 
+	 */
+	public void reset() {
+		res = null;
+		count = 0;
+	}
+	
+}
@@ -0,0 +1,94 @@
+package picoded.core.struct.query.mapreduce;
+
+import java.math.BigDecimal;
+
+/**
+ * Count distinct function for MapReduceBase
+ *
+ * Distinct values are counted exactly up to HyperLogLog.DEFAULT_EXACT_LIMIT, after which it
+ * is estimated with a fixed memory HyperLogLog sketch (with a standard error of around 0.8%).
+ * In exact decimal mode, every distinct value is counted exactly instead.
+ *
+ * Numbers are compared by their numeric value, and any other value by its string value
+ * (see HyperLogLog.normalize).
+ **/
+public class CountDistinct extends MapReduceBase {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Distinct value counter
+	 */
+	protected HyperLogLog counter = new HyperLogLog();
+	
+	/**
+	 * mapping function used to process a single value as it comes in
+	 *
+	 * @param   value used in mapping, this value is possible null if the parameter does not exist
+	 */
+	public void map(BigDecimal val, Object rawVal) {
+		if (rawVal != null) {
+			counter.add(rawVal);
+		}
+	}
+	
+	/**
+	 * mapping function used to process an extracted value, this counts
+	 * non numeric values as well (without BigDecimal conversion)
+	 *
+	 * @param  valObj extracted from the data map, null if the field name does not exist
+	 */
+	public void mapValue(Object valObj) {
+		if (valObj != null) {
+			counter.add(valObj);
+		}
+	}
+	
+	/**
+	 * Returns the distinct count as a BigDecimal, null if nothing was counted
+	 *
+	 * @return  BigDecimal representing the current result
+	 */
+	public BigDecimal reduce() {
+		long count = counter.cardinality();
+		if (count == 0) {
+			return null;
+		}
+		return BigDecimal.valueOf(count);
+	}
+	
+	/**
+	 * Combines the distinct values of another instance
+	 *
+	 * @param  other instance to combine with, which is left unchanged
+	 */
+	public void combine(MapReduceBase other) {
+		validateCombine(other);
+		counter.merge(((CountDistinct) other).counter);
+	}
+	
+	/**
+	 * @return  true, as combine is supported
+	 */
+	public boolean isCombinable() {
+		return true;
+	}
+	
+	/**
+	 * Set the exact decimal mode, where every distinct value is counted exactly
+	 *
+	 * @param  exactDecimal mode to use
+	 */
+	public void setExactDecimal(boolean exactDecimal) {
+		super.setExactDecimal(exactDecimal);
+		counter.exactLimit = exactDecimal ? -1 : HyperLogLog.DEFAULT_EXACT_LIMIT;
+	}
+	
+	/**
+	 * Reset any running calculation, used to reset existing map operations
+	 */
+	public void reset() {
+		res = null;
+		counter.reset();
+	}
+}
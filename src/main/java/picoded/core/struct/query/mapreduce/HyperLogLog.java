@@ -0,0 +1,282 @@
+package picoded.core.struct.query.mapreduce;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Distinct value counter, used by CountDistinct.
+ *
+ * Values are counted exactly (with a HashSet), till more then exactLimit distinct values
+ * are found. After which it is converted to a fixed memory (16KB) HyperLogLog sketch,
+ * with a standard error of around 0.8%.
+ *
+ * Values are normalized before counting, where numbers are compared by their numeric value
+ * (so 1, 1L and 1.0 are the same value), and everything else by their string value.
+ * Note that numeric strings are not treated as numbers (so "1" and 1 are different values).
+ *
+ * Sketches of the same precision can be merged, which gives the same result as if every
+ * value was counted by a single sketch.
+ **/
+public class HyperLogLog implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Default number of distinct values, to count exactly
+	 **/
+	public static final int DEFAULT_EXACT_LIMIT = 1024;
+	
+	/**
+	 * Precision bits, used as the register index (2^14 registers)
+	 **/
+	protected static final int PRECISION = 14;
+	protected static final int REGISTER_COUNT = 1 << PRECISION;
+	
+	//--------------------------------------------------------------------
+	// Counter state
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Number of distinct values to count exactly, a negative value means always exact
+	 **/
+	protected int exactLimit = DEFAULT_EXACT_LIMIT;
+	
+	/**
+	 * Normalized distinct values, null after conversion to registers
+	 **/
+	protected Set<Object> exactValues = new HashSet<Object>();
+	
+	/**
+	 * HyperLogLog registers, null while counting exactly
+	 **/
+	protected byte[] registers = null;
+	
+	/**
+	 * Constructor, with the default exact limit
+	 **/
+	public HyperLogLog() {
+		// does nothing
+	}
+	
+	/**
+	 * Constructor, with the given exact limit
+	 *
+	 * @param  exactLimit number of distinct values to count exactly, negative to always count exactly
+	 **/
+	public HyperLogLog(int exactLimit) {
+		this.exactLimit = exactLimit;
+	}
+	
+	//--------------------------------------------------------------------
+	// Value normalization, and hashing
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Normalize a value, so that numerically equal numbers are equal. Integral numbers
+	 * (in the long range, for every number type) as Long, other numbers as BigDecimal
+	 * without trailing zeros, and everything else as its string value.
+	 *
+	 * @param  val to normalize, not null
+	 *
+	 * @return normalized value
+	 **/
+	public static Object normalize(Object val) {
+		if (val instanceof Long || val instanceof Integer || val instanceof Short
+			|| val instanceof Byte) {
+			return ((Number) val).longValue();
+		}
+		if (val instanceof Double || val instanceof Float) {
+			double d = ((Number) val).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				return Double.toString(d);
+			}
+			if (d == Math.rint(d) && d >= -0x1p63 && d < 0x1p63) {
+				return (long) d;
+			}
+			return BigDecimal.valueOf(d).stripTrailingZeros();
+		}
+		if (val instanceof BigDecimal || val instanceof BigInteger) {
+			BigDecimal dec = (val instanceof BigDecimal) ? (BigDecimal) val : new BigDecimal(
+				(BigInteger) val);
+			if (dec.signum() == 0) {
+				return 0L;
+			}
+			dec = dec.stripTrailingZeros();
+			if (dec.scale() <= 0 && dec.precision() - dec.scale() <= 19) {
+				BigInteger integral = dec.toBigIntegerExact();
+				if (integral.bitLength() < 64) {
+					return integral.longValue();
+				}
+			}
+			return dec;
+		}
+		return val.toString();
+	}
+	
+	/**
+	 * 64 bit hash of a normalized value
+	 *
+	 * @param  normalized value to hash
+	 *
+	 * @return 64 bit hash
+	 **/
+	protected static long hash(Object normalized) {
+		if (normalized instanceof Long) {
+			return mix64((Long) normalized);
+		}
+		
+		// FNV-1a of the string bytes, with a seperate seed for numbers
+		String str = normalized.toString();
+		long h = (normalized instanceof BigDecimal) ? 0x9E3779B97F4A7C15L : 0xCBF29CE484222325L;
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		for (byte b : bytes) {
+			h ^= (b & 0xFF);
+			h *= 0x100000001B3L;
+		}
+		return mix64(h);
+	}
+	
+	/**
+	 * Murmur3 64 bit finalizer, to spread the bits of a hash
+	 **/
+	protected static long mix64(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	//--------------------------------------------------------------------
+	// Counting
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds a value to count
+	 *
+	 * @param  val to add, not null
+	 **/
+	public void add(Object val) {
+		Object normalized = normalize(val);
+		if (registers == null) {
+			exactValues.add(normalized);
+			if (exactLimit >= 0 && exactValues.size() > exactLimit) {
+				convertToRegisters();
+			}
+		} else {
+			addHash(hash(normalized));
+		}
+	}
+	
+	/**
+	 * Adds a hash into the registers
+	 **/
+	protected void addHash(long h) {
+		int index = (int) (h >>> (64 - PRECISION));
+		int rank = Long.numberOfLeadingZeros((h << PRECISION) | (1L << (PRECISION - 1))) + 1;
+		if (registers[index] < rank) {
+			registers[index] = (byte) rank;
+		}
+	}
+	
+	/**
+	 * Converts the exact values into the registers
+	 **/
+	protected void convertToRegisters() {
+		registers = new byte[REGISTER_COUNT];
+		for (Object normalized : exactValues) {
+			addHash(hash(normalized));
+		}
+		exactValues = null;
+	}
+	
+	/**
+	 * @return true, if the values are still counted exactly
+	 **/
+	public boolean isExact() {
+		return registers == null;
+	}
+	
+	/**
+	 * Merges the other counter, into this counter.
+	 *
+	 * An always exact counter (negative exactLimit) can only merge exact counters,
+	 * as the distinct values of a sketch are no longer known.
+	 *
+	 * @param  other counter to merge, which is left unchanged
+	 **/
+	public void merge(HyperLogLog other) {
+		if (exactLimit < 0 && other.registers != null) {
+			throw new RuntimeException(
+				"Unable to merge a HyperLogLog sketch, into an always exact counter");
+		}
+		
+		// Both are exact, add the values (which may convert this)
+		if (registers == null && other.registers == null) {
+			for (Object normalized : other.exactValues) {
+				exactValues.add(normalized);
+			}
+			if (exactLimit >= 0 && exactValues.size() > exactLimit) {
+				convertToRegisters();
+			}
+			return;
+		}
+		
+		// Merge into the registers
+		if (registers == null) {
+			convertToRegisters();
+		}
+		if (other.registers == null) {
+			for (Object normalized : other.exactValues) {
+				addHash(hash(normalized));
+			}
+		} else {
+			for (int i = 0; i < REGISTER_COUNT; ++i) {
+				if (registers[i] < other.registers[i]) {
+					registers[i] = other.registers[i];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the (estimated) number of distinct values
+	 **/
+	public long cardinality() {
+		if (registers == null) {
+			return exactValues.size();
+		}
+		
+		// Raw HyperLogLog estimate
+		double sum = 0;
+		int zeros = 0;
+		for (int i = 0; i < REGISTER_COUNT; ++i) {
+			sum += 1.0 / (1L << registers[i]);
+			if (registers[i] == 0) {
+				++zeros;
+			}
+		}
+		double m = REGISTER_COUNT;
+		double alpha = 0.7213 / (1.0 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		
+		// Small range correction, with linear counting
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log(m / zeros);
+		}
+		return Math.round(estimate);
+	}
+	
+	/**
+	 * Reset the counter
+	 **/
+	public void reset() {
+		exactValues = new HashSet<Object>();
+		registers = null;
+	}
+}
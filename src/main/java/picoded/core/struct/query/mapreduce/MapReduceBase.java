@@ -1,5 +1,6 @@
 package picoded.core.struct.query.mapreduce;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.Map;
 
@@ -11,8 +12,13 @@ import picoded.core.conv.NestedObjectFetch;
  *
  * This forms the base class, reuse for sum, avg, etc.
  * that is easily extendable. for usage in "Aggregation" class
+ *
+ * Implementations which support combine(), can have their partial results computed
+ * separately (across threads, or serialized across nodes), and then combined together.
  */
-public abstract class MapReduceBase {
+public abstract class MapReduceBase implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
 	
 	//------------------------------------------------------
 	//
@@ -25,6 +31,14 @@ public abstract class MapReduceBase {
 	 */
 	protected BigDecimal res = null;
 	
+	/**
+	 * Exact decimal mode, where every value is converted to BigDecimal before mapping.
+	 * 
+	 * When disabled (the default), plain Number values are first passed to mapNumber,
+	 * which implementations may use to accumulate with primitive long / double values.
+	 */
+	protected boolean exactDecimal = false;
+	
 	/**
 	 * mapping function used to process a single value as it comes in
 	 * 
@@ -40,9 +54,16 @@ public abstract class MapReduceBase {
 	 * @param  key   to extract value from
 	 */
 	public void map(Object inmap, String key) {
-		
-		// Val object extraction
-		Object valObj = NestedObjectFetch.fetchObject(inmap, key);
+		mapValue(NestedObjectFetch.fetchObject(inmap, key));
+	}
+	
+	/**
+	 * mapping function used to process a value, which was already extracted from a map
+	 * (for example, from a column of values)
+	 * 
+	 * @param  valObj extracted from the data map, null if the field name does not exist
+	 */
+	public void mapValue(Object valObj) {
 		
 		// Null mapping
 		if (valObj == null) {
@@ -50,10 +71,75 @@ public abstract class MapReduceBase {
 			return;
 		}
 		
+		// Primitive number mapping, without BigDecimal conversion
+		if (!exactDecimal && valObj instanceof Number && mapNumber((Number) valObj)) {
+			return;
+		}
+		
 		// Non null mapping - assumes a value
 		map((BigDecimal) GenericConvert.toBigDecimal(valObj, null), (Object) valObj);
 	}
 	
+	/**
+	 * Primitive mapping function, used for non null Number values when exactDecimal is disabled
+	 * [to override on extension]
+	 * 
+	 * @param   val  number extracted from the data map
+	 * 
+	 * @return  true if the value was mapped, false to fallback to map(BigDecimal, Object)
+	 */
+	protected boolean mapNumber(Number val) {
+		return false;
+	}
+	
+	/**
+	 * Primitive long mapping function, used for values read from a column of longs
+	 * [to override on extension, without boxing the value]
+	 * 
+	 * @param   val  long value extracted from the column
+	 */
+	public void mapLong(long val) {
+		mapValue(Long.valueOf(val));
+	}
+	
+	/**
+	 * Primitive double mapping function, used for values read from a column of doubles
+	 * [to override on extension, without boxing the value]
+	 * 
+	 * @param   val  double value extracted from the column
+	 */
+	public void mapDouble(double val) {
+		mapValue(Double.valueOf(val));
+	}
+	
+	/**
+	 * Largest long value, which can be represented exactly as a double (2^53)
+	 */
+	protected static final long MAX_EXACT_DOUBLE_LONG = 1L << 53;
+	
+	/**
+	 * Indicates if the number can be compared as a double, with the same ordering as
+	 * its BigDecimal conversion (Integer, Short, Byte, Long up to 2^53, and finite Double)
+	 * 
+	 * @param   val  number to check
+	 * 
+	 * @return  true if the number can be compared as a double
+	 */
+	protected static boolean isExactDouble(Number val) {
+		if (val instanceof Integer || val instanceof Short || val instanceof Byte) {
+			return true;
+		}
+		if (val instanceof Long) {
+			long l = val.longValue();
+			return l <= MAX_EXACT_DOUBLE_LONG && l >= -MAX_EXACT_DOUBLE_LONG;
+		}
+		if (val instanceof Double) {
+			double d = val.doubleValue();
+			return !(Double.isNaN(d) || Double.isInfinite(d));
+		}
+		return false;
+	}
+	
 	//------------------------------------------------------
 	//
 	//  Default blank constructor
@@ -102,6 +188,87 @@ public abstract class MapReduceBase {
 		res = null;
 	}
 	
+	/**
+	 * Removes a previously mapped parameter value, from the running calculation.
+	 * Used to incrementally maintain an aggregation result, as values are removed.
+	 * 
+	 * @param  inmap map object, to extract the value from
+	 * @param  key   to extract value from
+	 * 
+	 * @return  true if it was removed, false if the calculation needs to be recomputed instead
+	 */
+	public boolean unmap(Object inmap, String key) {
+		Object valObj = NestedObjectFetch.fetchObject(inmap, key);
+		if (valObj == null) {
+			return unmap((BigDecimal) null, (Object) null);
+		}
+		return unmap(GenericConvert.toBigDecimal(valObj, null), valObj);
+	}
+	
+	/**
+	 * Removes a previously mapped single value, from the running calculation
+	 * [to override on extension]
+	 * 
+	 * @param   val    value used in mapping, this value is possible null if the parameter does not exist
+	 * @param   rawVal the original value, before BigDecimal conversion
+	 * 
+	 * @return  true if it was removed, false if the calculation needs to be recomputed instead
+	 */
+	public boolean unmap(BigDecimal val, Object rawVal) {
+		return false;
+	}
+	
+	/**
+	 * Combines the partial result of another instance (of the same class) into this instance,
+	 * as if all of its values were mapped after the values of this instance.
+	 * [to override on extension]
+	 * 
+	 * @param  other instance to combine with, which is left unchanged
+	 */
+	public void combine(MapReduceBase other) {
+		throw new RuntimeException("MapReduceBase combine is not supported for : "
+			+ getClass().getName());
+	}
+	
+	/**
+	 * Indicates if combine is supported
+	 * [to override on extension]
+	 * 
+	 * @return  true, if combine is supported
+	 */
+	public boolean isCombinable() {
+		return false;
+	}
+	
+	/**
+	 * Validates that the other instance can be combined with this instance
+	 * 
+	 * @param  other instance to combine with
+	 */
+	protected void validateCombine(MapReduceBase other) {
+		if (other == null || other.getClass() != getClass()) {
+			throw new RuntimeException("Unable to combine " + getClass().getName() + " with : "
+				+ ((other == null) ? null : other.getClass().getName()));
+		}
+	}
+	
+	/**
+	 * Set the exact decimal mode, where every value is converted to BigDecimal before mapping
+	 * [to override on extension]
+	 * 
+	 * @param  exactDecimal mode to use
+	 */
+	public void setExactDecimal(boolean exactDecimal) {
+		this.exactDecimal = exactDecimal;
+	}
+	
+	/**
+	 * @return  true, if exact decimal mode is used
+	 */
+	public boolean isExactDecimal() {
+		return exactDecimal;
+	}
+	
 	/**
 	 * Duplicate a "blank" instance of the current class object
 	 * Used to initialize calculators for each "run"
@@ -111,7 +278,9 @@ public abstract class MapReduceBase {
 	public MapReduceBase newInstance() {
 		try {
 			Class<? extends MapReduceBase> classObj = this.getClass();
-			return classObj.newInstance();
+			MapReduceBase ret = classObj.newInstance();
+			ret.setExactDecimal(exactDecimal);
+			return ret;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -2,10 +2,25 @@ package picoded.core.struct.query.mapreduce;
 
 import java.math.BigDecimal;
 
+import picoded.core.conv.GenericConvert;
+
 /**
  * Min value function for MapReduceBase
+ * 
+ * Unless exact decimal mode is used, plain numbers are compared as primitive double values,
+ * with only the resulting value converted to BigDecimal. (values which are equal, but of
+ * different scale, such as 1 and 1.0, may return either of them)
  **/
 public class Min extends MapReduceBase {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Current primitive min value, and its original number (null if not used)
+	 */
+	protected double primitiveValue = 0;
+	protected Number primitiveNumber = null;
+	
 	/**
 	 * mapping function used to process a single value as it comes in
 	 * 
@@ -23,4 +38,124 @@ public class Min extends MapReduceBase {
 			}
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Primitive mapping function, used for non null Number values
+	 * 
+	 * @param   val  number extracted from the data map
+	 * 
+	 * @return  true if the value was mapped
+	 */
+	protected boolean mapNumber(Number val) {
+		if (!isExactDouble(val)) {
+			return false;
+		}
+		double d = val.doubleValue();
+		if (primitiveNumber == null || d < primitiveValue) {
+			primitiveValue = d;
+			primitiveNumber = val;
+		}
+		return true;
+	}
+	
+	/**
+	 * Primitive long mapping function, which only boxes the value when it is the new minimum
+	 * 
+	 * @param   val  long value extracted from the column
+	 */
+	@Override
+	public void mapLong(long val) {
+		if (exactDecimal || val > MAX_EXACT_DOUBLE_LONG || val < -MAX_EXACT_DOUBLE_LONG) {
+			super.mapLong(val);
+			return;
+		}
+		double d = (double) val;
+		if (primitiveNumber == null || d < primitiveValue) {
+			primitiveValue = d;
+			primitiveNumber = val;
+		}
+	}
+	
+	/**
+	 * Primitive double mapping function, which only boxes the value when it is the new minimum
+	 * 
+	 * @param   val  double value extracted from the column
+	 */
+	@Override
+	public void mapDouble(double val) {
+		if (exactDecimal || Double.isNaN(val) || Double.isInfinite(val)) {
+			super.mapDouble(val);
+			return;
+		}
+		if (primitiveNumber == null || val < primitiveValue) {
+			primitiveValue = val;
+			primitiveNumber = val;
+		}
+	}
+	
+	/**
+	 * Removes a previously mapped value, which is only possible if its not the current min value
+	 * 
+	 * @param   value used in mapping, this value is possible null if the parameter does not exist
+	 * 
+	 * @return  true if the min value is unchanged, false if it needs to be recomputed
+	 */
+	public boolean unmap(BigDecimal val, Object rawVal) {
+		if (val == null) {
+			return true;
+		}
+		BigDecimal current = reduce();
+		return current != null && val.compareTo(current) > 0;
+	}
+	
+	/**
+	 * Returns the current min value as a BigDecimal, null if no value was mapped
+	 * 
+	 * @return  BigDecimal representing the current result
+	 */
+	public BigDecimal reduce() {
+		if (primitiveNumber == null) {
+			return res;
+		}
+		BigDecimal primitiveRes = GenericConvert.toBigDecimal(primitiveNumber);
+		if (res == null) {
+			return primitiveRes;
+		}
+		return res.min(primitiveRes);
+	}
+	
+	/**
+	 * Combines the partial min value of another instance, where equal values of this
+	 * instance are kept (as they were mapped first)
+	 * 
+	 * @param  other instance to combine with, which is left unchanged
+	 */
+	public void combine(MapReduceBase other) {
+		validateCombine(other);
+		Min o = (Min) other;
+		if (o.res != null) {
+			res = (res == null) ? o.res : res.min(o.res);
+		}
+		if (o.primitiveNumber != null
+			&& (primitiveNumber == null || o.primitiveValue < primitiveValue)) {
+			primitiveValue = o.primitiveValue;
+			primitiveNumber = o.primitiveNumber;
+		}
+	}
+	
+	/**
+	 * @return  true, as combine is supported
+	 */
+	public boolean isCombinable() {
+		return true;
+	}
+	
+	/**
+	 * Reset any running calculation, used to reset existing map operations 
+	 */
+	public void reset() {
+		res = null;
+		primitiveValue = 0;
+		primitiveNumber = null;
+	}
+}
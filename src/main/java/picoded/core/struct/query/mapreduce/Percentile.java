@@ -0,0 +1,200 @@
+package picoded.core.struct.query.mapreduce;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Percentile function for MapReduceBase, registered as p50, p95, and p99
+ *
+ * Values are kept exactly up to QuantileDigest.DEFAULT_EXACT_LIMIT, after which the percentile
+ * is estimated with a fixed memory t-digest (see QuantileDigest). Values are processed as double.
+ *
+ * In exact decimal mode, every value is kept as BigDecimal instead, and the exact percentile
+ * is computed. Exact percentiles are linearly interpolated between the closest ranks.
+ **/
+public class Percentile extends MapReduceBase {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Quantile to compute, between 0 and 1
+	 */
+	protected double quantile = 0.5;
+	
+	/**
+	 * Quantile digest, of the mapped values
+	 */
+	protected QuantileDigest digest = new QuantileDigest();
+	
+	/**
+	 * Mapped values, used in exact decimal mode
+	 */
+	protected List<BigDecimal> decimals = new ArrayList<BigDecimal>();
+	
+	/**
+	 * Blank constructor, for the median (0.5 quantile)
+	 **/
+	public Percentile() {
+		// does nothing
+	}
+	
+	/**
+	 * Constructor with the quantile to compute
+	 *
+	 * @param  quantile to compute, between 0 and 1
+	 **/
+	public Percentile(double quantile) {
+		if (!(quantile >= 0 && quantile <= 1)) {
+			throw new IllegalArgumentException("Percentile quantile must be between 0 and 1 : "
+				+ quantile);
+		}
+		this.quantile = quantile;
+	}
+	
+	/**
+	 * @return  the quantile computed
+	 */
+	public double getQuantile() {
+		return quantile;
+	}
+	
+	/**
+	 * mapping function used to process a single value as it comes in
+	 *
+	 * @param   value used in mapping, this value is possible null if the parameter does not exist
+	 */
+	public void map(BigDecimal val, Object rawVal) {
+		if (val == null) {
+			return;
+		}
+		if (exactDecimal) {
+			decimals.add(val);
+		} else {
+			digest.add(val.doubleValue());
+		}
+	}
+	
+	/**
+	 * Primitive mapping function, used for non null Number values
+	 *
+	 * @param   val  number extracted from the data map
+	 *
+	 * @return  true if the value was mapped
+	 */
+	protected boolean mapNumber(Number val) {
+		double d = val.doubleValue();
+		if (Double.isNaN(d) || Double.isInfinite(d)) {
+			return false;
+		}
+		digest.add(d);
+		return true;
+	}
+	
+	/**
+	 * Primitive long mapping function, without boxing the value
+	 *
+	 * @param   val  long value extracted from the column
+	 */
+	@Override
+	public void mapLong(long val) {
+		if (exactDecimal) {
+			super.mapLong(val);
+			return;
+		}
+		digest.add((double) val);
+	}
+	
+	/**
+	 * Primitive double mapping function, without boxing the value
+	 *
+	 * @param   val  double value extracted from the column
+	 */
+	@Override
+	public void mapDouble(double val) {
+		if (exactDecimal || Double.isNaN(val) || Double.isInfinite(val)) {
+			super.mapDouble(val);
+			return;
+		}
+		digest.add(val);
+	}
+	
+	/**
+	 * Returns the percentile as a BigDecimal, null if no value was mapped
+	 *
+	 * @return  BigDecimal representing the current result
+	 */
+	public BigDecimal reduce() {
+		if (exactDecimal) {
+			return exactQuantile();
+		}
+		if (digest.count() == 0) {
+			return null;
+		}
+		return BigDecimal.valueOf(digest.quantile(quantile));
+	}
+	
+	/**
+	 * Computes the exact percentile of the BigDecimal values
+	 *
+	 * @return  BigDecimal percentile, null if there are no values
+	 */
+	protected BigDecimal exactQuantile() {
+		int size = decimals.size();
+		if (size == 0) {
+			return null;
+		}
+		List<BigDecimal> sorted = new ArrayList<BigDecimal>(decimals);
+		Collections.sort(sorted);
+		
+		BigDecimal pos = BigDecimal.valueOf(quantile).multiply(BigDecimal.valueOf(size - 1));
+		int lo = pos.intValue();
+		int hi = Math.min(lo + 1, size - 1);
+		BigDecimal fraction = pos.subtract(BigDecimal.valueOf(lo));
+		return sorted.get(lo).add(sorted.get(hi).subtract(sorted.get(lo)).multiply(fraction));
+	}
+	
+	/**
+	 * Combines the mapped values of another instance, of the same quantile
+	 *
+	 * @param  other instance to combine with, which is left unchanged
+	 */
+	public void combine(MapReduceBase other) {
+		validateCombine(other);
+		Percentile otherPercentile = (Percentile) other;
+		if (otherPercentile.quantile != quantile) {
+			throw new RuntimeException("Unable to combine percentile of different quantile : "
+				+ quantile + ", " + otherPercentile.quantile);
+		}
+		digest.merge(otherPercentile.digest);
+		decimals.addAll(otherPercentile.decimals);
+	}
+	
+	/**
+	 * @return  true, as combine is supported
+	 */
+	public boolean isCombinable() {
+		return true;
+	}
+	
+	/**
+	 * Duplicate a "blank" instance, of the same quantile
+	 *
+	 * @return MapReduceBase instance clone
+	 **/
+	public MapReduceBase newInstance() {
+		Percentile ret = (Percentile) super.newInstance();
+		ret.quantile = quantile;
+		return ret;
+	}
+	
+	/**
+	 * Reset any running calculation, used to reset existing map operations
+	 */
+	public void reset() {
+		res = null;
+		digest.reset();
+		decimals.clear();
+	}
+}
@@ -0,0 +1,333 @@
+package picoded.core.struct.query.mapreduce;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Quantile estimator, used by Percentile.
+ *
+ * Values are kept exactly, till more then exactLimit values are added. After which it is
+ * converted to a fixed memory, merging t-digest (of at most ~2x compression centroids).
+ * The t-digest is most accurate near the tails (eg: p99), with typical errors well below
+ * 1% of the quantile rank in the middle (eg: p50).
+ *
+ * Exact quantiles are linearly interpolated between the closest ranks, that is the value
+ * at position (quantile * (count - 1)) of the sorted values.
+ *
+ * Digests can be merged, which gives approximately the same result as if every value was
+ * added to a single digest (exactly the same, while both are exact).
+ **/
+public class QuantileDigest implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Default number of values to keep exactly, this is also the buffer size
+	 **/
+	public static final int DEFAULT_EXACT_LIMIT = 1024;
+	
+	/**
+	 * Default compression, which is approximately the number of centroids kept
+	 **/
+	public static final double DEFAULT_COMPRESSION = 200;
+	
+	//--------------------------------------------------------------------
+	// Digest state
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Compression of the digest
+	 **/
+	protected double compression = DEFAULT_COMPRESSION;
+	
+	/**
+	 * Unmerged values buffer, which are the exact values while no centroids exist
+	 **/
+	protected double[] buffer = new double[16];
+	protected int bufferCount = 0;
+	
+	/**
+	 * Number of values to keep exactly, before converting to centroids
+	 **/
+	protected int exactLimit = DEFAULT_EXACT_LIMIT;
+	
+	/**
+	 * Centroids (sorted by mean), null while the values are kept exactly
+	 **/
+	protected double[] centroidMean = null;
+	protected double[] centroidWeight = null;
+	protected int centroidCount = 0;
+	
+	/**
+	 * Total number of values, and the min / max value
+	 **/
+	protected long totalCount = 0;
+	protected double min = Double.POSITIVE_INFINITY;
+	protected double max = Double.NEGATIVE_INFINITY;
+	
+	/**
+	 * Constructor, with the default exact limit
+	 **/
+	public QuantileDigest() {
+		// does nothing
+	}
+	
+	/**
+	 * Constructor, with the given exact limit
+	 *
+	 * @param  exactLimit number of values to keep exactly
+	 **/
+	public QuantileDigest(int exactLimit) {
+		this.exactLimit = Math.max(exactLimit, 16);
+	}
+	
+	//--------------------------------------------------------------------
+	// Adding values
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds a value
+	 *
+	 * @param  val to add, NaN values are ignored
+	 **/
+	public void add(double val) {
+		if (Double.isNaN(val)) {
+			return;
+		}
+		if (bufferCount == buffer.length) {
+			if (buffer.length < exactLimit) {
+				buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, exactLimit));
+			} else {
+				flush();
+			}
+		}
+		buffer[bufferCount++] = val;
+		++totalCount;
+		if (val < min) {
+			min = val;
+		}
+		if (val > max) {
+			max = val;
+		}
+	}
+	
+	/**
+	 * @return true, if the values are still kept exactly
+	 **/
+	public boolean isExact() {
+		return centroidMean == null;
+	}
+	
+	/**
+	 * @return the number of values added
+	 **/
+	public long count() {
+		return totalCount;
+	}
+	
+	/**
+	 * Merge the buffered values into the centroids
+	 **/
+	protected void flush() {
+		if (centroidMean == null) {
+			centroidMean = new double[0];
+			centroidWeight = new double[0];
+			centroidCount = 0;
+		}
+		if (bufferCount == 0) {
+			return;
+		}
+		
+		Arrays.sort(buffer, 0, bufferCount);
+		double[] bufferWeight = new double[bufferCount];
+		Arrays.fill(bufferWeight, 1.0);
+		mergeCentroids(buffer, bufferWeight, bufferCount);
+		bufferCount = 0;
+	}
+	
+	/**
+	 * Merge the sorted (by mean) centroids into the current centroids, and recluster them
+	 *
+	 * @param  mean   of the centroids to merge
+	 * @param  weight of the centroids to merge
+	 * @param  count  of the centroids to merge
+	 **/
+	protected void mergeCentroids(double[] mean, double[] weight, int count) {
+		// 1. Merge both sorted centroid lists
+		int total = centroidCount + count;
+		double[] mergedMean = new double[total];
+		double[] mergedWeight = new double[total];
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < total; ++i) {
+			if (b >= count || (a < centroidCount && centroidMean[a] <= mean[b])) {
+				mergedMean[i] = centroidMean[a];
+				mergedWeight[i] = centroidWeight[a];
+				++a;
+			} else {
+				mergedMean[i] = mean[b];
+				mergedWeight[i] = weight[b];
+				++b;
+			}
+		}
+		
+		// 2. Recluster adjacent centroids, within the k1 scale function limit
+		double totalWeight = 0;
+		for (int i = 0; i < total; ++i) {
+			totalWeight += mergedWeight[i];
+		}
+		int outCount = 0;
+		double soFar = 0;
+		double limit = totalWeight * kInverse(k(0) + 1);
+		double curMean = mergedMean[0];
+		double curWeight = mergedWeight[0];
+		for (int i = 1; i < total; ++i) {
+			double proposed = curWeight + mergedWeight[i];
+			if (soFar + proposed <= limit) {
+				curMean += (mergedMean[i] - curMean) * mergedWeight[i] / proposed;
+				curWeight = proposed;
+			} else {
+				mergedMean[outCount] = curMean;
+				mergedWeight[outCount] = curWeight;
+				++outCount;
+				soFar += curWeight;
+				limit = totalWeight * kInverse(k(soFar / totalWeight) + 1);
+				curMean = mergedMean[i];
+				curWeight = mergedWeight[i];
+			}
+		}
+		mergedMean[outCount] = curMean;
+		mergedWeight[outCount] = curWeight;
+		++outCount;
+		
+		centroidMean = Arrays.copyOf(mergedMean, outCount);
+		centroidWeight = Arrays.copyOf(mergedWeight, outCount);
+		centroidCount = outCount;
+	}
+	
+	/**
+	 * k1 scale function, from the quantile to the centroid index space
+	 **/
+	protected double k(double q) {
+		return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+	}
+	
+	/**
+	 * Inverse of the k1 scale function
+	 **/
+	protected double kInverse(double k) {
+		if (k >= compression / 4) {
+			return 1.0;
+		}
+		return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+	}
+	
+	/**
+	 * Merges the other digest, into this digest
+	 *
+	 * @param  other digest to merge, which values are left unchanged
+	 **/
+	public void merge(QuantileDigest other) {
+		if (other.totalCount == 0) {
+			return;
+		}
+		
+		// Both are exact, add the values (which may convert this)
+		if (isExact() && other.isExact()) {
+			for (int i = 0; i < other.bufferCount; ++i) {
+				add(other.buffer[i]);
+			}
+			return;
+		}
+		
+		// Merge the centroids, and buffer of the other digest
+		flush();
+		if (other.centroidCount > 0) {
+			mergeCentroids(other.centroidMean, other.centroidWeight, other.centroidCount);
+		}
+		if (other.bufferCount > 0) {
+			double[] otherBuffer = Arrays.copyOf(other.buffer, other.bufferCount);
+			Arrays.sort(otherBuffer);
+			double[] otherWeight = new double[otherBuffer.length];
+			Arrays.fill(otherWeight, 1.0);
+			mergeCentroids(otherBuffer, otherWeight, otherBuffer.length);
+		}
+		totalCount += other.totalCount;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+	
+	//--------------------------------------------------------------------
+	// Quantile estimation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Get the (estimated) value at the given quantile
+	 *
+	 * @param  q quantile, between 0 and 1
+	 *
+	 * @return value at the quantile, NaN if there are no values
+	 **/
+	public double quantile(double q) {
+		if (q < 0 || q > 1) {
+			throw new IllegalArgumentException("Quantile must be between 0 and 1 : " + q);
+		}
+		if (totalCount == 0) {
+			return Double.NaN;
+		}
+		
+		// Exact values, interpolated between the closest ranks
+		if (isExact()) {
+			double[] sorted = Arrays.copyOf(buffer, bufferCount);
+			Arrays.sort(sorted);
+			double pos = q * (bufferCount - 1);
+			int lo = (int) Math.floor(pos);
+			int hi = Math.min(lo + 1, bufferCount - 1);
+			return sorted[lo] + (sorted[hi] - sorted[lo]) * (pos - lo);
+		}
+		
+		// Estimate from the centroids
+		flush();
+		if (centroidCount == 1) {
+			return centroidMean[0];
+		}
+		double index = q * totalCount;
+		
+		// Tails, interpolated with the min / max value
+		double firstHalf = centroidWeight[0] / 2;
+		if (index <= firstHalf) {
+			return min + (centroidMean[0] - min) * (index / firstHalf);
+		}
+		double lastHalf = centroidWeight[centroidCount - 1] / 2;
+		if (index >= totalCount - lastHalf) {
+			double pos = (index - (totalCount - lastHalf)) / lastHalf;
+			return centroidMean[centroidCount - 1] + (max - centroidMean[centroidCount - 1]) * pos;
+		}
+		
+		// Interpolate between the centers of the adjacent centroids
+		double center = firstHalf;
+		for (int i = 0; i < centroidCount - 1; ++i) {
+			double nextCenter = center + (centroidWeight[i] + centroidWeight[i + 1]) / 2;
+			if (index <= nextCenter) {
+				double pos = (index - center) / (nextCenter - center);
+				return centroidMean[i] + (centroidMean[i + 1] - centroidMean[i]) * pos;
+			}
+			center = nextCenter;
+		}
+		return max;
+	}
+	
+	/**
+	 * Reset the digest
+	 **/
+	public void reset() {
+		buffer = new double[16];
+		bufferCount = 0;
+		centroidMean = null;
+		centroidWeight = null;
+		centroidCount = 0;
+		totalCount = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+}
@@ -4,8 +4,25 @@ import java.math.BigDecimal;
 
 /**
  * Sum function for MapReduceBase
+ * 
+ * Unless exact decimal mode is used, plain numbers are summed up with primitive long / double
+ * values. Integral values are exact, while Double values are within ~1 ulp of the exact sum
+ * (see SumAccumulator).
  **/
 public class Sum extends MapReduceBase {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Running sum, of the mapped values
+	 */
+	protected SumAccumulator sum = new SumAccumulator();
+	
+	/**
+	 * Number of mapped values, used to reset the sum once every value is unmapped
+	 */
+	protected long count = 0;
+	
 	/**
 	 * mapping function used to process a single value as it comes in
 	 * 
@@ -14,12 +31,108 @@ public class Sum extends MapReduceBase {
 	public void map(BigDecimal val, Object rawVal) {
 		// Add up those value if its provided
 		if (val != null) {
-			// Initialize the res variable (if needed)
-			if (res == null) {
-				res = val;
-			} else {
-				res = res.add(val);
-			}
+			sum.addDecimal(val);
+			++count;
+		}
+	}
+	
+	/**
+	 * Primitive mapping function, used for non null Number values
+	 * 
+	 * @param   val  number extracted from the data map
+	 * 
+	 * @return  true if the value was mapped
+	 */
+	protected boolean mapNumber(Number val) {
+		if (sum.addNumber(val)) {
+			++count;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Primitive long mapping function, without boxing the value
+	 * 
+	 * @param   val  long value extracted from the column
+	 */
+	@Override
+	public void mapLong(long val) {
+		if (exactDecimal) {
+			super.mapLong(val);
+			return;
 		}
+		sum.addLong(val);
+		++count;
+	}
+	
+	/**
+	 * Primitive double mapping function, without boxing the value
+	 * 
+	 * @param   val  double value extracted from the column
+	 */
+	@Override
+	public void mapDouble(double val) {
+		if (exactDecimal || Double.isNaN(val) || Double.isInfinite(val) || !sum.addDouble(val)) {
+			super.mapDouble(val);
+			return;
+		}
+		++count;
+	}
+	
+	/**
+	 * Removes a previously mapped value, by subtracting it from the sum
+	 * 
+	 * @param   value used in mapping, this value is possible null if the parameter does not exist
+	 * 
+	 * @return  true, as the sum can always be subtracted from
+	 */
+	public boolean unmap(BigDecimal val, Object rawVal) {
+		if (val == null) {
+			return true;
+		}
+		if (exactDecimal || !(rawVal instanceof Number) || !sum.subtractNumber((Number) rawVal)) {
+			sum.addDecimal(val.negate());
+		}
+		if (--count <= 0) {
+			reset();
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the current sum as a BigDecimal, null if no value was mapped
+	 * 
+	 * @return  BigDecimal representing the current result
+	 */
+	public BigDecimal reduce() {
+		return sum.toBigDecimal();
+	}
+	
+	/**
+	 * Combines the partial sum of another instance
+	 * 
+	 * @param  other instance to combine with, which is left unchanged
+	 */
+	public void combine(MapReduceBase other) {
+		validateCombine(other);
+		sum.merge(((Sum) other).sum);
+		count += ((Sum) other).count;
+	}
+	
+	/**
+	 * @return  true, as combine is supported
+	 */
+	public boolean isCombinable() {
+		return true;
+	}
+	
+	/**
+	 * Reset any running calculation, used to reset existing map operations 
+	 */
+	public void reset() {
+		res = null;
+		sum.reset();
+		count = 0;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,214 @@
+package picoded.core.struct.query.mapreduce;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Running sum, used by Sum and Avg, which avoids BigDecimal allocations for plain numbers.
+ *
+ * Values are accumulated into 3 separate parts, which are only added up on toBigDecimal()
+ *
+ * + integral values (Integer, Long, Short, Byte) into a long, which is promoted to the
+ *   BigDecimal part on overflow. This is exact.
+ * + finite Double values into a double, with Neumaier compensated summation. This is within
+ *   ~1 ulp of the exact sum of the double values (in practice, the relative difference to
+ *   the exact decimal sum is around 1e-15).
+ * + everything else (BigDecimal, BigInteger, Float, numeric strings, etc) as BigDecimal,
+ *   which is exact.
+ **/
+public class SumAccumulator implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	//--------------------------------------------------------------------
+	// Accumulated parts
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Integral sum part
+	 **/
+	protected long longSum = 0;
+	protected boolean hasLongSum = false;
+	
+	/**
+	 * Floating point sum part, and its running compensation
+	 **/
+	protected double doubleSum = 0;
+	protected double doubleCompensation = 0;
+	protected boolean hasDoubleSum = false;
+	
+	/**
+	 * Exact decimal sum part, null if not used
+	 **/
+	protected BigDecimal decimalSum = null;
+	
+	//--------------------------------------------------------------------
+	// Accumulation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Adds the number, using the primitive sum parts where possible
+	 *
+	 * @param  val to add, not null
+	 *
+	 * @return true if it was added, false if it should be added as a BigDecimal instead
+	 **/
+	public boolean addNumber(Number val) {
+		if (val instanceof Integer || val instanceof Long || val instanceof Short
+			|| val instanceof Byte) {
+			addLong(val.longValue());
+			return true;
+		}
+		
+		if (val instanceof Double) {
+			double d = val.doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				return false;
+			}
+			
+			// Overflows of the double range, are added as a BigDecimal instead
+			return addDouble(d);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Subtracts the number, using the primitive sum parts where possible.
+	 * Used to remove a number, which was previously added.
+	 *
+	 * @param  val to subtract, not null
+	 *
+	 * @return true if it was subtracted, false if it should be subtracted as a BigDecimal instead
+	 **/
+	public boolean subtractNumber(Number val) {
+		if (val instanceof Integer || val instanceof Long || val instanceof Short
+			|| val instanceof Byte) {
+			long l = val.longValue();
+			if (l == Long.MIN_VALUE) {
+				return false;
+			}
+			addLong(-l);
+			return true;
+		}
+		
+		if (val instanceof Double) {
+			double d = val.doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				return false;
+			}
+			return addDouble(-d);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Adds the long value, promoting the long sum to BigDecimal on overflow
+	 *
+	 * @param  val to add
+	 **/
+	public void addLong(long val) {
+		long sum = longSum + val;
+		if (((longSum ^ sum) & (val ^ sum)) < 0) {
+			// Overflow, move the existing long sum into the decimal part
+			addDecimal(BigDecimal.valueOf(longSum));
+			sum = val;
+		}
+		longSum = sum;
+		hasLongSum = true;
+	}
+	
+	/**
+	 * Adds the double value, with Neumaier compensated summation
+	 *
+	 * @param  val to add, which must be finite
+	 *
+	 * @return true if it was added, false if it overflows the double range
+	 **/
+	protected boolean addDouble(double d) {
+		double t = doubleSum + d;
+		if (Double.isInfinite(t)) {
+			return false;
+		}
+		if (Math.abs(doubleSum) >= Math.abs(d)) {
+			doubleCompensation += (doubleSum - t) + d;
+		} else {
+			doubleCompensation += (d - t) + doubleSum;
+		}
+		doubleSum = t;
+		hasDoubleSum = true;
+		return true;
+	}
+	
+	/**
+	 * Adds all the parts of another sum, into this sum
+	 *
+	 * @param  other sum to add, which is left unchanged
+	 **/
+	public void merge(SumAccumulator other) {
+		if (other.hasLongSum) {
+			addLong(other.longSum);
+		}
+		if (other.hasDoubleSum) {
+			if (!addDouble(other.doubleSum)) {
+				addDecimal(new BigDecimal(other.doubleSum));
+			}
+			doubleCompensation += other.doubleCompensation;
+			hasDoubleSum = true;
+		}
+		if (other.decimalSum != null) {
+			addDecimal(other.decimalSum);
+		}
+	}
+	
+	/**
+	 * Adds the exact decimal value
+	 *
+	 * @param  val to add, not null
+	 **/
+	public void addDecimal(BigDecimal val) {
+		decimalSum = (decimalSum == null) ? val : decimalSum.add(val);
+	}
+	
+	//--------------------------------------------------------------------
+	// Result
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return  true if no value was added
+	 **/
+	public boolean isEmpty() {
+		return decimalSum == null && !hasLongSum && !hasDoubleSum;
+	}
+	
+	/**
+	 * @return  the total sum, null if no value was added
+	 **/
+	public BigDecimal toBigDecimal() {
+		BigDecimal ret = decimalSum;
+		if (hasLongSum) {
+			BigDecimal part = BigDecimal.valueOf(longSum);
+			ret = (ret == null) ? part : ret.add(part);
+		}
+		if (hasDoubleSum) {
+			double total = doubleSum + doubleCompensation;
+			BigDecimal part = Double.isInfinite(total) ? new BigDecimal(doubleSum)
+				.add(new BigDecimal(doubleCompensation)) : BigDecimal.valueOf(total);
+			ret = (ret == null) ? part : ret.add(part);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Reset the sum
+	 **/
+	public void reset() {
+		longSum = 0;
+		hasLongSum = false;
+		doubleSum = 0;
+		doubleCompensation = 0;
+		hasDoubleSum = false;
+		decimalSum = null;
+	}
+}
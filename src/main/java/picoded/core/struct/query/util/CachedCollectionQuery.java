@@ -0,0 +1,151 @@
+package picoded.core.struct.query.utils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import picoded.core.struct.query.internal.QueryResultCache;
+
+/**
+ * Opt-in query result caching decorator, for a CollectionQueryInterface implementation.
+ *
+ * Repeated query / queryCount calls with identical arguments (after normalizing the
+ * query string whitespace), order by, and paging are served from a size bounded LRU cache.
+ * See QueryResultCache for how cached results are invalidated.
+ *
+ * Aggregation calls are passed directly to the backend, without caching.
+ */
+public class CachedCollectionQuery<V extends Map<String, Object>> implements
+	CollectionQueryInterface<V> {
+	
+	/**
+	 * The backend to query on a cache miss
+	 **/
+	protected final CollectionQueryInterface<V> backend;
+	
+	/**
+	 * The query result cache
+	 **/
+	protected final QueryResultCache cache;
+	
+	/**
+	 * Constructor, with the backend, and maximum number of query results to cache.
+	 * Invalidation needs to be done manually.
+	 *
+	 * @param  backend to query on a cache miss
+	 * @param  maxSize of the cache, 0 or less disables caching
+	 **/
+	public CachedCollectionQuery(CollectionQueryInterface<V> backend, int maxSize) {
+		this(backend, maxSize, null);
+	}
+	
+	/**
+	 * Constructor, with the backend, maximum number of query results to cache,
+	 * and the backend modification counter
+	 *
+	 * @param  backend to query on a cache miss
+	 * @param  maxSize of the cache, 0 or less disables caching
+	 * @param  modificationCounter which changes on every backend modification, null to ignore
+	 **/
+	public CachedCollectionQuery(CollectionQueryInterface<V> backend, int maxSize,
+		LongSupplier modificationCounter) {
+		if (backend == null) {
+			throw new IllegalArgumentException("Missing query backend");
+		}
+		this.backend = backend;
+		this.cache = new QueryResultCache(maxSize, modificationCounter);
+	}
+	
+	/**
+	 * @return  the backend used on a cache miss
+	 **/
+	public CollectionQueryInterface<V> backend() {
+		return backend;
+	}
+	
+	/**
+	 * @return  the query result cache, for invalidation and statistics
+	 **/
+	public QueryResultCache cache() {
+		return cache;
+	}
+	
+	// Cached query operations
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Performs a search query, and returns the respective DataObjects,
+	 * from the cache where possible
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObject[] array
+	 **/
+	@Override
+	public V[] query(String whereClause, Object[] whereValues, String orderByStr, int offset,
+		int limit) {
+		V[] ret = cache.get("query", whereClause, whereValues, orderByStr, offset, limit,
+			() -> backend.query(whereClause, whereValues, orderByStr, offset, limit));
+		
+		// The cached array is shared, so a copy is returned
+		return (ret == null) ? null : ret.clone();
+	}
+	
+	/**
+	 * Performs a search query, and returns the total count,
+	 * from the cache where possible
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 *
+	 * @return  The total count for the query
+	 **/
+	@Override
+	public long queryCount(String whereClause, Object[] whereValues) {
+		Long ret = cache.get("count", whereClause, whereValues, null, 0, 0,
+			() -> backend.queryCount(whereClause, whereValues));
+		return ret;
+	}
+	
+	// Uncached aggregation operations
+	//--------------------------------------------------------------------------
+	
+	@Override
+	public BigDecimal[] aggregation(String[] aggregationTerms, String whereClause,
+		Object[] whereValues) {
+		return backend.aggregation(aggregationTerms, whereClause, whereValues);
+	}
+	
+	@Override
+	public List<Map<String, Object>> aggregation(String[] aggregationTerms,
+		String[] groupByFields, String whereClause, Object[] whereValues, String havingClause,
+		Object[] havingValues, String orderByStr) {
+		return backend.aggregation(aggregationTerms, groupByFields, whereClause, whereValues,
+			havingClause, havingValues, orderByStr);
+	}
+	
+	// Invalidation
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Invalidates all cached results, this should be called when values are added or removed
+	 **/
+	public void invalidate() {
+		cache.invalidate();
+	}
+	
+	/**
+	 * Invalidates the cached results which uses the given fields,
+	 * this should be called when existing values are modified
+	 *
+	 * @param  fieldNames which was modified
+	 **/
+	public void invalidateFields(String... fieldNames) {
+		cache.invalidateFields(fieldNames);
+	}
+}
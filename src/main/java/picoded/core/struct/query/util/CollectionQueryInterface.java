@@ -2,6 +2,7 @@ package picoded.core.struct.query.utils;
 
 import picoded.core.struct.ProxyGenericConvertMap;
 import picoded.core.struct.query.Aggregation;
+import picoded.core.struct.query.GroupedAggregation;
 
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
@@ -236,4 +237,48 @@ public interface CollectionQueryInterface<V extends Map<String, Object>> {
 		return aggregation(new String[] { singleAggregationTerm }, whereClause, whereValues)[0];
 	}
 	
+	/**
+	 * Performs a search query, and returns the respective aggregation result of each group
+	 *
+	 * @param   aggregationTerms used to compute the result
+	 * @param   groupByFields to group the result by
+	 * @param   where query statement
+	 * @param   where clause values array
+	 *
+	 * @return  Result row of each group, see GroupedAggregation
+	 **/
+	default List<Map<String, Object>> aggregation(String[] aggregationTerms,
+		String[] groupByFields, String whereClause, Object[] whereValues) {
+		return aggregation(aggregationTerms, groupByFields, whereClause, whereValues, null, null,
+			null);
+	}
+	
+	/**
+	 * Performs a search query, and returns the respective aggregation result of each group
+	 *
+	 * @param   aggregationTerms used to compute the result
+	 * @param   groupByFields to group the result by
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   having query statement, to filter the group result rows, use null to ignore
+	 * @param   having clause values array
+	 * @param   query string to sort the group result rows by, use null to ignore
+	 *
+	 * @return  Result row of each group, see GroupedAggregation
+	 **/
+	default List<Map<String, Object>> aggregation(String[] aggregationTerms,
+		String[] groupByFields, String whereClause, Object[] whereValues, String havingClause,
+		Object[] havingValues, String orderByStr) {
+		// 1. Initialize the grouped aggregation object (fail fast)
+		GroupedAggregation grouped = Aggregation.build(aggregationTerms).groupBy(groupByFields)
+			.having(havingClause, havingValues).orderBy(orderByStr);
+		
+		// 2. Get the query result, as a collection
+		V[] resArray = query(whereClause, whereValues);
+		List<V> resCollection = Arrays.asList(resArray);
+		
+		// 3. compute the grouped aggregation (in a single pass)
+		return grouped.compute(resCollection, null);
+	}
+	
 }
@@ -0,0 +1,215 @@
+package picoded.core.struct;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import picoded.core.struct.query.Aggregation;
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryUtils;
+import picoded.core.struct.query.internal.ColumnVector;
+
+public class ColumnarQueryMapCollection_test {
+	
+	static final String[] TERMS = new String[] { "count(*)", "count(qty)", "sum(qty)",
+		"avg(price)", "min(price)", "max(mixed)" };
+	
+	private ColumnarQueryMapCollection collection = null;
+	private List<Map<String, Object>> list = null;
+	
+	@Before
+	public void setUp() {
+		Random rand = new Random(7);
+		Object[] mixed = new Object[] { 1, "1", "1.0", 2.5, "abc", "ABC", null, true, "10" };
+		String[] status = new String[] { "open", "closed", "Open", "pending" };
+		list = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 500; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("id", "id-" + i);
+			if (rand.nextInt(10) != 0) {
+				row.put("qty", rand.nextInt(20) - 5);
+			}
+			if (rand.nextInt(10) != 0) {
+				row.put("price", rand.nextInt(1000) / 10.0);
+			}
+			row.put("status", status[rand.nextInt(status.length)]);
+			row.put("mixed", mixed[rand.nextInt(mixed.length)]);
+			Map<String, Object> address = new HashMap<String, Object>();
+			address.put("city", (i % 2 == 0) ? "Tokyo" : "Paris");
+			row.put("address", address);
+			list.add(row);
+		}
+		collection = new ColumnarQueryMapCollection(list);
+	}
+	
+	/**
+	 * Asserts the collection query result, is the same as a full scan of the list
+	 **/
+	private void assertSameResult(String where, Object... args) {
+		Query query = Query.build(where, args);
+		List<Map<String, Object>> expected = query.search(list);
+		List<GenericConvertMap<String, Object>> result = collection.query(where, args, null, -1,
+			-1);
+		assertEquals(where, expected.size(), result.size());
+		assertEquals(where, expected.size(), collection.queryCount(where, args));
+		for (int i = 0; i < expected.size(); ++i) {
+			assertEquals(where, expected.get(i).get("id"), result.get(i).get("id"));
+		}
+		
+		// Aggregation, read directly from the columns
+		BigDecimal[] expectedAgg = Aggregation.build(TERMS).compute(
+			new ArrayList<Object>(expected));
+		BigDecimal[] resultAgg = collection.aggregate(TERMS, where, args);
+		for (int i = 0; i < TERMS.length; ++i) {
+			if (expectedAgg[i] == null || resultAgg[i] == null) {
+				assertEquals(where + " " + TERMS[i], expectedAgg[i], resultAgg[i]);
+			} else {
+				assertEquals(where + " " + TERMS[i], 0, expectedAgg[i].compareTo(resultAgg[i]));
+			}
+		}
+	}
+	
+	@Test
+	public void columnTypes() {
+		assertTrue(collection.column("qty") instanceof ColumnVector.LongColumn);
+		assertTrue(collection.column("price") instanceof ColumnVector.DoubleColumn);
+		assertTrue(collection.column("status") instanceof ColumnVector.StringColumn);
+		assertTrue(collection.column("mixed") instanceof ColumnVector.ObjectColumn);
+		assertEquals(4, ((ColumnVector.StringColumn) collection.column("status"))
+			.dictionarySize());
+		assertEquals(500, collection.size());
+		
+		// Integral numbers are read back as Long
+		GenericConvertMap<String, Object> row = collection.iterator().next();
+		assertEquals(list.get(0).get("id"), row.getString("id"));
+		assertEquals(((Number) list.get(0).get("qty")).longValue(), row.get("qty"));
+		assertEquals("Tokyo", ((Map<?, ?>) row.get("address")).get("city"));
+	}
+	
+	@Test
+	public void queryConsistency() {
+		assertSameResult("status = ?", "open");
+		assertSameResult("status != ?", "open");
+		assertSameResult("status LIKE ?", "%pen%");
+		assertSameResult("status > ?", "O");
+		assertSameResult("qty = ?", 3);
+		assertSameResult("qty = ?", "3");
+		assertSameResult("qty != ?", 3);
+		assertSameResult("qty < ?", 0);
+		assertSameResult("qty <= ?", 4.5);
+		assertSameResult("qty > ?", "abc");
+		assertSameResult("qty >= ?", (Object) null);
+		assertSameResult("price > ? AND price <= ?", 20, 80.5);
+		assertSameResult("price < ? OR qty = ?", 10, 7);
+		assertSameResult("mixed = ?", 1);
+		assertSameResult("mixed = ?", "abc");
+		assertSameResult("mixed < ?", 5);
+		assertSameResult("missing = ?", "x");
+		assertSameResult("missing != ?", "x");
+		assertSameResult("address.city = ?", "Tokyo");
+		assertSameResult("NOT (status = ? OR qty > ?)", "open", 10);
+		assertSameResult("(status = ? AND NOT qty = ?) OR address.city = ?", "closed", 2, "Paris");
+	}
+	
+	@Test
+	public void randomizedConsistency() {
+		Random rand = new Random(11);
+		String[] fields = new String[] { "qty", "price", "status", "mixed", "missing" };
+		String[] ops = new String[] { "=", "!=", "<", "<=", ">", ">=" };
+		Object[] args = new Object[] { 0, 3, -2.5, 50, "open", "Open", "abc", "10", 1.0, null };
+		for (int i = 0; i < 300; ++i) {
+			String where = fields[rand.nextInt(fields.length)] + " " + ops[rand.nextInt(ops.length)]
+				+ " ? AND NOT " + fields[rand.nextInt(fields.length)] + " "
+				+ ops[rand.nextInt(ops.length)] + " ?";
+			assertSameResult(where, args[rand.nextInt(args.length)],
+				args[rand.nextInt(args.length)]);
+		}
+	}
+	
+	@Test
+	public void rowViewEquality() {
+		Map<String, Object> value = new HashMap<String, Object>();
+		value.put("id", "equal");
+		value.put("qty", 3);
+		value.put("price", 1.5);
+		GenericConvertMap<String, Object> first = collection.addRow(value);
+		GenericConvertMap<String, Object> second = collection.addRow(value);
+		
+		// Row views follow the Map contract, by their values
+		Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("id", "equal");
+		expected.put("qty", 3L);
+		expected.put("price", 1.5);
+		assertEquals(expected, first);
+		assertEquals(first, expected);
+		assertEquals(expected.hashCode(), first.hashCode());
+		assertEquals(first, second);
+		second.put("qty", 4);
+		assertNotEquals(first, second);
+		
+		// While remove and contains, are by the row of the view
+		assertTrue(collection.contains(first));
+		assertFalse(collection.contains(expected));
+		assertFalse(collection.remove(expected));
+		assertTrue(collection.remove(first));
+		assertFalse(collection.contains(first));
+		assertTrue(collection.contains(second));
+	}
+	
+	@Test
+	public void sortedPaging() {
+		List<Map<String, Object>> expected = QueryUtils.sortAndOffsetList(Query.build(
+			"status = ?", new Object[] { "open" }).search(list), "price DESC", 3, 10);
+		List<GenericConvertMap<String, Object>> result = collection.query("status = ?",
+			new Object[] { "open" }, "price DESC", 3, 10);
+		assertEquals(expected.size(), result.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertEquals(expected.get(i).get("id"), result.get(i).get("id"));
+		}
+	}
+	
+	@Test
+	public void modifyRemoveAndCompact() {
+		GenericConvertMap<String, Object> row = collection.query("id = ?",
+			new Object[] { "id-10" }, null, -1, -1).get(0);
+		
+		// Values which do not fit the column, converts it
+		row.put("qty", "many");
+		assertTrue(collection.column("qty") instanceof ColumnVector.ObjectColumn);
+		assertEquals(1, collection.queryCount("qty = ?", new Object[] { "many" }));
+		row.remove("qty");
+		assertNull(row.get("qty"));
+		assertFalse(row.containsKey("qty"));
+		
+		// Removed rows are no longer selected
+		assertTrue(collection.contains(row));
+		assertTrue(collection.remove(row));
+		assertFalse(collection.remove(row));
+		assertEquals(499, collection.size());
+		assertEquals(0, collection.queryCount("id = ?", new Object[] { "id-10" }));
+		assertEquals(499, collection.queryCount(null));
+		
+		// Compaction invalidates existing views
+		collection.compact();
+		assertEquals(499, collection.size());
+		assertEquals(1, collection.queryCount("id = ?", new Object[] { "id-11" }));
+		try {
+			row.get("id");
+			fail("Expected an exception");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		
+		collection.clear();
+		assertEquals(0, collection.size());
+		assertEquals(0, collection.aggregate(TERMS)[0].intValue());
+	}
+}
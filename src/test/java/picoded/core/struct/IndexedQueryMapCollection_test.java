@@ -0,0 +1,268 @@
+package picoded.core.struct;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+
+public class IndexedQueryMapCollection_test {
+	
+	private IndexedQueryMapCollection<Map<String, Object>> collection = null;
+	private List<Map<String, Object>> list = null;
+	
+	@Before
+	public void setUp() {
+		collection = new IndexedQueryMapCollection<Map<String, Object>>();
+		collection.createHashIndex("id");
+		collection.createHashIndex("mixed");
+		collection.createSortedIndex("num");
+		collection.createSortedIndex("name");
+		collection.createSortedIndex("mixed");
+		
+		Object[] mixed = new Object[] { 1, "1", "1.0", 2.0, "abc", "ABC", null, true, "true" };
+		String[] names = new String[] { "alice", "bob", "Carol", "dave", "eve" };
+		list = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 200; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("id", "id-" + i);
+			row.put("num", (i % 3 == 0) ? (Object) (i % 50) : (Object) ((i % 50) + 0.5));
+			row.put("name", names[i % names.length]);
+			row.put("mixed", mixed[i % mixed.length]);
+			list.add(row);
+		}
+		collection.addAll(list);
+	}
+	
+	@After
+	public void tearDown() {
+		collection = null;
+		list = null;
+	}
+	
+	/**
+	 * Asserts the collection query result, is the same as a full scan of the list
+	 **/
+	private void assertSameResult(String where, Object... args) {
+		Query query = Query.build(where, args);
+		List<Map<String, Object>> expected = query.search(list);
+		List<Map<String, Object>> result = collection.query(where, args, null, -1, -1);
+		assertEquals(where, expected.size(), result.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertSame(where, expected.get(i), result.get(i));
+		}
+	}
+	
+	@Test
+	public void equalityLookup() {
+		assertSameResult("id = ?", "id-42");
+		assertSameResult("id = ?", "id-unknown");
+		assertSameResult("id = ?", (Object) null);
+		assertSameResult("mixed = ?", 1);
+		assertSameResult("mixed = ?", "1");
+		assertSameResult("mixed = ?", "abc");
+		assertSameResult("mixed = ?", true);
+		assertSameResult("mixed = ?", "true");
+		assertSameResult("mixed = ?", (Object) null);
+		assertEquals(1, collection.query("id = ?", new Object[] { "id-42" }, null, -1, -1).size());
+		assertNotNull(collection.candidateRows(Query.build("id = ?", new Object[] { "id-42" })));
+	}
+	
+	@Test
+	public void setMembershipLookup() {
+		assertSameResult("id IN ?", Arrays.asList("id-1", "id-42", "id-unknown"));
+		assertSameResult("id IN (?)", (Object) new String[] { "id-7" });
+		assertSameResult("id IN ?", new ArrayList<Object>());
+		assertSameResult("mixed IN ?", Arrays.asList(1, "abc", null));
+		assertSameResult("mixed IN ?", Arrays.asList("1.0", true));
+		assertSameResult("id NOT IN ? AND num < ?", Arrays.asList("id-0", "id-3"), 10);
+		assertSameResult("id IN ? AND num > ?", Arrays.asList("id-10", "id-40", "id-41"), 5);
+		assertNotNull(collection.candidateRows(Query.build("id IN ?", new Object[] { Arrays
+			.asList("id-1", "id-2") })));
+		assertNull(collection.candidateRows(Query.build("id NOT IN ?", new Object[] { Arrays
+			.asList("id-1") })));
+	}
+	
+	@Test
+	public void rangeLookup() {
+		assertSameResult("num < ?", 10);
+		assertSameResult("num <= ?", 10);
+		assertSameResult("num > ?", "40");
+		assertSameResult("num >= ?", 40.5);
+		assertSameResult("num > ?", "abc");
+		assertSameResult("num < ?", (Object) null);
+		assertSameResult("name < ?", "carol");
+		assertSameResult("name >= ?", "Bob");
+		assertSameResult("name > ?", 5);
+		assertSameResult("mixed > ?", 1);
+		assertNotNull(collection.candidateRows(Query.build("num < ?", new Object[] { 10 })));
+		assertNull(collection.candidateRows(Query.build("mixed > ?", new Object[] { 1 })));
+	}
+	
+	@Test
+	public void combinationLookup() {
+		assertSameResult("num > ? AND num < ? AND name = ?", 10, 30, "bob");
+		assertSameResult("id = ? AND num > ?", "id-10", 5);
+		assertSameResult("num > ? OR name = ?", 40, "bob");
+		assertSameResult("NOT num > ? AND name = ?", 10, "bob");
+		assertNull(collection.candidateRows(Query.build("num > ? OR name = ?", new Object[] { 40,
+			"bob" })));
+	}
+	
+	@Test
+	public void addAndRemove() {
+		// Remove most rows, to trigger compaction
+		for (int i = 0; i < list.size(); ++i) {
+			if (i % 4 != 0) {
+				assertTrue(collection.remove(list.get(i)));
+			}
+		}
+		List<Map<String, Object>> remaining = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < list.size(); i += 4) {
+			remaining.add(list.get(i));
+		}
+		list = remaining;
+		assertEquals(list.size(), collection.size());
+		
+		assertSameResult("id = ?", "id-40");
+		assertSameResult("id = ?", "id-41");
+		assertSameResult("num < ? AND name = ?", 20, "alice");
+		
+		// Re-adding, and duplicate instance handling
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("id", "new");
+		row.put("num", 7);
+		assertTrue(collection.add(row));
+		assertFalse(collection.add(row));
+		list.add(row);
+		assertSameResult("id = ?", "new");
+		assertSameResult("num = ?", 7);
+		
+		// Reindexing after modification
+		row.put("id", "renamed");
+		assertTrue(collection.reindex(row));
+		assertSameResult("id = ?", "new");
+		assertSameResult("id = ?", "renamed");
+	}
+	
+	@Test
+	public void compaction() {
+		for (int i = 200; i < 3000; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("id", "id-" + i);
+			row.put("num", i);
+			list.add(row);
+			collection.add(row);
+		}
+		for (int i = 0; i < 2500; ++i) {
+			collection.remove(list.get(i));
+		}
+		list = new ArrayList<Map<String, Object>>(list.subList(2500, 3000));
+		assertTrue(collection.rows.size() < 3000);
+		assertSameResult("id = ?", "id-2600");
+		assertSameResult("num > ? AND num < ?", 2550, 2700);
+	}
+	
+	@Test
+	public void iteratorRemove() {
+		Iterator<Map<String, Object>> iter = collection.iterator();
+		while (iter.hasNext()) {
+			Map<String, Object> row = iter.next();
+			if (((String) row.get("id")).endsWith("1")) {
+				iter.remove();
+			}
+		}
+		list.removeIf((row) -> ((String) row.get("id")).endsWith("1"));
+		assertEquals(list.size(), collection.size());
+		assertSameResult("id = ?", "id-11");
+		assertSameResult("num >= ?", 25);
+	}
+	
+	@Test
+	public void orderAndAggregate() {
+		List<Map<String, Object>> res = collection.query("num < ?", new Object[] { 5 }, "num DESC",
+			0, 3);
+		assertEquals(3, res.size());
+		assertEquals(4.5, ((Number) res.get(0).get("num")).doubleValue(), 0.0);
+		
+		assertEquals(list.size(), collection.query((Query) null, null, -1, -1).size());
+		assertEquals(40, collection.aggregate(new String[] { "count(num)" }, "name = ?",
+			new Object[] { "bob" })[0].intValue());
+	}
+	
+	@Test
+	public void fusedAggregate() {
+		String[] terms = new String[] { "count(*)", "sum(num)", "max(num)" };
+		Query query = Query.build("num < ? AND name = ?", new Object[] { 20, "alice" });
+		BigDecimal[] expected = query.aggregation(list, terms);
+		BigDecimal[] res = collection.aggregate(terms, query);
+		for (int i = 0; i < terms.length; ++i) {
+			assertEquals(0, expected[i].compareTo(res[i]));
+		}
+		
+		// Grouped aggregation, with the indexes
+		List<Map<String, Object>> groups = collection.aggregate(new String[] { "count(*)" },
+			new String[] { "name" }, Query.build("num >= ?", new Object[] { 25 }), null, "name ASC");
+		assertEquals(5, groups.size());
+		assertEquals("alice", groups.get(0).get("name"));
+		int total = 0;
+		for (Map<String, Object> group : groups) {
+			total += ((BigDecimal) group.get("count_all")).intValue();
+		}
+		assertEquals(collection.query("num >= ?", new Object[] { 25 }, null, -1, -1).size(), total);
+	}
+	
+	@Test
+	public void bitmapLookup() {
+		collection.createBitmapIndex("name");
+		collection.createBitmapIndex("mixed");
+		
+		// Exactly answered by the bitmap indexes, including counts
+		String[] exactQueries = new String[] { "name = ? AND mixed != ?", "name < ? OR mixed = ?",
+			"name = ? AND NOT mixed = ?", "name = ? OR mixed = ?",
+			"NOT (name = ? OR mixed != ?)" };
+		for (String where : exactQueries) {
+			Object[] args = new Object[] { "bob", "1" };
+			Query query = Query.build(where, args);
+			assertNotNull(where, collection.bitmapRows(query));
+			assertSameResult(where, args);
+			assertEquals(where, query.search(list).size(), collection.queryCount(where, args));
+		}
+		
+		assertSameResult("name != ?", "bob");
+		assertEquals(list.size() - 40, collection.queryCount("name != ?", new Object[] { "bob" }));
+		
+		// Partially answered, as candidate rows
+		assertNull(collection.bitmapRows(Query.build("name = ? AND num > ?", new Object[] { "bob",
+			20 })));
+		assertSameResult("name = ? AND num > ?", "bob", 20);
+		assertSameResult("(name = ? OR mixed = ?) AND num < ?", "eve", true, 30);
+		assertEquals(collection.query("num < ?", new Object[] { 10 }, null, -1, -1).size(),
+			collection.queryCount("num < ?", new Object[] { 10 }));
+		
+		// Removal, and reindexing
+		Map<String, Object> row = list.get(1);
+		row.put("name", "zed");
+		collection.reindex(row);
+		assertSameResult("name = ?", "zed");
+		assertSameResult("NOT name = ?", "bob");
+		collection.remove(list.remove(0));
+		assertSameResult("NOT name = ?", "bob");
+		assertEquals(list.size(), collection.queryCount("NOT name = ?", new Object[] { "x" }));
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void reservedFieldIndex() {
+		collection.createHashIndex("_key");
+	}
+}
@@ -0,0 +1,126 @@
+package picoded.core.struct.query;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ComparisonEngine_test {
+	
+	@Test
+	public void stringOrderTest() {
+		// Collated ordering, is case aware but not case first
+		assertTrue(ComparisonEngine.COLLATED.compareString("a", "B") < 0);
+		assertTrue(ComparisonEngine.COLLATED.compareString("b", "A") > 0);
+		
+		// Binary ordering, places all uppercase first
+		assertTrue(ComparisonEngine.BINARY.compareString("a", "B") > 0);
+		assertTrue(ComparisonEngine.BINARY.compareString("b", "A") > 0);
+		assertTrue(ComparisonEngine.BINARY.compareString("A", "b") < 0);
+		
+		// Null handling
+		assertEquals(0, ComparisonEngine.BINARY.compareString(null, null));
+		assertEquals(-1, ComparisonEngine.COLLATED.compareString(null, "a"));
+		assertEquals(1, ComparisonEngine.BINARY.compareString("a", null));
+		
+		assertTrue(ComparisonEngine.COLLATED.isCollated());
+		assertFalse(ComparisonEngine.BINARY.isCollated());
+		assertEquals(ComparisonEngine.BINARY, ComparisonEngine.of(ComparisonEngine.StringOrder.BINARY));
+	}
+	
+	@Test
+	public void dynamicCompareTest() {
+		ComparisonEngine engine = ComparisonEngine.BINARY;
+		assertEquals(0, engine.compare("10", 10));
+		assertTrue(engine.compare("9", "10") > 0);
+		assertTrue(engine.compare(9, "10") < 0);
+		assertTrue(engine.compare(null, 1) < 0);
+		assertEquals(0, engine.compare(null, null));
+		assertEquals(0, engine.compare(1.0, 1L));
+		assertNull(engine.toNumber("abc"));
+		assertEquals(12L, engine.toNumber("12"));
+	}
+	
+	@Test
+	public void customLocaleTest() {
+		ComparisonEngine engine = new ComparisonEngine(ComparisonEngine.StringOrder.COLLATED,
+			Locale.FRENCH);
+		assertTrue(engine.compareString("a", "b") < 0);
+		assertEquals(0, engine.collationKey("abc").compareTo(engine.collationKey("abc")));
+		assertNull(engine.collationKey(null));
+	}
+	
+	@Test
+	public void concurrentSortTest() throws Exception {
+		Random rand = new Random(3);
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 5000; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("name", "Name-" + rand.nextInt(500));
+			row.put("num", (rand.nextBoolean() ? "" : "-") + rand.nextInt(1000));
+			list.add(row);
+		}
+		
+		OrderBy<Map<String, Object>> orderBy = new OrderBy<Map<String, Object>>("name, num DESC");
+		List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>(list);
+		Collections.sort(expected, orderBy);
+		
+		// Sorting on multiple threads, with the shared comparator
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<Map<String, Object>>>> results = new ArrayList<Future<List<Map<String, Object>>>>();
+			for (int i = 0; i < 8; ++i) {
+				results.add(executor.submit(() -> {
+					List<Map<String, Object>> sorted = new ArrayList<Map<String, Object>>(list);
+					Collections.sort(sorted, orderBy);
+					return sorted;
+				}));
+			}
+			for (Future<List<Map<String, Object>>> result : results) {
+				assertEquals(expected, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void binaryOrderByTest() {
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		for (String name : new String[] { "b", "B", "a", "A", "c", "C" }) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("name", name);
+			list.add(row);
+		}
+		
+		OrderBy<Map<String, Object>> binary = new OrderBy<Map<String, Object>>("name",
+			ComparisonEngine.StringOrder.BINARY);
+		assertEquals(ComparisonEngine.BINARY, binary.getComparisonEngine());
+		
+		List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>(list);
+		Collections.sort(expected, binary);
+		assertEquals("A", expected.get(0).get("name"));
+		assertEquals("c", expected.get(5).get("name"));
+		
+		// Decorated sort gives the same result
+		List<Map<String, Object>> sorted = new ArrayList<Map<String, Object>>(list);
+		binary.sort(sorted);
+		assertEquals(expected, sorted);
+		
+		// Collated order, is not uppercase first
+		OrderBy<Map<String, Object>> collated = new OrderBy<Map<String, Object>>("name");
+		sorted = new ArrayList<Map<String, Object>>(list);
+		collated.sort(sorted);
+		assertEquals("a", sorted.get(0).get("name"));
+	}
+}
@@ -0,0 +1,220 @@
+package picoded.core.struct.query;
+
+import static org.junit.Assert.*;
+import static picoded.core.struct.query.QueryTestRows.row;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import picoded.core.struct.IndexedQueryMapCollection;
+import picoded.core.struct.QueryMapCollection;
+
+public class GroupedAggregation_test {
+	
+	private List<Object> dataSet = null;
+	
+	@Before
+	public void setUp() {
+		dataSet = new ArrayList<Object>();
+		dataSet.add(row("tenant", "a", "status", "open", "price", 1));
+		dataSet.add(row("tenant", "b", "status", "open", "price", 10));
+		dataSet.add(row("tenant", "a", "status", "closed", "price", 2));
+		dataSet.add(row("tenant", "a", "status", "open", "price", 3));
+		dataSet.add(row("tenant", "c", "status", "closed", "price", 100));
+		dataSet.add(row("tenant", "b", "status", "closed", "price", 20));
+		dataSet.add(row("tenant", null, "status", "open", "price", 1000));
+	}
+	
+	@Test
+	public void termAliasTest() {
+		assertEquals("count_all", GroupedAggregation.termAlias("count(*)"));
+		assertEquals("sum_price", GroupedAggregation.termAlias("sum(price)"));
+		assertEquals("max_item_price", GroupedAggregation.termAlias(" max(item.price) "));
+	}
+	
+	@Test
+	public void singleFieldGroupTest() {
+		List<Map<String, Object>> res = Aggregation.build(new String[] { "count(*)", "sum(price)" })
+			.groupBy("tenant").compute(dataSet);
+		
+		// Groups are in order of first appearance, including the null group
+		assertEquals(4, res.size());
+		assertEquals("a", res.get(0).get("tenant"));
+		assertEquals("b", res.get(1).get("tenant"));
+		assertEquals("c", res.get(2).get("tenant"));
+		assertNull(res.get(3).get("tenant"));
+		
+		assertEquals(0, new BigDecimal(3).compareTo((BigDecimal) res.get(0).get("count(*)")));
+		assertEquals(0, new BigDecimal(6).compareTo((BigDecimal) res.get(0).get("sum(price)")));
+		assertEquals(res.get(0).get("sum(price)"), res.get(0).get("sum_price"));
+		assertEquals(0, new BigDecimal(30).compareTo((BigDecimal) res.get(1).get("sum_price")));
+		assertEquals(0, new BigDecimal(1000).compareTo((BigDecimal) res.get(3).get("sum_price")));
+		
+		// Empty data set has no groups
+		assertEquals(0, Aggregation.build(new String[] { "count(*)" }).groupBy("tenant")
+			.compute(new ArrayList<Object>()).size());
+	}
+	
+	@Test
+	public void multiFieldGroupTest() {
+		List<Map<String, Object>> res = Aggregation.build(new String[] { "count(*)", "max(price)" })
+			.groupBy("tenant", "status").orderBy("tenant ASC, status ASC").compute(dataSet);
+		assertEquals(6, res.size());
+		
+		// Null is ordered first
+		assertNull(res.get(0).get("tenant"));
+		assertEquals("a", res.get(1).get("tenant"));
+		assertEquals("closed", res.get(1).get("status"));
+		assertEquals("a", res.get(2).get("tenant"));
+		assertEquals("open", res.get(2).get("status"));
+		assertEquals(0, new BigDecimal(2).compareTo((BigDecimal) res.get(2).get("count_all")));
+		assertEquals(0, new BigDecimal(3).compareTo((BigDecimal) res.get(2).get("max_price")));
+	}
+	
+	@Test
+	public void havingAndOrderByTest() {
+		List<Map<String, Object>> res = Aggregation.build(new String[] { "count(*)", "sum(price)" })
+			.groupBy("tenant").having("count_all >= ?", new Object[] { 2 })
+			.orderBy("sum_price DESC").compute(dataSet);
+		assertEquals(2, res.size());
+		assertEquals("b", res.get(0).get("tenant"));
+		assertEquals("a", res.get(1).get("tenant"));
+		
+		// Equivalent to a seperate aggregation of each group
+		for (Map<String, Object> row : res) {
+			BigDecimal[] expected = Query.build("tenant = ?", new Object[] { row.get("tenant") })
+				.aggregation(dataSet, new String[] { "count(*)", "sum(price)" });
+			assertEquals(0, expected[0].compareTo((BigDecimal) row.get("count_all")));
+			assertEquals(0, expected[1].compareTo((BigDecimal) row.get("sum_price")));
+		}
+	}
+	
+	@Test
+	public void queryMapCollectionTest() {
+		IndexedQueryMapCollection<Map<String, Object>> collection = new IndexedQueryMapCollection<>();
+		for (Object row : dataSet) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> map = (Map<String, Object>) row;
+			collection.add(map);
+		}
+		
+		List<Map<String, Object>> res = collection.aggregate(new String[] { "sum(price)" },
+			new String[] { "status" }, "price < ?", new Object[] { 100 });
+		assertEquals(2, res.size());
+		assertEquals("open", res.get(0).get("status"));
+		assertEquals(0, new BigDecimal(14).compareTo((BigDecimal) res.get(0).get("sum_price")));
+		assertEquals("closed", res.get(1).get("status"));
+		assertEquals(0, new BigDecimal(22).compareTo((BigDecimal) res.get(1).get("sum_price")));
+		
+		res = collection.aggregate(new String[] { "count(*)" }, new String[] { "tenant", "status" },
+			null, Query.build("count_all > ?", new Object[] { 1 }), null);
+		assertEquals(1, res.size());
+		assertEquals(Arrays.asList("a", "open"), Arrays.asList(res.get(0).get("tenant"), res
+			.get(0).get("status")));
+	}
+	
+	@Test
+	public void parallelComputeTest() {
+		List<Object> largeSet = new ArrayList<Object>();
+		for (int i = 0; i < 20000; ++i) {
+			largeSet.add(row("tenant", "t" + (i % 37), "status", (i % 3 == 0) ? "open" : "closed",
+				"price", i % 1000));
+		}
+		Predicate<Object> filter = Query.build("price < ?", new Object[] { 700 }).compile();
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			GroupedAggregation grouped = Aggregation.build(new String[] { "count(*)", "sum(price)",
+				"max(price)" }).groupBy("tenant", "status");
+			List<Map<String, Object>> expected = grouped.compute(largeSet, filter);
+			List<Map<String, Object>> res = grouped.parallelCompute(largeSet, filter, 256, pool);
+			
+			// Groups are combined in the same first appearance order
+			assertEquals(74, expected.size());
+			assertEquals(expected, res);
+			assertEquals(grouped.compute(largeSet), grouped.parallelCompute(largeSet, null, 256,
+				pool));
+		} finally {
+			pool.shutdown();
+		}
+		
+		// Large collections are aggregated in parallel, with the same results
+		IndexedQueryMapCollection<Map<String, Object>> collection = new IndexedQueryMapCollection<>();
+		for (Object row : largeSet) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> map = (Map<String, Object>) row;
+			collection.add(map);
+		}
+		assertEquals(ForkJoinPool.commonPool().getParallelism() > 1, collection
+			.isParallelAggregation());
+		Query query = Query.build("price < ?", new Object[] { 700 });
+		List<Map<String, Object>> res = collection.aggregate(new String[] { "sum(price)" },
+			new String[] { "status" }, query, null, "sum_price DESC");
+		assertEquals(Aggregation.build(new String[] { "sum(price)" }).groupBy("status").orderBy(
+			"sum_price DESC").compute(largeSet, filter), res);
+		
+		BigDecimal[] sum = collection.aggregate(new String[] { "count(*)", "sum(price)" }, query);
+		BigDecimal[] expectedSum = Aggregation.build(new String[] { "count(*)", "sum(price)" })
+			.compute(largeSet, filter);
+		assertEquals(0, expectedSum[0].compareTo(sum[0]));
+		assertEquals(0, expectedSum[1].compareTo(sum[1]));
+	}
+	
+	/**
+	 * Collection with a custom query handler, which only returns the "open" rows
+	 **/
+	@SuppressWarnings("serial")
+	private static class OpenRowsCollection extends ArrayList<Map<String, Object>> implements
+		QueryMapCollection<Map<String, Object>> {
+		
+		int queryCount = 0;
+		
+		@Override
+		public List<Map<String, Object>> query(Query queryClause, String orderByStr, int offset,
+			int limit) {
+			++queryCount;
+			List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+			for (Map<String, Object> row : this) {
+				if ("open".equals(row.get("status"))) {
+					ret.add(row);
+				}
+			}
+			return ret;
+		}
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void customQueryHandler() {
+		OpenRowsCollection collection = new OpenRowsCollection();
+		for (Object row : dataSet) {
+			collection.add((Map<String, Object>) row);
+		}
+		
+		// Aggregation with a query, uses the custom query handler
+		Query query = Query.build("price > ?", new Object[] { 0 });
+		BigDecimal[] sum = collection.aggregate(new String[] { "sum(price)" }, query);
+		assertEquals(1, collection.queryCount);
+		assertEquals(0, new BigDecimal(1014).compareTo(sum[0]));
+		List<Map<String, Object>> res = collection.aggregate(new String[] { "count(*)" },
+			new String[] { "status" }, query, null, null);
+		assertEquals(2, collection.queryCount);
+		assertEquals(1, res.size());
+		assertEquals("open", res.get(0).get("status"));
+		
+		// Without a query, or with scanAggregate, the collection is scanned directly
+		sum = collection.aggregate(new String[] { "sum(price)" });
+		assertEquals(0, new BigDecimal(1136).compareTo(sum[0]));
+		sum = collection.scanAggregate(new String[] { "sum(price)" }, query);
+		assertEquals(0, new BigDecimal(1136).compareTo(sum[0]));
+		assertEquals(2, collection.queryCount);
+	}
+}
@@ -0,0 +1,247 @@
+package picoded.core.struct.query;
+
+import static org.junit.Assert.*;
+import static picoded.core.struct.query.QueryTestRows.row;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import picoded.core.struct.IndexedQueryMapCollection;
+import picoded.core.struct.query.mapreduce.Max;
+import picoded.core.struct.query.mapreduce.Min;
+import picoded.core.struct.query.mapreduce.Sum;
+
+public class MaterializedAggregation_test {
+	
+	static final String[] TERMS = new String[] { "count(id)", "count(*)", "sum(amount)",
+		"avg(amount)", "min(amount)", "max(amount)" };
+	
+	static void assertResultEquals(BigDecimal[] expected, BigDecimal[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; ++i) {
+			if (expected[i] == null) {
+				assertNull(TERMS[i], actual[i]);
+			} else {
+				assertEquals(TERMS[i] + " : " + expected[i] + " != " + actual[i], 0,
+					expected[i].subtract(actual[i]).abs().compareTo(new BigDecimal("0.000001")) < 0
+						? 0 : 1);
+			}
+		}
+	}
+	
+	@Test
+	public void unmapTest() {
+		Map<String, Object> row = new HashMap<String, Object>();
+		
+		// Sum is reset, once every value is unmapped
+		Sum sum = new Sum();
+		row.put("val", Long.MIN_VALUE);
+		sum.map(row, "val");
+		row.put("val", 2.5);
+		sum.map(row, "val");
+		assertTrue(sum.unmap(row, "val"));
+		assertEquals(0, BigDecimal.valueOf(Long.MIN_VALUE).compareTo(sum.reduce()));
+		row.put("val", Long.MIN_VALUE);
+		assertTrue(sum.unmap(row, "val"));
+		assertNull(sum.reduce());
+		
+		// Min / max can only unmap values which are not the current result
+		Min min = new Min();
+		Max max = new Max();
+		for (int i = 1; i <= 3; ++i) {
+			row.put("val", i);
+			min.map(row, "val");
+			max.map(row, "val");
+		}
+		row.put("val", 2);
+		assertTrue(min.unmap(row, "val"));
+		assertTrue(max.unmap(row, "val"));
+		row.put("val", 1);
+		assertFalse(min.unmap(row, "val"));
+		row.put("val", 3);
+		assertFalse(max.unmap(row, "val"));
+	}
+	
+	/**
+	 * Creates a row with a mixture of integral, double, and missing amounts
+	 **/
+	static Map<String, Object> randomRow(Random rand, int id) {
+		Object amount = null;
+		int type = rand.nextInt(3);
+		if (type == 0) {
+			amount = rand.nextInt(1000);
+		} else if (type == 1) {
+			amount = rand.nextDouble() * 100;
+		}
+		return row("id", "id-" + id, "status", (rand.nextBoolean() ? "open" : "closed"), "amount",
+			amount);
+	}
+	
+	/**
+	 * Finds the first row, of the given status, with the smallest / largest amount
+	 **/
+	static Map<String, Object> extremeRow(List<Map<String, Object>> rows, String status,
+		boolean largest) {
+		Map<String, Object> ret = null;
+		double extreme = 0;
+		for (Map<String, Object> row : rows) {
+			Object amount = row.get("amount");
+			if (!status.equals(row.get("status")) || amount == null) {
+				continue;
+			}
+			double val = ((Number) amount).doubleValue();
+			if (ret == null || (largest ? val > extreme : val < extreme)) {
+				ret = row;
+				extreme = val;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Removes the row from the collection, and asserts the views are still consistent
+	 **/
+	static void removeAndAssert(IndexedQueryMapCollection<Map<String, Object>> collection,
+		List<Map<String, Object>> added, Map<String, Object> row, MaterializedAggregation open,
+		MaterializedAggregation all) {
+		assertNotNull(row);
+		added.remove(row);
+		collection.remove(row);
+		assertResultEquals(collection.aggregate(TERMS, "status = ?", new Object[] { "open" }), open
+			.result());
+		assertResultEquals(collection.aggregate(TERMS), all.result());
+	}
+	
+	@Test
+	public void incrementalTest() {
+		IndexedQueryMapCollection<Map<String, Object>> collection = new IndexedQueryMapCollection<>();
+		collection.createHashIndex("status");
+		MaterializedAggregation open = collection.createMaterializedAggregation(TERMS,
+			"status = ?", new Object[] { "open" });
+		MaterializedAggregation all = collection.createMaterializedAggregation(TERMS, null, null);
+		assertResultEquals(collection.aggregate(TERMS, "status = ?", new Object[] { "open" }), open
+			.result());
+		
+		Random rand = new Random(3);
+		List<Map<String, Object>> added = new ArrayList<Map<String, Object>>();
+		int id = 0;
+		for (; id < 400; ++id) {
+			Map<String, Object> row = randomRow(rand, id);
+			collection.add(row);
+			added.add(row);
+		}
+		
+		for (int cycle = 0; cycle < 40; ++cycle) {
+			// Removing the current max, and then the new max (twice in a row)
+			removeAndAssert(collection, added, extremeRow(added, "open", true), open, all);
+			removeAndAssert(collection, added, extremeRow(added, "open", true), open, all);
+			
+			// Removing the current min, and then the new min (twice in a row)
+			removeAndAssert(collection, added, extremeRow(added, "open", false), open, all);
+			removeAndAssert(collection, added, extremeRow(added, "open", false), open, all);
+			
+			// Removing the extremes, which do not match the where clause
+			removeAndAssert(collection, added, extremeRow(added, "closed", true), open, all);
+			removeAndAssert(collection, added, extremeRow(added, "closed", false), open, all);
+			
+			// Adding new rows, which may become the new extremes
+			for (int i = 0; i < 4; ++i, ++id) {
+				Map<String, Object> row = randomRow(rand, id);
+				collection.add(row);
+				added.add(row);
+			}
+		}
+		
+		// Removing everything, is consistent with an empty data set
+		for (Map<String, Object> row : added) {
+			collection.remove(row);
+		}
+		assertEquals(0, open.matchCount());
+		for (BigDecimal val : open.result()) {
+			assertEquals(BigDecimal.ZERO, val);
+		}
+	}
+	
+	@Test
+	public void staleAndClearTest() {
+		IndexedQueryMapCollection<Map<String, Object>> collection = new IndexedQueryMapCollection<>();
+		Map<String, Object> low = row("id", "id-1", "status", "open", "amount", 1);
+		Map<String, Object> high = row("id", "id-2", "status", "open", "amount", 10);
+		collection.add(low);
+		collection.add(high);
+		MaterializedAggregation view = collection.createMaterializedAggregation(TERMS,
+			"status = ?", new Object[] { "open" });
+		assertFalse(view.isStale());
+		
+		// Removing the max value, is replaced from its extreme values buffer
+		collection.remove(high);
+		assertFalse(view.isStale());
+		assertEquals(1, view.result()[5].intValue());
+		
+		// Modified maps are recomputed after reindex
+		low.put("status", "closed");
+		collection.reindex(low);
+		assertTrue(view.isStale());
+		assertEquals(0, view.matchCount());
+		
+		// Cleared, and dropped views
+		collection.add(high);
+		assertEquals(1, view.matchCount());
+		collection.clear();
+		assertEquals(0, view.matchCount());
+		assertTrue(collection.dropMaterializedAggregation(view));
+		collection.add(high);
+		assertEquals(0, view.matchCount());
+	}
+	
+	@Test
+	public void boundedRecomputeTest() {
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		int[] scans = new int[] { 0 };
+		MaterializedAggregation view = new MaterializedAggregation(new String[] { "min(amount)",
+			"max(amount)", "sum(amount)" }, null, (consumer) -> {
+			++scans[0];
+			rows.forEach(consumer);
+		});
+		assertEquals(0, view.result()[0].intValue());
+		assertEquals(1, scans[0]);
+		
+		int bufferSize = MaterializedAggregation.EXTREME_BUFFER_SIZE;
+		int size = bufferSize * 2 + 8;
+		for (int i = 0; i < size; ++i) {
+			rows.add(row("id", "id-" + i, "status", "open", "amount", i));
+			view.add(rows.get(i));
+		}
+		
+		// Removing the current min / max, without a recompute
+		for (int i = 0; i < 2; ++i) {
+			view.remove(rows.remove(0));
+			view.remove(rows.remove(rows.size() - 1));
+		}
+		assertFalse(view.isStale());
+		BigDecimal[] res = view.result();
+		assertEquals(2, res[0].intValue());
+		assertEquals(size - 3, res[1].intValue());
+		assertEquals(1, scans[0]);
+		
+		// Exhausting the min buffer, only recomputes the min term
+		Object maxBuffer = view.extremeBuffers[1];
+		while (((Number) rows.get(0).get("amount")).intValue() < bufferSize) {
+			view.remove(rows.remove(0));
+		}
+		assertTrue(view.isStale());
+		res = view.result();
+		assertEquals(2, scans[0]);
+		assertSame(maxBuffer, view.extremeBuffers[1]);
+		assertEquals(bufferSize, res[0].intValue());
+		assertEquals(size - 3, res[1].intValue());
+		assertResultEquals(Aggregation.build(new String[] { "min(amount)", "max(amount)",
+			"sum(amount)" }).compute(new ArrayList<Object>(rows)), res);
+	}
+}
@@ -7,9 +7,11 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
@@ -144,4 +146,33 @@ public class OrderBy_test {
 		assertFalse(orderBy.replaceKeyName("left1", "right"));
 	}
 	
+	@Test
+	public void decoratedSortTest() {
+		// Mixed type values, including nulls and numeric strings
+		Object[] values = new Object[] { null, 1, 2.5, "3", "abc", "Abc", "10", -4L, "", true, "5x" };
+		Random rand = new Random(7);
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 2000; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("a", values[rand.nextInt(values.length)]);
+			row.put("b", rand.nextInt(5));
+			if (rand.nextBoolean()) {
+				row.put("c", "name-" + rand.nextInt(100));
+			}
+			list.add(row);
+		}
+		
+		String[] orderBys = new String[] { "b", "b DESC, c", "c DESC", "b, a", "b, c, a DESC" };
+		for (String orderByStr : orderBys) {
+			OrderBy<Map<String, Object>> sorter = new OrderBy<Map<String, Object>>(orderByStr);
+			List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>(list);
+			Collections.sort(expected, sorter);
+			List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(list);
+			sorter.sort(result);
+			for (int i = 0; i < expected.size(); ++i) {
+				assertTrue(orderByStr + " @ " + i, expected.get(i) == result.get(i));
+			}
+		}
+	}
+	
 }
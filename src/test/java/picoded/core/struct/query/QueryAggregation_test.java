@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import org.junit.Before;
 import org.junit.Test;
 
+import picoded.core.struct.query.Aggregation;
 import picoded.core.struct.query.Query;
 
 import java.math.BigDecimal;
@@ -224,6 +225,57 @@ public class QueryAggregation_test {
 		assertEquals(4.5, res.doubleValue(), 0.0);
 	}
 	
+	//------------------------------------------
+	//
+	// FUSED SEARCH AND AGGREGATION
+	//
+	//------------------------------------------
+	
+	@Test
+	public void testFusedCollectionTypes() {
+		String[] terms = new String[] { "count(*)", "sum(intVal)", "max(doubleVal)" };
+		List<Object> bobList = new ArrayList<Object>(queryBob.search(fullDataSet));
+		BigDecimal[] expected = Aggregation.build(terms).compute(bobList);
+		
+		// Map, collection, iterable, and array inputs
+		Map<String, Object> dataMap = new HashMap<String, Object>();
+		for (int i = 0; i < fullDataSet.size(); ++i) {
+			dataMap.put("row-" + i, fullDataSet.get(i));
+		}
+		Iterable<Map<String, Object>> iterable = () -> fullDataSet.iterator();
+		Object[] inputs = new Object[] { dataMap, fullDataSet, iterable, fullDataSet.toArray() };
+		for (Object input : inputs) {
+			BigDecimal[] res = queryBob.aggregation(input, terms);
+			for (int i = 0; i < terms.length; ++i) {
+				assertEquals(0, expected[i].compareTo(res[i]));
+			}
+		}
+		
+		// No match, is consistent with an empty data set
+		BigDecimal[] none = Query.build("name = ?", new Object[] { "none" }).aggregation(
+			fullDataSet, terms);
+		for (BigDecimal val : none) {
+			assertEquals(BigDecimal.ZERO, val);
+		}
+	}
+	
+	@Test
+	public void testFusedFilterCompute() {
+		Aggregation agg = Aggregation.build(new String[] { "count(*)", "avg(intVal)" });
+		BigDecimal[] res = agg.compute(fullDataSet, (row) -> ((Map<?, ?>) row).get("name")
+			.equals("tom"));
+		assertEquals(5, res[0].intValue());
+		assertEquals(7, res[1].intValue());
+		
+		res = agg.compute(fullDataSet, null);
+		assertEquals(10, res[0].intValue());
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void testUnsupportedCollectionType() {
+		queryAll.aggregation("not-a-collection", new String[] { "count(*)" });
+	}
+	
 	/*
 	//------------------------------------------
 	//
@@ -0,0 +1,128 @@
+package picoded.core.struct.query;
+
+import static org.junit.Assert.*;
+import static picoded.core.struct.query.QueryTestRows.row;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QueryMatcher_test {
+	
+	@Test
+	public void basicMatch() {
+		QueryMatcher matcher = new QueryMatcher();
+		matcher.register("order", "type = ?", new Object[] { "order" });
+		matcher.register("bigOrder", "type = ? AND amount > ?", new Object[] { "order", 100 });
+		matcher.register("small", "amount <= ?", new Object[] { 10 });
+		matcher.register("paris", "address.city = ? OR type = ?", new Object[] { "Paris", "vip" });
+		matcher.register("notOrder", "NOT(type = ?)", new Object[] { "order" });
+		matcher.register("numericString", "amount >= ?", new Object[] { "50" });
+		assertEquals(6, matcher.size());
+		assertEquals(1, matcher.unanchoredCount());
+		
+		assertEquals(Arrays.asList("order", "bigOrder", "numericString"), matcher.match(
+			row("type", "order", "amount", 150, "address", row("city", "London"))));
+		assertEquals(Arrays.asList("order", "small"), matcher.match(
+			row("type", "order", "amount", "5", "address", row("city", "London"))));
+		assertEquals(Arrays.asList("paris", "notOrder"), matcher.match(
+			row("type", "refund", "address", row("city", "Paris"))));
+		assertEquals(Arrays.asList("notOrder"), matcher.match("not a map"));
+		
+		// Replace, and unregister queries
+		matcher.register("order", "type = ?", new Object[] { "refund" });
+		assertTrue(matcher.unregister("paris"));
+		assertFalse(matcher.unregister("paris"));
+		Map<String, Object> refund = row("type", "refund", "address", row("city", "Paris"));
+		assertEquals(Arrays.asList("order", "notOrder"), matcher.match(refund));
+		matcher.clear();
+		assertEquals(0, matcher.match(refund).size());
+	}
+	
+	@Test
+	public void sharedConditions() {
+		QueryMatcher matcher = new QueryMatcher();
+		for (int i = 0; i < 100; ++i) {
+			matcher.register("q" + i, "type = ? AND (amount > ? OR address.city = ?)",
+				new Object[] { "order", i % 10, "Paris" });
+		}
+		// type, city, 10 distinct amount thresholds, 10 ORs, and 10 ANDs
+		assertEquals(32, matcher.conditionCount());
+		assertEquals(0, matcher.unanchoredCount());
+		assertEquals(60, matcher.match(
+			row("type", "order", "amount", 6, "address", row("city", "London"))).size());
+		assertEquals(100, matcher.match(
+			row("type", "order", "amount", 0, "address", row("city", "Paris"))).size());
+		assertEquals(0, matcher.match(
+			row("type", "refund", "amount", 50, "address", row("city", "Paris"))).size());
+	}
+	
+	@Test
+	public void randomizedConsistency() {
+		Random rand = new Random(5);
+		String[] types = new String[] { "a", "b", "c", "d" };
+		String[] cities = new String[] { "Paris", "London", "Tokyo" };
+		String[] templates = new String[] { "type = ?", "amount > ?", "amount >= ?", "amount < ?",
+			"amount <= ?", "type = ? AND amount > ?", "type != ? AND amount < ?",
+			"type = ? OR address.city = ?", "NOT(type = ? OR amount > ?)", "address.city LIKE ?",
+			"(type = ? AND amount <= ?) OR (address.city = ? AND amount >= ?)", "amount = ?",
+			"type IN ? AND amount > ?", "amount IN (?)", "type NOT IN ? OR amount = ?" };
+		
+		Map<String, Query> queries = new LinkedHashMap<String, Query>();
+		QueryMatcher matcher = new QueryMatcher();
+		for (int i = 0; i < 2000; ++i) {
+			String template = templates[rand.nextInt(templates.length)];
+			List<Object> args = new ArrayList<Object>();
+			String[] parts = template.split("\\?", -1);
+			for (int p = 0; p < parts.length - 1; ++p) {
+				if (parts[p].endsWith("IN ") || parts[p].endsWith("IN (")) {
+					List<Object> values = new ArrayList<Object>();
+					for (int v = rand.nextInt(4); v > 0; --v) {
+						values.add(parts[p].contains("type") ? (Object) types[rand
+							.nextInt(types.length)] : (Object) rand.nextInt(100));
+					}
+					args.add(values);
+				} else if (parts[p].contains("type")) {
+					args.add(types[rand.nextInt(types.length)]);
+				} else if (parts[p].contains("city")) {
+					args.add(parts[p].contains("LIKE") ? "%o%" : cities[rand.nextInt(cities.length)]);
+				} else {
+					int num = rand.nextInt(100);
+					args.add(rand.nextBoolean() ? (Object) num : (Object) String.valueOf(num));
+				}
+			}
+			Query query = Query.build(template, args.toArray());
+			queries.put("q" + i, query);
+			matcher.register("q" + i, query);
+		}
+		assertTrue(matcher.conditionCount() < 4000);
+		
+		for (int r = 0; r < 300; ++r) {
+			Object amount = null;
+			int amountType = rand.nextInt(4);
+			if (amountType == 0) {
+				amount = rand.nextInt(100);
+			} else if (amountType == 1) {
+				amount = rand.nextDouble() * 100;
+			} else if (amountType == 2) {
+				amount = "" + rand.nextInt(100);
+			}
+			Map<String, Object> record = row("type", types[rand.nextInt(types.length)], "amount",
+				amount, "address", row("city", cities[rand.nextInt(cities.length)]));
+			
+			List<String> expected = new ArrayList<String>();
+			for (Map.Entry<String, Query> entry : queries.entrySet()) {
+				if (entry.getValue().test(record)) {
+					expected.add(entry.getKey());
+				}
+			}
+			assertEquals(record.toString(), expected, matcher.match(record));
+		}
+	}
+}
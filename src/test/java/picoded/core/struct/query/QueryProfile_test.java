@@ -0,0 +1,105 @@
+package picoded.core.struct.query;
+
+import static org.junit.Assert.*;
+import static picoded.core.struct.query.QueryTestRows.sampleList;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import picoded.core.struct.IndexedQueryMapCollection;
+
+public class QueryProfile_test {
+	
+	@Test
+	public void profiledSearch() {
+		List<Map<String, Object>> list = sampleList(200);
+		QueryProfile profile = QueryProfile.build("num > ? AND (status = ? OR name LIKE ?)",
+			new Object[] { 50, "active", "%-9" });
+		assertTrue(profile.parseNanos() > 0);
+		
+		List<Map<String, Object>> result = profile.search(list);
+		assertEquals(profile.query().search(list), result);
+		assertEquals("full scan", profile.indexPath());
+		assertEquals(200, profile.rowsScanned());
+		assertEquals(result.size(), profile.rowsMatched());
+		assertEquals(result.size(), profile.rowsReturned());
+		
+		// Every row is evaluated by the root, and its first child
+		QueryProfile.Node root = profile.root();
+		assertEquals("AND", root.label());
+		assertEquals(200, root.evaluated());
+		assertEquals(result.size(), root.passed());
+		assertEquals(2, root.children().size());
+		assertEquals(200, root.children().get(0).evaluated());
+		
+		// The child evaluations are the sum of each child, with early termination
+		long evaluations = 0;
+		for (QueryProfile.Node child : root.children()) {
+			evaluations += child.evaluated();
+		}
+		assertTrue(evaluations < 400);
+		
+		String explain = profile.explain();
+		assertTrue(explain, explain.contains("200 rows scanned"));
+		assertTrue(explain, explain.contains("\"num\" > :0 : "));
+		assertTrue(explain, explain.contains("    OR : "));
+	}
+	
+	@Test
+	public void sortAndOffset() {
+		List<Map<String, Object>> list = sampleList(100);
+		QueryProfile profile = Query.build("num >= ?", new Object[] { 20 }).profile();
+		assertEquals(0, profile.parseNanos());
+		List<Map<String, Object>> result = profile.sortAndOffset(profile.search(list), "num DESC",
+			5, 10);
+		assertEquals(10, result.size());
+		assertEquals(94, result.get(0).get("num"));
+		assertEquals(80, profile.rowsMatched());
+		assertEquals(10, profile.rowsReturned());
+		assertTrue(profile.explain().contains("10 rows returned"));
+	}
+	
+	@Test
+	public void alwaysFalse() {
+		QueryProfile profile = QueryProfile.build("num < ? AND num > ?", new Object[] { 3, 9 });
+		assertTrue(profile.explain().contains("not searched"));
+		assertEquals(0, profile.search(sampleList(100)).size());
+		assertNull(profile.root());
+		assertEquals(0, profile.rowsScanned());
+		assertTrue(profile.explain().contains("FALSE : the query always fails"));
+	}
+	
+	@Test
+	public void indexPath() {
+		IndexedQueryMapCollection<Map<String, Object>> collection = new IndexedQueryMapCollection<>(
+			sampleList(200));
+		collection.createHashIndex("status");
+		
+		// Hash index lookup, with only the candidate rows tested
+		QueryProfile profile = QueryProfile.build("status = ? AND num < ?", new Object[] {
+			"active", 50 });
+		List<Map<String, Object>> result = collection.profileQuery(profile, "num", 0, 3);
+		assertEquals(collection.query(profile.query(), "num", 0, 3), result);
+		assertEquals("HashFieldIndex \"status\" = :0, 20 candidate rows", profile.indexPath());
+		assertEquals(20, profile.rowsScanned());
+		assertEquals(20, profile.root().evaluated());
+		assertEquals(10, profile.rowsMatched());
+		assertEquals(3, profile.rowsReturned());
+		
+		// Full scan, without a usable index
+		profile = QueryProfile.build("num < ? OR status = ?", new Object[] { 5, "active" });
+		result = collection.profileQuery(profile, null, -1, -1);
+		assertEquals(collection.query(profile.query(), null, -1, -1), result);
+		assertEquals("full scan", profile.indexPath());
+		assertEquals(200, profile.rowsScanned());
+		
+		// Exact bitmap index result, without testing any row
+		collection.createBitmapIndex("status");
+		profile = QueryProfile.build("status = ?", new Object[] { "active" });
+		assertEquals(20, collection.profileQuery(profile, null, -1, -1).size());
+		assertEquals("BitmapFieldIndex exact result, 20 rows", profile.indexPath());
+		assertEquals(0, profile.rowsScanned());
+	}
+}
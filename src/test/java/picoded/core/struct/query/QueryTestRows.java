@@ -0,0 +1,54 @@
+package picoded.core.struct.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared row fixtures, for the query and aggregation test cases
+ **/
+public class QueryTestRows {
+	
+	protected QueryTestRows() {
+		throw new IllegalAccessError("Utility class");
+	}
+	
+	/**
+	 * Builds a single row, from its key and value pairs, where null values are left out
+	 *
+	 * @param  keyValues pairs, of the field name and its value
+	 *
+	 * @return  the row map
+	 **/
+	public static Map<String, Object> row(Object... keyValues) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		for (int i = 0; i + 1 < keyValues.length; i += 2) {
+			if (keyValues[i + 1] != null) {
+				ret.put(keyValues[i].toString(), keyValues[i + 1]);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Sample list of rows, where for the i-th row
+	 *
+	 * + status is "active" for every 10th row, else "inactive"
+	 * + name is "name-i"
+	 * + num is (i % 100)
+	 * + str is the string of (i % 50)
+	 *
+	 * @param  size of the list
+	 *
+	 * @return  the list of rows
+	 **/
+	public static List<Map<String, Object>> sampleList(int size) {
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < size; ++i) {
+			ret.add(row("status", (i % 10 == 0) ? "active" : "inactive", "name", "name-" + i,
+				"num", i % 100, "str", "" + (i % 50)));
+		}
+		return ret;
+	}
+}
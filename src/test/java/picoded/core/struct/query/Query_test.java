@@ -5,12 +5,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 // Test Case include
 import org.junit.Before;
@@ -19,6 +24,7 @@ import org.junit.Test;
 
 import picoded.core.struct.ArrayListMap;
 import picoded.core.struct.ProxyGenericConvertMap;
+import picoded.core.struct.query.condition.And;
 
 ///
 /// Test Case for picoded.core.struct.query.condition.*
@@ -117,4 +123,158 @@ public class Query_test {
 	public void keyValuesMapTest() {
 		assertNotNull(Query.build("my = ?").keyValuesMap());
 	}
+	
+	//
+	// Query binding
+	//--------------------------------------------------------------------
+	
+	@Test
+	public void bindTest() {
+		Query queryObj = Query.build("num > ? AND name LIKE ? OR name = ?", new Object[] { "10",
+			"%ob", "alice" });
+		Query boundObj = queryObj.bind();
+		assertNotSame(queryObj, boundObj);
+		assertEquals(queryObj.toString(), boundObj.toString());
+		
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		String[] names = new String[] { "alice", "bob", "rob", "eve", null };
+		for (int i = 0; i < 25; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("num", (i % 2 == 0) ? (Object) i : (Object) String.valueOf(i));
+			row.put("name", names[i % names.length]);
+			list.add(row);
+		}
+		
+		// Bound query must match the unbound query, for every row
+		for (Map<String, Object> row : list) {
+			assertEquals(queryObj.test(row), boundObj.test(row));
+		}
+		assertEquals(queryObj.search(list).size(), boundObj.search(list).size());
+	}
+	
+	@Test
+	public void bindWithArgumentMapTest() {
+		Query queryObj = Query.build("num >= :min");
+		Map<String, Object> argMap = new HashMap<String, Object>();
+		argMap.put("min", 5);
+		
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("num", 7);
+		
+		Query boundObj = queryObj.bind(argMap);
+		assertTrue(boundObj.test(row));
+		
+		// Binding resolves the argument once, later changes are not reflected
+		argMap.put("min", 10);
+		assertTrue(boundObj.test(row));
+		
+		// While testing with another argument map, resolves it as per normal
+		assertFalse(boundObj.test(row, new HashMap<String, Object>(argMap)));
+		assertFalse(queryObj.bind(argMap).test(row));
+	}
+	
+	@Test
+	public void bindWithCustomQueryTest() {
+		// Custom query, without duplication support
+		Query custom = new Query() {
+			@Override
+			public boolean test(Object t) {
+				return t instanceof Map && ((Map<?, ?>) t).containsKey("num");
+			}
+			
+			@Override
+			public boolean test(Object t, Map<String, Object> argMap) {
+				return test(t);
+			}
+			
+			@Override
+			public QueryType type() {
+				return QueryType.EQUALS;
+			}
+			
+			@Override
+			public String operatorSymbol() {
+				return "HAS";
+			}
+			
+			@Override
+			public Map<String, List<Object>> keyValuesMap(Map<String, List<Object>> mapToReturn) {
+				return mapToReturn;
+			}
+		};
+		assertSame(custom, custom.bind());
+		assertSame(custom, custom.duplicate(new HashMap<String, Object>()));
+		
+		// Within a combination, it is kept as is, when binding
+		Map<String, Object> argMap = new HashMap<String, Object>();
+		argMap.put("min", 5);
+		Query queryObj = new And(custom, Query.build("num > :min", argMap), argMap);
+		Query boundObj = queryObj.bind();
+		assertNotSame(queryObj, boundObj);
+		assertSame(custom, boundObj.childrenQuery().get(0));
+		
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("num", 7);
+		assertTrue(boundObj.test(row));
+		assertFalse(boundObj.test(new HashMap<String, Object>()));
+	}
+	
+	//
+	// Query compilation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Generates a list of maps, with mixed value types for the "num" and "name" fields
+	 **/
+	protected List<Map<String, Object>> mixedTypeList(int size) {
+		Object[] nums = new Object[] { 1, 5L, 5.0, "5", "10", "-2.5", 20.5f, "abc", null, true };
+		String[] names = new String[] { "alice", "bob", "Rob", "eve", "5", null };
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < size; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("num", nums[i % nums.length]);
+			row.put("name", names[(i / 3) % names.length]);
+			if (i % 7 != 0) {
+				row.put("idx", i);
+			}
+			list.add(row);
+		}
+		return list;
+	}
+	
+	@Test
+	public void compileEquivalenceTest() {
+		String[] queries = new String[] { "num = ?", "num != ?", "num < ?", "num <= ?", "num > ?",
+			"num >= ?", "name = ?", "name != ?", "name < ?", "name >= ?", "name LIKE ?",
+			"name ILIKE ?", "_key = ?", "_val = ?", "idx > ? AND num < ?",
+			"idx > ? OR name LIKE ?", "NOT idx = ? AND num = ?", "( num > ? OR name = ? ) AND idx < ?" };
+		Object[] args = new Object[] { 5, "5", "abc", "-2.5", 5.0, null, "%o%", "r%", true };
+		List<Map<String, Object>> list = mixedTypeList(60);
+		
+		for (String query : queries) {
+			for (Object arg : args) {
+				int argCount = query.length() - query.replace("?", "").length();
+				Object[] argArr = new Object[argCount];
+				for (int i = 0; i < argCount; ++i) {
+					argArr[i] = (i == 0) ? arg : args[(i * 3) % args.length];
+				}
+				
+				Query queryObj = Query.build(query, argArr);
+				Predicate<Object> compiled = queryObj.compile();
+				for (Map<String, Object> row : list) {
+					assertEquals(query + " : " + arg + " : " + row, queryObj.test(row),
+						compiled.test(row));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void compileNonMapTest() {
+		Query queryObj = Query.build("this > ?", new Object[] { 3 });
+		assertTrue(queryObj.compile().test(5));
+		assertFalse(queryObj.compile().test(1));
+		assertFalse(Query.build("_key = ?", new Object[] { "a" }).compile().test("a"));
+		assertEquals(2, queryObj.search(Arrays.asList(1, 2, 3, 4, 5)).size());
+	}
 }
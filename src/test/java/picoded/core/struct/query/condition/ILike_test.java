@@ -0,0 +1,78 @@
+package picoded.core.struct.query.condition;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryType;
+
+public class ILike_test {
+	
+	private ILike like = null;
+	
+	@Before
+	public void setUp() {
+		
+	}
+	
+	@After
+	public void tearDown() {
+		
+	}
+	
+	@Test
+	public void blankTest() {
+		assertNull(like);
+	}
+	
+	@Test
+	public void typeTest() {
+		like = construct();
+		assertEquals(QueryType.ILIKE, like.type());
+	}
+	
+	@Test
+	public void testValuesTest() {
+		like = construct();
+		assertFalse(like.testValues(null, null));
+	}
+	
+	@Test
+	public void caseInsensitiveTest() {
+		like = construct();
+		assertTrue(like.testValues("Hello World", "hello%"));
+		assertTrue(like.testValues("Hello World", "%WORLD"));
+		assertFalse(like.testValues("Hello World", "%planet%"));
+	}
+	
+	@Test
+	public void queryBuildTest() {
+		Map<String, Object> sample = new HashMap<>();
+		sample.put("key", "Hello World");
+		assertTrue(Query.build("key ILIKE ?", new Object[] { "%world" }).test(sample));
+		assertFalse(Query.build("key LIKE ?", new Object[] { "%world" }).test(sample));
+	}
+	
+	@Test
+	public void operatorSymbolTest() {
+		like = construct();
+		assertEquals("ILIKE", like.operatorSymbol());
+	}
+	
+	private ILike construct() {
+		Map<String, Object> defaultArgMap = new HashMap<>();
+		return new ILike("key", "myKey", defaultArgMap);
+	}
+}
@@ -0,0 +1,156 @@
+package picoded.core.struct.query.condition;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryType;
+import picoded.core.struct.query.internal.InArgument;
+
+public class In_test {
+	
+	static final Object[] VALUES = new Object[] { 1, 1L, 1.0, "1", "1.0", 2.5, "2.5", "abc", "ABC",
+		"abc ", null, true, "true", -0.0, 0, "0", Double.NaN, "NaN", 42, "42" };
+	
+	/**
+	 * Builds the equivalent "field = ? OR field = ? ..." query, of the set values
+	 **/
+	private Query equalsChain(String field, List<Object> values) {
+		StringBuilder where = new StringBuilder();
+		for (int i = 0; i < values.size(); ++i) {
+			where.append((i > 0) ? " OR " : "").append(field).append(" = ?");
+		}
+		return Query.build(where.toString(), values.toArray());
+	}
+	
+	@Test
+	public void typeAndSymbol() {
+		Map<String, Object> defaultArgMap = new HashMap<>();
+		In in = new In("key", "myKey", defaultArgMap);
+		assertEquals(QueryType.IN, in.type());
+		assertEquals("IN", in.operatorSymbol());
+		
+		NotIn notIn = new NotIn("key", "myKey", defaultArgMap);
+		assertEquals(QueryType.NOT_IN, notIn.type());
+		assertEquals("NOT IN", notIn.operatorSymbol());
+		assertEquals(QueryType.NOT_IN, QueryType.fromName("not_in"));
+	}
+	
+	@Test
+	public void parsing() {
+		List<Object> values = Arrays.asList("a", "b");
+		assertEquals("\"key\" IN :0", Query.build("key IN ?", new Object[] { values }).toString());
+		assertEquals("\"key\" IN :0", Query.build("key IN (?)", new Object[] { values })
+			.toString());
+		assertEquals("\"key\" NOT IN :0", Query.build("key NOT IN ?", new Object[] { values })
+			.toString());
+		assertEquals("\"a\" = :0 AND \"key\" NOT IN :1", Query.build("a = ? AND key NOT IN (?)",
+			new Object[] { 1, values }).toString());
+		Query not = Query.build("NOT key IN ?", new Object[] { values });
+		assertEquals(QueryType.NOT, not.type());
+		assertEquals(QueryType.IN, not.childrenQuery().get(0).type());
+		
+		// Round trip, with the named argument
+		Map<String, Object> argMap = new HashMap<String, Object>();
+		argMap.put("list", values);
+		Query query = Query.build("key NOT IN :list AND b IN :list", argMap);
+		assertEquals(query.toString(), Query.build(query.toString(), argMap).toString());
+	}
+	
+	@Test
+	public void sqlStringExpansion() {
+		Query query = Query.build("a = ? AND (key IN ? OR b NOT IN ?)", new Object[] { 1,
+			Arrays.asList("x", "y", "z"), new int[] { 5 } });
+		assertEquals("\"a\" = ? AND (\"key\" IN (?, ?, ?) OR \"b\" NOT IN (?))", query
+			.toSqlString());
+		assertEquals(Arrays.asList(1, "x", "y", "z", 5), query.queryArgumentsList());
+		assertEquals(Arrays.asList("x", "y", "z"), query.keyValuesMap().get("key"));
+	}
+	
+	@Test
+	public void argumentTypes() {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("key", "b");
+		assertTrue(Query.build("key IN ?", new Object[] { Arrays.asList("a", "b") }).test(row));
+		assertTrue(Query.build("key IN ?", new Object[] { new String[] { "b" } }).test(row));
+		assertTrue(Query.build("key IN ?", new Object[] { "b" }).test(row));
+		assertFalse(Query.build("key IN ?", new Object[] { null }).test(row));
+		assertTrue(Query.build("key NOT IN ?", new Object[] { null }).test(row));
+		
+		row.put("key", 3);
+		assertTrue(Query.build("key IN ?", new Object[] { new int[] { 1, 3 } }).test(row));
+		assertFalse(Query.build("key IN ?", new Object[] { new long[] { 1, 2 } }).test(row));
+		
+		// Testing with another argument map
+		Map<String, Object> argMap = new HashMap<String, Object>();
+		argMap.put("0", Arrays.asList(3.0));
+		assertTrue(Query.build("key IN ?", new Object[] { Arrays.asList(1) }).test(row, argMap));
+	}
+	
+	@Test
+	public void sameAsEqualsChain() {
+		Random rand = new Random(3);
+		for (int round = 0; round < 300; ++round) {
+			List<Object> values = new ArrayList<Object>();
+			boolean numericOnly = rand.nextBoolean();
+			for (int i = rand.nextInt(6); i > 0; --i) {
+				Object val = VALUES[rand.nextInt(VALUES.length)];
+				if (numericOnly && !(val instanceof Number)) {
+					continue;
+				}
+				values.add(val);
+			}
+			
+			Query in = Query.build("key IN ?", new Object[] { values });
+			Query notIn = Query.build("key NOT IN ?", new Object[] { values });
+			Predicate<Object> compiledIn = in.compile();
+			Query expected = values.isEmpty() ? null : equalsChain("key", values);
+			
+			for (Object val : VALUES) {
+				Map<String, Object> row = new HashMap<String, Object>();
+				row.put("key", val);
+				boolean expectedResult = (expected != null) && expected.test(row);
+				String message = values + " " + val;
+				assertEquals(message, expectedResult, in.test(row));
+				assertEquals(message, expectedResult, compiledIn.test(row));
+				assertEquals(message, expectedResult, in.bind().test(row));
+				assertEquals(message, !expectedResult, notIn.test(row));
+				assertEquals(message, !expectedResult, notIn.compile().test(row));
+			}
+		}
+	}
+	
+	@Test
+	public void unboundArgumentSetReuse() {
+		Map<String, Object> argMap = new HashMap<>();
+		List<Object> values = Arrays.asList("a", "b");
+		argMap.put("myKey", values);
+		In in = new In("key", "myKey", argMap);
+		
+		// The membership set is only rebuilt, when the argument instance changes
+		assertTrue(in.test(Collections.singletonMap("key", "a")));
+		InArgument set = in._lastArgumentSet;
+		assertNotNull(set);
+		assertFalse(in.test(Collections.singletonMap("key", "c")));
+		assertSame(set, in._lastArgumentSet);
+		
+		argMap.put("myKey", Arrays.asList("c"));
+		assertTrue(in.test(Collections.singletonMap("key", "c")));
+		assertNotSame(set, in._lastArgumentSet);
+		
+		NotIn notIn = new NotIn("key", "myKey", argMap);
+		assertFalse(notIn.test(Collections.singletonMap("key", "c")));
+		assertTrue(notIn.test(Collections.singletonMap("key", "a")));
+		assertSame(notIn._lastArgumentSet, notIn.argumentSet(argMap.get("myKey")));
+	}
+}
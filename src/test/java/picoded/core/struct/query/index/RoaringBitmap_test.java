@@ -0,0 +1,90 @@
+package picoded.core.struct.query.index;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RoaringBitmap_test {
+	
+	/**
+	 * Asserts the bitmap has the same row ids, as the reference bit set
+	 **/
+	private void assertSameBits(BitSet expected, RoaringBitmap bitmap) {
+		assertEquals(expected.cardinality(), bitmap.cardinality());
+		assertArrayEquals(expected.stream().toArray(), bitmap.toArray());
+	}
+	
+	/**
+	 * Builds a random bitmap, with both sparse (array) and dense (bitmap) containers
+	 **/
+	private RoaringBitmap randomBitmap(Random rand, BitSet expected) {
+		RoaringBitmap ret = new RoaringBitmap();
+		for (int i = 0; i < 20000; ++i) {
+			int id = rand.nextBoolean() ? rand.nextInt(10000) : 65536 * 2 + rand.nextInt(200000);
+			ret.add(id);
+			expected.set(id);
+		}
+		return ret;
+	}
+	
+	@Test
+	public void addAndRemove() {
+		RoaringBitmap bitmap = RoaringBitmap.of(5, 1, 70000, 5, 3);
+		assertArrayEquals(new int[] { 1, 3, 5, 70000 }, bitmap.toArray());
+		assertTrue(bitmap.contains(70000));
+		assertTrue(bitmap.remove(70000));
+		assertFalse(bitmap.remove(70000));
+		assertFalse(bitmap.contains(70000));
+		assertEquals(3, bitmap.cardinality());
+		assertFalse(bitmap.contains(-1));
+		
+		// Converting to, and from a dense container
+		BitSet expected = new BitSet();
+		for (int i = 0; i < 10000; ++i) {
+			bitmap.add(i * 2);
+			expected.set(i * 2);
+		}
+		expected.set(1);
+		expected.set(3);
+		expected.set(5);
+		assertSameBits(expected, bitmap);
+		for (int i = 0; i < 10000; i += 2) {
+			bitmap.remove(i * 2);
+			expected.clear(i * 2);
+		}
+		assertSameBits(expected, bitmap);
+		assertTrue(bitmap.sizeInBytes() < 20000);
+	}
+	
+	@Test
+	public void andOrAndNot() {
+		Random rand = new Random(5);
+		for (int round = 0; round < 5; ++round) {
+			BitSet expectedA = new BitSet();
+			BitSet expectedB = new BitSet();
+			RoaringBitmap a = randomBitmap(rand, expectedA);
+			RoaringBitmap b = randomBitmap(rand, expectedB);
+			RoaringBitmap copyA = a.copy();
+			
+			BitSet and = (BitSet) expectedA.clone();
+			and.and(expectedB);
+			assertSameBits(and, a.and(b));
+			
+			BitSet or = (BitSet) expectedA.clone();
+			or.or(expectedB);
+			assertSameBits(or, a.or(b));
+			
+			BitSet andNot = (BitSet) expectedA.clone();
+			andNot.andNot(expectedB);
+			assertSameBits(andNot, a.andNot(b));
+			
+			// Operations do not modify the original bitmaps
+			assertSameBits(expectedA, a);
+			assertSameBits(expectedA, copyA);
+			assertTrue(a.andNot(a).isEmpty());
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package picoded.core.struct.query.index;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RowIdSet_test {
+	
+	@Test
+	public void addAndRemove() {
+		RowIdSet set = new RowIdSet();
+		set.add(5);
+		set.add(1);
+		set.add(9);
+		set.add(5);
+		set.add(3);
+		assertArrayEquals(new int[] { 1, 3, 5, 9 }, set.toArray());
+		assertTrue(set.contains(3));
+		assertTrue(set.remove(3));
+		assertFalse(set.remove(3));
+		assertFalse(set.contains(3));
+		assertEquals(3, set.size());
+		assertEquals(9, set.get(2));
+	}
+	
+	@Test
+	public void intersectAndUnion() {
+		RowIdSet a = RowIdSet.fromUnsorted(new int[] { 7, 1, 3, 3, 5 }, 5);
+		RowIdSet b = RowIdSet.fromUnsorted(new int[] { 5, 2, 3, 8 }, 4);
+		assertArrayEquals(new int[] { 1, 3, 5, 7 }, a.toArray());
+		assertArrayEquals(new int[] { 3, 5 }, a.intersect(b).toArray());
+		assertArrayEquals(new int[] { 1, 2, 3, 5, 7, 8 }, RowIdSet.union(Arrays.asList(a, b))
+			.toArray());
+		assertTrue(a.intersect(new RowIdSet()).isEmpty());
+	}
+}
@@ -0,0 +1,118 @@
+package picoded.core.struct.query.internal;
+
+import static org.junit.Assert.*;
+import static picoded.core.struct.query.QueryTestRows.row;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.OrderBy;
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryUtils;
+
+public class BoundedTopK_test {
+	
+	/**
+	 * Sample list of maps, with many duplicate sort values
+	 **/
+	protected List<Map<String, Object>> duplicateSortList(int size) {
+		Random rand = new Random(42);
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < size; ++i) {
+			ret.add(row("id", i, "num", rand.nextInt(50), "name", "name-" + rand.nextInt(20)));
+		}
+		return ret;
+	}
+	
+	/**
+	 * Full stable sort, then sublist, as the expected result
+	 **/
+	protected List<Map<String, Object>> fullSortPage(List<Map<String, Object>> list,
+		String orderBy, int offset, int limit) {
+		List<Map<String, Object>> sorted = new ArrayList<Map<String, Object>>(list);
+		Collections.sort(sorted, new OrderBy<Map<String, Object>>(orderBy));
+		int end = Math.min(offset + limit, sorted.size());
+		if (offset >= end) {
+			return new ArrayList<Map<String, Object>>();
+		}
+		return new ArrayList<Map<String, Object>>(sorted.subList(offset, end));
+	}
+	
+	@Test
+	public void stableSortEquivalenceTest() {
+		List<Map<String, Object>> list = duplicateSortList(2000);
+		String[] orderBys = new String[] { "num", "num DESC", "name ASC, num DESC", "name" };
+		int[][] pages = new int[][] { { 0, 1 }, { 0, 20 }, { 15, 20 }, { 1990, 20 }, { 0, 5000 },
+			{ 3000, 10 } };
+		
+		for (String orderBy : orderBys) {
+			for (int[] page : pages) {
+				BoundedTopK<Map<String, Object>> topK = new BoundedTopK<Map<String, Object>>(
+					new OrderBy<Map<String, Object>>(orderBy), page[0], page[1]);
+				for (Map<String, Object> row : list) {
+					topK.accept(row);
+				}
+				assertEquals(orderBy + " " + page[0] + "," + page[1],
+					fullSortPage(list, orderBy, page[0], page[1]), topK.toList());
+			}
+		}
+	}
+	
+	@Test
+	public void encounteredCountTest() {
+		BoundedTopK<Integer> topK = new BoundedTopK<Integer>((a, b) -> a - b, 0, 3);
+		for (int i = 10; i > 0; --i) {
+			topK.accept(i);
+		}
+		assertEquals(10, topK.encounteredCount());
+		assertEquals(Arrays.asList(1, 2, 3), topK.toList());
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void invalidLimitTest() {
+		new BoundedTopK<Integer>((a, b) -> a - b, 0, 0);
+	}
+	
+	@Test
+	public void sortAndOffsetListTest() {
+		List<Map<String, Object>> list = duplicateSortList(500);
+		List<Map<String, Object>> original = new ArrayList<Map<String, Object>>(list);
+		
+		// Pages with a limit, leaves the list unmodified
+		assertEquals(fullSortPage(original, "num DESC", 10, 20),
+			QueryUtils.sortAndOffsetList(list, "num DESC", 10, 20));
+		assertEquals(original, list);
+		
+		// Without a limit, the list is sorted in place
+		assertEquals(fullSortPage(original, "num DESC", 10, 500),
+			QueryUtils.sortAndOffsetList(list, "num DESC", 10, -1));
+		assertEquals(fullSortPage(original, "num DESC", 0, 500), list);
+	}
+	
+	@Test
+	public void searchSortAndOffsetTest() {
+		List<Map<String, Object>> list = duplicateSortList(5000);
+		Query query = Query.build("num < ?", new Object[] { 25 });
+		List<Map<String, Object>> matches = query.search(list);
+		
+		// Sorted page
+		assertEquals(fullSortPage(matches, "name DESC, num", 40, 20),
+			QueryUtils.searchSortAndOffset(query, list, "name DESC, num", 40, 20));
+		
+		// Unsorted page, with early termination
+		assertEquals(matches.subList(40, 60),
+			QueryUtils.searchSortAndOffset(query, list, null, 40, 20));
+		
+		// Without a query, and without a limit
+		assertEquals(fullSortPage(list, "num", 0, 10),
+			QueryUtils.searchSortAndOffset(null, list, "num", 0, 10));
+		assertEquals(fullSortPage(matches, "num", 100, matches.size()),
+			QueryUtils.searchSortAndOffset(query, list, "num", 100, -1));
+	}
+}
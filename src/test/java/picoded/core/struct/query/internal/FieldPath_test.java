@@ -0,0 +1,104 @@
+package picoded.core.struct.query.internal;
+
+// Target test class
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static picoded.core.struct.query.QueryTestRows.row;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Test Case include
+import org.junit.Test;
+
+import picoded.core.struct.IndexedQueryMapCollection;
+import picoded.core.struct.query.Aggregation;
+import picoded.core.struct.query.OrderBy;
+import picoded.core.struct.query.Query;
+
+///
+/// Test Case for picoded.core.struct.query.internal.FieldPath
+///
+public class FieldPath_test {
+	
+	@Test
+	public void parseAndGet() {
+		FieldPath path = FieldPath.of("address.city");
+		assertTrue(path.isNested());
+		assertEquals(2, path.segmentCount());
+		assertEquals("address", path.segment(0));
+		assertEquals("city", path.segment(1));
+		assertSame(path, FieldPath.of("address.city"));
+		
+		assertTrue(FieldPath.of("this").isSelf());
+		assertFalse(FieldPath.of("id").isNested());
+		assertEquals(3, new FieldPath("a[0].b").segmentCount());
+		
+		Map<String, Object> row = row("id", 1, "address", row("city", "Paris", "zip", 10),
+			"tags", Arrays.asList("x", "y"), "codes", new Object[] { "x", "y" });
+		assertEquals("Paris", path.get(row));
+		assertEquals(1, FieldPath.of("id").get(row));
+		assertEquals("y", FieldPath.of("tags[1]").get(row));
+		assertEquals("x", FieldPath.of("codes.0").get(row));
+		assertSame(row, FieldPath.SELF.get(row));
+		
+		// Missing, and invalid paths
+		assertNull(FieldPath.of("tags[5]").get(row));
+		assertNull(FieldPath.of("tags.first").get(row));
+		assertNull(FieldPath.of("address.city.name").get(row));
+		assertNull(FieldPath.of("missing.city").get(row));
+		assertNull(path.get("not a map"));
+		
+		// Fully qualified keys are matched first
+		row.put("address.city", "London");
+		assertEquals("London", path.get(row));
+	}
+	
+	@Test
+	public void nestedQuery() {
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		rows.add(row("id", 1, "address", row("city", "Paris", "zip", 10),
+			"tags", Arrays.asList("a")));
+		rows.add(row("id", 2, "address", row("city", "London", "zip", 20),
+			"tags", Arrays.asList("b", "a")));
+		rows.add(row("id", 3, "address", row("city", "Paris", "zip", 30),
+			"tags", Arrays.asList("c")));
+		
+		// Interpreted, and compiled query
+		Query query = Query.build("address.city = ? AND tags[0] != ?", new Object[] { "Paris", "c" });
+		assertTrue(query.test(rows.get(0)));
+		assertFalse(query.test(rows.get(2)));
+		assertEquals(1, query.search(rows).size());
+		assertEquals(2, Query.build("address.zip >= ?", new Object[] { 20 }).search(rows).size());
+		
+		// Order by nested fields
+		List<Map<String, Object>> sorted = new ArrayList<Map<String, Object>>(rows);
+		new OrderBy<Map<String, Object>>("address.city ASC, address.zip DESC").sort(sorted);
+		assertEquals(2, sorted.get(0).get("id"));
+		assertEquals(3, sorted.get(1).get("id"));
+		sorted.sort(new OrderBy<Map<String, Object>>("tags[0] DESC"));
+		assertEquals(3, sorted.get(0).get("id"));
+		
+		// Group by nested fields
+		List<Map<String, Object>> groups = Aggregation.build(new String[] { "count(id)" })
+			.groupBy("address.city").orderBy("address.city").compute(new ArrayList<Object>(rows));
+		assertEquals(2, groups.size());
+		assertEquals("London", groups.get(0).get("address.city"));
+		assertEquals(2, ((Number) groups.get(1).get("count_id")).intValue());
+		
+		// Indexed nested fields
+		IndexedQueryMapCollection<Map<String, Object>> collection = new IndexedQueryMapCollection<>(
+			rows);
+		collection.createHashIndex("address.city");
+		collection.createSortedIndex("address.zip");
+		assertEquals(2, collection.query(Query.build("address.city = ?", new Object[] { "Paris" }),
+			null, -1, -1).size());
+		assertEquals(1, collection.query(Query.build("address.city = ? AND address.zip > ?",
+			new Object[] { "Paris", 10 }), null, -1, -1).size());
+	}
+}
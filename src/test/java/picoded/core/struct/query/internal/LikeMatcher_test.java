@@ -0,0 +1,94 @@
+package picoded.core.struct.query.internal;
+
+// Target test class
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// Test Case include
+import org.junit.Test;
+
+import picoded.core.struct.query.internal.LikeMatcher.Shape;
+
+///
+/// Test Case for picoded.core.struct.query.internal.LikeMatcher
+///
+public class LikeMatcher_test {
+	
+	//
+	// Shape classification
+	//--------------------------------------------------------------------
+	
+	@Test
+	public void shapes() {
+		assertEquals(Shape.EXACT, LikeMatcher.compile("abc").shape());
+		assertEquals(Shape.PREFIX, LikeMatcher.compile("abc%").shape());
+		assertEquals(Shape.PREFIX, LikeMatcher.compile("abc%%").shape());
+		assertEquals(Shape.SUFFIX, LikeMatcher.compile("%abc").shape());
+		assertEquals(Shape.CONTAINS, LikeMatcher.compile("%abc%").shape());
+		assertEquals(Shape.GENERAL, LikeMatcher.compile("a%c").shape());
+		assertEquals(Shape.GENERAL, LikeMatcher.compile("%a%c%").shape());
+	}
+	
+	//
+	// Matching
+	//--------------------------------------------------------------------
+	
+	@Test
+	public void caseSensitive() {
+		assertTrue(LikeMatcher.compile("abc").matches("abc"));
+		assertFalse(LikeMatcher.compile("abc").matches("ABC"));
+		
+		assertTrue(LikeMatcher.compile("ab%").matches("abcde"));
+		assertFalse(LikeMatcher.compile("ab%").matches("xabcde"));
+		
+		assertTrue(LikeMatcher.compile("%de").matches("abcde"));
+		assertFalse(LikeMatcher.compile("%de").matches("abcdex"));
+		
+		assertTrue(LikeMatcher.compile("%cd%").matches("abcde"));
+		assertFalse(LikeMatcher.compile("%cd%").matches("abde"));
+		
+		assertTrue(LikeMatcher.compile("a%c%e").matches("abcde"));
+		assertFalse(LikeMatcher.compile("a%c%e").matches("abcdef"));
+		
+		assertTrue(LikeMatcher.compile("%").matches(""));
+		assertFalse(LikeMatcher.compile("%").matches(null));
+	}
+	
+	@Test
+	public void caseInsensitive() {
+		assertTrue(LikeMatcher.compile("abc", true).matches("ABC"));
+		assertTrue(LikeMatcher.compile("ab%", true).matches("ABcde"));
+		assertTrue(LikeMatcher.compile("%DE", true).matches("abcde"));
+		assertTrue(LikeMatcher.compile("%Cd%", true).matches("abcde"));
+		assertTrue(LikeMatcher.compile("A%C%e", true).matches("abcdE"));
+		assertFalse(LikeMatcher.compile("%xd%", true).matches("abcde"));
+	}
+	
+	@Test
+	public void regexCharactersAreLiteral() {
+		assertFalse(LikeMatcher.compile("a.c").matches("abc"));
+		assertTrue(LikeMatcher.compile("a.c").matches("a.c"));
+		assertTrue(LikeMatcher.compile("%(x)%[y]%").matches("1(x)2[y]3"));
+		assertFalse(LikeMatcher.compile("%(x)%[y]%").matches("1x2y3"));
+	}
+	
+	//
+	// Matcher caching
+	//--------------------------------------------------------------------
+	
+	@Test
+	public void cachedMatchers() {
+		LikeMatcher matcher = LikeMatcher.compile("%cache%test%");
+		assertSame(matcher, LikeMatcher.compile("%cache%test%", false));
+		
+		// Case sensitivity is part of the cache key
+		LikeMatcher insensitive = LikeMatcher.compile("%cache%test%", true);
+		assertNotSame(matcher, insensitive);
+		assertSame(insensitive, LikeMatcher.compile("%cache%test%", true));
+		assertFalse(matcher.matches("CACHE TEST"));
+		assertTrue(insensitive.matches("CACHE TEST"));
+	}
+}
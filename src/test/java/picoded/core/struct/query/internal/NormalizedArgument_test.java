@@ -0,0 +1,50 @@
+package picoded.core.struct.query.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.CompareUtils;
+
+public class NormalizedArgument_test {
+	
+	/**
+	 * Sample values to compare against each other
+	 **/
+	protected Object[] samples = new Object[] { null, "", "abc", "ABC", "5", "5abc", "10", "-1.5",
+		5, 10L, 5.0, -1.5f, new BigDecimal("10.00"), Boolean.TRUE, "true" };
+	
+	@Test
+	public void nullArgument() {
+		assertNull(NormalizedArgument.of(null));
+	}
+	
+	@Test
+	public void dynamicCompareEquivalence() {
+		for (Object o1 : samples) {
+			for (Object o2 : samples) {
+				NormalizedArgument arg = NormalizedArgument.of(o2);
+				if (arg == null) {
+					continue;
+				}
+				String msg = o1 + " vs " + o2;
+				assertEquals(msg, Integer.signum(CompareUtils.dynamicCompare(o1, o2)),
+					Integer.signum(CompareUtils.dynamicCompareNormalized(o1, arg)));
+				assertEquals(msg, Integer.signum(CompareUtils.dynamicCompare(o1, o2)),
+					Integer.signum(CompareUtils.dynamicCompare(o1, (Object) arg)));
+			}
+		}
+	}
+	
+	@Test
+	public void normalizedValues() {
+		NormalizedArgument arg = NormalizedArgument.of("12.5");
+		assertEquals("12.5", arg.value);
+		assertEquals(12.5, arg.number.doubleValue(), 0.0);
+		assertEquals("12.5", arg.toString());
+		assertEquals(arg, NormalizedArgument.of(arg));
+	}
+}
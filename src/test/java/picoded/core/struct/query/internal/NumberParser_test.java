@@ -0,0 +1,65 @@
+package picoded.core.struct.query.internal;
+
+import static org.junit.Assert.*;
+
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NumberParser_test {
+	
+	/**
+	 * The expected NumberFormat result
+	 **/
+	protected Number expected(String str) {
+		ParsePosition pos = new ParsePosition(0);
+		Number ret = NumberFormat.getNumberInstance(Locale.ENGLISH).parse(str, pos);
+		return (pos.getIndex() == 0) ? null : ret;
+	}
+	
+	@Test
+	public void basicParseTest() {
+		assertEquals(5L, NumberParser.parse("5"));
+		assertEquals(-12L, NumberParser.parse("-12"));
+		assertEquals(1L, NumberParser.parse("1.0"));
+		assertEquals(1.5d, NumberParser.parse("1.50"));
+		assertEquals(-0.0d, NumberParser.parse("-0"));
+		assertEquals(0.5d, NumberParser.parse(".5"));
+		assertEquals(5L, NumberParser.parse("5abc"));
+		assertEquals(1000L, NumberParser.parse("1,000"));
+		assertEquals(5000L, NumberParser.parse("5E3"));
+		
+		assertNull(NumberParser.parse(""));
+		assertNull(NumberParser.parse("abc"));
+		assertNull(NumberParser.parse("-"));
+		assertNull(NumberParser.parse("."));
+		assertNull(NumberParser.parse(" 5"));
+		assertNull(NumberParser.parse("+5"));
+	}
+	
+	@Test
+	public void numberFormatEquivalenceTest() {
+		String[] samples = new String[] { "NaN", "-NaN", "\u221e", "-\u221e", "\u0661\u0662",
+			"9223372036854775807", "9223372036854775808", "123456789012345678",
+			"1234567890123456789", "0.1234567890123456789", "1E400", "5.5.5", "00.10", "1,.5",
+			"1.,5", "1.5,5", "1.5E2x", "5E-2", "0x10" };
+		for (String str : samples) {
+			assertEquals(str, expected(str), NumberParser.parse(str));
+		}
+		
+		// Random strings, from number like characters
+		char[] chars = "0123456789-.,E eNa+".toCharArray();
+		Random rand = new Random(11);
+		for (int i = 0; i < 200000; ++i) {
+			char[] str = new char[rand.nextInt(8)];
+			for (int c = 0; c < str.length; ++c) {
+				str[c] = chars[rand.nextInt(chars.length)];
+			}
+			String s = new String(str);
+			assertEquals(s, expected(s), NumberParser.parse(s));
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package picoded.core.struct.query.internal;
+
+import static org.junit.Assert.*;
+import static picoded.core.struct.query.QueryTestRows.sampleList;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+
+public class ParallelSearch_test {
+	
+	@Test
+	public void encounterOrderTest() {
+		List<Map<String, Object>> list = sampleList(20000);
+		Query query = Query.build("num > ? AND status = ? OR str < ?", new Object[] { 20,
+			"active", "3" });
+		
+		List<Map<String, Object>> expected = query.search(list);
+		assertTrue(expected.size() > 0);
+		
+		// Small chunks, to force the collection to be split into many tasks
+		assertEquals(expected, query.parallelSearch(list, 64));
+		assertEquals(expected, query.parallelSearch(list, 1));
+		assertEquals(expected, query.parallelSearch(list));
+	}
+	
+	@Test
+	public void sharedPredicateTest() {
+		List<Map<String, Object>> list = sampleList(QueryOptimizer.SAMPLING_THRESHOLD * 4);
+		Query query = Query.build("num > ? AND status = ? OR name LIKE ? OR str < ?",
+			new Object[] { 20, "active", "%7%", "3" });
+		
+		// Large collections are searched sequentially with adaptive ordering,
+		// but the predicate shared across the tasks must not be adaptive
+		assertTrue(QueryOptimizer.searchPredicate(query, list) instanceof
+			QueryOptimizer.AdaptiveCombination);
+		assertFalse(ParallelSearch.sharedPredicate(query, list) instanceof
+			QueryOptimizer.AdaptiveCombination);
+		
+		// Across several workers, with the rows split into many tasks
+		List<Map<String, Object>> expected = query.search(list);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int i = 0; i < 5; ++i) {
+				assertEquals(expected, query.parallelSearch(list, 256, pool));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void customPoolTest() {
+		List<Map<String, Object>> list = sampleList(10000);
+		Query query = Query.build("name LIKE ?", new Object[] { "%9%" });
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(query.search(list), query.parallelSearch(list, 128, pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void mapSearchTest() {
+		Map<String, Map<String, Object>> map = new LinkedHashMap<String, Map<String, Object>>();
+		for (Map<String, Object> row : sampleList(5000)) {
+			map.put(row.get("name").toString(), row);
+		}
+		Query query = Query.build("num <= ?", new Object[] { 10 });
+		assertEquals(query.search(map), query.parallelSearch(map, 32, null));
+	}
+	
+	@Test
+	public void sequentialThresholdTest() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertFalse(ParallelSearch.isParallelWorthwhile(100, 64, pool));
+			assertTrue(ParallelSearch.isParallelWorthwhile(128, 64, pool));
+		} finally {
+			pool.shutdown();
+		}
+		
+		ForkJoinPool singlePool = new ForkJoinPool(1);
+		try {
+			assertFalse(ParallelSearch.isParallelWorthwhile(100000, 64, singlePool));
+		} finally {
+			singlePool.shutdown();
+		}
+		
+		// Blank, and tiny collections
+		Query query = Query.build("num = ?", new Object[] { 1 });
+		assertEquals(0, query.parallelSearch(new ArrayList<Map<String, Object>>(), 1).size());
+		assertEquals(1, query.parallelSearch(sampleList(2), 1).size());
+	}
+	
+	@Test
+	public void parallelAggregationTest() {
+		List<Map<String, Object>> list = sampleList(20000);
+		Query query = Query.build("status = ?", new Object[] { "active" });
+		String[] terms = new String[] { "count(num)", "sum(num)", "max(num)" };
+		
+		BigDecimal[] expected = query.aggregation(list, terms);
+		BigDecimal[] result = query.parallelAggregation(list, terms);
+		for (int i = 0; i < terms.length; ++i) {
+			assertEquals(0, expected[i].compareTo(result[i]));
+		}
+	}
+}
@@ -22,6 +22,7 @@ import picoded.core.struct.query.internal.QueryFilter;
 ///
 /// Test Case for picoded.core.struct.query.condition.*
 ///
+@SuppressWarnings("deprecation")
 public class QueryFilter_test {
 	
 	//
@@ -162,6 +163,29 @@ public class QueryFilter_test {
 		assertNotNull(QueryFilter.findCompleteEnclosure(list));
 	}
 	
+	@Test(expected = RuntimeException.class)
+	public void buildQueryArgumentMismatchTest() {
+		String query = "me = :good AND life = :awsome AND new = :world";
+		Map<String, Object> baseMap = new HashMap<>();
+		String[] argArr = new String[] { "a" };
+		assertNotNull(QueryFilter.buildQuery(query, baseMap, argArr));
+	}
+	
+	@Test
+	public void collapseQueryTokensTest() {
+		String[] queries = new String[] { "a = ? AND (b = ? OR c = ?)", "a = ? OR b = ? AND c = ?",
+			"NOT (a = ? OR b IN (?)) AND c = ?", "((a = ?) OR b = ?) AND c = ?" };
+		for (String query : queries) {
+			Object[] args = new Object[] { 1, 2, 3 };
+			MutablePair<String, Map<String, Object>> refac = QueryFilter.refactorQuery(query,
+				null, args);
+			List<Object> tokens = QueryFilter.buildBasicQuery(QueryFilter
+				.splitRefactoredQuery(refac.getLeft()), refac.getRight());
+			assertEquals(QueryFilter.buildQuery(query, null, args).toString(), QueryFilter
+				.collapseQueryTokens(tokens, refac.getRight()).toString());
+		}
+	}
+	
 	@Test(expected = IllegalAccessError.class)
 	public void QueryFilterTest() {
 		assertNotNull(new QueryFilter());
@@ -0,0 +1,173 @@
+package picoded.core.struct.query.internal;
+
+import static org.junit.Assert.*;
+import static picoded.core.struct.query.QueryTestRows.sampleList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.QueryProfile;
+import picoded.core.struct.query.condition.And;
+import picoded.core.struct.query.condition.Equals;
+import picoded.core.struct.query.condition.Like;
+import picoded.core.struct.query.condition.Or;
+
+public class QueryOptimizer_test {
+	
+	/**
+	 * Like condition, which counts the number of values tested
+	 **/
+	static class CountingLike extends Like {
+		// Shared with its bound copies
+		int[] counter = new int[1];
+		
+		CountingLike(String field, String argName, Map<String, Object> defaultArgMap) {
+			super(field, argName, defaultArgMap);
+		}
+		
+		@Override
+		protected Predicate<Object> compileValueTest(Object preparedArg) {
+			Predicate<Object> test = super.compileValueTest(preparedArg);
+			return (value) -> {
+				++counter[0];
+				return test.test(value);
+			};
+		}
+	}
+	
+	/**
+	 * Equals condition, which counts the number of times it is rendered as a string
+	 **/
+	static class CountingLabelEquals extends Equals {
+		int labelCount = 0;
+		
+		CountingLabelEquals(String field, String argName, Map<String, Object> defaultArgMap) {
+			super(field, argName, defaultArgMap);
+		}
+		
+		@Override
+		public String toString() {
+			++labelCount;
+			return super.toString();
+		}
+	}
+	
+	@Test
+	public void equivalenceTest() {
+		String[] queries = new String[] { "num > ? AND status = ? AND name LIKE ?",
+			"num > ? OR status = ? OR name LIKE ?", "( num > ? AND status = ? ) AND name LIKE ?",
+			"( num > ? OR status = ? ) AND ( name LIKE ? OR num < ? )",
+			"NOT num > ? AND status = ?", "( num > ? OR status = ? ) OR name LIKE ?" };
+		Object[] args = new Object[] { 50, "active", "%1%", 5 };
+		List<Map<String, Object>> list = sampleList(500);
+		
+		for (String queryStr : queries) {
+			int argCount = queryStr.length() - queryStr.replace("?", "").length();
+			Query query = Query.build(queryStr, Arrays.copyOf(args, argCount));
+			String original = query.toString();
+			
+			Predicate<Object> optimized = query.optimize();
+			Predicate<Object> sampled = query.optimize(list);
+			for (Map<String, Object> row : list) {
+				assertEquals(queryStr, query.test(row), optimized.test(row));
+				assertEquals(queryStr, query.test(row), sampled.test(row));
+			}
+			
+			// The query itself is left as it is
+			assertEquals(original, query.toString());
+		}
+	}
+	
+	@Test
+	public void blankCombinationTest() {
+		Map<String, Object> argMap = new HashMap<String, Object>();
+		argMap.put("a", 1);
+		Query eq = new Equals("num", "a", argMap);
+		Query blankAnd = new And(new ArrayList<Query>(), argMap);
+		
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("num", 1);
+		
+		// AND with a blank AND child, is always false, while OR with it is not
+		assertFalse(new And(Arrays.asList(eq, blankAnd), argMap).optimize().test(row));
+		assertTrue(new Or(Arrays.asList(eq, blankAnd), argMap).optimize().test(row));
+		assertFalse(blankAnd.optimize().test(row));
+	}
+	
+	@Test
+	public void costOrderingTest() {
+		Map<String, Object> argMap = new HashMap<String, Object>();
+		argMap.put("status", "active");
+		argMap.put("pattern", "%a%e%");
+		CountingLike like = new CountingLike("name", "pattern", argMap);
+		Query query = new And(like, new Equals("status", "status", argMap), argMap);
+		List<Map<String, Object>> list = sampleList(100);
+		
+		// Textual order, tests the like on every row
+		Predicate<Object> compiled = query.compile();
+		for (Map<String, Object> row : list) {
+			compiled.test(row);
+		}
+		assertEquals(100, like.counter[0]);
+		
+		// Optimized order, only tests the (more expensive) like after the equality passes
+		like.counter[0] = 0;
+		assertEquals(10, query.search(list).size());
+		assertEquals(10, like.counter[0]);
+	}
+	
+	@Test
+	public void sampledOrderingTest() {
+		List<Map<String, Object>> list = sampleList(10000);
+		Query query = Query.build("num >= ? AND status = ?", new Object[] { 0, "active" });
+		
+		// Equality is sampled to be more selective, than the always true range
+		QueryOptimizer optimizer = new QueryOptimizer(QueryOptimizer.samplePassRate(query,
+			QueryOptimizer.sampleList(list, QueryOptimizer.SAMPLE_SIZE)), false);
+		QueryOptimizer.Plan plan = optimizer.plan(query);
+		assertEquals(0.1, plan.passRate, 0.05);
+		assertEquals(1000, query.search(list).size());
+	}
+	
+	@Test
+	public void adaptiveOrderingTest() {
+		List<Map<String, Object>> list = sampleList(20000);
+		Query query = Query.build("num >= ? AND status = ?", new Object[] { 0, "active" });
+		
+		// Adaptive ordering without sampling, where the estimate is wrong
+		Predicate<Object> predicate = new QueryOptimizer(null, true).plan(query.bind()).predicate;
+		int count = 0;
+		for (Map<String, Object> row : list) {
+			if (predicate.test(row)) {
+				++count;
+			}
+		}
+		assertEquals(2000, count);
+		
+		QueryOptimizer.AdaptiveCombination combination = (QueryOptimizer.AdaptiveCombination) predicate;
+		assertTrue(combination.children[0].passRate() < combination.children[1].passRate());
+	}
+	
+	@Test
+	public void profilingLabelTest() {
+		Map<String, Object> argMap = new HashMap<String, Object>();
+		argMap.put("status", "active");
+		argMap.put("num", 5);
+		CountingLabelEquals status = new CountingLabelEquals("status", "status", argMap);
+		Query query = new And(status, new Equals("num", "num", argMap), argMap);
+		
+		// Node labels are only rendered when profiling
+		new QueryOptimizer(null, false).plan(query);
+		assertEquals(0, status.labelCount);
+		QueryOptimizer.Plan plan = new QueryOptimizer(null, false, true).plan(query);
+		assertEquals(1, status.labelCount);
+		assertEquals("AND", ((QueryProfile.Node) plan.predicate).label());
+	}
+}
@@ -0,0 +1,118 @@
+package picoded.core.struct.query.internal;
+
+// Target test class
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Test Case include
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+
+///
+/// Test Case for picoded.core.struct.query.internal.QueryParser
+///
+public class QueryParser_test {
+	
+	//
+	// Utility function
+	//--------------------------------------------------------------------
+	
+	/// Asserts the parsed query string, or the error message of an invalid query
+	private void assertParsed(String expected, String query, Object[] args) {
+		String result = null;
+		try {
+			result = QueryFilter.buildQuery(query, null, args).toString();
+		} catch (RuntimeException e) {
+			result = "ERROR : " + e.getMessage();
+		}
+		assertEquals(expected, result);
+	}
+	
+	//
+	// Parser test
+	//--------------------------------------------------------------------
+	
+	@Test
+	public void argumentCount() {
+		assertEquals(0, (new QueryParser("a = :x")).argumentCount());
+		assertEquals(2, (new QueryParser("a = ? AND b = ?")).argumentCount());
+	}
+	
+	@Test
+	public void quotedFieldName() {
+		Map<String, Object> paramMap = new HashMap<String, Object>();
+		Query q = (new QueryParser("\"my field\" = :a AND [other field] = :b")).parse(paramMap);
+		assertEquals("\"my field\" = :a AND \"other field\" = :b", q.toString());
+	}
+	
+	@Test
+	public void parsedTrees() {
+		assertParsed("\"a\" <= :0 AND \"b\" >= :1 AND \"c\" != :2 AND (\"d\" < :3 AND \"e\" = :4)",
+			"a<=:0  AND  b>=:1 AND c!=:2 AND (d<:3 AND e=:4)", null);
+		assertParsed("(\"a\" = :0 OR \"b\" = :1) AND \"c\" = :2", "a = ? OR b = ? AND c = ?",
+			new Object[] { 1, 2, 3 });
+		assertParsed("(\"a\" = :0) NOT \"b\" = :1", "a = ? AND NOT b = ?", new Object[] { 1, 2 });
+		assertParsed("NOT(  (\"a\" = :0 OR \"b\" = :1) )", "NOT (a = ? OR b = ?)", new Object[] {
+			1, 2 });
+		assertParsed("\"a\" < :0 OR (\"b\" > :1 AND (\"c\" = :2 OR \"d\" = :3))",
+			"a < ? OR (b > ? AND (c = ? OR d = ?))", new Object[] { 1, 2, 3, 4 });
+		assertParsed("\"a\" = :0 AND \"b\" LIKE :1", "a = ? and b LIKE ?", new Object[] { 1, 2 });
+		assertParsed("\"a\" IN :0 AND \"b\" NOT IN :1", "a IN ? AND b NOT IN (?)", new Object[] {
+			1, 2 });
+		assertParsed("(NOT(  \"a\" IN :a )) OR \"b\" NOT IN :b", "NOT a IN :a OR (b NOT IN :b)",
+			null);
+	}
+	
+	@Test
+	public void parseErrors() {
+		assertParsed("ERROR : Unexpected collapseQueryTokens end -> ", "", null);
+		assertParsed("ERROR : Unexpected collapseQueryTokens end -> myString", "myString", null);
+		assertParsed("ERROR : Missing combination token: Empty tokens and child list", "()", null);
+		assertParsed("ERROR : Found starting bracket '(' without closing bracket", "(a = :a", null);
+		assertParsed("ERROR : Found closing bracket ')' without opening bracket", "a = :a)", null);
+		assertParsed("ERROR : Unexpected end of operator token : =", "a = ", null);
+		assertParsed("ERROR : Unexpected named parameter set: a = abc", "a = abc", null);
+		assertParsed("ERROR : Unexpected blank child list: []", "AND OR", null);
+		assertParsed("ERROR : Missing combination token: [\"a\" = :a, \"b\" = :b]",
+			"a = :a b = :b", null);
+		assertParsed("ERROR : Unable to process combination token: XOR", "a = :a XOR b = :b",
+			null);
+		assertParsed("ERROR : Unable to process combination token: A", "a like :a", null);
+		assertParsed("ERROR : Expected a single bracketed argument after : IN", "a IN (:a", null);
+		assertParsed("ERROR : Unexpected end of operator token : NOT IN", "a NOT IN", null);
+	}
+	
+	@Test
+	public void largeQuery() {
+		StringBuilder query = new StringBuilder();
+		Object[] args = new Object[600];
+		for (int i = 0; i < args.length; ++i) {
+			if (i > 0) {
+				query.append((i % 3 == 0) ? " OR " : " AND ");
+			}
+			if (i % 10 == 0) {
+				query.append("(");
+			}
+			query.append("f" + i + " = ?");
+			if (i % 10 == 9) {
+				query.append(")");
+			}
+			args[i] = i;
+		}
+		
+		Query q = null;
+		assertNotNull(q = QueryFilter.buildQuery(query.toString(), null, args));
+		assertEquals(600, q.queryArgumentsList().size());
+		
+		// Each OR, wraps everything before it as the left hand side
+		String result = q.toString();
+		assertEquals(11212, result.length());
+		assertEquals(44, result.indexOf("\"f0\" = :0 AND \"f1\" = :1 AND \"f2\" = :2) OR"));
+		assertTrue(result.endsWith("OR \"f597\" = :597) AND \"f598\" = :598 AND \"f599\" = :599)"));
+	}
+}
@@ -0,0 +1,118 @@
+package picoded.core.struct.query.internal;
+
+// Target test class
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Test Case include
+import org.junit.Before;
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+
+///
+/// Test Case for picoded.core.struct.query.internal.QueryPlanCache
+///
+public class QueryPlanCache_test {
+	
+	//
+	// Test Setup
+	//--------------------------------------------------------------------
+	
+	QueryPlanCache cache = null;
+	
+	@Before
+	public void setUp() {
+		cache = new QueryPlanCache(2);
+	}
+	
+	//
+	// Cache test
+	//--------------------------------------------------------------------
+	
+	@Test
+	public void normalizeQueryString() {
+		assertEquals("a = ? AND b = ?", QueryPlanCache.normalizeQueryString("a = ? AND b = ?"));
+		assertEquals("a = ? AND b = ?",
+			QueryPlanCache.normalizeQueryString("  a =  ?\n\tAND b = ? "));
+		
+		// Quoted segments are left untouched, unless the quote is within a word
+		assertEquals("\"a  b\" = ? AND [c\t d]=?", QueryPlanCache.normalizeQueryString(
+			" \"a  b\"  = ? AND [c\t d]=?"));
+		assertEquals("it's = ? AND 'x  y' = ?", QueryPlanCache.normalizeQueryString(
+			"it's  = ? AND 'x  y' = ?"));
+		assertEquals("it's a = ?", QueryPlanCache.normalizeQueryString("it's  a = ?"));
+	}
+	
+	@Test
+	public void quotedWhitespace() {
+		Query twoSpaces = cache.buildQuery("\"a  b\" = ?", null, new Object[] { 1 });
+		Query oneSpace = cache.buildQuery("\"a b\" = ?", null, new Object[] { 1 });
+		assertEquals(2, cache.missCount());
+		assertEquals("a  b", twoSpaces.fieldName());
+		assertEquals("a b", oneSpace.fieldName());
+		assertEquals(Query.build("\"a  b\" = ?", new Object[] { 1 }).fieldName(), twoSpaces
+			.fieldName());
+	}
+	
+	@Test
+	public void hitAndMiss() {
+		Query a = cache.buildQuery("my = ?", null, new Object[] { "hello" });
+		Query b = cache.buildQuery("my  =  ?", null, new Object[] { "world" });
+		
+		assertEquals(1, cache.missCount());
+		assertEquals(1, cache.hitCount());
+		assertEquals(1, cache.size());
+		
+		// Each query should be its own copy, with its own arguments
+		assertNotSame(a, b);
+		assertEquals("\"my\" = :0", a.toString());
+		assertEquals("\"my\" = :0", b.toString());
+		assertEquals("hello", a.defaultArgumentValue());
+		assertEquals("world", b.defaultArgumentValue());
+		
+		Map<String, Object> hello = new HashMap<String, Object>();
+		hello.put("my", "hello");
+		assertTrue(a.test(hello));
+		assertFalse(b.test(hello));
+	}
+	
+	@Test
+	public void nestedArguments() {
+		Object[] args = new Object[] { "adv", "sup", "prx", "a", "b" };
+		String q = "( adv = ? OR sup = ? OR prx = ? ) AND ( a = ? OR b = ? )";
+		Query a = cache.buildQuery(q, null, args);
+		Query b = cache.buildQuery(q, null, args);
+		
+		assertEquals(QueryFilter.buildQuery(q, null, args).toString(), b.toString());
+		assertEquals(a.queryArgumentsList(), b.queryArgumentsList());
+		assertNotSame(a.childrenQuery().get(0), b.childrenQuery().get(0));
+	}
+	
+	@Test
+	public void eviction() {
+		assertNotNull(cache.buildQuery("a = ?", null, new Object[] { 1 }));
+		assertNotNull(cache.buildQuery("b = ?", null, new Object[] { 1 }));
+		assertNotNull(cache.buildQuery("c = ?", null, new Object[] { 1 }));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.evictionCount());
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void argumentCountMismatch() {
+		cache.buildQuery("a = ? AND b = ?", null, new Object[] { 1 });
+		cache.buildQuery("a = ? AND b = ?", null, new Object[] { 1 });
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void argumentCountMismatchOnHit() {
+		assertNotNull(cache.buildQuery("a = ? AND b = ?", null, new Object[] { 1, 2 }));
+		cache.buildQuery("a = ? AND b = ?", null, new Object[] { 1 });
+	}
+}
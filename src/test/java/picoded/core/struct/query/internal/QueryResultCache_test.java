@@ -0,0 +1,159 @@
+package picoded.core.struct.query.internal;
+
+// Target test class
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Test Case include
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+
+///
+/// Test Case for picoded.core.struct.query.internal.QueryResultCache
+///
+public class QueryResultCache_test {
+	
+	AtomicInteger computeCount = new AtomicInteger();
+	
+	String compute(String value) {
+		computeCount.incrementAndGet();
+		return value;
+	}
+	
+	String get(QueryResultCache cache, String where, Object[] args, String orderBy) {
+		return cache.get("query", where, args, orderBy, 0, 0, () -> compute(String.valueOf(where)));
+	}
+	
+	@Test
+	public void keyNormalization() {
+		QueryResultCache cache = new QueryResultCache(16);
+		get(cache, "a = ?  AND b = ?", new Object[] { 1, "x" }, "a DESC");
+		get(cache, " a = ? AND\tb = ?", new Object[] { 1, "x" }, "a  DESC");
+		assertEquals(1, computeCount.get());
+		
+		// Different arguments, order, and paging are different keys
+		get(cache, "a = ? AND b = ?", new Object[] { 2, "x" }, "a DESC");
+		get(cache, "a = ? AND b = ?", new Object[] { 1, "x" }, null);
+		cache.get("query", "a = ? AND b = ?", new Object[] { 1, "x" }, null, 0, 10, () -> compute(
+			"paged"));
+		assertEquals(4, computeCount.get());
+		
+		// Ignored offset / limit values are equivalent
+		cache.get("query", null, null, null, -1, -1, () -> compute("all"));
+		cache.get("query", null, new Object[0], null, 0, 0, () -> compute("all"));
+		assertEquals(5, computeCount.get());
+		
+		// Array arguments are compared by value
+		get(cache, "a = ?", new Object[] { new Object[] { 1, 2 } }, null);
+		get(cache, "a = ?", new Object[] { new Object[] { 1, 2 } }, null);
+		assertEquals(6, computeCount.get());
+		
+		assertEquals(3, cache.hitCount());
+		assertEquals(6, cache.missCount());
+		assertEquals(1.0 / 3, cache.hitRate(), 1e-9);
+		
+		// Whitespace within quoted field names is significant
+		get(cache, "\"a  b\" = ?", new Object[] { 1 }, null);
+		get(cache, "\"a b\" = ?", new Object[] { 1 }, null);
+		assertEquals(8, computeCount.get());
+	}
+	
+	@Test
+	public void modificationCounter() {
+		long[] counter = new long[] { 0 };
+		QueryResultCache cache = new QueryResultCache(16, () -> counter[0]);
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		assertEquals(1, computeCount.get());
+		
+		++counter[0];
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		assertEquals(2, computeCount.get());
+		assertEquals(1, cache.staleCount());
+		
+		// Modifications while computing, invalidates the result
+		cache.get("query", "b = ?", new Object[] { 1 }, null, 0, 0, () -> {
+			++counter[0];
+			return compute("b");
+		});
+		get(cache, "b = ?", new Object[] { 1 }, null);
+		assertEquals(4, computeCount.get());
+	}
+	
+	@Test
+	public void fieldInvalidation() {
+		QueryResultCache cache = new QueryResultCache(16);
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		get(cache, "b.c = ?", new Object[] { 1 }, null);
+		get(cache, "d = ?", new Object[] { 1 }, "e");
+		get(cache, null, null, null);
+		assertEquals(4, computeCount.get());
+		
+		// Only results using the modified fields are invalidated
+		cache.invalidateFields("a", "b");
+		cache.invalidateFields("e");
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		get(cache, "b.c = ?", new Object[] { 1 }, null);
+		get(cache, "d = ?", new Object[] { 1 }, "e");
+		get(cache, null, null, null);
+		assertEquals(7, computeCount.get());
+		
+		// Full invalidation
+		cache.invalidate();
+		get(cache, null, null, null);
+		assertEquals(8, computeCount.get());
+	}
+	
+	@Test
+	public void dependencyFields() {
+		Set<String> fields = QueryResultCache.dependencyFields(Query.build(
+			"a = ? AND (b.c > ? OR d[0] = ?)", new Object[] { 1, 2, 3 }), "e DESC, f.g");
+		assertTrue(fields.contains("a"));
+		assertTrue(fields.contains("b.c"));
+		assertTrue(fields.contains("b"));
+		assertTrue(fields.contains("d"));
+		assertTrue(fields.contains("e"));
+		assertTrue(fields.contains("f.g"));
+		assertTrue(fields.contains("f"));
+		assertFalse(fields.contains("c"));
+	}
+	
+	@Test
+	public void evictionAndErrors() {
+		QueryResultCache cache = new QueryResultCache(2);
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		get(cache, "a = ?", new Object[] { 2 }, null);
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		get(cache, "a = ?", new Object[] { 3 }, null);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.evictionCount());
+		
+		// Least recently used value was evicted
+		get(cache, "a = ?", new Object[] { 1 }, null);
+		assertEquals(3, computeCount.get());
+		
+		// Failed computations are not cached
+		for (int i = 0; i < 2; ++i) {
+			try {
+				cache.get("query", "x = ?", null, null, 0, 0, () -> {
+					throw new RuntimeException("fail");
+				});
+			} catch (RuntimeException e) {
+				assertEquals("fail", e.getMessage());
+			}
+		}
+		assertEquals(2, cache.size());
+		
+		// Disabled cache
+		QueryResultCache disabled = new QueryResultCache(0);
+		get(disabled, "a = ?", new Object[] { 1 }, null);
+		get(disabled, "a = ?", new Object[] { 1 }, null);
+		assertEquals(5, computeCount.get());
+	}
+}
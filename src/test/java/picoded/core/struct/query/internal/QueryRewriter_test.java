@@ -0,0 +1,152 @@
+package picoded.core.struct.query.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.Query;
+
+public class QueryRewriter_test {
+	
+	static final Object[] VALUES = new Object[] { 1, 5, 7, 7.5, "7", "abc", "ABC", null, true,
+		-2, 100, Double.NaN, "10" };
+	
+	/**
+	 * Builds and normalizes the query
+	 **/
+	private Query normalize(String where, Object... args) {
+		return Query.build(where, args).normalize();
+	}
+	
+	/**
+	 * Builds a random query string, and its arguments
+	 **/
+	private String randomQuery(Random rand, int depth, List<Object> args) {
+		if (depth <= 0 || rand.nextInt(3) == 0) {
+			String[] fields = new String[] { "a", "b", "_val" };
+			String[] ops = new String[] { "=", "!=", "<", "<=", ">", ">=", "IN", "NOT IN", "LIKE" };
+			String op = ops[rand.nextInt(ops.length)];
+			if (op.endsWith("IN")) {
+				List<Object> values = new ArrayList<Object>();
+				for (int i = rand.nextInt(3); i > 0; --i) {
+					values.add(VALUES[rand.nextInt(VALUES.length)]);
+				}
+				args.add(values);
+			} else if (op.equals("LIKE")) {
+				args.add("%b%");
+			} else {
+				args.add(VALUES[rand.nextInt(VALUES.length)]);
+			}
+			return fields[rand.nextInt(fields.length)] + " " + op + " ?";
+		}
+		
+		String[] combinations = new String[] { " AND ", " OR " };
+		String combination = combinations[rand.nextInt(combinations.length)];
+		StringBuilder ret = new StringBuilder();
+		if (rand.nextInt(3) == 0) {
+			ret.append("NOT ");
+		}
+		ret.append("(");
+		for (int i = 1 + rand.nextInt(3); i > 0; --i) {
+			ret.append(randomQuery(rand, depth - 1, args));
+			if (i > 1) {
+				ret.append(combination);
+			}
+		}
+		return ret.append(")").toString();
+	}
+	
+	@Test
+	public void flattenAndDeduplicate() {
+		assertEquals("\"x\" = :0", normalize("x = ? OR x = ?", 1, 1).toString());
+		assertEquals("\"a\" = :0 AND \"b\" = :1 AND \"c\" = :2", normalize(
+			"(a = ? AND (b = ? AND c = ?)) AND a = ?", 1, 2, 3, 1).toString());
+		assertEquals("\"a\" = :0 OR \"a\" = :1", normalize("a = ? OR a = ?", 1, "1").toString());
+	}
+	
+	@Test
+	public void deMorgan() {
+		assertEquals("\"a\" != :0 AND \"b\" NOT IN :1", normalize("NOT (a = ? OR b IN ?)", 1,
+			Arrays.asList(2)).toString());
+		assertEquals("\"a\" = :0 OR \"b\" IN :1", normalize("NOT (a != ? AND b NOT IN ?)", 1,
+			Arrays.asList(2)).toString());
+		
+		// Range conditions (which fails on null) has no exact inverse
+		Query query = normalize("NOT (a < ? OR b = ?)", 1, 2);
+		assertEquals(2, query.childrenQuery().size());
+		assertEquals("NOT", query.childrenQuery().get(0).operatorSymbol());
+	}
+	
+	@Test
+	public void rangeMerging() {
+		assertEquals("\"a\" > :1 AND \"a\" <= :2", normalize("a > ? AND a > ? AND a <= ?", 5, 7,
+			100).toString());
+		assertEquals("\"a\" > :2 AND \"a\" < :3", normalize("a >= ? AND a < ? AND a > ? AND a < ?",
+			5, 9, 5, 8).toString());
+		assertEquals("\"a\" = :1", normalize("a > ? AND a = ? AND a < ?", 1, 5, 9).toString());
+		assertEquals("\"a\" > :0 OR \"a\" < :3", normalize("a > ? OR a >= ? OR a < ? OR a < ?", 5,
+			7, -1, 2).toString());
+		
+		// String arguments are not merged
+		assertEquals(2, normalize("a > ? AND a > ?", "5", "7").childrenQuery().size());
+	}
+	
+	@Test
+	public void contradictions() {
+		assertTrue(QueryRewriter.isAlwaysFalse(normalize("a < ? AND a > ?", 3, 9)));
+		assertTrue(QueryRewriter.isAlwaysFalse(normalize("a < ? AND a >= ?", 3, 3)));
+		assertTrue(QueryRewriter.isAlwaysFalse(normalize("a = ? AND a = ?", 1, 2)));
+		assertTrue(QueryRewriter.isAlwaysFalse(normalize("a = ? AND a > ?", 1, 2)));
+		assertTrue(QueryRewriter.isAlwaysFalse(normalize("a < ? AND b = ?", null, 2)));
+		assertTrue(QueryRewriter.isAlwaysFalse(normalize("a IN ?", new ArrayList<Object>())));
+		assertTrue(QueryRewriter.isAlwaysFalse(normalize("(a < ? AND a > ?) OR a IN ?", 3, 9,
+			new int[0])));
+		assertTrue(QueryRewriter.isAlwaysTrue(normalize("NOT (a < ? AND a > ?)", 3, 9)));
+		assertEquals("\"b\" = :2", normalize("(a < ? AND a > ?) OR b = ?", 3, 9, 1).toString());
+		
+		// Not a contradiction, as each wildcard condition may match a different value
+		assertFalse(QueryRewriter.isAlwaysFalse(normalize("_val = ? AND _val = ?", 1, 2)));
+		
+		// Searching an always false query, skips the collection
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		list.add(new HashMap<String, Object>());
+		assertSame(QueryOptimizer.NEVER, Query.build("a < ? AND a > ?", new Object[] { 3, 9 })
+			.optimize());
+		assertEquals(0, Query.build("a < ? AND a > ?", new Object[] { 3, 9 }).search(list).size());
+	}
+	
+	@Test
+	public void sameResult() {
+		Random rand = new Random(17);
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (Object a : VALUES) {
+			for (Object b : VALUES) {
+				Map<String, Object> row = new HashMap<String, Object>();
+				if (a != null || rand.nextBoolean()) {
+					row.put("a", a);
+				}
+				row.put("b", b);
+				rows.add(row);
+			}
+		}
+		
+		for (int i = 0; i < 2000; ++i) {
+			List<Object> args = new ArrayList<Object>();
+			String where = randomQuery(rand, 3, args);
+			Query query = Query.build(where, args.toArray());
+			Query normalized = query.normalize();
+			for (Map<String, Object> row : rows) {
+				String message = where + " " + args + " -> " + normalized + " : " + row;
+				assertEquals(message, query.test(row), normalized.test(row));
+				assertEquals(message, query.test(row), normalized.compile().test(row));
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package picoded.core.struct.query.internal;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.CompareUtils;
+import picoded.core.struct.query.ComparisonEngine;
+
+public class SortKey_test {
+	
+	@Test
+	public void dynamicCompareEquivalenceTest() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("hello", "world");
+		
+		Object[] values = new Object[] { null, 0, 1, -1, 2.5, 2.5f, 7L, new BigDecimal("3.25"),
+			"", "1", "2.5", "10", "3abc", "abc", "ABC", "Abc", "xyz", true, false, map,
+			new Object[0] };
+		
+		for (Object a : values) {
+			for (Object b : values) {
+				int expected = Integer.signum(CompareUtils.dynamicCompare(a, b));
+				int result = new SortKey(a).compareTo(new SortKey(b));
+				assertEquals(a + " vs " + b, expected, result);
+				
+				expected = Integer.signum(ComparisonEngine.BINARY.compare(a, b));
+				result = new SortKey(a, ComparisonEngine.BINARY, null).compareTo(new SortKey(b,
+					ComparisonEngine.BINARY, null));
+				assertEquals(a + " vs " + b, expected, result);
+			}
+		}
+	}
+	
+	@Test
+	public void stringRanksTest() {
+		Object[] values = new Object[] { "b", null, "a", "B", "b", "", "c", null };
+		int[] ranks = SortKey.stringRanks(values, ComparisonEngine.COLLATED, null);
+		for (int i = 0; i < values.length; ++i) {
+			for (int j = 0; j < values.length; ++j) {
+				assertEquals(Integer.signum(CompareUtils.dynamicCompare(values[i], values[j])),
+					Integer.compare(ranks[i], ranks[j]));
+			}
+		}
+		assertEquals(-1, ranks[1]);
+		assertEquals(ranks[0], ranks[4]);
+		
+		// Not a string only column
+		assertNull(SortKey.stringRanks(new Object[] { "a", 1 }, ComparisonEngine.COLLATED, null));
+		
+		// Binary string order
+		ranks = SortKey.stringRanks(values, ComparisonEngine.BINARY, null);
+		for (int i = 0; i < values.length; ++i) {
+			for (int j = 0; j < values.length; ++j) {
+				assertEquals(Integer.signum(ComparisonEngine.BINARY.compare(values[i], values[j])),
+					Integer.compare(ranks[i], ranks[j]));
+			}
+		}
+	}
+	
+	@Test
+	public void reusedKeyTest() {
+		// Lazily computed values, are reused across comparisons
+		SortKey str = new SortKey("10");
+		assertEquals(-1, str.compareTo(new SortKey("9")));
+		assertEquals(1, str.compareTo(new SortKey(9)));
+		assertEquals(0, str.compareTo(new SortKey(10)));
+		assertEquals("10", str.value());
+	}
+}
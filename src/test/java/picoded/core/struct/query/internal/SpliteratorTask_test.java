@@ -0,0 +1,51 @@
+package picoded.core.struct.query.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SpliteratorTask_test {
+	
+	@Test
+	public void splitAndMergeInOrder() {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; ++i) {
+			list.add(i);
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			AtomicInteger leaves = new AtomicInteger();
+			List<Integer> res = pool.invoke(new SpliteratorTask<Integer, List<Integer>>(list
+				.spliterator(), 64, (part) -> {
+				// Each leaf part, is no larger than the minimum chunk
+				assertTrue(part.estimateSize() <= 64);
+				leaves.incrementAndGet();
+				List<Integer> ret = new ArrayList<Integer>();
+				part.forEachRemaining(ret::add);
+				return ret;
+			}, (prefixResult, suffixResult) -> {
+				prefixResult.addAll(suffixResult);
+				return prefixResult;
+			}));
+			
+			// Merged in encounter order
+			assertEquals(list, res);
+			assertTrue(leaves.get() >= 1000 / 64);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void minChunkAndPoolDefaults() {
+		assertEquals(ParallelSearch.DEFAULT_MIN_CHUNK, ParallelSearch.minChunk(0));
+		assertEquals(10, ParallelSearch.minChunk(10));
+		assertSame(ForkJoinPool.commonPool(), ParallelSearch.pool(null));
+	}
+}
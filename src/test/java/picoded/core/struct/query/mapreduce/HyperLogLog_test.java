@@ -0,0 +1,136 @@
+package picoded.core.struct.query.mapreduce;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.Aggregation;
+
+public class HyperLogLog_test {
+	
+	@Test
+	public void normalizeTest() {
+		assertEquals(1L, HyperLogLog.normalize(1));
+		assertEquals(1L, HyperLogLog.normalize(1.0));
+		assertEquals(1L, HyperLogLog.normalize(new BigDecimal("1.000")));
+		assertEquals(1L, HyperLogLog.normalize(BigInteger.ONE));
+		assertEquals(0L, HyperLogLog.normalize(-0.0));
+		assertEquals(HyperLogLog.normalize(new BigDecimal("2.50")), HyperLogLog.normalize(2.5));
+		assertEquals("1", HyperLogLog.normalize("1"));
+		
+		// Integral values in the long range are Long, regardless of their number type
+		for (long l : new long[] { 1000000000000000000L, 1L << 62, -(1L << 62), Long.MIN_VALUE }) {
+			assertEquals(l, HyperLogLog.normalize((double) l));
+			assertEquals(l, HyperLogLog.normalize(new BigDecimal((double) l)));
+			assertEquals(l, HyperLogLog.normalize(BigInteger.valueOf(l)));
+		}
+		assertEquals(Long.MAX_VALUE, HyperLogLog.normalize(BigInteger.valueOf(Long.MAX_VALUE)));
+		assertTrue(HyperLogLog.normalize(0x1p63) instanceof BigDecimal);
+		assertTrue(HyperLogLog.normalize(BigInteger.ONE.shiftLeft(63)) instanceof BigDecimal);
+	}
+	
+	@Test
+	public void exactCountTest() {
+		HyperLogLog counter = new HyperLogLog();
+		for (int i = 0; i < 1000; ++i) {
+			counter.add(i % 500);
+			counter.add("str-" + (i % 300));
+		}
+		counter.add(1.0);
+		counter.add("1");
+		assertTrue(counter.isExact());
+		assertEquals(801, counter.cardinality());
+	}
+	
+	@Test
+	public void estimateTest() {
+		for (int size : new int[] { 2000, 20000, 200000 }) {
+			HyperLogLog counter = new HyperLogLog();
+			for (int i = 0; i < size * 2; ++i) {
+				counter.add("user-" + (i % size));
+			}
+			assertFalse(counter.isExact());
+			double error = Math.abs(counter.cardinality() - size) / (double) size;
+			assertTrue(size + " : " + counter.cardinality(), error < 0.03);
+		}
+	}
+	
+	@Test
+	public void mergeTest() {
+		HyperLogLog all = new HyperLogLog();
+		HyperLogLog first = new HyperLogLog();
+		HyperLogLog second = new HyperLogLog();
+		HyperLogLog small = new HyperLogLog();
+		for (long i = 0; i < 50000; ++i) {
+			all.add(i);
+			if (i < 30000) {
+				first.add(i);
+			}
+			if (i >= 20000) {
+				second.add(i);
+			}
+			if (i < 10) {
+				small.add(i);
+			}
+		}
+		
+		// Merging sketches is the same as a single sketch
+		first.merge(second);
+		first.merge(small);
+		assertEquals(all.cardinality(), first.cardinality());
+		
+		// Merging exact values into an exact counter
+		HyperLogLog exact = new HyperLogLog(-1);
+		HyperLogLog other = new HyperLogLog(-1);
+		for (int i = 0; i < 5000; ++i) {
+			exact.add(i);
+			other.add(i + 2500);
+		}
+		exact.merge(other);
+		assertTrue(exact.isExact());
+		assertEquals(7500, exact.cardinality());
+		
+		// An always exact counter, is unable to merge a sketch
+		try {
+			exact.merge(first);
+			fail("Expected exception");
+		} catch (RuntimeException e) {
+			assertTrue(exact.isExact());
+			assertEquals(7500, exact.cardinality());
+		}
+	}
+	
+	@Test
+	public void aggregationTest() {
+		List<Object> dataSet = new ArrayList<Object>();
+		for (int i = 0; i < 5000; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("user", "user-" + (i % 1500));
+			if (i % 2 == 0) {
+				row.put("num", i % 10);
+			}
+			dataSet.add(row);
+		}
+		
+		BigDecimal[] res = Aggregation.build(new String[] { "countDistinct(user)",
+			"countDistinct(num)", "countDistinct(missing)" }).compute(dataSet);
+		assertTrue(Math.abs(res[0].intValue() - 1500) < 45);
+		assertEquals(5, res[1].intValue());
+		assertNull(res[2]);
+		
+		// Exact mode, with partial results
+		Aggregation agg = Aggregation.build(new String[] { "countDistinct(user)" }).exactDecimal(
+			true);
+		MapReduceBase[] partial = agg.computePartial(dataSet.subList(0, 2000));
+		agg.combinePartial(partial, agg.computePartial(dataSet.subList(2000, 5000)));
+		assertEquals(1500, agg.reducePartial(partial)[0].intValue());
+		assertEquals(1500, agg.compute(dataSet)[0].intValue());
+	}
+}
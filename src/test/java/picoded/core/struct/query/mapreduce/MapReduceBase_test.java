@@ -0,0 +1,219 @@
+package picoded.core.struct.query.mapreduce;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.Aggregation;
+import picoded.core.struct.query.Query;
+import picoded.core.struct.query.internal.AggregationUtils;
+
+public class MapReduceBase_test {
+	
+	static final String[] TERMS = new String[] { "count(*)", "count(val)", "sum(val)", "avg(val)",
+		"min(val)", "max(val)", "sum(dbl)", "avg(dbl)", "min(dbl)", "max(dbl)", "sum(str)" };
+	
+	/**
+	 * Mixed data set, of longs, doubles, numeric strings, and missing values
+	 */
+	static Collection<Object> dataSet(int size, long seed) {
+		Random rand = new Random(seed);
+		List<Object> ret = new ArrayList<>();
+		for (int i = 0; i < size; ++i) {
+			Map<String, Object> row = new HashMap<>();
+			if (i % 7 != 0) {
+				row.put("val", (long) (rand.nextInt(2000000) - 1000000));
+			}
+			row.put("dbl", rand.nextDouble() * 1000 - 500);
+			row.put("str", Integer.toString(rand.nextInt(100)) + ".5");
+			ret.add(row);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Asserts both results are equal, with doubles allowed to differ by rounding
+	 */
+	static void assertResultEquals(BigDecimal[] expected, BigDecimal[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; ++i) {
+			if (expected[i] == null) {
+				assertNull(actual[i]);
+				continue;
+			}
+			BigDecimal diff = expected[i].subtract(actual[i]).abs();
+			assertTrue(TERMS[i] + " : " + expected[i] + " != " + actual[i],
+				diff.compareTo(new BigDecimal("0.000001")) < 0);
+		}
+	}
+	
+	static Object roundTrip(Object obj) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(obj);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes
+			.toByteArray()))) {
+			return in.readObject();
+		}
+	}
+	
+	@Test
+	public void combinePartialTest() {
+		for (boolean exact : new boolean[] { false, true }) {
+			Aggregation agg = Aggregation.build(TERMS).exactDecimal(exact);
+			List<Object> data = new ArrayList<>(dataSet(1000, 42));
+			BigDecimal[] expected = agg.compute(data);
+			
+			MapReduceBase[] partial = agg.computePartial(data.subList(0, 300));
+			agg.combinePartial(partial, agg.computePartial(data.subList(300, 301)));
+			agg.combinePartial(partial, agg.computePartial(new ArrayList<>()));
+			agg.combinePartial(partial, agg.computePartial(data.subList(301, 1000)));
+			assertResultEquals(expected, agg.reducePartial(partial));
+			
+			for (MapReduceBase base : partial) {
+				assertEquals(exact, base.isExactDecimal());
+				assertTrue(base.isCombinable());
+			}
+		}
+	}
+	
+	@Test
+	public void emptyPartialTest() {
+		Aggregation agg = Aggregation.build(new String[] { "count(*)", "sum(val)", "max(val)" });
+		MapReduceBase[] partial = agg.computePartial(new ArrayList<>());
+		agg.combinePartial(partial, agg.computePartial(new ArrayList<>()));
+		BigDecimal[] res = agg.reducePartial(partial);
+		assertNull(res[0]);
+		assertNull(res[1]);
+		assertNull(res[2]);
+	}
+	
+	@Test
+	public void serializedPartialTest() throws Exception {
+		Aggregation agg = Aggregation.build(TERMS);
+		List<Object> data = new ArrayList<>(dataSet(500, 7));
+		
+		MapReduceBase[] first = (MapReduceBase[]) roundTrip(agg.computePartial(data.subList(0, 250)));
+		MapReduceBase[] second = (MapReduceBase[]) roundTrip(agg.computePartial(data.subList(250,
+			500)));
+		agg.combinePartial(first, second);
+		assertResultEquals(agg.compute(data), agg.reducePartial(first));
+	}
+	
+	@Test
+	public void parallelComputeTest() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (boolean exact : new boolean[] { false, true }) {
+				Aggregation agg = Aggregation.build(TERMS).exactDecimal(exact);
+				Collection<Object> data = dataSet(5000, 3);
+				assertResultEquals(agg.compute(data), agg.parallelCompute(data, 64, pool));
+				assertResultEquals(agg.compute(data), agg.parallelCompute(data));
+				
+				// Filtered values are mapped in the same pass
+				Predicate<Object> filter = Query.build("val > ?", new Object[] { 0 }).compile();
+				assertResultEquals(agg.compute(data, filter), agg.parallelCompute(data, filter, 64,
+					pool));
+			}
+			
+			// Empty data set is consistent with compute
+			Aggregation agg = Aggregation.build(new String[] { "count(*)", "sum(val)" });
+			BigDecimal[] res = agg.parallelCompute(new ArrayList<>(), 64, pool);
+			assertEquals(BigDecimal.ZERO, res[0]);
+			assertEquals(BigDecimal.ZERO, res[1]);
+			res = agg.parallelCompute(dataSet(5000, 3), (obj) -> false, 64, pool);
+			assertEquals(BigDecimal.ZERO, res[0]);
+			assertEquals(BigDecimal.ZERO, res[1]);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void primitiveMappingTest() {
+		String[] terms = new String[] { "count(v)", "sum(v)", "avg(v)", "min(v)", "max(v)",
+			"countDistinct(v)", "p50(v)" };
+		Random rand = new Random(5);
+		for (boolean exact : new boolean[] { false, true }) {
+			Aggregation agg = Aggregation.build(terms).exactDecimal(exact);
+			MapReduceBase[] boxed = agg.preparePartial();
+			MapReduceBase[] primitive = agg.preparePartial();
+			for (int i = 0; i < 2000; ++i) {
+				long l = (i % 100 == 0) ? Long.MAX_VALUE - i : rand.nextInt(2000000) - 1000000;
+				double d = (i % 100 == 1) ? Double.MAX_VALUE : rand.nextDouble() * 1000 - 500;
+				for (int t = 0; t < terms.length; ++t) {
+					boxed[t].mapValue(l);
+					boxed[t].mapValue(d);
+					primitive[t].mapLong(l);
+					primitive[t].mapDouble(d);
+				}
+			}
+			BigDecimal[] expected = agg.reducePartial(boxed);
+			BigDecimal[] actual = agg.reducePartial(primitive);
+			for (int t = 0; t < terms.length; ++t) {
+				assertEquals(terms[t] + " exact=" + exact, 0, expected[t].compareTo(actual[t]));
+			}
+		}
+	}
+	
+	/**
+	 * MapReduceBase without combine support
+	 */
+	public static class FirstValue extends MapReduceBase {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void map(BigDecimal val, Object rawVal) {
+			if (res == null) {
+				res = val;
+			}
+		}
+	}
+	
+	@Test
+	public void nonCombinableTest() {
+		FirstValue first = new FirstValue();
+		assertFalse(first.isCombinable());
+		try {
+			first.combine(new FirstValue());
+			fail("Expected combine to fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		try {
+			new Sum().combine(new Count());
+			fail("Expected combine of different class to fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		
+		// Falls back to sequential mapping, keeping the first value
+		List<Object> data = new ArrayList<>(dataSet(1000, 11));
+		MapReduceBase[] bases = new MapReduceBase[] { first, new Sum() };
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			AggregationUtils.parallelMapMapReduceBase(bases, new String[] { "dbl", "dbl" }, data, 16,
+				pool);
+		} finally {
+			pool.shutdown();
+		}
+		BigDecimal expected = new BigDecimal(((Map<?, ?>) data.get(0)).get("dbl").toString());
+		assertEquals(0, expected.compareTo(bases[0].reduce()));
+	}
+}
@@ -0,0 +1,149 @@
+package picoded.core.struct.query.mapreduce;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.Aggregation;
+
+public class QuantileDigest_test {
+	
+	/**
+	 * Exact quantile, interpolated between the closest ranks
+	 */
+	static double exactQuantile(double[] sorted, double q) {
+		double pos = q * (sorted.length - 1);
+		int lo = (int) Math.floor(pos);
+		int hi = Math.min(lo + 1, sorted.length - 1);
+		return sorted[lo] + (sorted[hi] - sorted[lo]) * (pos - lo);
+	}
+	
+	/**
+	 * Rank (fraction of values below), of the given value
+	 */
+	static double rank(double[] sorted, double val) {
+		int idx = Arrays.binarySearch(sorted, val);
+		if (idx < 0) {
+			idx = -idx - 1;
+		}
+		return idx / (double) sorted.length;
+	}
+	
+	@Test
+	public void exactTest() {
+		QuantileDigest digest = new QuantileDigest();
+		assertTrue(Double.isNaN(digest.quantile(0.5)));
+		for (int i = 4; i >= 1; --i) {
+			digest.add(i);
+		}
+		assertTrue(digest.isExact());
+		assertEquals(2.5, digest.quantile(0.5), 0.0);
+		assertEquals(1.0, digest.quantile(0), 0.0);
+		assertEquals(4.0, digest.quantile(1), 0.0);
+		assertEquals(3.85, digest.quantile(0.95), 1e-12);
+	}
+	
+	@Test
+	public void estimateTest() {
+		Random rand = new Random(7);
+		int size = 200000;
+		double[] values = new double[size];
+		QuantileDigest digest = new QuantileDigest();
+		for (int i = 0; i < size; ++i) {
+			// Skewed distribution, similar to latencies
+			values[i] = Math.exp(rand.nextGaussian());
+			digest.add(values[i]);
+		}
+		assertFalse(digest.isExact());
+		assertEquals(size, digest.count());
+		assertTrue(digest.centroidCount <= 2 * QuantileDigest.DEFAULT_COMPRESSION);
+		
+		// The estimates are within a small rank error
+		Arrays.sort(values);
+		for (double q : new double[] { 0.01, 0.25, 0.5, 0.75, 0.95, 0.99, 0.999 }) {
+			double estimate = digest.quantile(q);
+			double rankError = Math.abs(rank(values, estimate) - q);
+			assertTrue(q + " : " + estimate + " vs " + exactQuantile(values, q), rankError < 0.005);
+		}
+		assertEquals(values[0], digest.quantile(0), 0.0);
+		assertEquals(values[size - 1], digest.quantile(1), 0.0);
+	}
+	
+	@Test
+	public void mergeTest() {
+		Random rand = new Random(11);
+		int size = 100000;
+		double[] values = new double[size];
+		QuantileDigest[] parts = new QuantileDigest[] { new QuantileDigest(), new QuantileDigest(),
+			new QuantileDigest() };
+		for (int i = 0; i < size; ++i) {
+			values[i] = rand.nextDouble() * 1000;
+			// Uneven parts, including an exact part
+			parts[(i < 500) ? 2 : (i % 2)].add(values[i]);
+		}
+		assertTrue(parts[2].isExact());
+		parts[0].merge(parts[1]);
+		parts[0].merge(parts[2]);
+		assertEquals(size, parts[0].count());
+		
+		Arrays.sort(values);
+		for (double q : new double[] { 0.01, 0.5, 0.95, 0.99 }) {
+			double rankError = Math.abs(rank(values, parts[0].quantile(q)) - q);
+			assertTrue(q + " : " + rankError, rankError < 0.005);
+		}
+		
+		// Merging exact digests, is still exact
+		QuantileDigest first = new QuantileDigest();
+		QuantileDigest second = new QuantileDigest();
+		first.add(1);
+		first.add(3);
+		second.add(2);
+		second.add(4);
+		first.merge(second);
+		assertTrue(first.isExact());
+		assertEquals(2.5, first.quantile(0.5), 0.0);
+	}
+	
+	@Test
+	public void aggregationTest() {
+		List<Object> dataSet = new ArrayList<Object>();
+		for (int i = 1; i <= 100; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("num", i);
+			row.put("str", "" + i);
+			dataSet.add(row);
+		}
+		String[] terms = new String[] { "p50(num)", "p95(num)", "p99(str)", "p50(missing)" };
+		
+		BigDecimal[] res = Aggregation.build(terms).compute(dataSet);
+		assertEquals(0, new BigDecimal("50.5").compareTo(res[0]));
+		assertEquals(0, new BigDecimal("95.05").compareTo(res[1]));
+		assertEquals(0, new BigDecimal("99.01").compareTo(res[2]));
+		assertNull(res[3]);
+		
+		// Exact decimal mode, with partial results
+		Aggregation agg = Aggregation.build(terms).exactDecimal(true);
+		MapReduceBase[] partial = agg.computePartial(dataSet.subList(50, 100));
+		agg.combinePartial(partial, agg.computePartial(dataSet.subList(0, 50)));
+		BigDecimal[] exact = agg.reducePartial(partial);
+		assertEquals(0, new BigDecimal("50.5").compareTo(exact[0]));
+		assertEquals(0, new BigDecimal("95.05").compareTo(exact[1]));
+		assertEquals(0, new BigDecimal("99.01").compareTo(exact[2]));
+		
+		// Percentile of different quantiles cannot be combined
+		try {
+			new Percentile(0.5).combine(new Percentile(0.99));
+			fail("Expected combine to fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package picoded.core.struct.query.mapreduce;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import picoded.core.struct.query.Aggregation;
+
+public class SumAccumulator_test {
+	
+	@Test
+	public void longOverflowTest() {
+		SumAccumulator sum = new SumAccumulator();
+		assertTrue(sum.isEmpty());
+		assertNull(sum.toBigDecimal());
+		
+		assertTrue(sum.addNumber(Long.MAX_VALUE));
+		assertTrue(sum.addNumber(Long.MAX_VALUE));
+		assertTrue(sum.addNumber(3));
+		assertEquals(BigDecimal.valueOf(Long.MAX_VALUE).multiply(BigDecimal.valueOf(2)).add(
+			BigDecimal.valueOf(3)), sum.toBigDecimal());
+		
+		sum.reset();
+		assertTrue(sum.isEmpty());
+		assertTrue(sum.addNumber(Long.MIN_VALUE));
+		assertTrue(sum.addNumber(-1L));
+		assertEquals(BigDecimal.valueOf(Long.MIN_VALUE).subtract(BigDecimal.ONE), sum.toBigDecimal());
+	}
+	
+	@Test
+	public void mixedValuesTest() {
+		SumAccumulator sum = new SumAccumulator();
+		assertTrue(sum.addNumber(1));
+		assertTrue(sum.addNumber(2.5));
+		assertFalse(sum.addNumber(new BigDecimal("0.25")));
+		assertFalse(sum.addNumber(BigInteger.TEN));
+		assertFalse(sum.addNumber(1.5f));
+		assertFalse(sum.addNumber(Double.NaN));
+		assertFalse(sum.addNumber(Double.MAX_VALUE * 2));
+		sum.addDecimal(new BigDecimal("0.25"));
+		assertEquals(0, new BigDecimal("3.75").compareTo(sum.toBigDecimal()));
+		
+		// Double range overflow, is not added as a primitive
+		sum.reset();
+		assertTrue(sum.addNumber(Double.MAX_VALUE));
+		assertFalse(sum.addNumber(Double.MAX_VALUE));
+	}
+	
+	@Test
+	public void compensatedSumTest() {
+		SumAccumulator sum = new SumAccumulator();
+		for (int i = 0; i < 10; ++i) {
+			sum.addNumber(0.1);
+		}
+		assertEquals(0, BigDecimal.ONE.compareTo(sum.toBigDecimal()));
+	}
+	
+	/**
+	 * Random data set, with a mix of value types
+	 **/
+	protected Collection<Object> randomDataSet(int size) {
+		Random rand = new Random(5);
+		List<Object> ret = new ArrayList<Object>();
+		for (int i = 0; i < size; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("int", rand.nextInt(2000) - 1000);
+			row.put("long", rand.nextLong() / 4);
+			row.put("double", Math.round(rand.nextDouble() * 100000) / 100.0);
+			int mixed = rand.nextInt(5);
+			if (mixed == 0) {
+				row.put("mixed", "" + rand.nextInt(100));
+			} else if (mixed == 1) {
+				row.put("mixed", new BigDecimal(rand.nextInt(1000)).movePointLeft(2));
+			} else if (mixed == 2) {
+				row.put("mixed", rand.nextDouble());
+			} else if (mixed == 3) {
+				row.put("mixed", (long) rand.nextInt());
+			}
+			ret.add(row);
+		}
+		return ret;
+	}
+	
+	@Test
+	public void exactDecimalEquivalenceTest() {
+		Collection<Object> dataSet = randomDataSet(5000);
+		String[] fields = new String[] { "int", "long", "double", "mixed" };
+		String[] funcs = new String[] { "count", "sum", "avg", "min", "max" };
+		
+		for (String field : fields) {
+			for (String func : funcs) {
+				String[] terms = new String[] { func + "(" + field + ")" };
+				BigDecimal exact = Aggregation.build(terms).exactDecimal(true).compute(dataSet)[0];
+				BigDecimal primitive = Aggregation.build(terms).compute(dataSet)[0];
+				
+				// Within the documented relative tolerance, exact otherwise
+				BigDecimal diff = exact.subtract(primitive).abs();
+				BigDecimal tolerance = exact.abs().multiply(new BigDecimal("1e-14"));
+				if (field.equals("int") || field.equals("long") || func.equals("count")
+					|| func.equals("min") || func.equals("max")) {
+					tolerance = BigDecimal.ZERO;
+				}
+				assertTrue(terms[0] + " : " + exact + " vs " + primitive,
+					diff.compareTo(tolerance) <= 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package picoded.core.struct.query.utils;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import picoded.core.struct.IndexedQueryMapCollection;
+
+public class CachedCollectionQuery_test {
+	
+	IndexedQueryMapCollection<Map<String, Object>> collection = null;
+	AtomicInteger backendCalls = null;
+	CachedCollectionQuery<Map<String, Object>> cached = null;
+	
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		collection = new IndexedQueryMapCollection<>();
+		for (int i = 0; i < 20; ++i) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("num", i);
+			row.put("type", (i % 2 == 0) ? "even" : "odd");
+			collection.add(row);
+		}
+		
+		backendCalls = new AtomicInteger();
+		CollectionQueryInterface<Map<String, Object>> backend = (whereClause, whereValues,
+			orderByStr, offset, limit) -> {
+			backendCalls.incrementAndGet();
+			List<Map<String, Object>> res = collection.query(whereClause, whereValues, orderByStr,
+				offset, limit);
+			return res.toArray(new Map[0]);
+		};
+		cached = new CachedCollectionQuery<>(backend, 16, collection::modificationCount);
+	}
+	
+	@Test
+	public void cachedQuery() {
+		Map<String, Object>[] first = cached.query("type = ?", new Object[] { "even" }, "num DESC",
+			0, 3);
+		Map<String, Object>[] second = cached.query("type =  ?", new Object[] { "even" },
+			"num DESC", 0, 3);
+		assertEquals(1, backendCalls.get());
+		assertEquals(3, second.length);
+		assertEquals(18, second[0].get("num"));
+		
+		// Results are copies, of the cached result
+		assertNotSame(first, second);
+		first[0] = null;
+		assertNotNull(cached.query("type = ?", new Object[] { "even" }, "num DESC", 0, 3)[0]);
+		
+		// Query count, and the default query varients
+		assertEquals(10, cached.queryCount("type = ?", new Object[] { "odd" }));
+		assertEquals(10, cached.queryCount("type = ?", new Object[] { "odd" }));
+		assertEquals(10, cached.queryList("type = ?", new Object[] { "odd" }).size());
+		assertEquals(10, cached.queryList("type = ?", new Object[] { "odd" }).size());
+		assertEquals(3, backendCalls.get());
+		assertEquals(4, cached.cache().hitCount());
+	}
+	
+	@Test
+	public void invalidation() {
+		assertEquals(10, cached.queryCount("type = ?", new Object[] { "odd" }));
+		
+		// Collection modification
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("num", 21);
+		row.put("type", "odd");
+		collection.add(row);
+		assertEquals(11, cached.queryCount("type = ?", new Object[] { "odd" }));
+		assertEquals(2, backendCalls.get());
+		
+		// Manual field invalidation, without a modification counter
+		CachedCollectionQuery<Map<String, Object>> manual = new CachedCollectionQuery<>(cached
+			.backend(), 16);
+		assertEquals(11, manual.queryCount("type = ?", new Object[] { "odd" }));
+		assertEquals(1, manual.queryCount("num = ?", new Object[] { 21 }));
+		row.put("type", "even");
+		manual.invalidateFields("type");
+		assertEquals(10, manual.queryCount("type = ?", new Object[] { "odd" }));
+		assertEquals(1, manual.queryCount("num = ?", new Object[] { 21 }));
+		assertEquals(5, backendCalls.get());
+	}
+	
+	@Test
+	public void aggregationPassThrough() {
+		BigDecimal[] res = cached.aggregation(new String[] { "sum(num)" }, "type = ?",
+			new Object[] { "even" });
+		assertEquals(90, res[0].intValue());
+		List<Map<String, Object>> grouped = cached.aggregation(new String[] { "count(*)" },
+			new String[] { "type" }, null, null);
+		assertEquals(2, grouped.size());
+	}
+}
@@ -0,0 +1 @@
+pathname = pathname.replace(/\\/g, '/');
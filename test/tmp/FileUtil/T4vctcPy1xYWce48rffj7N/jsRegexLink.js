@@ -0,0 +1 @@
+/root/project/./test/FileUtil/jsRegex.js
\ No newline at end of file